@@ -0,0 +1,216 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the {@link HotPathBenchmarks} in a set of scenarios and writes the
+ * results as CSV lines (with a header) to the standard output and,
+ * optionally, appends them to a file. Must be started in the simulator's
+ * directory. Usage:
+ * <PRE>
+ * java benchmark.BenchmarkRunner [-o file] [-s scenario,...] [-w warmups]
+ *   [-i iterations] [-t seconds] [benchmark-name-prefix ...]
+ * </PRE>
+ * Every benchmark is run for the given number of warmup iterations and
+ * then for the given number of measured iterations, each lasting the given
+ * number of seconds. The results are the mean and standard deviation of
+ * the iterations' throughput.
+ */
+public class BenchmarkRunner {
+	/** CSV header of the results */
+	public static final String HEADER = "benchmark,scenario,nodes," +
+			"iterations,ops_per_s,ops_per_s_sd,ns_per_op";
+
+	/** default number of warmup iterations */
+	public static final int DEF_WARMUPS = 3;
+	/** default number of measured iterations */
+	public static final int DEF_ITERATIONS = 5;
+	/** default length of an iteration (seconds) */
+	public static final double DEF_ITERATION_TIME = 1.0;
+
+	/** the bundled scenarios */
+	public static final BenchmarkScenario[] SCENARIOS = {
+		new BenchmarkScenario("haggle", "HaggleEpidemicALL_settings.txt",
+				null, "Haggle3-Infocom5.csv", -1, 25000),
+		new BenchmarkScenario("ee100", "RandomEpidemicALL_settings.txt",
+				"ee/70_events_100_nodes_700ks.txt",
+				"ee/70_events_100_nodes_700ks.txt", 100, 10),
+		new BenchmarkScenario("ee500", "RandomEpidemicALL_settings.txt",
+				"ee/350_events_500_nodes_700ks.txt",
+				"ee/350_events_500_nodes_700ks.txt", 500, 10),
+		new BenchmarkScenario("ee1000", "RandomEpidemicALL_settings.txt",
+				"ee/700_events_1000_nodes_700ks.txt",
+				"ee/700_events_1000_nodes_700ks.txt", 1000, 10),
+		new BenchmarkScenario("ee2000", "RandomEpidemicALL_settings.txt",
+				"ee/1400_events_2000_nodes_700ks.txt",
+				"ee/1400_events_2000_nodes_700ks.txt", 2000, 10),
+		new BenchmarkScenario("helsinki", "default_settings.txt",
+				null, null, -1, 10)
+	};
+
+	/** sink for the values returned by the operations */
+	public static volatile long sink;
+
+	private int warmups = DEF_WARMUPS;
+	private int iterations = DEF_ITERATIONS;
+	private double iterationTime = DEF_ITERATION_TIME;
+
+	/**
+	 * Starts the benchmarks
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) {
+		java.util.Locale.setDefault(java.util.Locale.US);
+		BenchmarkRunner runner = new BenchmarkRunner();
+		String outFile = null;
+		List<String> scenarios = null;
+		List<String> names = new ArrayList<String>();
+
+		for (int i=0; i < args.length; i++) {
+			if (args[i].equals("-o")) {
+				outFile = args[++i];
+			} else if (args[i].equals("-s")) {
+				scenarios = Arrays.asList(args[++i].split(","));
+			} else if (args[i].equals("-w")) {
+				runner.warmups = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-i")) {
+				runner.iterations = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-t")) {
+				runner.iterationTime = Double.parseDouble(args[++i]);
+			} else {
+				names.add(args[i]);
+			}
+		}
+
+		PrintWriter out = null;
+		try {
+			if (outFile != null) {
+				File f = new File(outFile);
+				boolean newFile = !f.exists() || f.length() == 0;
+				out = new PrintWriter(new FileWriter(f, true));
+				if (newFile) {
+					out.println(HEADER);
+				}
+			}
+			System.out.println(HEADER);
+
+			for (BenchmarkScenario s : SCENARIOS) {
+				if (scenarios != null && !scenarios.contains(s.getName())) {
+					continue;
+				}
+				for (SimBenchmark b : HotPathBenchmarks.all()) {
+					if (!matches(b.getName(), names)) {
+						continue;
+					}
+					String result = runner.run(b, s);
+					if (result == null) {
+						continue; // not applicable to the scenario
+					}
+					System.out.println(result);
+					if (out != null) {
+						out.println(result);
+						out.flush();
+					}
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Can't write results: " + e);
+			System.exit(-1);
+		} finally {
+			if (out != null) {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the name starts with any of the prefixes or if there
+	 * are no prefixes
+	 */
+	private static boolean matches(String name, List<String> prefixes) {
+		if (prefixes.isEmpty()) {
+			return true;
+		}
+		for (String p : prefixes) {
+			if (name.startsWith(p)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Sets up and runs a benchmark in a scenario
+	 * @param b The benchmark
+	 * @param s The scenario
+	 * @return The result as a CSV line or null if the benchmark can't be
+	 * run in the scenario
+	 */
+	public String run(SimBenchmark b, BenchmarkScenario s) {
+		if (!b.setUp(s)) {
+			return null;
+		}
+
+		for (int i=0; i < this.warmups; i++) {
+			runIteration(b);
+		}
+		double[] samples = new double[this.iterations];
+		double sum = 0;
+		for (int i=0; i < this.iterations; i++) {
+			samples[i] = runIteration(b);
+			sum += samples[i];
+		}
+		double mean = sum / this.iterations;
+		double var = 0;
+		for (double x : samples) {
+			var += (x - mean) * (x - mean);
+		}
+		double sd = this.iterations > 1 ?
+				Math.sqrt(var / (this.iterations - 1)) : 0;
+
+		return String.format("%s,%s,%d,%d,%.3f,%.3f,%.1f", b.getName(),
+				s.getName(), s.getNrofHosts(), this.iterations, mean, sd,
+				1e9 / mean);
+	}
+
+	/**
+	 * Runs the operation of the benchmark for one iteration. The operation
+	 * is called in batches whose size grows until a batch takes at least
+	 * a millisecond, so the timer calls don't dominate fast operations.
+	 * @param b The benchmark
+	 * @return Throughput of the iteration (operations per second)
+	 */
+	private double runIteration(SimBenchmark b) {
+		long budget = (long)(this.iterationTime * 1e9);
+		long ops = 0;
+		long elapsed = 0;
+		long batch = 1;
+		long acc = 0;
+
+		while (elapsed < budget) {
+			long start = System.nanoTime();
+			for (long i=0; i < batch; i++) {
+				acc += b.op();
+			}
+			long duration = System.nanoTime() - start;
+			elapsed += duration;
+			ops += batch;
+			if (duration < 1000000) {
+				batch *= 2;
+			}
+		}
+		sink = acc;
+
+		return ops / (elapsed / 1e9);
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package benchmark;
+
+import java.util.List;
+
+import core.DTNHost;
+import core.DTNSim;
+import core.Settings;
+import core.SimClock;
+import core.SimScenario;
+import core.World;
+
+/**
+ * A simulation scenario for benchmarks. The scenario is built from one of
+ * the bundled settings files, optionally with a different number of hosts
+ * and with messages created from an external events file. Reports are
+ * not created.
+ */
+public class BenchmarkScenario {
+	private String name;
+	private String settingsFile;
+	private String eventsFile;
+	private String traceFile;
+	private int nrofHosts;
+	private double warmupTime;
+	private World world;
+
+	/**
+	 * Creates a new scenario definition.
+	 * @param name Name of the scenario in the results
+	 * @param settingsFile The settings file to build the scenario from
+	 * @param eventsFile External events file that replaces the event
+	 * generators of the settings file or null to keep them
+	 * @param traceFile The biggest external events file the scenario uses
+	 * @param nrofHosts Number of hosts in the (only) host group or -1 to use
+	 * the value of the settings file
+	 * @param warmupTime Simulation time after which the hosts have
+	 * connections and messages
+	 */
+	public BenchmarkScenario(String name, String settingsFile,
+			String eventsFile, String traceFile, int nrofHosts,
+			double warmupTime) {
+		this.name = name;
+		this.settingsFile = settingsFile;
+		this.eventsFile = eventsFile;
+		this.traceFile = traceFile;
+		this.nrofHosts = nrofHosts;
+		this.warmupTime = warmupTime;
+	}
+
+	/**
+	 * (Re)builds the scenario. The static state of the simulator is reset
+	 * first, so the previously built world must not be used after this.
+	 * @param overrides Setting names and values (as pairs) that override
+	 * the values of the settings file
+	 * @return The new world
+	 */
+	public World build(String... overrides) {
+		DTNSim.resetForNextRun();
+		Settings.init(this.settingsFile);
+		Settings.setRunIndex(0);
+		Settings.setSetting("MovementModel.warmup", "0");
+		if (this.nrofHosts > 0) {
+			Settings.setSetting("Group.nrofHosts", "" + this.nrofHosts);
+		}
+		if (this.eventsFile != null) {
+			Settings.setSetting("Events.nrof", "1");
+			Settings.setSetting("Events1.filePath", this.eventsFile);
+		}
+		for (int i=0; i < overrides.length - 1; i += 2) {
+			Settings.setSetting(overrides[i], overrides[i+1]);
+		}
+
+		this.world = SimScenario.getInstance().getWorld();
+		this.world.warmupMovementModel(0);
+		return this.world;
+	}
+
+	/**
+	 * Updates the world until the simulation time has reached the warmup
+	 * time of the scenario
+	 */
+	public void warmUp() {
+		while (SimClock.getTime() < this.warmupTime) {
+			this.world.update();
+		}
+	}
+
+	/**
+	 * Returns the world of the latest {@link #build(String...)}
+	 */
+	public World getWorld() {
+		return this.world;
+	}
+
+	/**
+	 * Returns the hosts of the latest {@link #build(String...)}
+	 */
+	public List<DTNHost> getHosts() {
+		return this.world.getHosts();
+	}
+
+	/**
+	 * Returns the name of the scenario
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Returns the path of the biggest external events file of the scenario
+	 */
+	public String getTraceFile() {
+		return this.traceFile;
+	}
+
+	/**
+	 * Returns the number of hosts or -1 if it is defined by the settings
+	 * file and the scenario hasn't been built
+	 */
+	public int getNrofHosts() {
+		if (this.world != null) {
+			return this.world.getHosts().size();
+		}
+		return this.nrofHosts;
+	}
+}
@@ -0,0 +1,491 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package benchmark;
+
+import input.ColumnarEventsReader;
+import input.ExternalEvent;
+import input.StandardEventsReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import movement.MapBasedMovement;
+import movement.MovementModel;
+import movement.map.DijkstraPathFinder;
+import movement.map.MapNode;
+import routing.ActiveRouter;
+import routing.Epidemic_IQLCC;
+import routing.MessageRouter;
+import core.Connection;
+import core.DTNHost;
+import core.Message;
+import core.NetworkInterface;
+import core.SimClock;
+import core.SimError;
+import core.World;
+import interfaces.CompactConnectivityGrid;
+import interfaces.ConnectivityGrid;
+import interfaces.ConnectivityOptimizer;
+import interfaces.ConnectivityOptimizer.NearInterfaceVisitor;
+
+/**
+ * Benchmarks for the simulator's hot paths.
+ */
+public class HotPathBenchmarks {
+	/** size of the messages the benchmarks create */
+	private static final int MSG_SIZE = 50000;
+
+	/**
+	 * Returns all the benchmarks
+	 */
+	public static List<SimBenchmark> all() {
+		List<SimBenchmark> list = new ArrayList<SimBenchmark>();
+		list.add(new WorldUpdate());
+		list.add(new NearInterfaces());
+		list.add(new VisitNearInterfaces(false));
+		list.add(new VisitNearInterfaces(true));
+		list.add(new TryAllMessages(false));
+		list.add(new TryAllMessages(true));
+		list.add(new Replicate());
+		list.add(new MakeRoom("oldest", -1));
+		list.add(new MakeRoom("rate", Epidemic_IQLCC.Q_MODE_RATE));
+		list.add(new MakeRoom("reps", Epidemic_IQLCC.Q_MODE_REPS));
+		list.add(new MakeRoom("ttl", Epidemic_IQLCC.Q_MODE_TTL));
+		list.add(new ShortestPath());
+		list.add(new ReadEvents());
+		list.add(new ReadColumnarEvents());
+		return list;
+	}
+
+	/**
+	 * One {@link World#update()}
+	 */
+	public static class WorldUpdate extends SimBenchmark {
+		private World world;
+
+		public String getName() {
+			return "World.update";
+		}
+
+		public boolean setUp(BenchmarkScenario scenario) {
+			this.world = scenario.build();
+			scenario.warmUp();
+			return true;
+		}
+
+		public long op() {
+			this.world.update();
+			return SimClock.getIntTime();
+		}
+	}
+
+	/**
+	 * One {@link ConnectivityGrid#getNearInterfaces(NetworkInterface)} query
+	 * (for each host's first interface in turn)
+	 */
+	public static class NearInterfaces extends SimBenchmark {
+		private NetworkInterface[] interfaces;
+		private ConnectivityGrid grid;
+		private int next;
+
+		public String getName() {
+			return "ConnectivityGrid.getNearInterfaces";
+		}
+
+		public boolean setUp(BenchmarkScenario scenario) {
+			scenario.build();
+			scenario.warmUp();
+			List<DTNHost> hosts = scenario.getHosts();
+			NetworkInterface first = hosts.get(0).getInterfaces().get(0);
+			this.grid = ConnectivityGrid.ConnectivityGridFactory(
+					first.getInterfaceType().hashCode(),
+					first.getTransmitRange());
+			List<NetworkInterface> list = new ArrayList<NetworkInterface>();
+			for (DTNHost h : hosts) {
+				NetworkInterface ni = h.getInterfaces().get(0);
+				if (ni.getInterfaceType().equals(first.getInterfaceType())) {
+					list.add(ni);
+				}
+			}
+			this.interfaces = list.toArray(new NetworkInterface[0]);
+			this.next = 0;
+			return true;
+		}
+
+		public long op() {
+			NetworkInterface ni = this.interfaces[this.next];
+			this.next = (this.next + 1) % this.interfaces.length;
+			return this.grid.getNearInterfaces(ni).size();
+		}
+	}
+
+	/**
+	 * One {@link ConnectivityOptimizer#visitNearInterfaces(NetworkInterface,
+	 * NearInterfaceVisitor)} query (for each host's first interface in turn)
+	 * using either a {@link ConnectivityGrid} or a
+	 * {@link CompactConnectivityGrid}
+	 */
+	public static class VisitNearInterfaces extends SimBenchmark {
+		private boolean compact;
+		private NetworkInterface[] interfaces;
+		private ConnectivityOptimizer optimizer;
+		private int next;
+		private int count;
+		private NearInterfaceVisitor counter = new NearInterfaceVisitor() {
+			public void visit(NetworkInterface ni) {
+				count++;
+			}
+		};
+
+		/**
+		 * Creates a benchmark for one of the grids
+		 * @param compact Use the compact grid
+		 */
+		public VisitNearInterfaces(boolean compact) {
+			this.compact = compact;
+		}
+
+		public String getName() {
+			return (compact ? "CompactConnectivityGrid" : "ConnectivityGrid") +
+				".visitNearInterfaces";
+		}
+
+		public boolean setUp(BenchmarkScenario scenario) {
+			scenario.build(World.SETTINGS_NS + "." + World.COMPACT_GRID_S,
+					"" + this.compact);
+			scenario.warmUp();
+			List<DTNHost> hosts = scenario.getHosts();
+			NetworkInterface first = hosts.get(0).getInterfaces().get(0);
+			this.optimizer = first.getOptimizer();
+			List<NetworkInterface> list = new ArrayList<NetworkInterface>();
+			for (DTNHost h : hosts) {
+				NetworkInterface ni = h.getInterfaces().get(0);
+				if (ni.getOptimizer() == this.optimizer) {
+					list.add(ni);
+				}
+			}
+			this.interfaces = list.toArray(new NetworkInterface[0]);
+			this.next = 0;
+			return true;
+		}
+
+		public long op() {
+			NetworkInterface ni = this.interfaces[this.next];
+			this.next = (this.next + 1) % this.interfaces.length;
+			this.count = 0;
+			this.optimizer.visitNearInterfaces(ni, this.counter);
+			return this.count;
+		}
+	}
+
+	/**
+	 * One ActiveRouter.tryAllMessagesToAllConnections() call of an
+	 * EpidemicRouter (for each connected host in turn). A transfer that
+	 * is started is aborted right away so that the state stays the same.
+	 * If the messages are known, all the hosts carry the same message IDs
+	 * so the peers have every message already.
+	 */
+	public static class TryAllMessages extends SimBenchmark {
+		private static final int MSGS_PER_HOST = 50;
+		private boolean known;
+		private ActiveRouter[] routers;
+		private Method tryAll;
+		private int next;
+
+		public TryAllMessages(boolean known) {
+			this.known = known;
+		}
+
+		public String getName() {
+			return "ActiveRouter.tryAllMessagesToAllConnections" +
+				(known ? " (known)" : "");
+		}
+
+		public boolean setUp(BenchmarkScenario scenario) {
+			scenario.build("Group.router", "EpidemicRouter",
+					"Group.bufferSize", "500M");
+			scenario.warmUp();
+
+			List<DTNHost> hosts = scenario.getHosts();
+			Random rng = new Random(1);
+			for (DTNHost h : hosts) {
+				for (int i=0; i < MSGS_PER_HOST; i++) {
+					DTNHost to = hosts.get(rng.nextInt(hosts.size()));
+					if (to != h) {
+						String id = (known ? "B" : "B" + h.getAddress()) +
+							"_" + i;
+						h.createNewMessage(new Message(h, to, id, MSG_SIZE));
+					}
+				}
+			}
+
+			List<ActiveRouter> connected = new ArrayList<ActiveRouter>();
+			for (DTNHost h : hosts) {
+				if (h.getConnections().size() > 0) {
+					connected.add((ActiveRouter)h.getRouter());
+				}
+			}
+			if (connected.size() == 0) {
+				return false;
+			}
+			this.routers = connected.toArray(new ActiveRouter[0]);
+			this.tryAll = method(ActiveRouter.class,
+					"tryAllMessagesToAllConnections");
+			this.next = 0;
+			return true;
+		}
+
+		public long op() {
+			ActiveRouter r = this.routers[this.next];
+			this.next = (this.next + 1) % this.routers.length;
+
+			Connection con = (Connection)invoke(this.tryAll, r);
+			if (con == null) {
+				return 0;
+			}
+			if (con.getMessage() != null) {
+				con.abortTransfer();
+			}
+			((List<?>)field(ActiveRouter.class, "sendingConnections", r)).clear();
+			return 1;
+		}
+	}
+
+	/**
+	 * One Epidemic_IQLCC.makeRoomForMessage() call (that drops one message
+	 * from a full buffer of the first host) using one of the drop modes.
+	 * The dropped message is replaced with a new one after the call.
+	 */
+	public static class MakeRoom extends SimBenchmark {
+		private static final int NROF_MSGS = 1000;
+		private String modeName;
+		private int mode;
+		private Epidemic_IQLCC router;
+		private DTNHost[] hosts;
+		private Method makeRoom;
+		private Method addToMessages;
+		private Random rng;
+		private int nextId;
+
+		/**
+		 * Creates a benchmark for a drop mode
+		 * @param modeName Name of the mode in the results
+		 * @param mode The delete queue mode or -1 for dropping by the oldest
+		 * receiving time
+		 */
+		public MakeRoom(String modeName, int mode) {
+			this.modeName = modeName;
+			this.mode = mode;
+		}
+
+		public String getName() {
+			return "Epidemic_IQLCC.makeRoomForMessage[" + modeName + "]";
+		}
+
+		public boolean setUp(BenchmarkScenario scenario) {
+			scenario.build("Group.bufferSize", "" + NROF_MSGS * MSG_SIZE);
+			this.hosts = scenario.getHosts().toArray(new DTNHost[0]);
+			MessageRouter r = this.hosts[0].getRouter();
+			if (!(r instanceof Epidemic_IQLCC)) {
+				return false;
+			}
+			this.router = (Epidemic_IQLCC)r;
+			this.router.dropByOldestReceivingTime = (this.mode < 0);
+			this.router.deleteQueueMode = Math.max(this.mode, 0);
+			this.makeRoom = method(Epidemic_IQLCC.class, "makeRoomForMessage",
+					int.class);
+			this.addToMessages = method(Epidemic_IQLCC.class, "addToMessages",
+					Message.class, boolean.class);
+			this.rng = new Random(1);
+			this.nextId = 0;
+
+			while (this.router.getFreeBufferSize() >= MSG_SIZE) {
+				addMessage();
+			}
+			return true;
+		}
+
+		public long op() {
+			invoke(this.makeRoom, this.router, MSG_SIZE);
+			addMessage();
+			return this.router.getNrofMessages();
+		}
+
+		/**
+		 * Adds a new message with random properties to the buffer
+		 */
+		private void addMessage() {
+			DTNHost from = this.hosts[0];
+			DTNHost to = this.hosts[1 + rng.nextInt(this.hosts.length - 1)];
+			Message m = new Message(from, to, "B" + this.nextId, MSG_SIZE);
+			m.setTtl(60 + rng.nextInt(1380));
+			m.setReceiveTime(this.nextId++);
+			m.setNrofCopies(1 + rng.nextInt(10));
+			for (int i=0, n=rng.nextInt(4); i < n; i++) {
+				m.addNodeOnPath(this.hosts[rng.nextInt(this.hosts.length)]);
+			}
+			invoke(this.addToMessages, this.router, m, false);
+		}
+	}
+
+	/**
+	 * One {@link Message#replicate()} of a message that has passed several
+	 * hosts and has properties, and adding the receiver on the replicate's
+	 * path (what a transfer does)
+	 */
+	public static class Replicate extends SimBenchmark {
+		private static final int NROF_HOPS = 8;
+		private Message msg;
+		private DTNHost[] hosts;
+		private int next;
+
+		public String getName() {
+			return "Message.replicate";
+		}
+
+		public boolean setUp(BenchmarkScenario scenario) {
+			scenario.build();
+			List<DTNHost> all = scenario.getHosts();
+			if (all.size() < 2) {
+				return false;
+			}
+			this.hosts = all.toArray(new DTNHost[all.size()]);
+			this.msg = new Message(hosts[0], hosts[1], "R", MSG_SIZE);
+			this.msg.setTtl(1440);
+			this.msg.setNrofCopies(1);
+			this.msg.addProperty("benchmark", "value");
+			for (int i=0; i < NROF_HOPS; i++) {
+				this.msg.addNodeOnPath(hosts[i % hosts.length]);
+			}
+			this.next = 0;
+			return true;
+		}
+
+		public long op() {
+			Message m = this.msg.replicate();
+			m.addNodeOnPath(this.hosts[next++ % this.hosts.length]);
+			return m.getHopCount();
+		}
+	}
+
+	/**
+	 * One {@link DijkstraPathFinder#getShortestPath(MapNode, MapNode)}
+	 * query between random nodes of the scenario's map
+	 */
+	public static class ShortestPath extends SimBenchmark {
+		private DijkstraPathFinder pathFinder;
+		private List<MapNode> nodes;
+		private Random rng;
+
+		public String getName() {
+			return "DijkstraPathFinder.getShortestPath";
+		}
+
+		public boolean setUp(BenchmarkScenario scenario) {
+			scenario.build();
+			this.nodes = null;
+			for (DTNHost h : scenario.getHosts()) {
+				MovementModel mm = (MovementModel)field(DTNHost.class,
+						"movement", h);
+				if (mm instanceof MapBasedMovement) {
+					this.nodes = ((MapBasedMovement)mm).getMap().getNodes();
+					break;
+				}
+			}
+			if (this.nodes == null) {
+				return false;
+			}
+			this.pathFinder = new DijkstraPathFinder(null);
+			this.rng = new Random(1);
+			return true;
+		}
+
+		public long op() {
+			MapNode from = this.nodes.get(rng.nextInt(this.nodes.size()));
+			MapNode to = this.nodes.get(rng.nextInt(this.nodes.size()));
+			return this.pathFinder.getShortestPath(from, to).size();
+		}
+	}
+
+	/**
+	 * Reading all the events of the scenario's external events file with
+	 * {@link StandardEventsReader#readEvents(int)}
+	 */
+	public static class ReadEvents extends SimBenchmark {
+		private static final int CHUNK_SIZE = 500;
+		private File file;
+
+		public String getName() {
+			return "StandardEventsReader.readEvents";
+		}
+
+		public boolean setUp(BenchmarkScenario scenario) {
+			if (scenario.getTraceFile() == null) {
+				return false;
+			}
+			this.file = new File(scenario.getTraceFile());
+			return true;
+		}
+
+		public long op() {
+			StandardEventsReader reader = new StandardEventsReader(this.file);
+			long count = 0;
+			List<ExternalEvent> events;
+			do {
+				events = reader.readEvents(CHUNK_SIZE);
+				count += events.size();
+			} while (events.size() > 0);
+			reader.close();
+			return count;
+		}
+	}
+
+	/**
+	 * Reading all the events of the scenario's external events file with
+	 * {@link ColumnarEventsReader#readEvents(int)} (the file is converted
+	 * to the columnar format in the set up)
+	 */
+	public static class ReadColumnarEvents extends SimBenchmark {
+		private static final int CHUNK_SIZE = 500;
+		private File file;
+
+		public String getName() {
+			return "ColumnarEventsReader.readEvents";
+		}
+
+		public boolean setUp(BenchmarkScenario scenario) {
+			if (scenario.getTraceFile() == null) {
+				return false;
+			}
+			try {
+				this.file = File.createTempFile("bench",
+						ColumnarEventsReader.COLUMNAR_EXT);
+				this.file.deleteOnExit();
+				ColumnarEventsReader.storeToColumnarFile(
+						this.file.getAbsolutePath(), new StandardEventsReader(
+								new File(scenario.getTraceFile())));
+			} catch (IOException e) {
+				throw new SimError(e);
+			}
+			return true;
+		}
+
+		public long op() {
+			ColumnarEventsReader reader = new ColumnarEventsReader(this.file);
+			long count = 0;
+			List<ExternalEvent> events;
+			do {
+				events = reader.readEvents(CHUNK_SIZE);
+				count += events.size();
+			} while (events.size() > 0);
+			reader.close();
+			return count;
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package benchmark;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import core.SimError;
+
+/**
+ * Superclass of the benchmarks. A benchmark is set up once per scenario
+ * and then its operation is invoked repeatedly by {@link BenchmarkRunner}.
+ */
+public abstract class SimBenchmark {
+
+	/**
+	 * Returns the name of the benchmark in the results
+	 */
+	public abstract String getName();
+
+	/**
+	 * Sets up the benchmark for a scenario.
+	 * @param scenario The scenario to set up for
+	 * @return False if the benchmark can't be run in the scenario
+	 */
+	public abstract boolean setUp(BenchmarkScenario scenario);
+
+	/**
+	 * Performs one operation of the benchmark
+	 * @return A value computed by the operation (to keep the JIT from
+	 * removing the work)
+	 */
+	public abstract long op();
+
+	/**
+	 * Returns a (possibly non-public) method of a class or its superclasses
+	 * and makes it accessible
+	 * @param c The class to start looking the method from
+	 * @param name Name of the method
+	 * @param params Parameter types of the method
+	 * @return The method
+	 */
+	protected static Method method(Class<?> c, String name,
+			Class<?>... params) {
+		for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+			try {
+				Method m = k.getDeclaredMethod(name, params);
+				m.setAccessible(true);
+				return m;
+			} catch (NoSuchMethodException e) {
+				/* try the superclass */
+			}
+		}
+		throw new SimError("No method " + name + " in " + c);
+	}
+
+	/**
+	 * Returns the value of a (possibly non-public) field
+	 * @param c The class that declares the field
+	 * @param name Name of the field
+	 * @param o The object whose field is read
+	 * @return The value of the field
+	 */
+	protected static Object field(Class<?> c, String name, Object o) {
+		try {
+			Field f = c.getDeclaredField(name);
+			f.setAccessible(true);
+			return f.get(o);
+		} catch (Exception e) {
+			throw new SimError(e);
+		}
+	}
+
+	/**
+	 * Invokes a method and wraps checked exceptions to SimErrors
+	 * @param m The method to invoke
+	 * @param o The object to invoke the method on
+	 * @param args The arguments of the method
+	 * @return The return value of the method
+	 */
+	protected static Object invoke(Method m, Object o, Object... args) {
+		try {
+			return m.invoke(o, args);
+		} catch (IllegalAccessException e) {
+			throw new SimError(e);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			}
+			throw new SimError(e);
+		}
+	}
+}
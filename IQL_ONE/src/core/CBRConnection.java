@@ -78,7 +78,20 @@ public class CBRConnection extends Connection {
 	public double getTransferDoneTime() {
 		return transferDoneTime;
 	}
-	
+
+	/**
+	 * Returns the earliest time when the remaining byte count of the ongoing
+	 * transfer rounds down to zero, or the current time if there's no
+	 * ongoing transfer.
+	 */
+	@Override
+	public double getTransferReadyTime() {
+		if (msgOnFly == null) {
+			return SimClock.getTime();
+		}
+		return this.transferDoneTime - 1.0 / this.speed;
+	}
+
 	/**
 	 * Returns true if the current message transfer is done.
 	 * @return True if the transfer is done, false if not
@@ -138,6 +138,18 @@ public abstract class Connection {
 	 */
 	public abstract boolean isMessageTransferred();
 
+	/**
+	 * Returns the earliest simulation time when
+	 * {@link #isMessageTransferred()} may return true. The default
+	 * implementation returns the current time, i.e., the transfer has to be
+	 * checked on every update. Connections whose transfer progress depends
+	 * only on the simulation time can give a better estimate.
+	 * @return The earliest time when the ongoing transfer may be done
+	 */
+	public double getTransferReadyTime() {
+		return SimClock.getTime();
+	}
+
 	/**
 	 * Returns true if the connection is ready to transfer a message (connection
 	 * is up and there is no message being transferred).
@@ -6,6 +6,7 @@ package core;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import movement.MovementModel;
@@ -32,6 +33,9 @@ public class DTNHost implements Comparable<DTNHost> {
 	private List<MessageListener> msgListeners;
 	private List<MovementListener> movListeners;
 	private List<NetworkInterface> net;
+	/** read-only view of the connections of all the interfaces or null
+	 * if the connections have changed since the view was created */
+	private List<Connection> connectionsView;
 	private ModuleCommunicationBus comBus;
 
 	static {
@@ -158,17 +162,31 @@ public class DTNHost implements Comparable<DTNHost> {
 	}
 
 	/**
-	 * Returns a copy of the list of connections this host has with other hosts
-	 * @return a copy of the list of connections this host has with other hosts
+	 * Returns a read-only list of connections this host has with other hosts.
+	 * The list is a snapshot that is not changed when connections go up or
+	 * down; a new list is returned after such changes.
+	 * @return a read-only list of connections this host has with other hosts
 	 */
 	public List<Connection> getConnections() {
-		List<Connection> lc = new ArrayList<Connection>();
+		if (this.connectionsView == null) {
+			List<Connection> lc = new ArrayList<Connection>();
 
-		for (NetworkInterface i : net) {
-			lc.addAll(i.getConnections());
+			for (NetworkInterface i : net) {
+				lc.addAll(i.getConnections());
+			}
+			this.connectionsView = Collections.unmodifiableList(lc);
 		}
 
-		return lc;
+		return this.connectionsView;
+	}
+
+	/**
+	 * Tells the host that the connections of some of its interfaces have
+	 * changed so the next {@link #getConnections()} call must create a new
+	 * list.
+	 */
+	void connectionsChanged() {
+		this.connectionsView = null;
 	}
 
 	/**
@@ -336,39 +354,88 @@ public class DTNHost implements Comparable<DTNHost> {
 	 * @param timeIncrement How long time the node moves
 	 */
 	public void move(double timeIncrement) {		
+		if (startMove(timeIncrement)) {
+			finishMove(timeIncrement);
+		}
+	}	
+
+	/**
+	 * Returns the simulation time before which {@link #move(double)}
+	 * doesn't move this node (a time in the past if the node is moving)
+	 * @return The time
+	 */
+	double getNextTimeToMove() {
+		return this.nextTimeToMove;
+	}
+
+	/**
+	 * Does the part of {@link #move(double)} that may need new waypoints
+	 * (i.e., that uses the movement model). If the node won't reach its
+	 * current destination during the move, the node is not moved but true
+	 * is returned and the move must be completed with 
+	 * {@link #finishMove(double)}. That part only changes the location of
+	 * this node, so it can be done for several nodes in parallel.
+	 * @param timeIncrement How long time the node moves
+	 * @return True if the move still needs to be finished
+	 */
+	boolean startMove(double timeIncrement) {
 		double possibleMovement;
 		double distance;
-		double dx, dy;
 
 		if (!isActive() || SimClock.getTime() < this.nextTimeToMove) {
-			return; 
+			return false; 
 		}
 		if (this.destination == null) {
 			if (!setNextWaypoint()) {
-				return;
+				return false;
 			}
 		}
 
 		possibleMovement = timeIncrement * speed;
 		distance = this.location.distance(this.destination);
 
+		if (possibleMovement < distance) {
+			return true; // moving towards the current destination is enough
+		}
+
 		while (possibleMovement >= distance) {
 			// node can move past its next destination
 			this.location.setLocation(this.destination); // snap to destination
 			possibleMovement -= distance;
 			if (!setNextWaypoint()) { // get a new waypoint
-				return; // no more waypoints left
+				return false; // no more waypoints left
 			}
 			distance = this.location.distance(this.destination);
 		}
 
+		moveTowardsDestination(possibleMovement, distance);
+		return false;
+	}
+
+	/**
+	 * Finishes a move started with {@link #startMove(double)} by moving the
+	 * node towards its current destination
+	 * @param timeIncrement How long time the node moves
+	 */
+	void finishMove(double timeIncrement) {
+		moveTowardsDestination(timeIncrement * speed, 
+				this.location.distance(this.destination));
+	}
+
+	/**
+	 * Moves the node towards its destination
+	 * @param possibleMovement How much the node moves
+	 * @param distance Distance to the destination
+	 */
+	private void moveTowardsDestination(double possibleMovement, 
+			double distance) {
 		// move towards the point for possibleMovement amount
-		dx = (possibleMovement/distance) * (this.destination.getX() -
+		double dx = (possibleMovement/distance) * (this.destination.getX() -
 				this.location.getX());
-		dy = (possibleMovement/distance) * (this.destination.getY() -
+		double dy = (possibleMovement/distance) * (this.destination.getY() -
 				this.location.getY());
 		this.location.translate(dx, dy);
-	}	
+	}
 
 	/**
 	 * Sets the next destination and speed to correspond the next waypoint
@@ -5,11 +5,23 @@
 package core;
 import gui.DTNSimGUI;
 
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import report.Report;
 import ui.DTNSimTextUI;
+import ui.DTNSimUI;
 
 /**
  * Simulator's main class 
@@ -20,6 +32,15 @@ public class DTNSim {
 	public static final String BATCH_MODE_FLAG = "-b";
 	/** Delimiter for batch mode index range values (colon) */
 	public static final String RANGE_DELIMETER = ":";
+	/** If this option ({@value}) follows the batch mode run count, the
+	 * runs are performed in parallel. The option must be followed by the
+	 * number of threads to use (0 = number of available processors). */
+	public static final String PARALLEL_FLAG = "-p";
+	/** Prefix of the per-run report directories in parallel batch mode.
+	 * The reports of a run are written to a subdirectory of
+	 * Report.reportDir, and the reports with their own output file to a
+	 * subdirectory of the output file's directory. */
+	public static final String RUN_DIR_PREFIX = "run";
 	
 	/** Name of the static method that all resettable classes must have
 	 * @see #registerForReset(String) */
@@ -37,10 +58,13 @@ public class DTNSim {
 	 * {@link Settings#setRunIndex(int)}). Following arguments are the settings 
 	 * files for the simulation run (if any). For GUI mode, the number before 
 	 * settings files (if given) is the run index to use for that run.
+	 * In batch mode, the run count may be followed by {@link #PARALLEL_FLAG}
+	 * and the number of threads to perform the runs in parallel.
 	 * @param args Command line arguments
 	 */
 	public static void main(String[] args) {
 		boolean batchMode = false;
+		int nrofThreads = -1;
 		int nrofRuns[] = {0,1};
 		String confFiles[];
 		int firstConfIndex = 0;
@@ -59,6 +83,10 @@ public class DTNSim {
                     nrofRuns = parseNrofRuns(args[1]);
                     firstConfIndex = 2;
                 }
+				if (args.length > 3 && args[2].equals(PARALLEL_FLAG)) {
+					nrofThreads = parseNrofThreads(args[3]);
+					firstConfIndex = 4;
+				}
 			}
 			else { /* GUI mode */				
 				try { /* is there a run index for the GUI mode ? */
@@ -78,11 +106,16 @@ public class DTNSim {
 		
 		if (batchMode) {
 			long startTime = System.currentTimeMillis();
-			for (int i=nrofRuns[0]; i<nrofRuns[1]; i++) {
-				print("Run " + (i+1) + "/" + nrofRuns[1]);
-				Settings.setRunIndex(i);
-				resetForNextRun();
-				new DTNSimTextUI().start();
+			if (nrofThreads >= 0) {
+				runParallel(confFiles, firstConfIndex, nrofRuns, nrofThreads);
+			}
+			else {
+				for (int i=nrofRuns[0]; i<nrofRuns[1]; i++) {
+					print("Run " + (i+1) + "/" + nrofRuns[1]);
+					Settings.setRunIndex(i);
+					resetForNextRun();
+					new DTNSimTextUI().start();
+				}
 			}
 			double duration = (System.currentTimeMillis() - startTime)/1000.0;
 			print("---\nAll done in " + String.format("%.2f", duration) + "s");
@@ -93,6 +126,144 @@ public class DTNSim {
 		}
 	}
 	
+	/**
+	 * Performs batch runs in parallel. Every run is performed with a class
+	 * loader of its own, so the static state of the simulator classes (e.g.,
+	 * {@link SimClock} and {@link Settings}) is not shared between the runs.
+	 * The reports of each run are written to a run-specific subdirectory of
+	 * the report directory.
+	 * @param confFiles The settings files to use
+	 * @param firstConfIndex Index of the first settings file name
+	 * @param nrofRuns The first and (last_run_index - 1) of the runs
+	 * @param nrofThreads Number of threads to use or 0 to use as many
+	 * threads as there are processors available
+	 */
+	private static void runParallel(final String[] confFiles,
+			final int firstConfIndex, int[] nrofRuns, int nrofThreads) {
+		final URL[] classPath = getClassPath();
+		final ClassLoader parent = ClassLoader.getSystemClassLoader().getParent();
+		final int lastRun = nrofRuns[1];
+
+		if (nrofThreads == 0) {
+			nrofThreads = Runtime.getRuntime().availableProcessors();
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(nrofThreads);
+		List<Future<?>> runs = new ArrayList<Future<?>>();
+
+		for (int i=nrofRuns[0]; i<nrofRuns[1]; i++) {
+			final int runIndex = i;
+			runs.add(executor.submit(new Runnable() {
+				public void run() {
+					print("Run " + (runIndex+1) + "/" + lastRun);
+					try (URLClassLoader loader = 
+							new URLClassLoader(classPath, parent)) {
+						Class<?> c = loader.loadClass(DTNSim.class.getName());
+						Method m = c.getMethod("runIsolated", String[].class,
+								int.class, int.class);
+						m.invoke(null, confFiles, firstConfIndex, runIndex);
+					} catch (InvocationTargetException e) {
+						if (e.getCause() instanceof RuntimeException) {
+							throw (RuntimeException)e.getCause();
+						}
+						throw new SimError(e);
+					} catch (Exception e) {
+						throw new SimError(e);
+					}
+				}
+			}));
+		}
+		executor.shutdown();
+
+		int failed = 0;
+		for (int i=0; i<runs.size(); i++) {
+			try {
+				runs.get(i).get();
+			} catch (Exception e) {
+				System.err.println("Run " + (nrofRuns[0] + i + 1) + 
+						" failed: " + e.getCause());
+				failed++;
+			}
+		}
+		if (failed > 0) {
+			System.err.println(failed + " run(s) failed");
+		}
+	}
+	
+	/**
+	 * Performs one batch run. This is called by {@link #runParallel} 
+	 * using the run's own class loader and must not be called otherwise.
+	 * The reports of the run are written to a run-specific subdirectory
+	 * (see {@link #RUN_DIR_PREFIX}) so that the parallel runs don't
+	 * overwrite each other's reports.
+	 * @param confFiles The settings files to use
+	 * @param firstConfIndex Index of the first settings file name
+	 * @param runIndex The run index of the run
+	 */
+	public static void runIsolated(String[] confFiles, int firstConfIndex,
+			int runIndex) {
+		initSettings(confFiles, firstConfIndex);
+		Settings.setRunIndex(runIndex);
+		String runDir = RUN_DIR_PREFIX + (runIndex + 1);
+
+		Settings s = new Settings();
+		if (s.contains(Report.REPORTDIR_SETTING)) {
+			String reportDir = s.getSetting(Report.REPORTDIR_SETTING);
+			if (!reportDir.endsWith("/")) {
+				reportDir += "/";
+			}
+			Settings.setSetting(Report.REPORTDIR_SETTING, reportDir + runDir);
+		}
+
+		/* reports with their own output file (ClassName.output or
+		 * Report.output) write to a run directory next to the file */
+		Set<String> outputs = new HashSet<String>();
+		outputs.add(Report.REPORT_NS + "." + Report.OUTPUT_SETTING);
+		if (s.contains(DTNSimUI.NROF_REPORT_S)) {
+			for (int i=1, n = s.getInt(DTNSimUI.NROF_REPORT_S); i<=n; i++) {
+				outputs.add(s.getSetting(DTNSimUI.REPORT_S + i) + "." +
+						Report.OUTPUT_SETTING);
+			}
+		}
+		for (String name : outputs) {
+			if (s.contains(name)) {
+				Settings.setSetting(name, 
+						addRunDir(s.getSetting(name), runDir));
+			}
+		}
+
+		new DTNSimTextUI().start();
+	}
+	
+	/**
+	 * Adds a directory to a file path, just before the file name
+	 * @param path The file path
+	 * @param dir The directory to add
+	 * @return The new path
+	 */
+	private static String addRunDir(String path, String dir) {
+		int i = Math.max(path.lastIndexOf('/'), 
+				path.lastIndexOf(File.separatorChar));
+		return path.substring(0, i + 1) + dir + "/" + path.substring(i + 1);
+	}
+	
+	/**
+	 * Returns the class path of the simulator as URLs
+	 * @return The class path entries
+	 */
+	private static URL[] getClassPath() {
+		String[] entries = System.getProperty("java.class.path").split(
+				File.pathSeparator);
+		URL[] urls = new URL[entries.length];
+		for (int i=0; i<entries.length; i++) {
+			try {
+				urls[i] = new File(entries[i]).toURI().toURL();
+			} catch (MalformedURLException e) {
+				throw new SimError(e);
+			}
+		}
+		return urls;
+	}
+	
 	/**
 	 * Initializes Settings
 	 * @param confFiles File name paths where to read additional settings 
@@ -162,7 +333,7 @@ public class DTNSim {
 	/**
 	 * Resets all registered classes.
 	 */
-	private static void resetForNextRun() {
+	public static void resetForNextRun() {
 		for (Class<?> c : resetList) {
 			try {
 				Method m = c.getMethod(RESET_METHOD_NAME);
@@ -216,6 +387,26 @@ public class DTNSim {
 		return val;
 	}
 	
+	/**
+	 * Parses the number of threads for the parallel batch mode
+	 * @param arg The argument to parse
+	 * @return The number of threads (0 = number of available processors)
+	 */
+	private static int parseNrofThreads(String arg) {
+		int val = -1;
+		try {
+			val = Integer.parseInt(arg);
+		} catch (NumberFormatException e) {
+			/* handled below */
+		}
+		if (val < 0) {
+			System.err.println("Invalid argument '" + arg + "' for" +
+					" number of threads");
+			System.exit(-1);
+		}
+		return val;
+	}
+	
 	/**
 	 * Prints text to stdout
 	 * @param txt Text to print
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package core;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Hash map from non-negative int keys (e.g., message keys, see
+ * {@link MessageIdRegistry}) to objects. The keys and values are stored in
+ * two arrays with open addressing, so the map doesn't create an entry
+ * object or box the key for every mapping. Null values are not allowed.
+ * @param <V> Type of the values
+ */
+public class IntHashMap<V> {
+	/** key of the free slots */
+	private static final int FREE = -1;
+	/** smallest capacity of the tables */
+	private static final int MIN_CAPACITY = 8;
+
+	private int[] keys;
+	private Object[] values;
+	private int size;
+	/** number of structural modifications, for detecting concurrent
+	 * modifications when iterating */
+	private int modCount;
+
+	/**
+	 * Creates an empty map
+	 */
+	public IntHashMap() {
+		this(MIN_CAPACITY / 2);
+	}
+
+	/**
+	 * Creates an empty map with room for the given number of mappings
+	 * @param expectedSize The expected number of mappings
+	 */
+	public IntHashMap(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < 2 * expectedSize) {
+			capacity *= 2;
+		}
+		this.keys = new int[capacity];
+		Arrays.fill(this.keys, FREE);
+		this.values = new Object[capacity];
+		this.size = 0;
+	}
+
+	/**
+	 * Returns the number of mappings
+	 * @return the number of mappings
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the number of slots in the tables
+	 * @return the capacity of the map
+	 */
+	public int capacity() {
+		return this.keys.length;
+	}
+
+	/**
+	 * Returns true if the map has no mappings
+	 * @return true if the map is empty
+	 */
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * Returns true if the map has a mapping for the key
+	 * @param key The key (negative keys are never in the map)
+	 * @return true if the key is in the map
+	 */
+	public boolean containsKey(int key) {
+		return key >= 0 && indexOf(key) >= 0;
+	}
+
+	/**
+	 * Returns the value of a key
+	 * @param key The key (negative keys are never in the map)
+	 * @return The value or null if the key is not in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		if (key < 0) {
+			return null;
+		}
+		int i = indexOf(key);
+		return (i < 0 ? null : (V)this.values[i]);
+	}
+
+	/**
+	 * Maps a key to a value
+	 * @param key The key (must be non-negative)
+	 * @param value The value (must not be null)
+	 * @return The previous value of the key or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		assert key >= 0 : "Negative key " + key;
+		assert value != null : "Null value for key " + key;
+		int mask = this.keys.length - 1;
+		int i = slot(key, mask);
+		while (this.keys[i] != FREE) {
+			if (this.keys[i] == key) {
+				V old = (V)this.values[i];
+				this.values[i] = value;
+				return old;
+			}
+			i = (i + 1) & mask;
+		}
+
+		this.keys[i] = key;
+		this.values[i] = value;
+		this.size++;
+		this.modCount++;
+		if (2 * this.size > this.keys.length) {
+			resize(2 * this.keys.length);
+		}
+		return null;
+	}
+
+	/**
+	 * Removes the mapping of a key
+	 * @param key The key
+	 * @return The removed value or null if the key was not in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		if (key < 0) {
+			return null;
+		}
+		int i = indexOf(key);
+		if (i < 0) {
+			return null;
+		}
+		V old = (V)this.values[i];
+
+		/* move the following keys of the probe sequence back so that
+		 * lookups don't need markers for removed keys */
+		int mask = this.keys.length - 1;
+		int free = i;
+		int j = (i + 1) & mask;
+		while (this.keys[j] != FREE) {
+			int home = slot(this.keys[j], mask);
+			/* the key can fill the free slot if its home slot isn't
+			 * (cyclically) between the free slot and its current slot */
+			if (((j - home) & mask) >= ((j - free) & mask)) {
+				this.keys[free] = this.keys[j];
+				this.values[free] = this.values[j];
+				free = j;
+			}
+			j = (j + 1) & mask;
+		}
+		this.keys[free] = FREE;
+		this.values[free] = null;
+		this.size--;
+		this.modCount++;
+		return old;
+	}
+
+	/**
+	 * Removes all the mappings
+	 */
+	public void clear() {
+		if (this.size == 0) {
+			return;
+		}
+		Arrays.fill(this.keys, FREE);
+		Arrays.fill(this.values, null);
+		this.size = 0;
+		this.modCount++;
+	}
+
+	/**
+	 * Returns the keys of the map in an array. The order of the keys is
+	 * not defined.
+	 * @return The keys
+	 */
+	public int[] keys() {
+		int[] result = new int[this.size];
+		int n = 0;
+		for (int i = 0; i < this.keys.length; i++) {
+			if (this.keys[i] != FREE) {
+				result[n++] = this.keys[i];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a view of the values of the map. The view can't be used for
+	 * modifying the map. The order of the values is not defined and the
+	 * iterators fail if the map is modified while iterating.
+	 * @return The values
+	 */
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+			public Iterator<V> iterator() {
+				return new ValueIterator();
+			}
+
+			public int size() {
+				return IntHashMap.this.size;
+			}
+		};
+	}
+
+	/**
+	 * Returns the index of a key in the tables or -1 if the key is not
+	 * in the map
+	 */
+	private int indexOf(int key) {
+		int mask = this.keys.length - 1;
+		int i = slot(key, mask);
+		while (this.keys[i] != FREE) {
+			if (this.keys[i] == key) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the home slot of a key. The key is mixed so that consecutive
+	 * keys are spread over the table.
+	 */
+	private static int slot(int key, int mask) {
+		int h = key * 0x9e3779b9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * Moves the mappings to tables of the given capacity
+	 */
+	private void resize(int capacity) {
+		int[] oldKeys = this.keys;
+		Object[] oldValues = this.values;
+		this.keys = new int[capacity];
+		Arrays.fill(this.keys, FREE);
+		this.values = new Object[capacity];
+
+		int mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != FREE) {
+				int j = slot(oldKeys[i], mask);
+				while (this.keys[j] != FREE) {
+					j = (j + 1) & mask;
+				}
+				this.keys[j] = oldKeys[i];
+				this.values[j] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Iterator over the values in the order of the slots
+	 */
+	private class ValueIterator implements Iterator<V> {
+		private int next;
+		private final int expectedModCount;
+
+		private ValueIterator() {
+			this.expectedModCount = modCount;
+			this.next = advance(0);
+		}
+
+		private int advance(int from) {
+			while (from < keys.length && keys[from] == FREE) {
+				from++;
+			}
+			return from;
+		}
+
+		public boolean hasNext() {
+			return this.next < keys.length;
+		}
+
+		@SuppressWarnings("unchecked")
+		public V next() {
+			if (modCount != this.expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (this.next >= keys.length) {
+				throw new NoSuchElementException();
+			}
+			V value = (V)values[this.next];
+			this.next = advance(this.next + 1);
+			return value;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
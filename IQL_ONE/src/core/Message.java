@@ -4,50 +4,47 @@
  */
 package core;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * A message that is created at a node or passed between nodes.
+ * <P>
+ * Replicating a message doesn't copy its data: the replicates share the
+ * message header (the fields that are set when the message is created),
+ * the path and the properties, and a replicate makes its own copy of the
+ * header or the properties only when it changes them. The path is a
+ * persistent linked list where every hop has a pointer to the previous
+ * one, so adding a node on the path of a replicate doesn't change the
+ * paths of the other replicates.
+ * </P>
  */
 public class Message implements Comparable<Message> {
 	/** Value for infinite TTL of message */
 	public static final int INFINITE_TTL = -1;
-	private DTNHost from;
-	private DTNHost to;
-	/** Identifier of the message */
-	private String id;
-	/** Size of the message (bytes) */
-	private int size;
-	/** List of nodes this message has passed */
-	private List<DTNHost> path; 
+	/** The data that is set when the message is created */
+	private Header header;
+	/** Is the header shared with other replicates */
+	private boolean headerShared;
+	/** The last node this message has passed */
+	private Hop path; 
 	/** Next unique identifier to be given */
 	private static int nextUniqueId;
 	/** Unique ID of this message */
 	private int uniqueId;
 	/** The time this message was received */
 	private double timeReceived;
-	/** The time when this message was created */
-	private double timeCreated;
-	/** Initial TTL of the message */
-	private int initTtl;
-	
-	/** if a response to this message is required, this is the size of the 
-	 * response message (or 0 if no response is requested) */
-	private int responseSize;
-	/** if this message is a response message, this is set to the request msg*/
-	private Message requestMsg;
+	/** Number of copies of this message (as known by its router) */
+	private int nrofCopies;
 	
 	/** Container for generic message properties. Note that all values
 	 * stored in the properties should be immutable because only a shallow
 	 * copy of the properties is made when replicating messages */
 	private Map<String, Object> properties;
-	
-	/** Application ID of the application that created the message */
-	private String	appID;
+	/** Are the properties shared with other replicates */
+	private boolean propertiesShared;
 	
 	static {
 		reset();
@@ -63,31 +60,42 @@ public class Message implements Comparable<Message> {
 	 * @param size Size of the message (in bytes)
 	 */
 	public Message(DTNHost from, DTNHost to, String id, int size) {
-		this.from = from;
-		this.to = to;
-		this.id = id;
-		this.size = size;
-		this.path = new ArrayList<DTNHost>();
+		this.header = new Header(from, to, id, size);
+		this.headerShared = false;
+		this.path = null;
 		this.uniqueId = nextUniqueId;
 		
-		this.timeCreated = SimClock.getTime();
-		this.timeReceived = this.timeCreated;
-		this.initTtl = INFINITE_TTL;
-		this.responseSize = 0;
-		this.requestMsg = null;
+		this.header.timeCreated = SimClock.getTime();
+		this.timeReceived = this.header.timeCreated;
+		this.header.initTtl = INFINITE_TTL;
+		this.header.responseSize = 0;
+		this.header.requestMsg = null;
+		this.nrofCopies = 0;
 		this.properties = null;
-		this.appID = null;
+		this.propertiesShared = false;
+		this.header.appID = null;
 		
 		Message.nextUniqueId++;
 		addNodeOnPath(from);
 	}
+
+	/**
+	 * Creates a replicate of a message
+	 * @param m The message to replicate
+	 */
+	private Message(Message m) {
+		this.uniqueId = nextUniqueId;
+		this.timeReceived = SimClock.getTime();
+		Message.nextUniqueId++;
+		copyFrom(m);
+	}
 	
 	/**
 	 * Returns the node this message is originally from
 	 * @return the node this message is originally from
 	 */
 	public DTNHost getFrom() {
-		return this.from;
+		return this.header.from;
 	}
 
 	/**
@@ -95,7 +103,7 @@ public class Message implements Comparable<Message> {
 	 * @return the node this message is originally to
 	 */
 	public DTNHost getTo() {
-		return this.to;
+		return this.header.to;
 	}
 
 	/**
@@ -103,7 +111,16 @@ public class Message implements Comparable<Message> {
 	 * @return The message id
 	 */
 	public String getId() {
-		return this.id;
+		return this.header.id;
+	}
+	
+	/**
+	 * Returns the key of the message ID. All the messages with the same ID
+	 * have the same key (see {@link MessageIdRegistry}).
+	 * @return The key of the message ID
+	 */
+	public int getKey() {
+		return this.header.key;
 	}
 	
 	/**
@@ -120,7 +137,7 @@ public class Message implements Comparable<Message> {
 	 * @return the size of the message
 	 */
 	public int getSize() {
-		return this.size;
+		return this.header.size;
 	}
 
 	/**
@@ -128,15 +145,16 @@ public class Message implements Comparable<Message> {
 	 * @param node The node to add
 	 */
 	public void addNodeOnPath(DTNHost node) {
-		this.path.add(node);
+		this.path = new Hop(node, this.path);
 	}
 	
 	/**
-	 * Returns a list of nodes this message has passed so far
-	 * @return The list as vector
+	 * Returns a list of nodes this message has passed so far. The list
+	 * can't be modified.
+	 * @return The list
 	 */
 	public List<DTNHost> getHops() {
-		return this.path;
+		return this.path.getHops();
 	}
 	
 	/**
@@ -144,7 +162,22 @@ public class Message implements Comparable<Message> {
 	 * @return the amount of hops this message has passed
 	 */
 	public int getHopCount() {
-		return this.path.size() -1;
+		return this.path.index;
+	}
+
+	/**
+	 * Returns true if the node is on the path this message has passed
+	 * (including the node where the message was created)
+	 * @param node The node
+	 * @return true if the message has passed the node
+	 */
+	public boolean isOnPath(DTNHost node) {
+		for (Hop h = this.path; h != null; h = h.previous) {
+			if (h.node == node) {
+				return true;
+			}
+		}
+		return false;
 	}
 	
 	/** 
@@ -154,12 +187,12 @@ public class Message implements Comparable<Message> {
 	 * @return The TTL (minutes)
 	 */
 	public int getTtl() {
-		if (this.initTtl == INFINITE_TTL) {
+		if (this.header.initTtl == INFINITE_TTL) {
 			return Integer.MAX_VALUE;
 		}
 		else {
-			return (int)( ((this.initTtl * 60) -
-					(SimClock.getTime()-this.timeCreated)) /60.0 );
+			return (int)( ((this.header.initTtl * 60) -
+					(SimClock.getTime()-this.header.timeCreated)) /60.0 );
 		}
 	}
 	
@@ -171,7 +204,7 @@ public class Message implements Comparable<Message> {
 	 * @param ttl The time-to-live to set
 	 */
 	public void setTtl(int ttl) {
-		this.initTtl = ttl;
+		writableHeader().initTtl = ttl;
 	}
 	
 	/**
@@ -195,7 +228,7 @@ public class Message implements Comparable<Message> {
 	 * @return the time when this message was created
 	 */
 	public double getCreationTime() {
-		return this.timeCreated;
+		return this.header.timeCreated;
 	}
 	
 	/**
@@ -203,7 +236,7 @@ public class Message implements Comparable<Message> {
 	 * @param request The request message
 	 */
 	public void setRequest(Message request) {
-		this.requestMsg = request;
+		writableHeader().requestMsg = request;
 	}
 	
 	/**
@@ -212,7 +245,7 @@ public class Message implements Comparable<Message> {
 	 * @return the message this message is response to
 	 */
 	public Message getRequest() {
-		return this.requestMsg;
+		return this.header.requestMsg;
 	}
 	
 	/**
@@ -220,7 +253,7 @@ public class Message implements Comparable<Message> {
 	 * @return true if this message is a response message
 	 */
 	public boolean isResponse() {
-		return this.requestMsg != null;
+		return this.header.requestMsg != null;
 	}
 	
 	/**
@@ -229,7 +262,7 @@ public class Message implements Comparable<Message> {
 	 * @param size Size of the response message
 	 */
 	public void setResponseSize(int size) {
-		this.responseSize = size;
+		writableHeader().responseSize = size;
 	}
 	
 	/**
@@ -238,7 +271,25 @@ public class Message implements Comparable<Message> {
 	 * @return the size of the requested response message
 	 */
 	public int getResponseSize() {
-		return responseSize;
+		return this.header.responseSize;
+	}
+
+	/**
+	 * Returns the number of copies of this message, as counted by the
+	 * router (e.g., {@link routing.Epidemic_IQLCC}). Replicates get the
+	 * count of the original message.
+	 * @return The number of copies (0 if the router doesn't count them)
+	 */
+	public int getNrofCopies() {
+		return this.nrofCopies;
+	}
+
+	/**
+	 * Sets the number of copies of this message
+	 * @param nrofCopies The number of copies
+	 */
+	public void setNrofCopies(int nrofCopies) {
+		this.nrofCopies = nrofCopies;
 	}
 	
 	/**
@@ -246,30 +297,42 @@ public class Message implements Comparable<Message> {
 	 * @return a string representation of the message
 	 */
 	public String toString () {
-		return id;
+		return this.header.id;
 	}
 
 	/**
-	 * Deep copies message data from other message. If new fields are
+	 * Copies message data from other message. The header, path and
+	 * properties are shared with the other message until either of the
+	 * messages changes them. If new fields are
 	 * introduced to this class, most likely they should be copied here too
 	 * (unless done in constructor).
 	 * @param m The message where the data is copied
 	 */
 	protected void copyFrom(Message m) {
-		this.path = new ArrayList<DTNHost>(m.path);
-		this.timeCreated = m.timeCreated;
-		this.responseSize = m.responseSize;
-		this.requestMsg  = m.requestMsg;
-		this.initTtl = m.initTtl;
-		this.appID = m.appID;
+		this.header = m.header;
+		this.headerShared = true;
+		m.headerShared = true;
+		this.path = m.path;
+		this.nrofCopies = m.nrofCopies;
 		
+		this.properties = m.properties;
 		if (m.properties != null) {
-			Set<String> keys = m.properties.keySet();
-			for (String key : keys) {
-				updateProperty(key, m.getProperty(key));
-			}
+			this.propertiesShared = true;
+			m.propertiesShared = true;
 		}
 	}
+
+	/**
+	 * Returns the header for changing it; copies the header first if it's
+	 * shared with other replicates
+	 */
+	private Header writableHeader() {
+		if (this.headerShared) {
+			this.header = new Header(this.header);
+			this.headerShared = false;
+		}
+		return this.header;
+	}
 	
 	/**
 	 * Adds a generic property for this message. The key can be any string but 
@@ -316,7 +379,12 @@ public class Message implements Comparable<Message> {
 			/* lazy creation to prevent performance overhead for classes
 			   that don't use the property feature  */
 			this.properties = new HashMap<String, Object>();
-		}		
+		}
+		else if (this.propertiesShared) {
+			/* copy on write */
+			this.properties = new HashMap<String, Object>(this.properties);
+			this.propertiesShared = false;
+		}
 
 		this.properties.put(key, value);
 	}
@@ -326,9 +394,7 @@ public class Message implements Comparable<Message> {
 	 * @return A replicate of the message
 	 */
 	public Message replicate() {
-		Message m = new Message(from, to, id, size);
-		m.copyFrom(this);
-		return m;
+		return new Message(this);
 	}
 	
 	/**
@@ -350,19 +416,104 @@ public class Message implements Comparable<Message> {
 	 * @return the appID
 	 */
 	public String getAppID() {
-		return appID;
+		return this.header.appID;
 	}
 
 	/**
 	 * @param appID the appID to set
 	 */
 	public void setAppID(String appID) {
-		this.appID = appID;
+		writableHeader().appID = appID;
 	}
 	
 	/* get init TTL */ 
 	public int getInitTTL() {
-		return initTtl;
+		return this.header.initTtl;
+	}
+
+	/**
+	 * The data of a message that is set when the message is created
+	 */
+	private static class Header {
+		private final DTNHost from;
+		private final DTNHost to;
+		/** Identifier of the message */
+		private final String id;
+		/** Key of the identifier in the {@link MessageIdRegistry} */
+		private final int key;
+		/** Size of the message (bytes) */
+		private final int size;
+		/** The time when this message was created */
+		private double timeCreated;
+		/** Initial TTL of the message */
+		private int initTtl;
+		/** if a response to this message is required, this is the size of
+		 * the response message (or 0 if no response is requested) */
+		private int responseSize;
+		/** if this message is a response message, this is set to the
+		 * request msg*/
+		private Message requestMsg;
+		/** Application ID of the application that created the message */
+		private String appID;
+
+		private Header(DTNHost from, DTNHost to, String id, int size) {
+			this(from, to, id, MessageIdRegistry.register(id), size);
+		}
+
+		private Header(DTNHost from, DTNHost to, String id, int key,
+				int size) {
+			this.from = from;
+			this.to = to;
+			this.id = id;
+			this.key = key;
+			this.size = size;
+		}
+
+		private Header(Header h) {
+			this(h.from, h.to, h.id, h.key, h.size);
+			this.timeCreated = h.timeCreated;
+			this.initTtl = h.initTtl;
+			this.responseSize = h.responseSize;
+			this.requestMsg = h.requestMsg;
+			this.appID = h.appID;
+		}
+	}
+
+	/**
+	 * A node on the path of a message. Hops are never changed, so the
+	 * replicates of a message share the hops they have in common.
+	 */
+	private static class Hop {
+		private final DTNHost node;
+		/** the previous hop or null if this is the first node */
+		private final Hop previous;
+		/** index of the node on the path (the hop count) */
+		private final int index;
+		/** the nodes of the path up to this one (created on request) */
+		private List<DTNHost> hops;
+
+		private Hop(DTNHost node, Hop previous) {
+			this.node = node;
+			this.previous = previous;
+			this.index = (previous == null ? 0 : previous.index + 1);
+		}
+
+		private List<DTNHost> getHops() {
+			if (this.hops == null) {
+				final DTNHost[] nodes = new DTNHost[index + 1];
+				for (Hop h = this; h != null; h = h.previous) {
+					nodes[h.index] = h.node;
+				}
+				this.hops = new AbstractList<DTNHost>() {
+					public DTNHost get(int i) {
+						return nodes[i];
+					}
+					public int size() {
+						return nodes.length;
+					}
+				};
+			}
+			return this.hops;
+		}
 	}
-	
 }
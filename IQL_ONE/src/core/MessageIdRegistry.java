@@ -0,0 +1,141 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package core;
+
+import java.util.Arrays;
+
+/**
+ * Registry of message IDs. Every message ID is mapped to a dense integer
+ * key once, when the first message with the ID is created, and all the
+ * messages (and their replicates) with the same ID have the same key (see
+ * {@link Message#getKey()}). The keys are given in the order 0, 1, 2, ...
+ * so they can be used as indexes of arrays and bit sets and as keys of
+ * {@link IntHashMap}s instead of hashing the ID strings.
+ * <P>
+ * The IDs stay registered until the next run, so the registry is kept
+ * compact: the IDs are stored in an array by key and looked up through an
+ * open addressing table of keys, without an entry object or a boxed key
+ * per ID.
+ * </P>
+ */
+public class MessageIdRegistry {
+	/** initial capacity of the tables */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/** the message IDs by key */
+	private static String[] ids;
+	/** number of registered IDs */
+	private static int size;
+	/** hash table of the keys (-1 for free slots) */
+	private static int[] table;
+
+	static {
+		DTNSim.registerForReset(MessageIdRegistry.class.getCanonicalName());
+		reset();
+	}
+
+	private MessageIdRegistry() {}
+
+	/**
+	 * Resets the registry
+	 */
+	public static void reset() {
+		ids = new String[INITIAL_CAPACITY / 2];
+		size = 0;
+		table = new int[INITIAL_CAPACITY];
+		Arrays.fill(table, -1);
+	}
+
+	/**
+	 * Returns the key of a message ID. The ID is registered if it doesn't
+	 * have a key yet.
+	 * @param id The message ID
+	 * @return The key
+	 */
+	public static int register(String id) {
+		int mask = table.length - 1;
+		int i = slot(id, mask);
+		while (table[i] != -1) {
+			if (ids[table[i]].equals(id)) {
+				return table[i];
+			}
+			i = (i + 1) & mask;
+		}
+
+		int key = size++;
+		if (key == ids.length) {
+			ids = Arrays.copyOf(ids, 2 * ids.length);
+		}
+		ids[key] = id;
+		table[i] = key;
+		if (2 * size > table.length) {
+			rehash(2 * table.length);
+		}
+		return key;
+	}
+
+	/**
+	 * Returns the key of a message ID
+	 * @param id The message ID
+	 * @return The key or -1 if the ID is not registered
+	 */
+	public static int getKey(String id) {
+		int mask = table.length - 1;
+		int i = slot(id, mask);
+		while (table[i] != -1) {
+			if (ids[table[i]].equals(id)) {
+				return table[i];
+			}
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the message ID of a key
+	 * @param key The key
+	 * @return The message ID
+	 */
+	public static String getId(int key) {
+		if (key < 0 || key >= size) {
+			throw new IndexOutOfBoundsException("No message ID for key " +
+					key);
+		}
+		return ids[key];
+	}
+
+	/**
+	 * Returns the number of registered IDs, i.e., the smallest key that
+	 * has not been given yet
+	 * @return The number of registered IDs
+	 */
+	public static int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the home slot of an ID in a table
+	 */
+	private static int slot(String id, int mask) {
+		int h = id.hashCode() * 0x9e3779b9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * Moves the keys to a table of the given capacity
+	 */
+	private static void rehash(int capacity) {
+		table = new int[capacity];
+		Arrays.fill(table, -1);
+		int mask = capacity - 1;
+		for (int key = 0; key < size; key++) {
+			int i = slot(ids[key], mask);
+			while (table[i] != -1) {
+				i = (i + 1) & mask;
+			}
+			table[i] = key;
+		}
+	}
+}
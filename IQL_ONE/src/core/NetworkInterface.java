@@ -4,12 +4,13 @@
  */
 package core;
 
+import interfaces.CompactConnectivityGrid;
 import interfaces.ConnectivityGrid;
 import interfaces.ConnectivityOptimizer;
+import input.ContactPlan;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 
 /**
  * Network interface of a DTNHost. Takes care of connectivity among hosts.
@@ -35,16 +36,26 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 	private static final int CON_UP = 1;
 	private static final int CON_DOWN = 2;
 	private static int nextAddress = 0;
-	private static Random rng;
 	protected DTNHost host = null;
 
 	protected String interfacetype;
 	protected List<Connection> connections; // connected hosts
 	private List<ConnectionListener> cListeners = null; // list of listeners
+	/** contact plan that records the connection changes (or null) */
+	private ContactPlan contactPlan = null;
 	private int address; // network interface address
 	protected double transmitRange;
 	protected int transmitSpeed;
 	protected ConnectivityOptimizer optimizer = null;
+	/** should the optimizer be a {@link CompactConnectivityGrid} */
+	private boolean compactGrid;
+	/** visitor that tries to connect to the near interfaces it visits */
+	protected final ConnectivityOptimizer.NearInterfaceVisitor connector =
+		new ConnectivityOptimizer.NearInterfaceVisitor() {
+			public void visit(NetworkInterface ni) {
+				connect(ni);
+			}
+		};
 	/** scanning interval, or 0.0 if n/a */
 	private double scanInterval;
 	private double lastScanTime;
@@ -60,7 +71,6 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 	 */
 	public static void reset() {
 		nextAddress = 0;
-		rng = new Random(0);
 	}
 	
 	/**
@@ -80,6 +90,13 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		} else {
 			this.scanInterval = 0;
 		}
+
+		Settings optimization = new Settings(World.SETTINGS_NS);
+		if (optimization.contains(World.COMPACT_GRID_S)) {
+			this.compactGrid = optimization.getBoolean(World.COMPACT_GRID_S);
+		} else {
+			this.compactGrid = World.DEF_COMPACT_GRID;
+		}
 	}
 	
 	/**
@@ -99,12 +116,18 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		this.address = getNextNetAddress();
 		this.host = ni.host;
 		this.cListeners = ni.cListeners;
+		this.contactPlan = ni.contactPlan;
 		this.interfacetype = ni.interfacetype;
 		this.transmitRange = ni.transmitRange;
 		this.transmitSpeed = ni.transmitSpeed;
+		this.compactGrid = ni.compactGrid;
 		
 		/* draw lastScanTime of [0 -- scanInterval] */
-		this.lastScanTime = rng.nextDouble() * scanInterval;
+		if (scanInterval > 0) {
+			this.lastScanTime = RandomStreams.newStream(
+					NetworkInterface.class.getSimpleName(),
+					this.address).nextDouble() * scanInterval;
+		}
 	}
 
 	/**
@@ -124,11 +147,24 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		comBus.subscribe(RANGE_ID, this);
 		comBus.subscribe(SPEED_ID, this);
 		
-		optimizer = ConnectivityGrid.ConnectivityGridFactory(
-				this.interfacetype.hashCode(), transmitRange);
+		if (compactGrid) {
+			optimizer = CompactConnectivityGrid.CompactConnectivityGridFactory(
+					this.interfacetype.hashCode(), transmitRange);
+		} else {
+			optimizer = ConnectivityGrid.ConnectivityGridFactory(
+					this.interfacetype.hashCode(), transmitRange);
+		}
 		optimizer.addInterface(this);		
 	}
 
+	/**
+	 * Returns the connectivity optimizer of this interface
+	 * @return the optimizer or null if the host hasn't been set yet
+	 */
+	public ConnectivityOptimizer getOptimizer() {
+		return this.optimizer;
+	}
+
 	/**
 	 * For checking what interface type this interface is
 	 */
@@ -144,6 +180,15 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		this.cListeners = cListeners;
 	}
 
+	/**
+	 * Sets the contact plan where the connections this interface creates
+	 * and breaks are recorded
+	 * @param contactPlan The contact plan or null for none
+	 */
+	public void setContactPlan(ContactPlan contactPlan) {
+		this.contactPlan = contactPlan;
+	}
+
 	/**
 	 * Returns a new network interface address and increments the address for
 	 * subsequent calls.
@@ -178,7 +223,9 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 	}
 
 	/**
-	 * Returns a list of currently connected connections
+	 * Returns a list of currently connected connections. The list must be
+	 * modified only through the connect and disconnect methods so that the
+	 * hosts' connection views stay up to date.
 	 * @return a list of currently connected connections
 	 */
 	public List<Connection> getConnections() {
@@ -229,9 +276,14 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 
 		this.connections.add(con);
 		notifyConnectionListeners(CON_UP, anotherInterface.getHost());
+		if (this.contactPlan != null) {
+			this.contactPlan.connectionChanged(this, anotherInterface, true);
+		}
 
 		// set up bidirectional connection
 		anotherInterface.getConnections().add(con);
+		this.host.connectionsChanged();
+		anotherInterface.getHost().connectionsChanged();
 
 		// inform routers about the connection
 		this.host.connectionUp(con);
@@ -240,22 +292,30 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 
 	/**
 	 * Disconnects this host from another host.  The derived class should
-	 * make the decision whether to disconnect or not
+	 * make the decision whether to disconnect or not. The connection is
+	 * removed from the connections of both interfaces.
 	 * @param con The connection to tear down
 	 */
 	protected void disconnect(Connection con, 
 			NetworkInterface anotherInterface) {
 		con.setUpState(false);
 		notifyConnectionListeners(CON_DOWN, anotherInterface.getHost());
+		if (this.contactPlan != null) {
+			this.contactPlan.connectionChanged(this, anotherInterface, false);
+		}
 
 		// tear down bidirectional connection
 		if (!anotherInterface.getConnections().remove(con)) {
 			throw new SimError("No connection " + con + " found in " +
 					anotherInterface);	
 		}
+		anotherInterface.getHost().connectionsChanged();
 
 		this.host.connectionDown(con);
 		anotherInterface.getHost().connectionDown(con);
+
+		this.connections.remove(con);
+		this.host.connectionsChanged();
 	}
 
 	/**
@@ -388,17 +448,22 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		DTNHost anotherNode = anotherInterface.getHost();
 		con.setUpState(false);
 		notifyConnectionListeners(CON_DOWN, anotherNode);
+		if (this.contactPlan != null) {
+			this.contactPlan.connectionChanged(this, anotherInterface, false);
+		}
 
 		// tear down bidirectional connection
 		if (!anotherInterface.getConnections().remove(con)) {
 			throw new SimError("No connection " + con + " found in " +
 					anotherNode);   
 		}
+		anotherNode.connectionsChanged();
 
 		this.host.connectionDown(con);
 		anotherNode.connectionDown(con);
 
 		connections.remove(index);
+		this.host.connectionsChanged();
 	}
 
 	/**
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package core;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the iterations of a loop in a fork-join pool. The index range is
+ * split in halves until the parts are no bigger than the given grain size
+ * and the parts are run in parallel. The iterations must not depend on each
+ * other.
+ */
+public class ParallelLoop {
+
+	/**
+	 * The body of a loop
+	 */
+	public interface Body {
+		/**
+		 * Runs one iteration of the loop
+		 * @param index Index of the iteration
+		 */
+		public void run(int index);
+	}
+
+	/**
+	 * Runs the iterations <CODE>0...count-1</CODE> of a loop in the pool and
+	 * waits until all of them have been run
+	 * @param pool The pool to run the iterations in
+	 * @param count Number of iterations
+	 * @param grain Maximum number of iterations run in one task
+	 * @param body The body of the loop
+	 */
+	public static void run(ForkJoinPool pool, int count, int grain,
+			Body body) {
+		if (count <= grain) { // not worth forking
+			for (int i=0; i < count; i++) {
+				body.run(i);
+			}
+			return;
+		}
+		pool.invoke(new RangeAction(0, count, Math.max(grain, 1), body));
+	}
+
+	/**
+	 * Task that runs a range of iterations
+	 */
+	private static class RangeAction extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int from;
+		private final int to;
+		private final int grain;
+		private final Body body;
+
+		private RangeAction(int from, int to, int grain, Body body) {
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+			this.body = body;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= grain) {
+				for (int i = from; i < to; i++) {
+					body.run(i);
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new RangeAction(from, mid, grain, body),
+					new RangeAction(mid, to, grain, body));
+		}
+	}
+}
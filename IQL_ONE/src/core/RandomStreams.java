@@ -0,0 +1,136 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package core;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import movement.MovementModel;
+
+/**
+ * Source of the random number streams of a simulation run. All the streams
+ * are derived from the run seed, which is computed from the movement
+ * model's {@link MovementModel#RNG_SEED rng seed} setting and the run
+ * index (see {@link Settings#setRunIndex(int)}). A stream is identified by
+ * a name (e.g., the name of the subsystem that uses it) and an index
+ * (e.g., the address of the host), so different subsystems and hosts get
+ * independent streams and the values a component draws don't depend on how
+ * many values the others have drawn.
+ * <P>
+ * Components that draw random values in the updates should re-seed their
+ * generator for every time step with {@link #setSeed(Random, long, long)}
+ * instead of drawing successive values from one generator: then the
+ * values depend only on the time and not on how many times the component
+ * was updated, and runs with, e.g., {@link World#EVENT_DRIVEN_S event
+ * driven} updates or several threads give the same results as serial runs
+ * that update everything on every round.
+ * </P>
+ * <P>
+ * The seeds are mixed with the finalizer of the SplitMix64 generator, so
+ * streams with consecutive indexes or steps are not correlated.
+ * </P>
+ */
+public class RandomStreams {
+	/** increment of the SplitMix64 generator (golden ratio * 2^64) */
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	/** the seed of the current run */
+	private static long runSeed;
+	/** is the run seed computed for the current run */
+	private static boolean initialized;
+	/** the number of streams created so far by name, for
+	 * {@link #newStream(String)} */
+	private static Map<String, Integer> nrofStreams;
+
+	static {
+		DTNSim.registerForReset(RandomStreams.class.getCanonicalName());
+		reset();
+	}
+
+	private RandomStreams() {}
+
+	/**
+	 * Resets the static fields of the class. The run seed is computed from
+	 * the settings when it's used the first time after the reset.
+	 */
+	public static void reset() {
+		initialized = false;
+		nrofStreams = new HashMap<String, Integer>();
+	}
+
+	/**
+	 * Returns the seed of a stream
+	 * @param name Name of the stream
+	 * @param index Index of the stream among the streams of the same name
+	 * @return The seed
+	 */
+	public static long getSeed(String name, long index) {
+		return mix(mix(getRunSeed() ^ name.hashCode()) + index * GOLDEN_GAMMA);
+	}
+
+	/**
+	 * Returns a new random number generator for a stream
+	 * @param name Name of the stream
+	 * @param index Index of the stream among the streams of the same name
+	 * @return The generator
+	 */
+	public static Random newStream(String name, long index) {
+		return new Random(getSeed(name, index));
+	}
+
+	/**
+	 * Returns a new random number generator for the next stream of a name.
+	 * The streams are indexed in the order they are created during the run,
+	 * so this should be used only by components that are created in a
+	 * deterministic order.
+	 * @param name Name of the stream
+	 * @return The generator
+	 */
+	public static Random newStream(String name) {
+		Integer count = nrofStreams.get(name);
+		int index = (count == null ? 0 : count);
+		nrofStreams.put(name, index + 1);
+		return newStream(name, index);
+	}
+
+	/**
+	 * Seeds a generator for a step (e.g., a time in whole seconds) of a
+	 * stream. Doesn't allocate memory, so this can be used on every update.
+	 * @param rng The generator to seed
+	 * @param streamSeed Seed of the stream (see
+	 * {@link #getSeed(String, long)})
+	 * @param step The step
+	 */
+	public static void setSeed(Random rng, long streamSeed, long step) {
+		rng.setSeed(mix(streamSeed + step * GOLDEN_GAMMA));
+	}
+
+	/**
+	 * Returns the seed of the current run
+	 */
+	private static long getRunSeed() {
+		if (!initialized) {
+			Settings s = new Settings(MovementModel.MOVEMENT_MODEL_NS);
+			long seed = 0;
+			if (s.contains(MovementModel.RNG_SEED)) {
+				seed = s.getInt(MovementModel.RNG_SEED);
+			}
+			runSeed = mix(mix(seed) + Math.max(0, Settings.getRunIndex()) *
+					GOLDEN_GAMMA);
+			initialized = true;
+		}
+		return runSeed;
+	}
+
+	/**
+	 * The finalizer of the SplitMix64 generator
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -16,7 +16,9 @@ import java.util.HashSet;
 import java.util.Properties;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.Stack;
+import java.util.TreeMap;
 
 /**
  * Interface for simulation settings stored in setting file(s). Settings 
@@ -99,6 +101,15 @@ public class Settings {
 	public static void setRunIndex(int index) {
 		runIndex = index;
 		writtenSettings.clear();
+	}
+
+	/**
+	 * Returns the current run index
+	 * @return The run index (negative if run indexing is disabled)
+	 * @see #setRunIndex(int)
+	 */
+	public static int getRunIndex() {
+		return runIndex;
 	}
 	
 	/**
@@ -249,6 +260,42 @@ public class Settings {
 		}
 	}
 	
+	/**
+	 * Sets the value of a setting overriding any value that was read from
+	 * the settings files.
+	 * @param name Full name of the setting (e.g. "Report.reportDir")
+	 * @param value The new value for the setting
+	 */
+	public static void setSetting(String name, String value) {
+		if (props == null) {
+			init(null);
+		}
+		props.setProperty(name, value);
+	}
+	
+	/**
+	 * Returns all the settings of a namespace (including the ones defined
+	 * in the default settings file) sorted by their full names. The values
+	 * of run-specific settings are the values of the current run. The 
+	 * returned settings are not written to the settings output.
+	 * @param namespace The namespace (e.g. "Group1")
+	 * @return The full names and values of the settings in the namespace
+	 */
+	public static SortedMap<String, String> getAllSettings(String namespace) {
+		if (props == null) {
+			init(null);
+		}
+		SortedMap<String, String> settings = new TreeMap<String, String>();
+		String prefix = namespace + ".";
+		for (String name : props.stringPropertyNames()) {
+			if (name.startsWith(prefix)) {
+				settings.put(name, 
+						parseRunSetting(props.getProperty(name).trim()));
+			}
+		}
+		return settings;
+	}
+	
 	/**
 	 * Writes the given setting string to the settings output (if any)
 	 * @param setting The string to write
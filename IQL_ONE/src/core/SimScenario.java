@@ -4,6 +4,7 @@
  */
 package core;
 
+import input.ContactPlan;
 import input.EventQueue;
 import input.EventQueueHandler;
 
@@ -14,6 +15,7 @@ import java.util.List;
 import movement.MapBasedMovement;
 import movement.MovementModel;
 import movement.map.SimMap;
+import routing.CongestionControlListener;
 import routing.MessageRouter;
 
 /**
@@ -108,6 +110,8 @@ public class SimScenario implements Serializable {
 	private boolean simulateConnections;
 	/** Map used for host movement (if any) */
 	private SimMap simMap;
+	/** Contact plan of the scenario (null if contact plans aren't used) */
+	private ContactPlan contactPlan;
 
 	/** Global connection event listeners */
 	private List<ConnectionListener> connectionListeners;
@@ -119,6 +123,8 @@ public class SimScenario implements Serializable {
 	private List<UpdateListener> updateListeners;
 	/** Global application event listeners */
 	private List<ApplicationListener> appListeners;
+	/** Global congestion control state update listeners */
+	private List<CongestionControlListener> ccListeners;
 
 	static {
 		DTNSim.registerForReset(SimScenario.class.getCanonicalName());
@@ -153,6 +159,7 @@ public class SimScenario implements Serializable {
 		this.movementListeners = new ArrayList<MovementListener>();
 		this.updateListeners = new ArrayList<UpdateListener>();
 		this.appListeners = new ArrayList<ApplicationListener>();
+		this.ccListeners = new ArrayList<CongestionControlListener>();
 		this.eqHandler = new EventQueueHandler();
 
 		/* TODO: check size from movement models */
@@ -161,11 +168,24 @@ public class SimScenario implements Serializable {
 		this.worldSizeX = worldSize[0];
 		this.worldSizeY = worldSize[1];
 		
+		Settings cps = new Settings(ContactPlan.CONTACT_PLAN_NS);
+		if (simulateConnections && cps.contains(ContactPlan.DIR_S)) {
+			this.contactPlan = new ContactPlan(cps, nrofGroups, endTime);
+			if (contactPlan.isRecorded()) {
+				this.simulateConnections = false;
+			} else {
+				this.updateListeners.add(contactPlan);
+			}
+		}
+
 		createHosts();
 		
 		this.world = new World(hosts, worldSizeX, worldSizeY, updateInterval, 
 				updateListeners, simulateConnections, 
 				eqHandler.getEventQueues());
+		if (contactPlan != null && contactPlan.isRecorded()) {
+			this.world.setContactPlan(contactPlan);
+		}
 	}
 	
 	/**
@@ -320,6 +340,15 @@ public class SimScenario implements Serializable {
 	public List<ApplicationListener> getApplicationListeners() {
 		return this.appListeners;
 	}
+
+	/**
+	 * Adds a new congestion control state update listener for all the
+	 * congestion controlling routers
+	 * @param cl The listener
+	 */
+	public void addCongestionControlListener(CongestionControlListener cl) {
+		this.ccListeners.add(cl);
+	}
 	
 	/**
 	 * Creates hosts for the scenario
@@ -345,6 +374,8 @@ public class SimScenario implements Serializable {
 				(MessageRouter)s.createIntializedObject(ROUTING_PACKAGE + 
 						s.getSetting(ROUTER_S));
 			
+			mRouterProto.setCongestionControlListeners(this.ccListeners);
+
 			// checks that these values are positive (throws Error if not)
 			ensurePositiveValue(nrofHosts, NROF_HOSTS_S);
 			ensurePositiveValue(nrofInterfaces, NROF_INTERF_S);
@@ -357,6 +388,9 @@ public class SimScenario implements Serializable {
 					(NetworkInterface)t.createIntializedObject(INTTYPE_PACKAGE + 
 							t.getSetting(INTTYPE_S));
 				mmInterface.setClisteners(connectionListeners);
+				if (simulateConnections) {
+					mmInterface.setContactPlan(contactPlan);
+				}
 				mmNetInterfaces.add(mmInterface);
 			}
 
@@ -4,15 +4,19 @@
  */
 package core;
 
+import input.ContactPlan;
 import input.EventQueue;
+import input.EventQueueScheduler;
 import input.ExternalEvent;
 import input.ScheduledUpdatesQueue;
 import interfaces.ConnectivityGrid;
+import interfaces.ConnectivityOptimizer;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * World contains all the nodes and is responsible for updating their
@@ -37,19 +41,89 @@ public class World {
 	 * Default is @link {@link #DEF_RANDOMIZE_UPDATES}.
 	 */
 	public static final String RANDOMIZE_UPDATES_S = "randomizeUpdateOrder";
+	/**
+	 * Should the simulation skip the update intervals where nothing can
+	 * happen -setting id ({@value}). Boolean (true/false) variable.
+	 * When enabled, the world doesn't update the hosts on update intervals
+	 * that don't have any external events, finishing transfers or router
+	 * timers (see {@link routing.MessageRouter#getNextUpdateTime()}).
+	 * Simulation time still advances in steps of the update interval so the
+	 * results are the same as with the fixed step updates. The hosts are
+	 * moved on every skipped interval where some host may move, and the
+	 * update listeners are informed after every skipped interval.
+	 * Can be used only when connections are not simulated (i.e., in
+	 * scenarios that get the connections from external events).
+	 * Default is {@link #DEF_EVENT_DRIVEN}.
+	 */
+	public static final String EVENT_DRIVEN_S = "eventDriven";
+	/**
+	 * Number of threads used for moving the hosts and for finding the 
+	 * interfaces that are in range of each other -setting id ({@value}).
+	 * Integer value; 1 means no parallelism and 0 uses all the available
+	 * processors. With more than one thread, the hosts that just move 
+	 * towards their current destination are moved in parallel (the ones
+	 * that need new waypoints are moved first, in the normal order, since
+	 * movement models share a random number generator) and, before the
+	 * hosts are updated, the {@link ConnectivityGrid} finds the in-range
+	 * near interfaces of every network interface in parallel. A prefetched
+	 * result is used only if the interface's neighbouring cells and range
+	 * haven't changed when the host is updated. Connections are still
+	 * created and broken in the normal update order, so the results are the 
+	 * same as with a single thread. Movement models or movement listeners 
+	 * must not depend on the locations of other hosts.
+	 * Default is {@link #DEF_NROF_THREADS}.
+	 */
+	public static final String NROF_THREADS_S = "nrofThreads";
+	/**
+	 * Should the network interfaces use a {@link 
+	 * interfaces.CompactConnectivityGrid} instead of a 
+	 * {@link ConnectivityGrid} -setting id ({@value}). Boolean (true/false)
+	 * variable. The compact grid finds the same near interfaces in the same
+	 * order but keeps the cells in primitive arrays and doesn't allocate
+	 * memory when the interfaces move or when near interfaces are searched.
+	 * Default is {@link #DEF_COMPACT_GRID}.
+	 */
+	public static final String COMPACT_GRID_S = "compactGrid";
+	/**
+	 * Should the external events that happen at the same time be processed
+	 * before the hosts are updated -setting id ({@value}). Boolean
+	 * (true/false) variable. When enabled, simultaneous events (e.g.,
+	 * connection events of a contact trace with the same timestamp) are
+	 * followed by a single update of the hosts instead of an update after
+	 * every event. This changes the results, since the routers don't see
+	 * the connections that go up and down at the same time.
+	 * Default is {@link #DEF_MERGE_EVENTS}.
+	 */
+	public static final String MERGE_EVENTS_S = "mergeSimultaneousEvents";
 	/** default value for cell size multiplier ({@value}) */
 	public static final int DEF_CON_CELL_SIZE_MULT = 5;
 	/** should the update order of nodes be randomized -setting's default value
 	 * ({@value}) */
 	public static final boolean DEF_RANDOMIZE_UPDATES = true;
+	/** should idle update intervals be skipped -setting's default value
+	 * ({@value}) */
+	public static final boolean DEF_EVENT_DRIVEN = false;
+	/** number of update threads -setting's default value ({@value}) */
+	public static final int DEF_NROF_THREADS = 1;
+	/** should the compact connectivity grid be used -setting's default 
+	 * value ({@value}) */
+	public static final boolean DEF_COMPACT_GRID = false;
+	/** should simultaneous events be followed by a single host update
+	 * -setting's default value ({@value}) */
+	public static final boolean DEF_MERGE_EVENTS = false;
+	/** how many hosts are moved in one task when moving in parallel */
+	private static final int MOVE_GRAIN = 256;
+	/** how much earlier than requested idle skipping stops (to cover
+	 * rounding errors of the simulation time) */
+	private static final double WAKEUP_MARGIN = 1e-6;
 
 	private int sizeX;
 	private int sizeY;
-	private List<EventQueue> eventQueues;
 	private double updateInterval;
 	private SimClock simClock;
-	private double nextQueueEventTime;
-	private EventQueue nextEventQueue;
+	/** the scheduled updates and the event queues ordered by their next
+	 * events */
+	private EventQueueScheduler events;
 	/** list of nodes; nodes are indexed by their network address */
 	private List<DTNHost> hosts;
 	private boolean simulateConnections;
@@ -61,10 +135,34 @@ public class World {
 	private List<UpdateListener> updateListeners;
 	/** Queue of scheduled update requests */
 	private ScheduledUpdatesQueue scheduledUpdates;
+	/** index of the scheduled updates in the event scheduler */
+	private int scheduledUpdatesIndex;
+	/** are simultaneous events followed by a single host update */
+	private boolean mergeEvents;
+	/** are the idle update intervals skipped */
+	private boolean eventDriven;
+	/** end time of the simulation (used only in event driven mode) */
+	private double endTime;
+	/** random number generator for shuffling the update order */
+	private Random updateOrderRng;
+	/** seed of the update order's random number stream */
+	private long updateOrderSeed;
 
 	/** single ConnectivityCell's size is biggest radio range times this */
 	private int conCellSizeMult;
 
+	/** pool for the parallel updates (null if updates are serial) */
+	private ForkJoinPool pool;
+	/** hosts whose move is finished in parallel */
+	private DTNHost[] pendingMoves;
+	/** connectivity optimizers of the hosts' interfaces (for prefetching) */
+	private List<ConnectivityOptimizer> optimizers;
+	/** have the hosts moved since the near interfaces were prefetched */
+	private boolean hostsMoved;
+	/** contact plan that is used instead of simulating the connections
+	 * (null if there's no contact plan) */
+	private ContactPlan contactPlan;
+
 	/**
 	 * Constructor.
 	 */
@@ -77,13 +175,16 @@ public class World {
 		this.updateInterval = updateInterval;
 		this.updateListeners = updateListeners;
 		this.simulateConnections = simulateConnections;
-		this.eventQueues = eventQueues;
 		
 		this.simClock = SimClock.getInstance();
 		this.scheduledUpdates = new ScheduledUpdatesQueue();
 		this.isCancelled = false;		
 
-		setNextEventQueue();
+		this.events = new EventQueueScheduler();
+		this.scheduledUpdatesIndex = events.addQueue(scheduledUpdates);
+		for (EventQueue eq : eventQueues) {
+			events.addQueue(eq);
+		}
 		initSettings();
 	}
 
@@ -100,6 +201,9 @@ public class World {
 		if(randomizeUpdates) {
 			// creates the update order array that can be shuffled
 			this.updateOrder = new ArrayList<DTNHost>(this.hosts);
+			this.updateOrderRng = new Random(0);
+			this.updateOrderSeed = RandomStreams.getSeed(
+					World.class.getSimpleName(), 0);
 		}
 		else { // null pointer means "don't randomize"
 			this.updateOrder = null;
@@ -117,6 +221,57 @@ public class World {
 			throw new SettingsError("Too small value (" + conCellSizeMult +
 					") for " + SETTINGS_NS + "." + CELL_SIZE_MULT_S);
 		}
+
+		if (s.contains(MERGE_EVENTS_S)) {
+			mergeEvents = s.getBoolean(MERGE_EVENTS_S);
+		}
+		else {
+			mergeEvents = DEF_MERGE_EVENTS;
+		}
+
+		if (s.contains(EVENT_DRIVEN_S)) {
+			eventDriven = s.getBoolean(EVENT_DRIVEN_S);
+		}
+		else {
+			eventDriven = DEF_EVENT_DRIVEN;
+		}
+
+		if (eventDriven) {
+			if (simulateConnections) {
+				throw new SettingsError(SETTINGS_NS + "." + EVENT_DRIVEN_S +
+						" can't be used when connections are simulated");
+			}
+			Settings scen = new Settings(SimScenario.SCENARIO_NS);
+			this.endTime = scen.getDouble(SimScenario.END_TIME_S);
+		}
+
+		int nrofThreads = DEF_NROF_THREADS;
+		if (s.contains(NROF_THREADS_S)) {
+			nrofThreads = s.getInt(NROF_THREADS_S);
+		}
+		if (nrofThreads < 0) {
+			throw new SettingsError("Negative value (" + nrofThreads + 
+					") for " + SETTINGS_NS + "." + NROF_THREADS_S);
+		}
+		if (nrofThreads == 0) {
+			nrofThreads = Runtime.getRuntime().availableProcessors();
+		}
+		if (nrofThreads > 1) {
+			this.pool = new ForkJoinPool(nrofThreads);
+			this.pendingMoves = new DTNHost[this.hosts.size()];
+		}
+	}
+
+	/**
+	 * Sets a recorded contact plan that is used instead of simulating the
+	 * connections. Just before a host is updated, the connections its 
+	 * interfaces created and broke in that update of the recorded run are
+	 * replayed. The hosts are still moved, so their locations are the same
+	 * as in the recorded run.
+	 * @param contactPlan The contact plan
+	 */
+	public void setContactPlan(ContactPlan contactPlan) {
+		this.contactPlan = contactPlan;
 	}
 
 	/**
@@ -142,23 +297,13 @@ public class World {
 	}
 
 	/**
-	 * Goes through all event Queues and sets the 
-	 * event queue that has the next event.
+	 * Goes through all event Queues and updates the order of the queues by
+	 * their next events. Needed only if events were added to a queue
+	 * outside of the event processing (e.g., by another thread); the
+	 * queues are gone through at the start of every update anyway.
 	 */
 	public void setNextEventQueue() {
-		EventQueue nextQueue = scheduledUpdates;
-		double earliest = nextQueue.nextEventsTime();
-
-		/* find the queue that has the next event */
-		for (EventQueue eq : eventQueues) {
-			if (eq.nextEventsTime() < earliest){
-				nextQueue = eq;	
-				earliest = eq.nextEventsTime();
-			}
-		}
-
-		this.nextEventQueue = nextQueue;
-		this.nextQueueEventTime = earliest;
+		this.events.queuesChanged();
 	}
 
 	/** 
@@ -167,17 +312,25 @@ public class World {
 	 * this method is called and after one update interval.
 	 */
 	public void update () {
+		if (this.eventDriven) {
+			skipIdleIntervals();
+		}
+
 		double runUntil = SimClock.getTime() + this.updateInterval;
 
 		setNextEventQueue();
 
 		/* process all events that are due until next interval update */
-		while (this.nextQueueEventTime <= runUntil) {
-			simClock.setTime(this.nextQueueEventTime);
-			ExternalEvent ee = this.nextEventQueue.nextEvent();
-			ee.processEvent(this);
-			updateHosts(); // update all hosts after every event
-			setNextEventQueue();
+		double eventTime = this.events.nextEventsTime();
+		while (eventTime <= runUntil) {
+			simClock.setTime(eventTime);
+			do {
+				ExternalEvent ee = this.events.nextEvent();
+				ee.processEvent(this);
+			} while (this.mergeEvents &&
+					this.events.nextEventsTime() == eventTime);
+			updateHosts(); // update all hosts after every event (time)
+			eventTime = this.events.nextEventsTime();
 		}
 
 		moveHosts(this.updateInterval);
@@ -191,32 +344,117 @@ public class World {
 		}
 	}
 
+	/**
+	 * Advances the simulation time over the update intervals where no
+	 * external events are due, no router needs an update and the
+	 * simulation doesn't end. The time is advanced in update interval
+	 * steps so that the following update happens at exactly the same time
+	 * as it would without skipping. The hosts are moved like in a normal
+	 * update, but only on the intervals where some host may move, and the
+	 * update listeners are informed after every skipped interval. The
+	 * update order doesn't need to be shuffled, since the order of an
+	 * update depends only on its time.
+	 */
+	private void skipIdleIntervals() {
+		double wakeup = this.endTime;
+
+		setNextEventQueue();
+		wakeup = Math.min(wakeup, this.events.nextEventsTime());
+		if (this.contactPlan != null) {
+			wakeup = Math.min(wakeup, this.contactPlan.nextEventsTime());
+		}
+		for (int i=0, n = hosts.size(); i < n; i++) {
+			wakeup = Math.min(wakeup,
+					hosts.get(i).getRouter().getNextUpdateTime());
+		}
+		wakeup -= WAKEUP_MARGIN;
+
+		double nextMove = getNextTimeToMove();
+		while (SimClock.getTime() + this.updateInterval < wakeup &&
+				!this.isCancelled) {
+			if (SimClock.getTime() >= nextMove) {
+				moveHosts(this.updateInterval);
+				nextMove = getNextTimeToMove();
+			}
+			simClock.advance(this.updateInterval);
+			for (UpdateListener ul : this.updateListeners) {
+				ul.updated(this.hosts);
+			}
+		}
+	}
+
+	/**
+	 * Returns the earliest time when some host may move. Moving the hosts
+	 * before that doesn't change anything.
+	 * @return The time
+	 */
+	private double getNextTimeToMove() {
+		double next = Double.MAX_VALUE;
+		for (int i=0, n = hosts.size(); i < n; i++) {
+			next = Math.min(next, hosts.get(i).getNextTimeToMove());
+		}
+		return next;
+	}
+
 	/**
 	 * Updates all hosts (calls update for every one of them). If update
 	 * order randomizing is on (updateOrder array is defined), the calls
 	 * are made in random order.
 	 */
 	private void updateHosts() {
+		if (this.pool != null && this.hostsMoved && simulateConnections) {
+			prefetchNearInterfaces();
+		}
+
 		if (this.updateOrder == null) { // randomizing is off
 			for (int i=0, n = hosts.size();i < n; i++) {
 				if (this.isCancelled) {
 					break;
 				}
-				hosts.get(i).update(simulateConnections);
+				updateHost(hosts.get(i));
 			}
 		}
 		else { // update order randomizing is on
 			assert this.updateOrder.size() == this.hosts.size() : 
 				"Nrof hosts has changed unexpectedly";
-			Random rng = new Random(SimClock.getIntTime());
-			Collections.shuffle(this.updateOrder, rng); 
+			shuffleUpdateOrder();
 			for (int i=0, n = hosts.size();i < n; i++) {
 				if (this.isCancelled) {
 					break;
 				}
-				this.updateOrder.get(i).update(simulateConnections);
+				updateHost(this.updateOrder.get(i));
 			}			
 		}
+
+		if (this.contactPlan != null) {
+			/* events that weren't created in any host's update */
+			this.contactPlan.replayConnections(this);
+		}
+	}
+
+	/**
+	 * Updates a host. With a contact plan, the host's connection changes
+	 * are replayed first.
+	 * @param host The host to update
+	 */
+	private void updateHost(DTNHost host) {
+		if (this.contactPlan != null) {
+			this.contactPlan.replayConnections(host, this);
+		}
+		host.update(simulateConnections);
+	}
+
+	/**
+	 * Sets the update order to a random permutation of the hosts. The
+	 * permutation is drawn from the update order's random number stream
+	 * seeded for the current simulation time, so it depends only on the
+	 * time and not on the previous updates.
+	 */
+	private void shuffleUpdateOrder() {
+		Collections.copy(this.updateOrder, this.hosts);
+		RandomStreams.setSeed(this.updateOrderRng, this.updateOrderSeed,
+				Double.doubleToLongBits(SimClock.getTime()));
+		Collections.shuffle(this.updateOrder, this.updateOrderRng);
 	}
 
 	/**
@@ -224,12 +462,66 @@ public class World {
 	 * @param timeIncrement The time how long all nodes should move
 	 */
 	private void moveHosts(double timeIncrement) {
+		this.hostsMoved = true;
+		if (this.pool != null) {
+			moveHostsInParallel(timeIncrement);
+			return;
+		}
+
 		for (int i=0,n = hosts.size(); i<n; i++) {
 			DTNHost host = hosts.get(i);
 			host.move(timeIncrement);			
 		}		
 	}
 
+	/**
+	 * Moves all hosts in the world for a given amount of time using the
+	 * update threads. The hosts that need new waypoints are moved first, in
+	 * the order of the hosts list, and the rest are moved in parallel.
+	 * @param timeIncrement The time how long all nodes should move
+	 */
+	private void moveHostsInParallel(final double timeIncrement) {
+		final DTNHost[] pending = this.pendingMoves;
+		int nrofPending = 0;
+
+		for (int i=0,n = hosts.size(); i<n; i++) {
+			DTNHost host = hosts.get(i);
+			if (host.startMove(timeIncrement)) {
+				pending[nrofPending++] = host;
+			}
+		}
+
+		ParallelLoop.run(this.pool, nrofPending, MOVE_GRAIN, 
+				new ParallelLoop.Body() {
+			public void run(int index) {
+				pending[index].finishMove(timeIncrement);
+			}
+		});
+	}
+
+	/**
+	 * Prefetches the near interfaces of all the hosts' interfaces using
+	 * the update threads
+	 */
+	private void prefetchNearInterfaces() {
+		if (this.optimizers == null) {
+			this.optimizers = new ArrayList<ConnectivityOptimizer>();
+			for (DTNHost host : this.hosts) {
+				for (NetworkInterface ni : host.getInterfaces()) {
+					ConnectivityOptimizer o = ni.getOptimizer();
+					if (o != null && !this.optimizers.contains(o)) {
+						this.optimizers.add(o);
+					}
+				}
+			}
+		}
+
+		for (ConnectivityOptimizer o : this.optimizers) {
+			o.prefetchNearInterfaces(this.pool);
+		}
+		this.hostsMoved = false;
+	}
+
 	/**
 	 * Asynchronously cancels the currently running simulation
 	 */
@@ -286,5 +578,6 @@ public class World {
 	 */
 	public void scheduleUpdate(double simTime) {
 		scheduledUpdates.addUpdate(simTime);
+		events.queueChanged(scheduledUpdatesIndex);
 	}
 }
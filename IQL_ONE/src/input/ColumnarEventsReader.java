@@ -0,0 +1,534 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package input;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import core.SimError;
+
+/**
+ * <P>
+ * Reads external events from a binary, columnar file. The file is memory
+ * mapped and event objects are created only when the events are read, so
+ * even very large traces open instantly and use little heap. Files can be
+ * converted from the standard text format with
+ * {@link #storeToColumnarFile(String, ExternalEventsReader)} or from the
+ * command line:
+ * </P>
+ * <PRE>
+ * java input.ColumnarEventsReader &lt;text events file&gt; &lt;output file&gt;
+ * </PRE>
+ * <P>
+ * File format (big endian): a header with magic number, version, number of
+ * events, number of message creation events and number of strings (ints),
+ * then the columns time (double), host1, host2 and string (ints) and type
+ * (byte) with one value per event, the sizes and response sizes (ints) of
+ * the message creation events in the same order as the events, and
+ * finally the string table: an int column of <CODE>nrofStrings + 1</CODE>
+ * offsets to the UTF-8 data that follows it. The string column refers to
+ * the message ID, or to the interface ID of a connection event, in the
+ * string table (-1 for none). Each distinct string is stored (and, when
+ * read, created) only once.
+ * </P>
+ * <P>
+ * Files bigger than 2 GB are not supported.
+ * </P>
+ */
+public class ColumnarEventsReader implements ExternalEventsReader {
+	/** Extension of columnar external events file */
+	public static final String COLUMNAR_EXT = ".binee2";
+
+	/** magic number at the start of the file ("BEE2") */
+	private static final int MAGIC = 0x42454532;
+	/** version of the file format */
+	private static final int VERSION = 1;
+	/** size of the header (bytes) */
+	private static final int HEADER_SIZE = 20;
+	/** encoding of the strings */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/* event type codes */
+	private static final byte CONN_DOWN = 0;
+	private static final byte CONN_UP = 1;
+	private static final byte CREATE = 2;
+	private static final byte SEND = 3;
+	private static final byte DELIVERED = 4;
+	private static final byte ABORT = 5;
+	private static final byte DROP = 6;
+	private static final byte REMOVE = 7;
+
+	private ByteBuffer buffer;
+	private int nrofEvents;
+	private int nextEvent;
+	/** number of message creation events read so far */
+	private int nextCreate;
+
+	/* start offsets of the columns */
+	private int timeCol;
+	private int host1Col;
+	private int host2Col;
+	private int stringCol;
+	private int typeCol;
+	private int sizeCol;
+	private int stringOffsetCol;
+	private int stringData;
+
+	/** strings of the string table that have been read */
+	private String[] strings;
+
+	/**
+	 * Constructor.
+	 * @param eventsFile The file where the events are read
+	 */
+	public ColumnarEventsReader(File eventsFile) {
+		this.buffer = map(eventsFile);
+
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new SimError("Invalid columnar external events file: " +
+					eventsFile.getAbsolutePath());
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new SimError("Unsupported version (" + buffer.getInt(4) +
+					") of columnar external events file " +
+					eventsFile.getAbsolutePath());
+		}
+
+		this.nrofEvents = buffer.getInt(8);
+		int nrofCreates = buffer.getInt(12);
+		int nrofStrings = buffer.getInt(16);
+		this.strings = new String[nrofStrings];
+
+		int n = nrofEvents;
+		this.timeCol = HEADER_SIZE;
+		this.host1Col = timeCol + 8 * n;
+		this.host2Col = host1Col + 4 * n;
+		this.stringCol = host2Col + 4 * n;
+		this.typeCol = stringCol + 4 * n;
+		this.sizeCol = typeCol + n;
+		this.stringOffsetCol = sizeCol + 8 * nrofCreates;
+		this.stringData = stringOffsetCol + 4 * (nrofStrings + 1);
+
+		if (stringData > buffer.capacity() || stringData +
+				buffer.getInt(stringData - 4) != buffer.capacity()) {
+			throw new SimError("Truncated columnar external events file: " +
+					eventsFile.getAbsolutePath());
+		}
+		this.nextEvent = 0;
+		this.nextCreate = 0;
+	}
+
+	/**
+	 * Maps a file to memory
+	 */
+	private static MappedByteBuffer map(File file) {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			FileChannel channel = raf.getChannel();
+			/* the mapping stays valid after the channel is closed */
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+		} catch (IOException e) {
+			throw new SimError(e.getMessage(), e);
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+					throw new SimError(e.getMessage(), e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads events from the file
+	 * @param nrof Maximum number of events to read
+	 * @return Events in an ArrayList (empty list if didn't read any)
+	 */
+	public List<ExternalEvent> readEvents(int nrof) {
+		int end = Math.min(nrofEvents, nextEvent + nrof);
+		ArrayList<ExternalEvent> events =
+			new ArrayList<ExternalEvent>(Math.max(end - nextEvent, 0));
+
+		for (; nextEvent < end; nextEvent++) {
+			events.add(createEvent(nextEvent));
+		}
+		return events;
+	}
+
+	/**
+	 * Creates the event object of an event. The events must be created in
+	 * order.
+	 * @param i Index of the event
+	 * @return The event
+	 */
+	private ExternalEvent createEvent(int i) {
+		double time = buffer.getDouble(timeCol + 8 * i);
+		int host1 = buffer.getInt(host1Col + 4 * i);
+		int host2 = buffer.getInt(host2Col + 4 * i);
+		String str = getString(buffer.getInt(stringCol + 4 * i));
+		byte type = buffer.get(typeCol + i);
+
+		switch (type) {
+		case CONN_DOWN:
+		case CONN_UP:
+			return new ConnectionEvent(host1, host2, str, type == CONN_UP,
+					time);
+		case CREATE:
+			int k = nextCreate++;
+			return new MessageCreateEvent(host1, host2, str,
+					buffer.getInt(sizeCol + 8 * k),
+					buffer.getInt(sizeCol + 8 * k + 4), time);
+		case SEND:
+			return new MessageRelayEvent(host1, host2, str, time,
+					MessageRelayEvent.SENDING);
+		case DELIVERED:
+			return new MessageRelayEvent(host1, host2, str, time,
+					MessageRelayEvent.TRANSFERRED);
+		case ABORT:
+			return new MessageRelayEvent(host1, host2, str, time,
+					MessageRelayEvent.ABORTED);
+		case DROP:
+		case REMOVE:
+			return new MessageDeleteEvent(host1, str, time, type == DROP);
+		default:
+			throw new SimError("Unknown event type " + type + " for event " +
+					i + " in columnar external events file");
+		}
+	}
+
+	/**
+	 * Returns a string of the string table
+	 * @param index Index of the string or -1 for none
+	 * @return The string or null for index -1
+	 */
+	private String getString(int index) {
+		if (index < 0) {
+			return null;
+		}
+		String s = strings[index];
+		if (s == null) {
+			int start = buffer.getInt(stringOffsetCol + 4 * index);
+			int end = buffer.getInt(stringOffsetCol + 4 * (index + 1));
+			byte[] bytes = new byte[end - start];
+			for (int i=0; i < bytes.length; i++) {
+				bytes[i] = buffer.get(stringData + start + i);
+			}
+			s = new String(bytes, UTF8);
+			strings[index] = s;
+		}
+		return s;
+	}
+
+	/**
+	 * Returns the total number of events in the file
+	 * @return the number of events
+	 */
+	public int getNrofEvents() {
+		return this.nrofEvents;
+	}
+
+	/**
+	 * Releases the mapped file. The memory is unmapped when the buffer is
+	 * garbage collected.
+	 */
+	public void close() {
+		this.buffer = ByteBuffer.allocate(0);
+		this.nrofEvents = 0;
+		this.strings = null;
+	}
+
+	/**
+	 * Checks if the given file is a columnar external events file
+	 * @param file The file to check
+	 * @return True if the file has the right extension and magic number
+	 */
+	public static boolean isColumnarEeFile(File file) {
+		if (!file.getName().endsWith(COLUMNAR_EXT) || !file.isFile() ||
+				file.length() < HEADER_SIZE) {
+			return false;
+		}
+
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			return raf.readInt() == MAGIC;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+					/* can't do anything about it */
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stores events to a columnar file
+	 * @param fileName Path to the file where the events are stored
+	 * @param events List of events to store
+	 * @throws IOException if something in storing went wrong
+	 * @throws SimError if some of the events can't be stored
+	 */
+	public static void storeToColumnarFile(String fileName,
+			List<ExternalEvent> events) throws IOException {
+		Columns columns = new Columns();
+		for (ExternalEvent ee : events) {
+			columns.add(ee);
+		}
+		columns.write(fileName);
+	}
+
+	/**
+	 * Reads all events from a reader and stores them to a columnar file
+	 * @param fileName Path to the file where the events are stored
+	 * @param reader The reader where the events are read from
+	 * @return The number of events stored
+	 * @throws IOException if something in storing went wrong
+	 * @throws SimError if some of the events can't be stored
+	 */
+	public static int storeToColumnarFile(String fileName,
+			ExternalEventsReader reader) throws IOException {
+		final int CHUNK_SIZE = 10000;
+		Columns columns = new Columns();
+		List<ExternalEvent> events;
+
+		do {
+			events = reader.readEvents(CHUNK_SIZE);
+			for (ExternalEvent ee : events) {
+				columns.add(ee);
+			}
+		} while (events.size() > 0);
+		reader.close();
+
+		columns.write(fileName);
+		return columns.size;
+	}
+
+	/**
+	 * Converts a standard external events file to a columnar file
+	 * @param args The input and output file names
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.out.println("Usage: java " +
+					ColumnarEventsReader.class.getName() +
+					" <text events file> <output file>");
+			System.exit(1);
+		}
+		java.util.Locale.setDefault(java.util.Locale.US);
+
+		String outFile = args[1];
+		if (!outFile.endsWith(COLUMNAR_EXT)) {
+			outFile += COLUMNAR_EXT;
+		}
+		long start = System.currentTimeMillis();
+		try {
+			int n = storeToColumnarFile(outFile,
+					new StandardEventsReader(new File(args[0])));
+			System.out.println("Stored " + n + " events to " + outFile +
+					" in " + (System.currentTimeMillis() - start) + " ms");
+		} catch (IOException e) {
+			System.err.println("Can't write " + outFile + ": " + e);
+			System.exit(-1);
+		}
+	}
+
+	/**
+	 * Columns of events that are being stored
+	 */
+	static class Columns {
+		private int size = 0;
+		private double[] times = new double[1024];
+		private int[] hosts1 = new int[1024];
+		private int[] hosts2 = new int[1024];
+		private int[] stringRefs = new int[1024];
+		private byte[] types = new byte[1024];
+		/** sizes and response sizes of the creation events */
+		private int[] sizes = new int[1024];
+		private int nrofCreates = 0;
+		private Map<String, Integer> stringIndex =
+			new HashMap<String, Integer>();
+		private List<String> strings = new ArrayList<String>();
+
+		/**
+		 * Adds a connection event to the columns without creating an event
+		 * object for it
+		 * @param time Time of the event
+		 * @param from Address of the host the connection is from
+		 * @param to Address of the host the connection is to
+		 * @param interfaceId The interface ID or null for none
+		 * @param up True for a "connection up" event
+		 */
+		void addConnection(double time, int from, int to, String interfaceId,
+				boolean up) {
+			ensureRoom();
+			int i = size;
+			times[i] = time;
+			types[i] = up ? CONN_UP : CONN_DOWN;
+			hosts1[i] = from;
+			hosts2[i] = to;
+			stringRefs[i] = intern(interfaceId);
+			size++;
+		}
+
+		/**
+		 * Adds an event to the columns
+		 * @throws SimError if the type of the event isn't supported
+		 */
+		void add(ExternalEvent ee) {
+			if (ee instanceof ConnectionEvent) {
+				ConnectionEvent ce = (ConnectionEvent)ee;
+				addConnection(ce.getTime(), ce.fromAddr, ce.toAddr,
+						ce.interfaceId, ce.isUp);
+				return;
+			}
+
+			ensureRoom();
+			int i = size;
+			times[i] = ee.getTime();
+
+			if (ee instanceof MessageEvent) {
+				MessageEvent me = (MessageEvent)ee;
+				hosts1[i] = me.fromAddr;
+				hosts2[i] = me.toAddr;
+				stringRefs[i] = intern(me.id);
+
+				if (ee instanceof MessageCreateEvent) {
+					MessageCreateEvent mce = (MessageCreateEvent)ee;
+					types[i] = CREATE;
+					if (2 * nrofCreates == sizes.length) {
+						sizes = Arrays.copyOf(sizes, sizes.length * 2);
+					}
+					sizes[2 * nrofCreates] = mce.getSize();
+					sizes[2 * nrofCreates + 1] = mce.getResponseSize();
+					nrofCreates++;
+				}
+				else if (ee instanceof MessageRelayEvent) {
+					int stage = ((MessageRelayEvent)ee).getStage();
+					types[i] = (stage == MessageRelayEvent.SENDING ? SEND :
+						stage == MessageRelayEvent.TRANSFERRED ? DELIVERED :
+							ABORT);
+				}
+				else if (ee instanceof MessageDeleteEvent) {
+					types[i] = ((MessageDeleteEvent)ee).isDrop() ? DROP :
+						REMOVE;
+				}
+				else {
+					throw new SimError("Can't store " + ee + " (of " +
+							ee.getClass() + ") to a columnar file");
+				}
+			}
+			else {
+				throw new SimError("Can't store " + ee + " (of " +
+						ee.getClass() + ") to a columnar file");
+			}
+			size++;
+		}
+
+		/**
+		 * Returns the number of events in the columns
+		 */
+		int size() {
+			return size;
+		}
+
+		/**
+		 * Makes room for one more event
+		 */
+		private void ensureRoom() {
+			if (size == times.length) {
+				int newSize = size * 2;
+				times = Arrays.copyOf(times, newSize);
+				hosts1 = Arrays.copyOf(hosts1, newSize);
+				hosts2 = Arrays.copyOf(hosts2, newSize);
+				stringRefs = Arrays.copyOf(stringRefs, newSize);
+				types = Arrays.copyOf(types, newSize);
+			}
+		}
+
+		/**
+		 * Returns the index of a string in the string table, adding the
+		 * string if it isn't there yet
+		 * @return The index or -1 for null
+		 */
+		private int intern(String s) {
+			if (s == null) {
+				return -1;
+			}
+			Integer index = stringIndex.get(s);
+			if (index == null) {
+				index = strings.size();
+				stringIndex.put(s, index);
+				strings.add(s);
+			}
+			return index;
+		}
+
+		/**
+		 * Writes the columns to a file
+		 */
+		void write(String fileName) throws IOException {
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(fileName),
+							1 << 16));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(size);
+				out.writeInt(nrofCreates);
+				out.writeInt(strings.size());
+
+				for (int i=0; i < size; i++) {
+					out.writeDouble(times[i]);
+				}
+				writeInts(out, hosts1, size);
+				writeInts(out, hosts2, size);
+				writeInts(out, stringRefs, size);
+				out.write(types, 0, size);
+				writeInts(out, sizes, 2 * nrofCreates);
+
+				byte[][] data = new byte[strings.size()][];
+				int offset = 0;
+				out.writeInt(offset);
+				for (int i=0; i < data.length; i++) {
+					data[i] = strings.get(i).getBytes(UTF8);
+					offset += data[i].length;
+					out.writeInt(offset);
+				}
+				for (byte[] b : data) {
+					out.write(b);
+				}
+			} finally {
+				out.close();
+			}
+		}
+
+		private void writeInts(DataOutputStream out, int[] column, int n)
+				throws IOException {
+			for (int i=0; i < n; i++) {
+				out.writeInt(column[i]);
+			}
+		}
+	}
+}
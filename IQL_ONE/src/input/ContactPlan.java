@@ -0,0 +1,394 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package input;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import movement.MovementModel;
+import core.DTNHost;
+import core.NetworkInterface;
+import core.Settings;
+import core.SettingsError;
+import core.SimClock;
+import core.SimError;
+import core.SimScenario;
+import core.UpdateListener;
+import core.World;
+
+/**
+ * <P>
+ * Contact plan of a scenario: the connections that are created and broken
+ * during a simulation run, stored on disk so that later runs with the same
+ * movement and interface settings can replay them instead of moving the
+ * hosts and checking which interfaces are in range of each other. This
+ * saves most of the run time of, e.g., parameter sweeps over routing
+ * settings in scenarios with simulated connections.
+ * </P>
+ * <P>
+ * Contact plans are used if the directory setting ({@link #DIR_S}) is
+ * defined and connections are simulated. The plan files are stored in the
+ * directory, in the {@link ColumnarEventsReader columnar events format},
+ * and named after a hash of the settings that can affect the connectivity:
+ * all the settings of the {@link SimScenario#SCENARIO_NS Scenario},
+ * {@link MovementModel#MOVEMENT_MODEL_NS MovementModel},
+ * {@link World#SETTINGS_NS Optimization} and host group namespaces (except
+ * the scenario name and the optimization settings that don't change the
+ * results), the
+ * namespaces of the groups' movement models (and their super classes) and
+ * interfaces, and the namespaces listed in the {@link #NAMESPACES_S}
+ * setting. For the settings whose value is the path of an existing file,
+ * the size and the modification time of the file are hashed too.
+ * </P>
+ * <P>
+ * If there is no plan for the settings, the connection changes of the run
+ * are recorded and the plan is stored when the run reaches its end time.
+ * If there is one, the connections are not simulated (see
+ * {@link World#setContactPlan(ContactPlan)}). Instead, the connection
+ * events of the plan are replayed at the same times, in the same order and
+ * at the same points of the hosts' update round as the hosts' interfaces
+ * created and broke the connections in the recorded run, so the results of
+ * the replaying runs are the same as they would be with simulated
+ * connections. The hosts are still moved, so the reports and routers that
+ * use the hosts' locations work as in the recorded run. Replaying runs can
+ * use the {@link World#EVENT_DRIVEN_S event driven} updates.
+ * </P>
+ * <P>
+ * Contact plans can't be used with interfaces that change their transmit
+ * speed in their update (see {@link #UNSUPPORTED_INTERFACES}) or with
+ * routers that change the interfaces' settings, e.g., turn the radio off
+ * (see {@link #UNSUPPORTED_ROUTERS}), since the contacts of such scenarios
+ * depend on more than the hashed settings.
+ * </P>
+ */
+public class ContactPlan implements UpdateListener {
+	/** namespace of contact plan settings ({@value}) */
+	public static final String CONTACT_PLAN_NS = "ContactPlan";
+	/** directory where the contact plans are stored -setting id
+	 * ({@value}). Contact plans are used only if this setting is defined. */
+	public static final String DIR_S = "dir";
+	/** names of additional namespaces whose settings affect the
+	 * connectivity -setting id ({@value}). Comma separated list of
+	 * namespaces, e.g., the namespaces that movement models read settings
+	 * from in addition to their own. */
+	public static final String NAMESPACES_S = "namespaces";
+
+	/** interface types whose transmit speed is updated in their update
+	 * method, which is not called when a plan is replayed */
+	public static final String[] UNSUPPORTED_INTERFACES =
+		{"InterferenceLimitedInterface"};
+	/** router classes that change the settings of the interfaces, so that
+	 * the contacts depend on the routing */
+	public static final String[] UNSUPPORTED_ROUTERS = {"EnergyAwareRouter"};
+
+	/** version of the settings hash; change when the hashed settings or
+	 * the recording changes */
+	private static final String HASH_VERSION = "2";
+	/** full names of the settings of the hashed namespaces that are not
+	 * hashed */
+	private static final Set<String> IGNORED_SETTINGS = new HashSet<String>(
+			Arrays.asList(SimScenario.SCENARIO_NS + "." + SimScenario.NAME_S,
+					World.SETTINGS_NS + "." + World.CELL_SIZE_MULT_S,
+					World.SETTINGS_NS + "." + World.EVENT_DRIVEN_S,
+					World.SETTINGS_NS + "." + World.NROF_THREADS_S,
+					World.SETTINGS_NS + "." + World.COMPACT_GRID_S));
+
+	/** the file of the contact plan */
+	private File planFile;
+	/** end time of the simulation */
+	private double endTime;
+	/** the connection changes recorded so far or null if the plan is not
+	 * being recorded */
+	private ColumnarEventsReader.Columns recorded;
+	/** reader of a recorded plan's events (null if the plan is being
+	 * recorded) */
+	private ColumnarEventsReader reader;
+	/** the events read from the plan and the index of the next one */
+	private List<ExternalEvent> events;
+	private int nextEvent;
+
+	/**
+	 * Constructor. Looks up the contact plan for the current settings.
+	 * @param s Settings of the contact plan namespace
+	 * @param nrofGroups Number of host groups in the scenario
+	 * @param endTime End time of the simulation; the plan is stored when
+	 * the simulation time reaches it
+	 */
+	public ContactPlan(Settings s, int nrofGroups, double endTime) {
+		File dir = new File(s.getSetting(DIR_S));
+		String[] extraNamespaces = new String[0];
+		if (s.contains(NAMESPACES_S)) {
+			extraNamespaces = s.getCsvSetting(NAMESPACES_S);
+		}
+
+		this.planFile = new File(dir, getSettingsKey(nrofGroups,
+				extraNamespaces) + ColumnarEventsReader.COLUMNAR_EXT);
+		this.endTime = endTime;
+
+		if (ColumnarEventsReader.isColumnarEeFile(planFile)) {
+			this.reader = new ColumnarEventsReader(planFile);
+			this.events = reader.readEvents(
+					ExternalEventsQueue.DEFAULT_NROF_PRELOAD);
+			this.nextEvent = 0;
+		} else {
+			this.recorded = new ColumnarEventsReader.Columns();
+		}
+	}
+
+	/**
+	 * Returns true if the plan has been recorded in an earlier run and can
+	 * be replayed
+	 * @return true if the plan can be replayed
+	 */
+	public boolean isRecorded() {
+		return this.recorded == null;
+	}
+
+	/**
+	 * Returns the file of the contact plan
+	 * @return the file of the contact plan
+	 */
+	public File getFile() {
+		return this.planFile;
+	}
+
+	/**
+	 * Returns the time of the next connection event of a recorded plan
+	 * @return The time or Double.MAX_VALUE if there are no events left
+	 */
+	public double nextEventsTime() {
+		if (nextEvent >= events.size()) {
+			return Double.MAX_VALUE;
+		}
+		return events.get(nextEvent).getTime();
+	}
+
+	/**
+	 * Replays the connection events of a recorded plan that the host's
+	 * interfaces created when the host was updated at the current time.
+	 * Must be called just before the host is updated.
+	 * @param host The host that is going to be updated
+	 * @param world The world where the events are processed
+	 */
+	public void replayConnections(DTNHost host, World world) {
+		replay(host.getAddress(), world);
+	}
+
+	/**
+	 * Replays all the connection events of a recorded plan that are due by
+	 * the current time
+	 * @param world The world where the events are processed
+	 */
+	public void replayConnections(World world) {
+		replay(-1, world);
+	}
+
+	/**
+	 * Processes the due events whose connection is from the given host
+	 * (or from any host if the address is negative) until the next event
+	 * is not due or is from another host
+	 */
+	private void replay(int address, World world) {
+		double now = SimClock.getTime();
+		while (nextEvent < events.size()) {
+			ConnectionEvent ce = (ConnectionEvent)events.get(nextEvent);
+			if (ce.getTime() > now || (address >= 0 &&
+					ce.fromAddr != address)) {
+				return;
+			}
+			ce.processEvent(world);
+
+			if (++nextEvent == events.size()) {
+				events = reader.readEvents(
+						ExternalEventsQueue.DEFAULT_NROF_PRELOAD);
+				nextEvent = 0;
+			}
+		}
+	}
+
+	/**
+	 * Records a connection change if the plan is being recorded
+	 * @param from The interface that created or broke the connection
+	 * @param to The interface in the other end of the connection
+	 * @param up True if the connection was created, false if it was broken
+	 */
+	public void connectionChanged(NetworkInterface from, NetworkInterface to,
+			boolean up) {
+		if (this.recorded != null) {
+			this.recorded.addConnection(SimClock.getTime(),
+					from.getHost().getAddress(), to.getHost().getAddress(),
+					from.getInterfaceType(), up);
+		}
+	}
+
+	/**
+	 * Stores the recorded plan when the simulation reaches its end time
+	 * @param hosts All the hosts of the world
+	 */
+	public void updated(List<DTNHost> hosts) {
+		if (this.recorded == null || SimClock.getTime() < this.endTime) {
+			return;
+		}
+
+		File dir = planFile.getAbsoluteFile().getParentFile();
+		try {
+			/* another run may create the directory at the same time */
+			if (!dir.mkdirs() && !dir.isDirectory()) {
+				throw new IOException("Can't create directory " + dir);
+			}
+			/* parallel runs with the same settings record the same plan, so
+			 * every run writes its own temporary file and renames it to the
+			 * plan file; readers see either no plan or a complete one */
+			File tmpFile = File.createTempFile(planFile.getName(), ".tmp",
+					dir);
+			this.recorded.write(tmpFile.getPath());
+			if (!tmpFile.renameTo(planFile)) {
+				tmpFile.delete();
+			}
+		} catch (IOException e) {
+			throw new SimError("Can't store contact plan " + planFile +
+					": " + e.getMessage(), e);
+		}
+		this.recorded = null;
+	}
+
+	/**
+	 * Returns a hash of the settings that can affect the connectivity of
+	 * the scenario, as a hexadecimal string
+	 * @param nrofGroups Number of host groups
+	 * @param extraNamespaces Additional namespaces to hash
+	 * @return The hash
+	 */
+	private static String getSettingsKey(int nrofGroups,
+			String[] extraNamespaces) {
+		TreeSet<String> namespaces = new TreeSet<String>();
+		namespaces.add(SimScenario.SCENARIO_NS);
+		namespaces.add(MovementModel.MOVEMENT_MODEL_NS);
+		namespaces.add(World.SETTINGS_NS);
+		namespaces.add(SimScenario.GROUP_NS);
+		for (String ns : extraNamespaces) {
+			namespaces.add(ns);
+		}
+
+		for (int i=1; i<=nrofGroups; i++) {
+			namespaces.add(SimScenario.GROUP_NS + i);
+			Settings s = new Settings(SimScenario.GROUP_NS + i);
+			s.setSecondaryNamespace(SimScenario.GROUP_NS);
+
+			checkSupported(s.getSetting(SimScenario.ROUTER_S), "routing.",
+					UNSUPPORTED_ROUTERS);
+
+			Class<?> mm = movementModelClass(
+					s.getSetting(SimScenario.MOVEMENT_MODEL_S));
+			while (mm != null && MovementModel.class.isAssignableFrom(mm)) {
+				namespaces.add(mm.getSimpleName());
+				mm = mm.getSuperclass();
+			}
+
+			int nrofInterfaces = s.getInt(SimScenario.NROF_INTERF_S);
+			for (int j=1; j<=nrofInterfaces; j++) {
+				String name = s.getSetting(SimScenario.INTERFACENAME_S + j);
+				namespaces.add(name);
+				checkSupported(new Settings(name).getSetting(
+						SimScenario.INTTYPE_S), "interfaces.",
+						UNSUPPORTED_INTERFACES);
+			}
+		}
+
+		StringBuilder sb = new StringBuilder(HASH_VERSION).append('\n');
+		for (String ns : namespaces) {
+			for (Map.Entry<String, String> e :
+					Settings.getAllSettings(ns).entrySet()) {
+				if (IGNORED_SETTINGS.contains(e.getKey())) {
+					continue;
+				}
+				sb.append(e.getKey()).append('=').append(e.getValue());
+				File f = new File(e.getValue());
+				if (f.isFile()) {
+					sb.append(" #").append(f.length()).append(',').append(
+							f.lastModified());
+				}
+				sb.append('\n');
+			}
+		}
+
+		return toHex(sha1(sb.toString()));
+	}
+
+	/**
+	 * Checks that a router or interface class can be used with contact
+	 * plans, i.e., that it is not one of the unsupported classes or their
+	 * subclasses
+	 * @param name Name of the class
+	 * @param pkg Package of the class (with the trailing dot)
+	 * @param unsupported Names of the unsupported classes of the package
+	 * @throws SettingsError if the class is not supported
+	 */
+	private static void checkSupported(String name, String pkg,
+			String[] unsupported) {
+		Class<?> c;
+		try {
+			c = Class.forName(pkg + name);
+		} catch (ClassNotFoundException e) {
+			return; // the scenario reports the error when it creates one
+		}
+		for (String u : unsupported) {
+			try {
+				if (Class.forName(pkg + u).isAssignableFrom(c)) {
+					throw new SettingsError("Contact plans (" + 
+							CONTACT_PLAN_NS + "." + DIR_S + 
+							") can't be used with " + name);
+				}
+			} catch (ClassNotFoundException e) {
+				throw new SimError(e);
+			}
+		}
+	}
+
+	/**
+	 * Returns the class of a movement model or null if it can't be loaded
+	 * (the scenario reports the error when it creates the model)
+	 */
+	private static Class<?> movementModelClass(String name) {
+		try {
+			return Class.forName("movement." + name);
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the SHA-1 digest of a string's UTF-8 encoding
+	 */
+	private static byte[] sha1(String s) {
+		try {
+			return MessageDigest.getInstance("SHA-1").digest(
+					s.getBytes(Charset.forName("UTF-8")));
+		} catch (NoSuchAlgorithmException e) {
+			throw new SimError("Can't hash the settings", e);
+		}
+	}
+
+	/**
+	 * Returns bytes as a hexadecimal string
+	 */
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(2 * bytes.length);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package input;
+
+import java.util.Arrays;
+
+/**
+ * Event queue that merges the events of other event queues in time order.
+ * The queues are kept in an indexed binary heap by the times of their next
+ * events, so finding the next event doesn't require going through all the
+ * queues. The time of a queue's next event is read again only when an
+ * event is taken from the queue or when the queue is reported to have
+ * changed with {@link #queueChanged(int)} (or {@link #queuesChanged()}).
+ * Events of different queues that happen at the same time are returned in
+ * the order the queues were added.
+ */
+public class EventQueueScheduler implements EventQueue {
+	/** the queues in the order they were added */
+	private EventQueue[] queues;
+	/** the next event times of the queues (by queue index) */
+	private double[] times;
+	/** the heap of queue indexes */
+	private int[] heap;
+	/** the positions of the queues in the heap (by queue index) */
+	private int[] positions;
+	/** number of queues */
+	private int size;
+
+	/**
+	 * Creates a scheduler without any queues
+	 */
+	public EventQueueScheduler() {
+		this.queues = new EventQueue[4];
+		this.times = new double[4];
+		this.heap = new int[4];
+		this.positions = new int[4];
+		this.size = 0;
+	}
+
+	/**
+	 * Adds a queue to the scheduler
+	 * @param queue The queue to add
+	 * @return The index of the queue (for {@link #queueChanged(int)})
+	 */
+	public int addQueue(EventQueue queue) {
+		int index = this.size++;
+		if (index == this.queues.length) {
+			this.queues = Arrays.copyOf(this.queues, 2 * index);
+			this.times = Arrays.copyOf(this.times, 2 * index);
+			this.heap = Arrays.copyOf(this.heap, 2 * index);
+			this.positions = Arrays.copyOf(this.positions, 2 * index);
+		}
+		this.queues[index] = queue;
+		this.times[index] = queue.nextEventsTime();
+		this.heap[index] = index;
+		this.positions[index] = index;
+		siftUp(index);
+		return index;
+	}
+
+	/**
+	 * Returns the number of queues in the scheduler
+	 * @return the number of queues
+	 */
+	public int getNrofQueues() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the next event of the queue that has the earliest event or
+	 * an event with time Double.MAX_VALUE if no queue has events left
+	 * @return The next event
+	 */
+	public ExternalEvent nextEvent() {
+		if (this.size == 0) {
+			return new ExternalEvent(Double.MAX_VALUE);
+		}
+		int index = this.heap[0];
+		ExternalEvent ee = this.queues[index].nextEvent();
+		queueChanged(index);
+		return ee;
+	}
+
+	/**
+	 * Returns the time of the earliest event of the queues or
+	 * Double.MAX_VALUE if no queue has events left
+	 * @return The next event's time
+	 */
+	public double nextEventsTime() {
+		return (this.size == 0 ? Double.MAX_VALUE : this.times[this.heap[0]]);
+	}
+
+	/**
+	 * Tells the scheduler that the time of a queue's next event may have
+	 * changed (e.g., a new event was added to the queue)
+	 * @param index Index of the queue (see {@link #addQueue(EventQueue)})
+	 */
+	public void queueChanged(int index) {
+		double time = this.queues[index].nextEventsTime();
+		double old = this.times[index];
+		this.times[index] = time;
+		if (time < old) {
+			siftUp(this.positions[index]);
+		}
+		else if (time > old) {
+			siftDown(this.positions[index]);
+		}
+	}
+
+	/**
+	 * Reads the next event times of all the queues again
+	 */
+	public void queuesChanged() {
+		for (int i = 0; i < this.size; i++) {
+			queueChanged(i);
+		}
+	}
+
+	/**
+	 * Returns true if the queue at heap position a has an earlier event
+	 * than the one at position b
+	 */
+	private boolean before(int a, int b) {
+		int qa = this.heap[a];
+		int qb = this.heap[b];
+		return this.times[qa] < this.times[qb] ||
+			(this.times[qa] == this.times[qb] && qa < qb);
+	}
+
+	private void swap(int a, int b) {
+		int q = this.heap[a];
+		this.heap[a] = this.heap[b];
+		this.heap[b] = q;
+		this.positions[this.heap[a]] = a;
+		this.positions[this.heap[b]] = b;
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!before(i, parent)) {
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= this.size) {
+				break;
+			}
+			if (child + 1 < this.size && before(child + 1, child)) {
+				child++;
+			}
+			if (!before(child, i)) {
+				break;
+			}
+			swap(i, child);
+			i = child;
+		}
+	}
+}
@@ -36,7 +36,8 @@ public class ExternalEventsQueue implements EventQueue {
 	 * Creates a new Queue from a file
 	 * @param filePath Path to the file where the events are read from. If
 	 * file ends with extension defined in {@link BinaryEventsReader#BINARY_EXT}
-	 * the file is assumed to be a binary file.
+	 * the file is assumed to be a binary file and if it ends with
+	 * {@link ColumnarEventsReader#COLUMNAR_EXT}, a columnar file.
 	 * @param nrofPreload How many events to preload
 	 * @see BinaryEventsReader#BINARY_EXT
 	 * @see BinaryEventsReader#storeToBinaryFile(String, List)
@@ -77,7 +78,10 @@ public class ExternalEventsQueue implements EventQueue {
 	private void init(String eeFilePath) {
 		this.eventsFile = new File(eeFilePath);
 		
-		if (BinaryEventsReader.isBinaryEeFile(eventsFile)) {
+		if (ColumnarEventsReader.isColumnarEeFile(eventsFile)) {
+			this.reader = new ColumnarEventsReader(eventsFile);
+		}
+		else if (BinaryEventsReader.isBinaryEeFile(eventsFile)) {
 			this.reader = new BinaryEventsReader(eventsFile);
 		}
 		else {
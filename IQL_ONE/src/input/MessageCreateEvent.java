@@ -46,6 +46,21 @@ public class MessageCreateEvent extends MessageEvent {
 		from.createNewMessage(m);
 	}
 	
+	/**
+	 * Returns the size of the message
+	 */
+	int getSize() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the size of the requested response message (0 if no response
+	 * is requested)
+	 */
+	int getResponseSize() {
+		return this.responseSize;
+	}
+
 	@Override
 	public String toString() {
 		return super.toString() + " [" + fromAddr + "->" + toAddr + "] " +
@@ -31,6 +31,13 @@ public class MessageDeleteEvent extends MessageEvent {
 		this.drop = drop;
 	}
 	
+	/**
+	 * Returns true if the delete is caused by a drop
+	 */
+	boolean isDrop() {
+		return this.drop;
+	}
+
 	/**
 	 * Deletes the message
 	 */
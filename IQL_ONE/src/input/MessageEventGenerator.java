@@ -6,6 +6,7 @@ package input;
 
 import java.util.Random;
 
+import core.RandomStreams;
 import core.Settings;
 import core.SettingsError;
 
@@ -91,7 +92,9 @@ public class MessageEventGenerator implements EventQueue {
 		}
 		
 		/* if prefix is unique, so will be the rng's sequence */
-		this.rng = new Random(idPrefix.hashCode());
+		this.rng = RandomStreams.newStream(
+				MessageEventGenerator.class.getSimpleName(),
+				idPrefix.hashCode());
 		
 		if (this.sizeRange.length == 1) {
 			/* convert single value to range with 0 length */
@@ -4,25 +4,26 @@
  */
 package input;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Iterator;
+import java.util.TreeSet;
 
 /**
  * Event queue where simulation objects can request an update to happen
  * at the specified simulation time. Multiple updates at the same time 
- * are merged to a single update.
+ * are merged to a single update. The requested times are kept in a sorted
+ * set, so the requests for a time that is already in the queue are merged
+ * when they are added, and adding a request and taking the next one take
+ * logarithmic time.
  */
 public class ScheduledUpdatesQueue implements EventQueue {
-	/** Time of the event (simulated seconds) */
-	private ExternalEvent nextEvent;
-	private List<ExternalEvent> updates;
+	/** the requested times */
+	private TreeSet<Double> times;
 	
 	/**
 	 * Constructor. Creates an empty update queue.
 	 */
 	public ScheduledUpdatesQueue(){
-		this.nextEvent = new ExternalEvent(Double.MAX_VALUE);
-		this.updates = new ArrayList<ExternalEvent>();
+		this.times = new TreeSet<Double>();
 	}
 	
 	/**
@@ -31,16 +32,10 @@ public class ScheduledUpdatesQueue implements EventQueue {
 	 * @return the next scheduled event
 	 */
 	public ExternalEvent nextEvent() {
-		ExternalEvent event = this.nextEvent;
-		
-		if (this.updates.size() == 0) {
-			this.nextEvent = new ExternalEvent(Double.MAX_VALUE);
-		}
-		else {
-			this.nextEvent = this.updates.remove(0);
+		if (this.times.isEmpty()) {
+			return new ExternalEvent(Double.MAX_VALUE);
 		}
-		
-		return event;
+		return new ExternalEvent(this.times.pollFirst());
 	}
 	
 	/**
@@ -49,7 +44,7 @@ public class ScheduledUpdatesQueue implements EventQueue {
 	 * @return the next scheduled event's time
 	 */
 	public double nextEventsTime() {
-		return this.nextEvent.getTime();
+		return (this.times.isEmpty() ? Double.MAX_VALUE : this.times.first());
 	}
 
 	/**
@@ -57,47 +52,27 @@ public class ScheduledUpdatesQueue implements EventQueue {
 	 * @param simTime The time when the update should happen
 	 */
 	public void addUpdate(double simTime) {
-		ExternalEvent ee = new ExternalEvent(simTime);
-
-		if (ee.compareTo(nextEvent) == 0) { // this event is already next
-			return;
-		}
-		else if (this.nextEvent.getTime() > simTime) { // new nextEvent
-			putToQueue(this.nextEvent); // put the old nextEvent back to q
-			this.nextEvent = ee;
-		}
-		else { // given event happens later..
-			putToQueue(ee);
-		}
+		/* adding 0.0 turns -0.0 to 0.0, which is the same time */
+		this.times.add(simTime + 0.0);
 	}
 	
 	/**
-	 * Puts a event to the queue in the right place
-	 * @param ee The event to put to the queue
+	 * Returns the number of different times in the queue
+	 * @return the number of update requests that are not merged
 	 */
-	private void putToQueue(ExternalEvent ee) {
-		double eeTime = ee.getTime();
-		
-		for (int i=0, n=this.updates.size(); i<n; i++) {
-			double time = updates.get(i).getTime();
-			if (time == eeTime) {
-				return; // update with the given time exists -> no need for new
-			}
-			else if (eeTime < time) {
-				this.updates.add(i, ee);
-				return;
-			}
-		}
-		
-		/* all existing updates are earlier -> add to the end of the list */
-		this.updates.add(ee);  
+	public int size() {
+		return this.times.size();
 	}
 	
 	public String toString() {
-		String times = "updates @ " + this.nextEvent.getTime();
+		String times = "updates @ " + nextEventsTime();
 		
-		for (ExternalEvent ee : this.updates) {
-			times += ", " + ee.getTime();
+		Iterator<Double> i = this.times.iterator();
+		if (i.hasNext()) {
+			i.next(); // the next events time
+		}
+		while (i.hasNext()) {
+			times += ", " + i.next();
 		}
 		
 		return times;
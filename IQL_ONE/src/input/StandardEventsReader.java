@@ -60,6 +60,9 @@ public class StandardEventsReader implements ExternalEventsReader {
 	public static final String CONNECTION_UP = "up";
 	/** Message identifier to use to refer to all messages ({@value}) */ 
 	public static final String ALL_MESSAGES_ID = "*";
+	/** pattern of the empty and comment lines that are skipped */
+	private static final Pattern SKIP_PATTERN = 
+		Pattern.compile("(#.*)|(^\\s*$)");
 	
 	private Scanner scanner;
 	
@@ -75,16 +78,14 @@ public class StandardEventsReader implements ExternalEventsReader {
 	public List<ExternalEvent> readEvents(int nrof) {
 		ArrayList<ExternalEvent> events = new ArrayList<ExternalEvent>(nrof);
 		int eventsRead = 0;
-		// skip empty and comment lines
-		Pattern skipPattern = Pattern.compile("(#.*)|(^\\s*$)");
 
 		while (eventsRead < nrof && scanner.hasNextLine()) {
 			String line = scanner.nextLine();
-			Scanner lineScan = new Scanner(line);
-			if (skipPattern.matcher(line).matches()) {
+			if (SKIP_PATTERN.matcher(line).matches()) {
 				// skip empty and comment lines
 				continue;
 			}
+			Scanner lineScan = new Scanner(line);
 			
 			double time;
 			String action;
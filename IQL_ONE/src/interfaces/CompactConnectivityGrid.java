@@ -0,0 +1,431 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package interfaces;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import movement.MovementModel;
+import core.Coord;
+import core.DTNSim;
+import core.NetworkInterface;
+import core.ParallelLoop;
+import core.Settings;
+
+/**
+ * <P>
+ * Overlay grid of the world that works like {@link ConnectivityGrid} but
+ * keeps the cells' interfaces in primitive arrays. The interfaces of a cell
+ * form a linked list whose links are stored in int arrays indexed by the
+ * interfaces' addresses, so moving an interface to another cell doesn't
+ * allocate anything and only the interfaces that cross a cell boundary
+ * are moved. Near interfaces are best found with
+ * {@link #visitNearInterfaces(NetworkInterface,
+ * ConnectivityOptimizer.NearInterfaceVisitor)}, which doesn't allocate
+ * either.</P>
+ *
+ * <P>The interfaces of a cell are kept in the order they entered the cell,
+ * so the near interfaces are found in the same order as with
+ * {@link ConnectivityGrid}.</P>
+ *
+ * <P><strong>Note:</strong> this class does NOT support negative
+ * coordinates.</P>
+ */
+public class CompactConnectivityGrid extends ConnectivityOptimizer {
+	/** "no interface" / "no cell" marker */
+	private static final int NONE = -1;
+	/** initial size of the per-interface arrays */
+	private static final int INITIAL_CAPACITY = 64;
+	/** number of neighboring cells (including the cell itself) */
+	private static final int NROF_NEIGHBORS = 9;
+	/** how many interfaces are searched in one task when prefetching */
+	private static final int PREFETCH_GRAIN = 64;
+
+	private static int worldSizeX;
+	private static int worldSizeY;
+
+	static HashMap<Integer,CompactConnectivityGrid> gridobjects;
+
+	static {
+		DTNSim.registerForReset(
+				CompactConnectivityGrid.class.getCanonicalName());
+		reset();
+	}
+
+	private int cellSize;
+	private int rows;
+	private int cols;
+	/** length of a cell row, including the empty cells on both sides */
+	private int rowLength;
+
+	/** first and last interface (address) of each cell */
+	private int[] heads;
+	private int[] tails;
+	/** number of changes in the interfaces of each cell */
+	private int[] modCounts;
+
+	/** cell, next and previous interface of each interface (by address) */
+	private int[] cellOf;
+	private int[] next;
+	private int[] prev;
+	/** the interfaces by their addresses */
+	private NetworkInterface[] interfaces;
+	/** all the interfaces in the grid */
+	private ArrayList<NetworkInterface> allInterfaces;
+
+	/** counter of the prefetch rounds */
+	private int prefetchRound;
+	/** all the interfaces as an array (null if they have changed) */
+	private NetworkInterface[] prefetchInterfaces;
+	/** prefetch round, range, near interfaces and neighbor cell
+	 * modification counts of each interface (by address) */
+	private int[] prefetchedRound;
+	private double[] prefetchedRange;
+	private int[][] prefetchedNear;
+	private int[] prefetchedCount;
+	private int[][] prefetchedMods;
+
+	/**
+	 * Clears all the grids and reads the world size
+	 */
+	public static void reset() {
+		gridobjects = new HashMap<Integer,CompactConnectivityGrid>();
+
+		Settings s = new Settings(MovementModel.MOVEMENT_MODEL_NS);
+		int [] worldSize = s.getCsvInts(MovementModel.WORLD_SIZE,2);
+		worldSizeX = worldSize[0];
+		worldSizeY = worldSize[1];
+	}
+
+	/**
+	 * Creates a new overlay connectivity grid
+	 * @param cellSize Cell's edge's length (must be larger than the largest
+	 * 	radio coverage's diameter)
+	 */
+	private CompactConnectivityGrid(int cellSize) {
+		this.rows = worldSizeY/cellSize + 1;
+		this.cols = worldSizeX/cellSize + 1;
+		this.cellSize = cellSize;
+		// leave empty cells on both sides to make neighbor search easier
+		this.rowLength = cols + 2;
+		int nrofCells = (rows + 2) * rowLength;
+
+		this.heads = new int[nrofCells];
+		this.tails = new int[nrofCells];
+		this.modCounts = new int[nrofCells];
+		Arrays.fill(heads, NONE);
+		Arrays.fill(tails, NONE);
+
+		this.cellOf = new int[0];
+		this.next = new int[0];
+		this.prev = new int[0];
+		this.interfaces = new NetworkInterface[0];
+		this.prefetchedRound = new int[0];
+		this.prefetchedRange = new double[0];
+		this.prefetchedNear = new int[0][];
+		this.prefetchedCount = new int[0];
+		this.prefetchedMods = new int[0][];
+		this.allInterfaces = new ArrayList<NetworkInterface>();
+	}
+
+	/**
+	 * Returns a grid for the given key, creating a new one if there is
+	 * no grid for the key yet
+	 * @param key Unique key for the grid (e.g., hash of the interface type)
+	 * @param cellSize Size of the cells of a new grid
+	 * @return The grid
+	 */
+	public static CompactConnectivityGrid CompactConnectivityGridFactory(
+			int key, double cellSize) {
+		CompactConnectivityGrid grid = gridobjects.get(key);
+		if (grid == null) {
+			grid = new CompactConnectivityGrid((int)Math.ceil(cellSize));
+			gridobjects.put(key, grid);
+		}
+		return grid;
+	}
+
+	/**
+	 * Adds a network interface to the overlay grid (unless it is already
+	 * there)
+	 * @param ni The new network interface
+	 */
+	public void addInterface(NetworkInterface ni) {
+		int address = ni.getAddress();
+		ensureCapacity(address + 1);
+		if (cellOf[address] != NONE) {
+			return; // already in the grid
+		}
+		interfaces[address] = ni;
+		allInterfaces.add(ni);
+		append(address, cellIndex(ni.getLocation()));
+		prefetchInterfaces = null;
+	}
+
+	/**
+	 * Adds interfaces to overlay grid
+	 * @param interfaces Collection of interfaces to add
+	 */
+	public void addInterfaces(Collection<NetworkInterface> interfaces) {
+		for (NetworkInterface n : interfaces) {
+			addInterface(n);
+		}
+	}
+
+	/**
+	 * Removes a network interface from the overlay grid
+	 * @param ni The interface to be removed
+	 */
+	public void removeInterface(NetworkInterface ni) {
+		int address = ni.getAddress();
+		if (address >= cellOf.length || cellOf[address] == NONE) {
+			return;
+		}
+		unlink(address);
+		interfaces[address] = null;
+		allInterfaces.remove(ni);
+		prefetchInterfaces = null;
+	}
+
+	/**
+	 * Checks and updates (if necessary) interface's position in the grid
+	 * @param ni The interface to update
+	 */
+	public void updateLocation(NetworkInterface ni) {
+		int address = ni.getAddress();
+		int newCell = cellIndex(ni.getLocation());
+		if (newCell != cellOf[address]) {
+			unlink(address);
+			append(address, newCell);
+		}
+	}
+
+	/**
+	 * Returns all interfaces that use the same technology and channel
+	 */
+	public Collection<NetworkInterface> getAllInterfaces() {
+		return Collections.unmodifiableList(allInterfaces);
+	}
+
+	/**
+	 * Returns all interfaces using the same technology and channel that are
+	 * in neighboring cells (or, if the near interfaces were prefetched, the
+	 * ones that are within the range of the interface). Allocates a new
+	 * collection on every call;
+	 * {@link #visitNearInterfaces(NetworkInterface,
+	 * ConnectivityOptimizer.NearInterfaceVisitor)} doesn't.
+	 */
+	public Collection<NetworkInterface> getNearInterfaces(
+			NetworkInterface ni) {
+		final ArrayList<NetworkInterface> near =
+			new ArrayList<NetworkInterface>();
+		visitNearInterfaces(ni, new NearInterfaceVisitor() {
+			public void visit(NetworkInterface other) {
+				near.add(other);
+			}
+		});
+		return near;
+	}
+
+	@Override
+	public void visitNearInterfaces(NetworkInterface ni,
+			NearInterfaceVisitor visitor) {
+		int address = ni.getAddress();
+		if (address >= cellOf.length || cellOf[address] == NONE) {
+			return;
+		}
+
+		int center = cellIndex(ni.getLocation());
+		if (isPrefetchValid(address, center, ni.getTransmitRange())) {
+			int[] near = prefetchedNear[address];
+			for (int i=0, n = prefetchedCount[address]; i < n; i++) {
+				visitor.visit(interfaces[near[i]]);
+			}
+			return;
+		}
+
+		for (int dr = -rowLength; dr <= rowLength; dr += rowLength) {
+			for (int dc = -1; dc <= 1; dc++) {
+				for (int a = heads[center + dr + dc]; a != NONE; a = next[a]) {
+					visitor.visit(interfaces[a]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the near interfaces of all the interfaces in the grid, in
+	 * parallel. Only the interfaces within the transmit range of the
+	 * interface are stored, so interfaces whose range grows must not use
+	 * the results (the range is checked when the results are used).
+	 */
+	@Override
+	public void prefetchNearInterfaces(ForkJoinPool pool) {
+		if (prefetchInterfaces == null) {
+			prefetchInterfaces = allInterfaces.toArray(new NetworkInterface[0]);
+		}
+
+		final NetworkInterface[] all = prefetchInterfaces;
+		final int round = ++prefetchRound;
+		ParallelLoop.run(pool, all.length, PREFETCH_GRAIN,
+				new ParallelLoop.Body() {
+			public void run(int index) {
+				prefetch(all[index], round);
+			}
+		});
+	}
+
+	/**
+	 * Finds and stores the interfaces in the neighboring cells that are
+	 * within the range of the interface. Only changes the prefetch data of
+	 * the given interface.
+	 * @param ni The interface
+	 * @param round The prefetch round
+	 */
+	private void prefetch(NetworkInterface ni, int round) {
+		int address = ni.getAddress();
+		Coord loc = ni.getLocation();
+		double range = ni.getTransmitRange();
+		int center = cellIndex(loc);
+		int[] near = prefetchedNear[address];
+		int[] mods = prefetchedMods[address];
+		int count = 0;
+		int k = 0;
+
+		for (int dr = -rowLength; dr <= rowLength; dr += rowLength) {
+			for (int dc = -1; dc <= 1; dc++) {
+				int cell = center + dr + dc;
+				mods[k++] = modCounts[cell];
+				for (int a = heads[cell]; a != NONE; a = next[a]) {
+					if (loc.distance(interfaces[a].getLocation()) <= range) {
+						if (count == near.length) {
+							near = Arrays.copyOf(near, near.length * 2);
+						}
+						near[count++] = a;
+					}
+				}
+			}
+		}
+
+		prefetchedNear[address] = near;
+		prefetchedCount[address] = count;
+		prefetchedRange[address] = range;
+		prefetchedRound[address] = round;
+	}
+
+	/**
+	 * Returns true if the interface's prefetched near interfaces are from
+	 * the latest round and for the same range, and the neighboring cells
+	 * haven't changed since
+	 */
+	private boolean isPrefetchValid(int address, int center, double range) {
+		if (prefetchRound == 0 || prefetchedRound[address] != prefetchRound ||
+				prefetchedRange[address] != range) {
+			return false;
+		}
+		int[] mods = prefetchedMods[address];
+		int k = 0;
+		for (int dr = -rowLength; dr <= rowLength; dr += rowLength) {
+			for (int dc = -1; dc <= 1; dc++) {
+				if (modCounts[center + dr + dc] != mods[k++]) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Appends an interface to the end of a cell's list
+	 */
+	private void append(int address, int cell) {
+		int last = tails[cell];
+		prev[address] = last;
+		next[address] = NONE;
+		if (last == NONE) {
+			heads[cell] = address;
+		} else {
+			next[last] = address;
+		}
+		tails[cell] = address;
+		cellOf[address] = cell;
+		modCounts[cell]++;
+	}
+
+	/**
+	 * Removes an interface from its cell's list
+	 */
+	private void unlink(int address) {
+		int cell = cellOf[address];
+		int p = prev[address];
+		int n = next[address];
+		if (p == NONE) {
+			heads[cell] = n;
+		} else {
+			next[p] = n;
+		}
+		if (n == NONE) {
+			tails[cell] = p;
+		} else {
+			prev[n] = p;
+		}
+		cellOf[address] = NONE;
+		modCounts[cell]++;
+	}
+
+	/**
+	 * Returns the index of the cell of a location
+	 */
+	private int cellIndex(Coord c) {
+		// +1 due empty cells on both sides of the matrix
+		int row = (int)(c.getY()/cellSize) + 1;
+		int col = (int)(c.getX()/cellSize) + 1;
+
+		assert row > 0 && row <= rows && col > 0 && col <= cols : "Location " +
+		c + " is out of world's bounds";
+
+		return row * rowLength + col;
+	}
+
+	/**
+	 * Makes sure the per-interface arrays can hold the given number of
+	 * addresses
+	 */
+	private void ensureCapacity(int size) {
+		int oldSize = cellOf.length;
+		if (size <= oldSize) {
+			return;
+		}
+		int newSize = Math.max(size, Math.max(INITIAL_CAPACITY, oldSize * 2));
+
+		cellOf = Arrays.copyOf(cellOf, newSize);
+		Arrays.fill(cellOf, oldSize, newSize, NONE);
+		next = Arrays.copyOf(next, newSize);
+		prev = Arrays.copyOf(prev, newSize);
+		interfaces = Arrays.copyOf(interfaces, newSize);
+		prefetchedRound = Arrays.copyOf(prefetchedRound, newSize);
+		prefetchedRange = Arrays.copyOf(prefetchedRange, newSize);
+		prefetchedCount = Arrays.copyOf(prefetchedCount, newSize);
+		prefetchedNear = Arrays.copyOf(prefetchedNear, newSize);
+		prefetchedMods = Arrays.copyOf(prefetchedMods, newSize);
+		for (int i = oldSize; i < newSize; i++) {
+			prefetchedNear[i] = new int[8];
+			prefetchedMods[i] = new int[NROF_NEIGHBORS];
+		}
+	}
+
+	/**
+	 * Returns a string representation of the grid
+	 * @return a string representation of the grid
+	 */
+	public String toString() {
+		return getClass().getSimpleName() + " of size " +
+			this.cols + "x" + this.rows + ", cell size=" + this.cellSize;
+	}
+}
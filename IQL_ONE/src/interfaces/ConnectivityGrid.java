@@ -6,13 +6,16 @@ package interfaces;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
 
 import movement.MovementModel;
 
 import core.Coord;
 import core.DTNSim;
 import core.NetworkInterface;
+import core.ParallelLoop;
 import core.Settings;
 
 /**
@@ -43,9 +46,20 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 	private int cellSize;
 	private int rows;
 	private int cols;
+	/** prefetched near interfaces of the interfaces (null if none) */
+	private HashMap<NetworkInterface,NearInterfaces> prefetched;
+	/** the interfaces and their prefetch results as arrays (for the
+	 * parallel prefetching); null if the interfaces have changed */
+	private NetworkInterface[] prefetchInterfaces;
+	private NearInterfaces[] prefetchResults;
+	/** counter of the prefetch rounds */
+	private int prefetchRound;
 	private static int worldSizeX;
 	private static int worldSizeY;
 
+	/** how many interfaces are searched in one task when prefetching */
+	private static final int PREFETCH_GRAIN = 64;
+
 	static HashMap<Integer,ConnectivityGrid> gridobjects;
 
 	static {
@@ -110,6 +124,7 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 		GridCell c = cellFromCoord(ni.getLocation());
 		c.addInterface(ni);
 		ginterfaces.put(ni,c);
+		prefetchInterfaces = null;
 	}
 
 	/** 
@@ -122,6 +137,10 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 			c.removeInterface(ni);
 		}
 		ginterfaces.remove(ni);
+		if (prefetched != null) {
+			prefetched.remove(ni);
+		}
+		prefetchInterfaces = null;
 	}
 
 	/**
@@ -200,7 +219,9 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 
 	/**
 	 * Returns all interfaces using the same technology and channel that are in
-	 * neighboring cells
+	 * neighboring cells. If the near interfaces were prefetched and none of
+	 * the neighboring cells has changed since, only the prefetched 
+	 * interfaces that are within the range of the interface are returned.
 	 */
 	public Collection<NetworkInterface> getNearInterfaces(
 			NetworkInterface netinterf) {
@@ -209,6 +230,13 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 
 		GridCell loc = (GridCell)ginterfaces.get(netinterf);
 		if (loc != null) {	
+			if (prefetched != null) {
+				NearInterfaces near = prefetched.get(netinterf);
+				if (near != null && near.isValid(prefetchRound, 
+						netinterf.getTransmitRange())) {
+					return Collections.unmodifiableList(near.interfaces);
+				}
+			}
 			GridCell[] neighbors = 
 				getNeighborCellsByCoord(netinterf.getLocation());
 			for (int i=0; i < neighbors.length; i++) {
@@ -218,6 +246,81 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 		return ni;
 	}
 
+	@Override
+	public void visitNearInterfaces(NetworkInterface netinterf, 
+			NearInterfaceVisitor visitor) {
+		GridCell loc = ginterfaces.get(netinterf);
+		if (loc == null) {
+			return;
+		}
+
+		if (prefetched != null) {
+			NearInterfaces near = prefetched.get(netinterf);
+			if (near != null && near.isValid(prefetchRound, 
+					netinterf.getTransmitRange())) {
+				for (int i=0, n = near.interfaces.size(); i < n; i++) {
+					visitor.visit(near.interfaces.get(i));
+				}
+				return;
+			}
+		}
+
+		Coord c = netinterf.getLocation();
+		// +1 due empty cells on both sides of the matrix
+		int row = (int)(c.getY()/cellSize) + 1;
+		int col = (int)(c.getX()/cellSize) + 1;
+		for (int r = row-1; r <= row+1; r++) {
+			for (int k = col-1; k <= col+1; k++) {
+				ArrayList<NetworkInterface> list = cells[r][k].interfaces;
+				for (int i=0, n = list.size(); i < n; i++) {
+					visitor.visit(list.get(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the near interfaces of all the interfaces in the grid. The 
+	 * interfaces are searched in parallel; the near interfaces of an 
+	 * interface are stored in the same order as 
+	 * {@link #getNearInterfaces(NetworkInterface)} would return them. 
+	 * Only the interfaces within the transmit range of the interface are
+	 * stored, so interfaces whose range grows must not use the results (the
+	 * range is checked when the results are used).
+	 */
+	@Override
+	public void prefetchNearInterfaces(ForkJoinPool pool) {
+		if (prefetchInterfaces == null) {
+			/* (re)create the result holders before searching in parallel */
+			if (prefetched == null) {
+				prefetched = new HashMap<NetworkInterface,NearInterfaces>();
+			}
+			int n = ginterfaces.size();
+			prefetchInterfaces = new NetworkInterface[n];
+			prefetchResults = new NearInterfaces[n];
+			int i = 0;
+			for (NetworkInterface ni : ginterfaces.keySet()) {
+				NearInterfaces near = prefetched.get(ni);
+				if (near == null) {
+					near = new NearInterfaces();
+					prefetched.put(ni, near);
+				}
+				prefetchInterfaces[i] = ni;
+				prefetchResults[i++] = near;
+			}
+		}
+
+		final NetworkInterface[] interfaces = prefetchInterfaces;
+		final NearInterfaces[] results = prefetchResults;
+		final int round = ++prefetchRound;
+		ParallelLoop.run(pool, interfaces.length, PREFETCH_GRAIN, 
+				new ParallelLoop.Body() {
+			public void run(int index) {
+				results[index].prefetch(interfaces[index], round);
+			}
+		});
+	}
+
 
 	/**
 	 * Returns a string representation of the ConnectivityCells object
@@ -236,6 +339,8 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 		// how large array is initially chosen
 		private static final int EXPECTED_INTERFACE_COUNT = 5;
 		private ArrayList<NetworkInterface> interfaces;
+		/** number of changes in the interfaces of the cell */
+		private int modCount;
 
 		private GridCell() {
 			this.interfaces = new ArrayList<NetworkInterface>(
@@ -256,6 +361,7 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 		 */
 		public void addInterface(NetworkInterface ni) {
 			this.interfaces.add(ni);
+			this.modCount++;
 		}
 
 		/**
@@ -264,6 +370,7 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 		 */
 		public void removeInterface(NetworkInterface ni) {
 			this.interfaces.remove(ni);
+			this.modCount++;
 		}
 
 		/**
@@ -276,6 +383,7 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 			boolean removeOk = this.interfaces.remove(ni); 
 			assert removeOk : "interface " + ni + 
 				" not found from cell with " + interfaces.toString();
+			this.modCount++;
 		}
 
 		/**
@@ -287,5 +395,60 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 				this.interfaces.size() + " interfaces :" + this.interfaces;
 		}
 	}
+
+	/**
+	 * Prefetched near interfaces of an interface, with the state of the 
+	 * neighboring cells at the time of prefetching
+	 */
+	private class NearInterfaces {
+		private ArrayList<NetworkInterface> interfaces;
+		private GridCell[] cells;
+		private int[] modCounts;
+		private double range;
+		private int round;
+
+		private NearInterfaces() {
+			this.interfaces = new ArrayList<NetworkInterface>();
+			this.modCounts = new int[9];
+		}
+
+		/**
+		 * Finds the interfaces in the neighboring cells that are within
+		 * the range of the interface
+		 * @param ni The interface
+		 * @param round The prefetch round
+		 */
+		private void prefetch(NetworkInterface ni, int round) {
+			Coord loc = ni.getLocation();
+			this.range = ni.getTransmitRange();
+			this.round = round;
+			this.cells = getNeighborCellsByCoord(loc);
+			this.interfaces.clear();
+			for (int i=0; i < cells.length; i++) {
+				this.modCounts[i] = cells[i].modCount;
+				for (NetworkInterface other : cells[i].interfaces) {
+					if (loc.distance(other.getLocation()) <= this.range) {
+						this.interfaces.add(other);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Returns true if the prefetched interfaces are from the given round
+		 * and for the same range, and the neighboring cells haven't changed
+		 */
+		private boolean isValid(int round, double range) {
+			if (this.round != round || this.range != range) {
+				return false;
+			}
+			for (int i=0; i < cells.length; i++) {
+				if (cells[i].modCount != this.modCounts[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
 	
 }
\ No newline at end of file
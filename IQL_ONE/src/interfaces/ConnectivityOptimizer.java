@@ -5,6 +5,7 @@
 package interfaces;
 
 import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
 
 import core.NetworkInterface;
 
@@ -14,6 +15,19 @@ import core.NetworkInterface;
  */
 abstract public class ConnectivityOptimizer {
 
+	/**
+	 * Visitor of near interfaces
+	 * @see ConnectivityOptimizer#visitNearInterfaces(NetworkInterface, 
+	 * NearInterfaceVisitor)
+	 */
+	public interface NearInterfaceVisitor {
+		/**
+		 * Called for every near interface
+		 * @param ni The near interface
+		 */
+		public void visit(NetworkInterface ni);
+	}
+
 	/**
 	 * Adds a network interface to the optimizer (unless it is already present)
 	 */
@@ -40,9 +54,39 @@ abstract public class ConnectivityOptimizer {
 	abstract public Collection<NetworkInterface> getNearInterfaces(
 			NetworkInterface ni);
 
+	/**
+	 * Calls the visitor for all the network interfaces that 
+	 * {@link #getNearInterfaces(NetworkInterface)} would return, in the
+	 * same order. The optimizer must not be changed while visiting.
+	 * The default implementation iterates the result of 
+	 * getNearInterfaces; subclasses can override this to avoid creating
+	 * the collection.
+	 * @param ni network interface that needs to be connected
+	 * @param visitor The visitor to call
+	 */
+	public void visitNearInterfaces(NetworkInterface ni, 
+			NearInterfaceVisitor visitor) {
+		for (NetworkInterface other : getNearInterfaces(ni)) {
+			visitor.visit(other);
+		}
+	}
+
 	/**
 	 * Finds all other interfaces that are registered to the
 	 * ConnectivityOptimizer
 	 */
 	abstract public Collection<NetworkInterface> getAllInterfaces();
+
+	/**
+	 * Finds the near interfaces of all the registered interfaces in advance
+	 * using the threads of the given pool. The following 
+	 * {@link #getNearInterfaces(NetworkInterface)} calls may then return
+	 * the prefetched results, leaving out the interfaces that are out of 
+	 * the range of the queried interface, but otherwise in the same order
+	 * as without prefetching. The results are valid only until the 
+	 * interfaces move, so this has to be called again after every move.
+	 * The default implementation does nothing.
+	 * @param pool The pool to run the searches in
+	 */
+	public void prefetchNearInterfaces(ForkJoinPool pool) { }
 }
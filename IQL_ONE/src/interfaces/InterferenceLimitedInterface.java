@@ -4,8 +4,6 @@
  */
 package interfaces;
 
-import java.util.Collection;
-
 import core.Connection;
 import core.DTNHost;
 import core.NetworkInterface;
@@ -89,16 +87,12 @@ public class InterferenceLimitedInterface extends NetworkInterface {
 
 			if (!isWithinRange(anotherInterface)) {
 				disconnect(con,anotherInterface);
-				connections.remove(i);
 			} else {
 				i++;
 			}
 		}
 		// Then find new possible connections
-		Collection<NetworkInterface> interfaces = 
-			optimizer.getNearInterfaces(this);
-		for (NetworkInterface i : interfaces) 
-			connect(i);
+		optimizer.visitNearInterfaces(this, connector);
 
 		// Find the current number of transmissions
 		// (to calculate the current transmission speed
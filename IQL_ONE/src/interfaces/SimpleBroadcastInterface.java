@@ -4,8 +4,6 @@
  */
 package interfaces;
 
-import java.util.Collection;
-
 import core.CBRConnection;
 import core.Connection;
 import core.DTNHost;
@@ -77,18 +75,13 @@ public class SimpleBroadcastInterface extends NetworkInterface {
 
 			if (!isWithinRange(anotherInterface)) {
 				disconnect(con,anotherInterface);
-				connections.remove(i);
 			}
 			else {
 				i++;
 			}
 		}
 		// Then find new possible connections
-		Collection<NetworkInterface> interfaces =
-			optimizer.getNearInterfaces(this);
-		for (NetworkInterface i : interfaces) {
-			connect(i);
-		}
+		optimizer.visitNearInterfaces(this, connector);
 	}
 
 	/** 
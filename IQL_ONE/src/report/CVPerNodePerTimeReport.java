@@ -1,37 +1,72 @@
 package report;
 
+import java.util.Arrays;
 import java.util.List;
 
 import core.DTNHost;
 import core.SimScenario;
-import routing.ActiveRouter;
-import routing.CVDetectionEngine;
-import routing.CVandTime;
-import routing.MessageRouter;
+import routing.CongestionControlListener;
+
+/**
+ * Report of the congestion values of the congestion controlling routers.
+ * For every host, lists the congestion values and their times. The values
+ * are collected from the state updates into arrays of primitives; for long
+ * runs, {@link CongestionControlReport} streams the same values without
+ * storing them.
+ */
+public class CVPerNodePerTimeReport extends Report
+	implements CongestionControlListener {
+	/** congestion values and their times, interleaved, by host address */
+	private double[][] samples;
+	/** number of values in the sample arrays by host address */
+	private int[] nrofSamples;
 
-public class CVPerNodePerTimeReport extends Report {
 	public CVPerNodePerTimeReport() {
 		init();
 	}
 
+	@Override
+	protected void init() {
+		super.init();
+		this.samples = new double[0][];
+		this.nrofSamples = new int[0];
+	}
+
+	public void stateUpdated(DTNHost host, double cv, int state, int action,
+			double reward, double temperature, double[][] qValues) {
+		int address = host.getAddress();
+		if (address >= samples.length) {
+			int size = Math.max(address + 1, 2 * samples.length);
+			samples = Arrays.copyOf(samples, size);
+			nrofSamples = Arrays.copyOf(nrofSamples, size);
+		}
+		double[] values = samples[address];
+		int n = nrofSamples[address];
+		if (values == null) {
+			values = samples[address] = new double[32];
+		} else if (n + 2 > values.length) {
+			values = samples[address] = Arrays.copyOf(values, 2 * values.length);
+		}
+		values[n] = cv;
+		values[n + 1] = getSimTime();
+		nrofSamples[address] = n + 2;
+	}
+
 	public void done() {
 		List<DTNHost> hosts = SimScenario.getInstance().getHosts();
-		String write = " ";
+		StringBuilder write = new StringBuilder(" ");
 		for (DTNHost h : hosts) {
-			write = write + "\n----------------------------------\n"+h+"\n";
-			MessageRouter mr = h.getRouter();
-			ActiveRouter ar = (ActiveRouter) mr;
-			CVDetectionEngine cvde = (CVDetectionEngine) ar;
-
-			List<CVandTime> cvlist = cvde.getCVandTime();
-			
-			if(cvlist.size()!=0) {
-				for(CVandTime cv : cvlist) {
-					write = write + "\n" + cv.CV+" " + cv.time;
-				}
+			write.append("\n----------------------------------\n").append(h).append("\n");
+			int address = h.getAddress();
+			if (address >= samples.length || samples[address] == null) {
+				continue;
+			}
+			double[] values = samples[address];
+			for (int i = 0, n = nrofSamples[address]; i < n; i += 2) {
+				write.append("\n").append(values[i]).append(" ").append(values[i + 1]);
 			}
 		}
-		write(write);
+		write(write.toString());
 		super.done();
 
 	}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package report;
+
+import core.DTNHost;
+import routing.CongestionControlListener;
+
+/**
+ * Report of the state updates of the Q-learning based congestion control
+ * routers. Every state update of every host is written as a line of comma
+ * separated values when it happens: simulation time, host, congestion
+ * value, state, chosen action, reward of the previous action (NaN for the
+ * first update), Boltzmann temperature and, if {@link #Q_VALUES_S} is true,
+ * the host's Q-table row by row. The first line is a header that names the
+ * columns. Nothing is stored between the updates, so the memory use of the
+ * report doesn't depend on the length of the run. State updates during the
+ * warm up period are ignored.
+ */
+public class CongestionControlReport extends Report
+	implements CongestionControlListener {
+	/** Include the Q-tables in the report -setting id ({@value}).
+	 * Default is true. */
+	public static final String Q_VALUES_S = "qValues";
+
+	private boolean reportQValues;
+	private boolean headerWritten;
+	/** buffer that is reused for building the lines */
+	private StringBuilder line;
+
+	/**
+	 * Constructor.
+	 */
+	public CongestionControlReport() {
+		init();
+	}
+
+	@Override
+	protected void init() {
+		super.init();
+		this.reportQValues = true;
+		if (getSettings().contains(Q_VALUES_S)) {
+			this.reportQValues = getSettings().getBoolean(Q_VALUES_S);
+		}
+		this.headerWritten = false;
+		this.line = new StringBuilder();
+	}
+
+	public void stateUpdated(DTNHost host, double cv, int state, int action,
+			double reward, double temperature, double[][] qValues) {
+		if (isWarmup()) {
+			return;
+		}
+		if (!headerWritten) {
+			writeHeader(qValues);
+		}
+
+		line.setLength(0);
+		line.append(format(getSimTime())).append(',').append(host);
+		line.append(',').append(cv).append(',').append(state);
+		line.append(',').append(action).append(',').append(reward);
+		line.append(',').append(temperature);
+		if (reportQValues) {
+			for (double[] row : qValues) {
+				for (double q : row) {
+					line.append(',').append(q);
+				}
+			}
+		}
+		write(line.toString());
+	}
+
+	/**
+	 * Writes the header line with a column for every Q-value of a table
+	 * of the given size
+	 */
+	private void writeHeader(double[][] qValues) {
+		line.setLength(0);
+		line.append("time,host,cv,state,action,reward,temperature");
+		if (reportQValues) {
+			for (int i=0; i < qValues.length; i++) {
+				for (int j=0; j < qValues[i].length; j++) {
+					line.append(",q").append(i).append('_').append(j);
+				}
+			}
+		}
+		write(line.toString());
+		headerWritten = true;
+	}
+}
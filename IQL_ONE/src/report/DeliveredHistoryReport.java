@@ -0,0 +1,103 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package report;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import core.DTNHost;
+import core.Message;
+import core.MessageListener;
+import core.SimScenario;
+import routing.delivered.DeliveredHistory;
+
+/**
+ * Reports the memory the routers' delivered message histories (see
+ * {@link DeliveredHistory}) take at the end of the run and compares it to
+ * an estimate of the memory a map of the delivered message objects would
+ * take. The estimate counts, for every first delivery, a map slot, the
+ * message and its header and one object per hop of the message's path,
+ * with the object sizes of a 64 bit JVM that uses compressed references.
+ * The replicates of a message share the start of their paths, so the
+ * estimate is an upper bound.
+ */
+public class DeliveredHistoryReport extends Report implements MessageListener {
+	/** estimated size of a map slot (key and reference at load 0.5) */
+	private static final int SLOT_BYTES = 16;
+	/** estimated size of a message object */
+	private static final int MESSAGE_BYTES = 48;
+	/** estimated size of a message header without the ID */
+	private static final int HEADER_BYTES = 48;
+	/** estimated size of an ID string without the characters */
+	private static final int ID_BYTES = 40;
+	/** estimated size of a hop of a message path */
+	private static final int HOP_BYTES = 24;
+
+	private int nrofDelivered;
+	private long messageMapBytes;
+
+	/**
+	 * Constructor.
+	 */
+	public DeliveredHistoryReport() {
+		init();
+	}
+
+	@Override
+	protected void init() {
+		super.init();
+		this.nrofDelivered = 0;
+		this.messageMapBytes = 0;
+	}
+
+	public void messageTransferred(Message m, DTNHost from, DTNHost to,
+			boolean firstDelivery) {
+		if (firstDelivery) {
+			this.nrofDelivered++;
+			this.messageMapBytes += SLOT_BYTES + MESSAGE_BYTES + HEADER_BYTES +
+				ID_BYTES + m.getId().length() +
+				HOP_BYTES * (m.getHopCount() + 1);
+		}
+	}
+
+	public void newMessage(Message m) {}
+	public void messageDeleted(Message m, DTNHost where, boolean dropped) {}
+	public void messageTransferStarted(Message m, DTNHost from, DTNHost to) {}
+	public void messageTransferAborted(Message m, DTNHost from, DTNHost to) {}
+
+	@Override
+	public void done() {
+		Set<String> types = new TreeSet<String>(); // types of the hosts
+		long entries = 0;
+		long historyBytes = 0;
+		for (DTNHost h : SimScenario.getInstance().getHosts()) {
+			DeliveredHistory history = h.getRouter().getDeliveredHistory();
+			types.add(history.getType());
+			entries += history.size();
+			historyBytes += history.getMemoryUsage();
+		}
+
+		double savedRatio = Double.NaN;
+		if (this.messageMapBytes > 0) {
+			savedRatio = 1.0 - (1.0 * historyBytes) / this.messageMapBytes;
+		}
+
+		String typeText = "";
+		for (String type : types) {
+			typeText += (typeText.length() > 0 ? "," : "") + type;
+		}
+
+		write("Delivered message history for scenario " + getScenarioName() +
+				"\nsim_time: " + format(getSimTime()));
+		write("history_type: " + typeText +
+			"\ndelivered: " + this.nrofDelivered +
+			"\nhistory_entries: " + entries +
+			"\nhistory_bytes: " + historyBytes +
+			"\nmessage_map_bytes: " + this.messageMapBytes +
+			"\nsaved_bytes: " + (this.messageMapBytes - historyBytes) +
+			"\nsaved_ratio: " + format(savedRatio));
+		super.done();
+	}
+}
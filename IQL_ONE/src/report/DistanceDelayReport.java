@@ -4,11 +4,13 @@
  */
 package report;
 
-import java.util.HashMap;
+import java.util.Arrays;
 
 import core.Coord;
 import core.DTNHost;
+import core.IntHashMap;
 import core.Message;
+import core.MessageIdRegistry;
 import core.MessageListener;
 
 /**
@@ -21,7 +23,8 @@ public class DistanceDelayReport extends Report implements MessageListener {
 	/** Syntax of the report lines */
 	public static final String SYNTAX = 
 		"distance at msg send, delivery time, hop count, MSG_ID";
-	private HashMap<String, InfoTuple> creationInfos;
+	/** creation infos of the undelivered messages by message key */
+	private IntHashMap<InfoTuple> creationInfos;
 	
 	/**
 	 * Constructor.
@@ -33,7 +36,7 @@ public class DistanceDelayReport extends Report implements MessageListener {
 	@Override
 	protected void init() {
 		super.init();
-		this.creationInfos = new HashMap<String, InfoTuple>();
+		this.creationInfos = new IntHashMap<InfoTuple>();
 		printHeader();
 	}
 
@@ -42,17 +45,17 @@ public class DistanceDelayReport extends Report implements MessageListener {
 	 */
 	public void messageTransferred(Message m, DTNHost from, DTNHost to,
 			boolean firstDelivery) {
-		if (isWarmupID(m.getId()) || !firstDelivery) {
+		if (isWarmupMessage(m) || !firstDelivery) {
 			return; // report is only interested of first deliveries  
 		}
 		
-		InfoTuple info = this.creationInfos.remove(m.getId());
+		InfoTuple info = this.creationInfos.remove(m.getKey());
 		if (info == null) {
 			return; /* message was created before the warm up period */
 		}
 		
 		report(m.getId(), info.getLoc1().distance(info.getLoc2()),
-				getSimTime() - info.getTime(), m.getHops().size()-1);
+				getSimTime() - info.getTime(), m.getHopCount());
 	}
 
 	/**
@@ -60,11 +63,11 @@ public class DistanceDelayReport extends Report implements MessageListener {
 	 */
 	public void newMessage(Message m) {
 		if (isWarmup()) {
-			addWarmupID(m.getId());
+			addWarmupMessage(m);
 			return;
 		}
 		
-		this.creationInfos.put( m.getId(), 
+		this.creationInfos.put( m.getKey(), 
 				new InfoTuple(getSimTime(), 
 						m.getFrom().getLocation().clone(),
 						m.getTo().getLocation().clone()) );
@@ -98,9 +101,12 @@ public class DistanceDelayReport extends Report implements MessageListener {
 
 	public void done() {
 		// report rest of the messages as 'not delivered' (time == -1)
-		for (String id : creationInfos.keySet()) {
-			InfoTuple info = creationInfos.get(id);
-			report(id, info.getLoc1().distance(info.getLoc2()), -1, -1);
+		int[] keys = creationInfos.keys();
+		Arrays.sort(keys); // in the order the messages were created
+		for (int key : keys) {
+			InfoTuple info = creationInfos.get(key);
+			report(MessageIdRegistry.getId(key),
+					info.getLoc1().distance(info.getLoc2()), -1, -1);
 		}
 		
 		super.done();
@@ -34,13 +34,13 @@ public class MessageGraphvizReport extends Report implements MessageListener {
 
 	public void newMessage(Message m) {
 		if (isWarmup()) {
-			addWarmupID(m.getId());
+			addWarmupMessage(m);
 		}
 	}
 	
 	public void messageTransferred(Message m, DTNHost from,
 			DTNHost to,	boolean firstDelivery) {
-		if (firstDelivery && !isWarmupID(m.getId())) {
+		if (firstDelivery && !isWarmupMessage(m)) {
 			newEvent();
 			this.deliveredMessages.add(m);
 		}
@@ -61,10 +61,11 @@ public class MessageGraphvizReport extends Report implements MessageListener {
 		
 		for (Message m : deliveredMessages) {
 			List<DTNHost> path = m.getHops();
-			String pathString = path.remove(0).toString(); // start node
+			StringBuilder pathString = new StringBuilder(
+					path.get(0).toString()); // start node
 
-			for (DTNHost next : path) {
-				pathString += "->" + next.toString();
+			for (int i=1; i < path.size(); i++) {
+				pathString.append("->").append(path.get(i).toString());
 			}
 			
 			write (pathString + ";");
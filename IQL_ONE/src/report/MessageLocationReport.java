@@ -4,11 +4,12 @@
  */
 package report;
 
-import java.util.HashSet;
+import java.util.BitSet;
 import java.util.List;
 
 import core.DTNHost;
 import core.Message;
+import core.MessageIdRegistry;
 import core.Settings;
 import core.UpdateListener;
 
@@ -30,8 +31,8 @@ public class MessageLocationReport extends Report implements UpdateListener {
 	protected final int granularity;
 	/** time of last update*/
 	protected double lastUpdate; 
-	/** Identifiers of the message which are reported */
-	protected HashSet<String> reportedMessages;
+	/** Keys of the message identifiers which are reported */
+	protected BitSet reportedMessages;
 	
 	/**
 	 * Constructor. Reads the settings and initializes the report module.
@@ -41,9 +42,9 @@ public class MessageLocationReport extends Report implements UpdateListener {
 		this.lastUpdate = 0;	
 		this.granularity = settings.getInt(GRANULARITY);
 		
-		this.reportedMessages = new HashSet<String>();
+		this.reportedMessages = new BitSet();
 		for (String msgId : settings.getCsvSetting(REPORTED_MESSAGES)) {
-			this.reportedMessages.add(msgId);
+			this.reportedMessages.set(MessageIdRegistry.register(msgId));
 		}
 		
 		init();
@@ -77,7 +78,7 @@ public class MessageLocationReport extends Report implements UpdateListener {
 			isFirstMessage = true;
 			reportLine = "";
 			for (Message m : host.getMessageCollection()) {
-				if (this.reportedMessages.contains(m.getId())) {
+				if (this.reportedMessages.get(m.getKey())) {
 					if (isFirstMessage) {
 						reportLine = host.getLocation().toString();
 						isFirstMessage = false;
@@ -5,9 +5,8 @@
 package report;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import core.DTNHost;
 import core.Message;
@@ -22,7 +21,8 @@ import core.MessageListener;
  * double values and zero for integer median(s).
  */
 public class MessageStatsReport extends Report implements MessageListener {
-	private Map<String, Double> creationTimes;
+	/** creation times of the messages by message key */
+	private double[] creationTimes;
 	private List<Double> latencies;
 	private List<Integer> hopCounts;
 	private List<Double> msgBufferTime;
@@ -48,7 +48,7 @@ public class MessageStatsReport extends Report implements MessageListener {
 	@Override
 	protected void init() {
 		super.init();
-		this.creationTimes = new HashMap<String, Double>();
+		this.creationTimes = new double[64];
 		this.latencies = new ArrayList<Double>();
 		this.msgBufferTime = new ArrayList<Double>();
 		this.hopCounts = new ArrayList<Integer>();
@@ -67,7 +67,7 @@ public class MessageStatsReport extends Report implements MessageListener {
 
 	
 	public void messageDeleted(Message m, DTNHost where, boolean dropped) {
-		if (isWarmupID(m.getId())) {
+		if (isWarmupMessage(m)) {
 			return;
 		}
 		
@@ -83,7 +83,7 @@ public class MessageStatsReport extends Report implements MessageListener {
 
 	
 	public void messageTransferAborted(Message m, DTNHost from, DTNHost to) {
-		if (isWarmupID(m.getId())) {
+		if (isWarmupMessage(m)) {
 			return;
 		}
 		
@@ -93,16 +93,16 @@ public class MessageStatsReport extends Report implements MessageListener {
 	
 	public void messageTransferred(Message m, DTNHost from, DTNHost to,
 			boolean finalTarget) {
-		if (isWarmupID(m.getId())) {
+		if (isWarmupMessage(m)) {
 			return;
 		}
 
 		this.nrofRelayed++;
 		if (finalTarget) {
 			this.latencies.add(getSimTime() - 
-				this.creationTimes.get(m.getId()) );
+				this.creationTimes[m.getKey()] );
 			this.nrofDelivered++;
-			this.hopCounts.add(m.getHops().size() - 1);
+			this.hopCounts.add(m.getHopCount());
 			
 			if (m.isResponse()) {
 				this.rtt.add(getSimTime() -	m.getRequest().getCreationTime());
@@ -114,11 +114,15 @@ public class MessageStatsReport extends Report implements MessageListener {
 
 	public void newMessage(Message m) {
 		if (isWarmup()) {
-			addWarmupID(m.getId());
+			addWarmupMessage(m);
 			return;
 		}
 		
-		this.creationTimes.put(m.getId(), getSimTime());
+		if (m.getKey() >= this.creationTimes.length) {
+			this.creationTimes = Arrays.copyOf(this.creationTimes,
+					Math.max(2 * this.creationTimes.length, m.getKey() + 1));
+		}
+		this.creationTimes[m.getKey()] = getSimTime();
 		this.nrofCreated++;
 		if (m.getResponseSize() > 0) {
 			this.nrofResponseReqCreated++;
@@ -127,7 +131,7 @@ public class MessageStatsReport extends Report implements MessageListener {
 	
 	
 	public void messageTransferStarted(Message m, DTNHost from, DTNHost to) {
-		if (isWarmupID(m.getId())) {
+		if (isWarmupMessage(m)) {
 			return;
 		}
 
@@ -4,12 +4,10 @@
  */
 package report;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
 
 import core.DTNHost;
+import core.IntHashMap;
 import core.Message;
 import core.MessageListener;
 
@@ -18,17 +16,34 @@ import core.MessageListener;
  * relaying performance. Messages that were created during the warm up period
  * are ignored.
  * <P>
+ * The statistics are computed as the events arrive, so the memory use of
+ * the report doesn't grow with the length of the run: averages are exact
+ * but medians are approximate, with the relative error given by the
+ * {@link #MEDIAN_ERROR_S} setting (see {@link QuantileSketch}). Creation
+ * times are kept only for the messages that have not been delivered and
+ * still have copies in some buffer.
+ * <P>
  * <strong>Note:</strong> if some statistics could not be created (e.g. overhead
  * ratio if no messages were delivered) "NaN" is reported for double values and
  * zero for integer median(s).
  */
 public class MessageStatsReportRR extends Report implements MessageListener {
-	private Map<String, Double> creationTimes;
-	private List<Double> latencies;
-	private List<Integer> hopCounts;
-	private List<Double> msgBufferTime;
-	private List<Double> rtt; // round trip times
-	private HashMap<DTNHost, Integer> droppedNode;
+	/** Relative error of the reported medians -setting id ({@value}).
+	 * Default is {@link #DEF_MEDIAN_ERROR}. */
+	public static final String MEDIAN_ERROR_S = "medianError";
+	/** Default relative error of the medians ({@value}); hop count
+	 * medians below 50 are exact */
+	public static final double DEF_MEDIAN_ERROR = 0.01;
+
+	/** creation times and copy counts of the undelivered messages */
+	private IntHashMap<MessageInfo> undelivered;
+	private RunningStatistics latencies;
+	private RunningStatistics hopCounts;
+	private RunningStatistics msgBufferTime;
+	private RunningStatistics rtt; // round trip times
+	/** number of dropped messages and the hosts by host address */
+	private int[] droppedNode;
+	private DTNHost[] droppedHosts;
 
 	private int nrofDropped;
 	private int nrofRemoved;
@@ -53,12 +68,18 @@ public class MessageStatsReportRR extends Report implements MessageListener {
 	@Override
 	protected void init() {
 		super.init();
-		this.creationTimes = new HashMap<String, Double>();
-		this.latencies = new ArrayList<Double>();
-		this.msgBufferTime = new ArrayList<Double>();
-		this.hopCounts = new ArrayList<Integer>();
-		this.rtt = new ArrayList<Double>();
-		this.droppedNode = new HashMap<DTNHost, Integer>();
+		double medianError = DEF_MEDIAN_ERROR;
+		if (getSettings().contains(MEDIAN_ERROR_S)) {
+			medianError = getSettings().getDouble(MEDIAN_ERROR_S);
+		}
+
+		this.undelivered = new IntHashMap<MessageInfo>();
+		this.latencies = new RunningStatistics(medianError);
+		this.msgBufferTime = new RunningStatistics(medianError);
+		this.hopCounts = new RunningStatistics(medianError);
+		this.rtt = new RunningStatistics(medianError);
+		this.droppedNode = new int[0];
+		this.droppedHosts = new DTNHost[0];
 
 		this.nrofDropped = 0;
 		this.nrofRemoved = 0;
@@ -71,76 +92,99 @@ public class MessageStatsReportRR extends Report implements MessageListener {
 		this.nrofDelivered = 0;
 	}
 
+	/**
+	 * Returns true if the message is a control message of the congestion
+	 * control (whose ID starts with {@value #C_PREFIX} or
+	 * {@value #PC_PREFIX}) and shouldn't be included in the statistics
+	 */
+	private static boolean isControlMessage(Message m) {
+		String id = m.getId();
+		return id.startsWith(C_PREFIX) || id.startsWith(PC_PREFIX);
+	}
+
 	public void messageDeleted(Message m, DTNHost where, boolean dropped) {
-		if (isWarmupID(m.getId())) {
+		if (isWarmupMessage(m) || isControlMessage(m)) {
 			return;
 		}
-		if (!m.getId().substring(0, 2).equals(C_PREFIX) && !m.getId().substring(0, 2).equals(PC_PREFIX)) {
-			if (dropped) {
-				this.nrofDropped++;
-				if (this.droppedNode.containsKey(where)) {
-					int dropCounter = this.droppedNode.get(where);
-					this.droppedNode.replace(where, (dropCounter + 1));
-				} else {
-					this.droppedNode.put(where, 1);
-				}
-			} else {
-				this.nrofRemoved++;
+
+		if (dropped) {
+			this.nrofDropped++;
+			int address = where.getAddress();
+			if (address >= this.droppedNode.length) {
+				int size = Math.max(address + 1, 2 * this.droppedNode.length);
+				this.droppedNode = Arrays.copyOf(this.droppedNode, size);
+				this.droppedHosts = Arrays.copyOf(this.droppedHosts, size);
 			}
+			this.droppedNode[address]++;
+			this.droppedHosts[address] = where;
+		} else {
+			this.nrofRemoved++;
+		}
+
+		this.msgBufferTime.add(getSimTime() - m.getReceiveTime());
 
-			this.msgBufferTime.add(getSimTime() - m.getReceiveTime());
+		MessageInfo info = this.undelivered.get(m.getKey());
+		if (info != null && --info.copies <= 0) {
+			this.undelivered.remove(m.getKey()); // the last copy is gone
 		}
 	}
 
 	public void messageTransferAborted(Message m, DTNHost from, DTNHost to) {
-		if (isWarmupID(m.getId())) {
+		if (isWarmupMessage(m) || isControlMessage(m)) {
 			return;
 		}
-		if (!m.getId().substring(0, 2).equals(C_PREFIX) && !m.getId().substring(0, 2).equals(PC_PREFIX)) {
-			this.nrofAborted++;
-		}
+		this.nrofAborted++;
 	}
 
-	public void messageTransferred(Message m, DTNHost from, DTNHost to, boolean finalTarget) {
-		if (isWarmupID(m.getId())) {
+	public void messageTransferred(Message m, DTNHost from, DTNHost to,
+			boolean finalTarget) {
+		if (isWarmupMessage(m) || isControlMessage(m)) {
 			return;
 		}
-		if (!m.getId().substring(0, 2).equals(C_PREFIX) && !m.getId().substring(0, 2).equals(PC_PREFIX)) {
-			this.nrofRelayed++;
-			if (finalTarget) {
-				this.latencies.add(getSimTime() - this.creationTimes.get(m.getId()));
-				this.nrofDelivered++;
-				this.hopCounts.add(m.getHops().size() - 1);
-
-				if (m.isResponse()) {
-					this.rtt.add(getSimTime() - m.getRequest().getCreationTime());
-					this.nrofResponseDelivered++;
-				}
+
+		this.nrofRelayed++;
+		if (finalTarget) {
+			MessageInfo info = this.undelivered.remove(m.getKey());
+			double creationTime = (info != null ? info.creationTime :
+				m.getCreationTime());
+			this.latencies.add(getSimTime() - creationTime);
+			this.nrofDelivered++;
+			this.hopCounts.add(m.getHopCount());
+
+			if (m.isResponse()) {
+				this.rtt.add(getSimTime() - m.getRequest().getCreationTime());
+				this.nrofResponseDelivered++;
+			}
+		}
+		else {
+			MessageInfo info = this.undelivered.get(m.getKey());
+			if (info != null) {
+				info.copies++;
 			}
 		}
 	}
 
 	public void newMessage(Message m) {
 		if (isWarmup()) {
-			addWarmupID(m.getId());
+			addWarmupMessage(m);
 			return;
 		}
-		if (!m.getId().substring(0, 2).equals(C_PREFIX) && !m.getId().substring(0, 2).equals(PC_PREFIX)) {
-			this.creationTimes.put(m.getId(), getSimTime());
-			this.nrofCreated++;
-			if (m.getResponseSize() > 0) {
-				this.nrofResponseReqCreated++;
-			}
+		if (isControlMessage(m)) {
+			return;
+		}
+
+		this.undelivered.put(m.getKey(), new MessageInfo(getSimTime()));
+		this.nrofCreated++;
+		if (m.getResponseSize() > 0) {
+			this.nrofResponseReqCreated++;
 		}
 	}
 
 	public void messageTransferStarted(Message m, DTNHost from, DTNHost to) {
-		if (isWarmupID(m.getId())) {
+		if (isWarmupMessage(m) || isControlMessage(m)) {
 			return;
 		}
-		if (!m.getId().substring(0, 2).equals(C_PREFIX) && !m.getId().substring(0, 2).equals(PC_PREFIX)) {
-			this.nrofStarted++;
-		}
+		this.nrofStarted++;
 	}
 
 	@Override
@@ -160,32 +204,46 @@ public class MessageStatsReportRR extends Report implements MessageListener {
 			responseProb = (1.0 * this.nrofResponseDelivered) / this.nrofResponseReqCreated;
 		}
 
-		String statsText = "created: " + this.nrofCreated + 
-				"\nstarted: " + this.nrofStarted + 
+		StringBuilder statsText = new StringBuilder("created: " + this.nrofCreated +
+				"\nstarted: " + this.nrofStarted +
 				"\nrelayed: " + this.nrofRelayed +
 				"\naborted: " + this.nrofAborted +
 				"\ndropped: " + this.nrofDropped +
 				"\nremoved: " + this.nrofRemoved +
 				"\ndelivered: " + this.nrofDelivered +
 				"\ndelivery_prob: " + format(deliveryProb) +
-				"\nresponse_prob: " + format(responseProb) + 
-				"\noverhead_ratio: " + format(overHead) + 
+				"\nresponse_prob: " + format(responseProb) +
+				"\noverhead_ratio: " + format(overHead) +
 				"\nlatency_avg: " + getAverage(this.latencies) +
-				"\nlatency_med: " + getMedian(this.latencies) + 
-				"\nhopcount_avg: " + getIntAverage(this.hopCounts) +
-				"\nhopcount_med: " + getIntMedian(this.hopCounts) + 
+				"\nlatency_med: " + getMedian(this.latencies) +
+				"\nhopcount_avg: " + getAverage(this.hopCounts) +
+				"\nhopcount_med: " + getIntMedian(this.hopCounts) +
 				"\nbuffertime_avg: " + getAverage(this.msgBufferTime) +
 				"\nbuffertime_med: " + getMedian(this.msgBufferTime) +
 				"\nrtt_avg: " + getAverage(this.rtt) +
 				"\nrtt_med: " + getMedian(this.rtt) +
-				"\n-----------------------------------------------------------------------------------\n"
-				;
+				"\n-----------------------------------------------------------------------------------\n");
 
-		for (Map.Entry<DTNHost, Integer> entry : this.droppedNode.entrySet()) {
-			statsText += "\n" + entry.getKey() + "\t" + entry.getValue();
+		for (int address = 0; address < this.droppedNode.length; address++) {
+			if (this.droppedNode[address] > 0) {
+				statsText.append("\n" + this.droppedHosts[address] + "\t" +
+						this.droppedNode[address]);
+			}
 		}
-		write(statsText);
+		write(statsText.toString());
 		super.done();
 	}
 
+	/**
+	 * Creation time and number of copies of an undelivered message
+	 */
+	private static class MessageInfo {
+		private final double creationTime;
+		private int copies;
+
+		private MessageInfo(double creationTime) {
+			this.creationTime = creationTime;
+			this.copies = 1;
+		}
+	}
 }
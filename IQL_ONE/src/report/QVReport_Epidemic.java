@@ -5,8 +5,6 @@ import java.util.List;
 import core.DTNHost;
 import core.SimScenario;
 import routing.ActiveRouter;
-import routing.CVDetectionEngine;
-import routing.CVandTime;
 import routing.MessageRouter;
 import routing.QVDetectionEngine;
 
@@ -17,7 +15,7 @@ public class QVReport_Epidemic extends Report {
 
 	public void done() {
 		List<DTNHost> hosts = SimScenario.getInstance().getHosts();
-		String write = " ";
+		StringBuilder write = new StringBuilder(" ");
 		double hostsize = hosts.size();
 		double[][] totalQV = new double[4][8];
 		for (DTNHost h : hosts) {
@@ -30,24 +28,18 @@ public class QVReport_Epidemic extends Report {
 
 			for (int i =0; i< QV.length;i++) {
 				for(int j=0; j<QV[0].length; j++) {
-					//write = write + "\t" + QV[i][j];
 					totalQV[i][j]+=QV[i][j];
 				}
-				//write+="\n";
-				
-				
 			}
 		}
 		
 		for (int i =0; i< totalQV.length;i++) {
 			for(int j=0; j<totalQV[0].length; j++) {
-				write = write + "\t" + (totalQV[i][j]/hostsize) +", ";
+				write.append("\t").append(totalQV[i][j]/hostsize).append(", ");
 			}
-			write+="\n";
-			
-			
+			write.append("\n");
 		}
-		write(write);
+		write(write.toString());
 		super.done();
 
 	}
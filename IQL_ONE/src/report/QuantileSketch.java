@@ -0,0 +1,230 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package report;
+
+import core.SimError;
+
+/**
+ * Mergeable sketch for estimating quantiles of a stream of values with a
+ * bounded relative error. The values are counted in logarithmic buckets:
+ * bucket <CODE>i</CODE> counts the values in
+ * <CODE>(gamma^(i-1), gamma^i]</CODE> where
+ * <CODE>gamma = (1 + e) / (1 - e)</CODE> for relative error <CODE>e</CODE>,
+ * so every quantile is within <CODE>e * |value|</CODE> of a value of the
+ * right rank. Memory use depends only on the range of the values, not on
+ * their number. Values whose magnitude is less than
+ * {@value #MIN_INDEXABLE} are counted as zeros.
+ * <P>
+ * Integer values smaller than <CODE>1 / (2e)</CODE> are returned exactly
+ * when the returned quantiles are rounded to the nearest integer.
+ * </P>
+ */
+public class QuantileSketch {
+	/** smallest magnitude of values that are not counted as zeros */
+	public static final double MIN_INDEXABLE = 1e-9;
+
+	/** the relative error of the quantiles */
+	private final double relativeError;
+	/** natural logarithm of the bucket growth factor */
+	private final double logGamma;
+	/** bucket counts of the positive and of the (negated) negative values */
+	private Buckets positive;
+	private Buckets negative;
+	/** number of values counted as zeros */
+	private long zeroCount;
+	/** number of values in the sketch */
+	private long count;
+
+	/**
+	 * Constructor.
+	 * @param relativeError Relative error of the quantiles (between 0 and 1,
+	 * exclusive)
+	 */
+	public QuantileSketch(double relativeError) {
+		if (!(relativeError > 0 && relativeError < 1)) {
+			throw new SimError("Invalid relative error " + relativeError +
+					" for a quantile sketch");
+		}
+		this.relativeError = relativeError;
+		this.logGamma = Math.log((1 + relativeError) / (1 - relativeError));
+		this.positive = new Buckets();
+		this.negative = new Buckets();
+		this.zeroCount = 0;
+		this.count = 0;
+	}
+
+	/**
+	 * Adds a value to the sketch
+	 * @param value The value
+	 */
+	public void add(double value) {
+		if (value >= MIN_INDEXABLE) {
+			positive.add(index(value), 1);
+		} else if (value <= -MIN_INDEXABLE) {
+			negative.add(index(-value), 1);
+		} else {
+			zeroCount++;
+		}
+		count++;
+	}
+
+	/**
+	 * Adds the values of another sketch to this sketch
+	 * @param other The other sketch; must have the same relative error
+	 */
+	public void merge(QuantileSketch other) {
+		if (other.relativeError != this.relativeError) {
+			throw new SimError("Can't merge quantile sketches with " +
+					"different relative errors");
+		}
+		positive.merge(other.positive);
+		negative.merge(other.negative);
+		zeroCount += other.zeroCount;
+		count += other.count;
+	}
+
+	/**
+	 * Returns the number of values in the sketch
+	 * @return the number of values in the sketch
+	 */
+	public long getCount() {
+		return this.count;
+	}
+
+	/**
+	 * Returns the relative error of the quantiles
+	 * @return the relative error of the quantiles
+	 */
+	public double getRelativeError() {
+		return this.relativeError;
+	}
+
+	/**
+	 * Returns an estimate of the value of rank <CODE>floor(q * n)</CODE>
+	 * (starting from 0) among the <CODE>n</CODE> values of the sketch in
+	 * ascending order. E.g., for q = 0.5 this is the same element that
+	 * {@link Report#getMedian(java.util.List)} reports.
+	 * @param q The quantile (0 - 1)
+	 * @return The estimate or NaN if the sketch is empty
+	 */
+	public double getQuantile(double q) {
+		if (count == 0) {
+			return Double.NaN;
+		}
+		long rank = (long)Math.floor(q * count);
+		rank = Math.max(0, Math.min(count - 1, rank));
+
+		if (rank < negative.total) {
+			/* negative values in ascending order are the negated values
+			 * in descending order */
+			return -value(negative.indexOfRank(negative.total - 1 - rank));
+		}
+		rank -= negative.total;
+		if (rank < zeroCount) {
+			return 0;
+		}
+		rank -= zeroCount;
+		return value(positive.indexOfRank(rank));
+	}
+
+	/**
+	 * Returns the index of the bucket for a positive value
+	 */
+	private int index(double value) {
+		return (int)Math.ceil(Math.log(value) / logGamma);
+	}
+
+	/**
+	 * Returns the value that represents a bucket: the value that is within
+	 * the relative error of every value in the bucket
+	 */
+	private double value(int index) {
+		return 2 * Math.exp(index * logGamma) /
+			(1 + Math.exp(logGamma));
+	}
+
+	/**
+	 * Dense array of bucket counts for a range of bucket indexes
+	 */
+	private static class Buckets {
+		/** counts by bucket index - minIndex */
+		private long[] counts = new long[0];
+		/** bucket index of counts[0] */
+		private int minIndex;
+		/** sum of the counts */
+		private long total;
+
+		private void add(int index, long n) {
+			ensureRange(index);
+			counts[index - minIndex] += n;
+			total += n;
+		}
+
+		private void merge(Buckets other) {
+			if (other.total == 0) {
+				return;
+			}
+			int first = -1;
+			int last = -1;
+			for (int i=0; i < other.counts.length; i++) {
+				if (other.counts[i] != 0) {
+					if (first < 0) {
+						first = i;
+					}
+					last = i;
+				}
+			}
+			ensureRange(other.minIndex + first);
+			ensureRange(other.minIndex + last);
+			for (int i=first; i <= last; i++) {
+				counts[other.minIndex + i - minIndex] += other.counts[i];
+			}
+			total += other.total;
+		}
+
+		/**
+		 * Returns the index of the bucket that has the value of the given
+		 * rank (starting from 0, in ascending order)
+		 */
+		private int indexOfRank(long rank) {
+			long seen = 0;
+			for (int i=0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen > rank) {
+					return minIndex + i;
+				}
+			}
+			throw new SimError("Rank " + rank + " out of range " + total);
+		}
+
+		/**
+		 * Grows the array so that it has a bucket for the index
+		 */
+		private void ensureRange(int index) {
+			if (counts.length == 0) {
+				counts = new long[16];
+				minIndex = index - 8;
+				return;
+			}
+			int maxIndex = minIndex + counts.length - 1;
+			if (index >= minIndex && index <= maxIndex) {
+				return;
+			}
+
+			/* grow to at least double size towards the new index */
+			int newMin = Math.min(minIndex, index);
+			int newMax = Math.max(maxIndex, index);
+			int newLength = Math.max(newMax - newMin + 1, 2 * counts.length);
+			if (index < minIndex) {
+				newMin = newMax - newLength + 1;
+			}
+			long[] newCounts = new long[newLength];
+			System.arraycopy(counts, 0, newCounts, minIndex - newMin,
+					counts.length);
+			counts = newCounts;
+			minIndex = newMin;
+		}
+	}
+}
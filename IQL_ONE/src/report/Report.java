@@ -9,11 +9,13 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import core.Message;
 import core.Settings;
 import core.SimClock;
 import core.SimError;
@@ -61,6 +63,8 @@ public abstract class Report {
 	private int precision;
 	protected int warmupTime;
 	protected Set<String> warmupIDs;
+	/** keys of the messages created during the warm up period */
+	protected BitSet warmupMessages;
 	
 	private int lastOutputSuffix;
 	private double outputInterval;
@@ -78,6 +82,7 @@ public abstract class Report {
 		this.lastOutputSuffix = 0;
 		this.outputInterval = -1;
 		this.warmupIDs = null;
+		this.warmupMessages = null;
 
 		Settings settings = new Settings();
 		scenarioName = settings.valueFillString(settings.getSetting(
@@ -148,7 +153,9 @@ public abstract class Report {
 	}
 	
 	/**
-	 * Recursively creates a directory structure
+	 * Recursively creates a directory structure. Parallel batch runs may
+	 * create the same directories at the same time, so a directory that
+	 * another run created in between is not an error.
 	 * @param directory The directory to create
 	 * @return True if the creation succeeded, false if not
 	 */
@@ -162,7 +169,7 @@ public abstract class Report {
 			if (!createDirs(directory.getParentFile())) {
 				return false;
 			}
-			if (!directory.mkdir()) {
+			if (!directory.mkdir() && !directory.isDirectory()) {
 				return false;
 			} else {
 				return true;
@@ -313,6 +320,31 @@ public abstract class Report {
 		return this.warmupIDs.contains(id);
 	}
 	
+	/**
+	 * Adds a message to the warm up message set. The set is indexed by
+	 * the message keys (see {@link Message#getKey()}), so this is cheaper
+	 * than {@link #addWarmupID(String)} for messages.
+	 * @param m The message
+	 */
+	protected void addWarmupMessage(Message m) {
+		if (this.warmupMessages == null) { // lazy creation of the set
+			this.warmupMessages = new BitSet();
+		}
+		
+		this.warmupMessages.set(m.getKey());
+	}
+	
+	/**
+	 * Returns true if the given message is in the warm up message set
+	 * @param m The message
+	 * @return true if the message was added with
+	 * {@link #addWarmupMessage(Message)}
+	 */
+	protected boolean isWarmupMessage(Message m) {
+		return this.warmupMessages != null &&
+			this.warmupMessages.get(m.getKey());
+	}
+	
 	/**
 	 * Returns a Settings object initialized for the report class' name space
 	 * that uses {@value REPORT_NS} as the secondary name space.
@@ -398,6 +430,43 @@ public abstract class Report {
 		return values.get(values.size()/2);
 	}
 	
+	/**
+	 * Returns the average of the values of running statistics
+	 * @param stats The statistics
+	 * @return the formatted average or "NaN" if there are no values
+	 */
+	public String getAverage(RunningStatistics stats) {
+		if (stats.getCount() == 0) {
+			return NAN;
+		}
+		return format(stats.getAverage());
+	}
+
+	/**
+	 * Returns the (approximate) median of the values of running statistics
+	 * @param stats The statistics
+	 * @return the formatted median or "NaN" if there are no values
+	 */
+	public String getMedian(RunningStatistics stats) {
+		if (stats.getCount() == 0) {
+			return NAN;
+		}
+		return format(stats.getMedian());
+	}
+
+	/**
+	 * Returns the (approximate) median of integer values of running 
+	 * statistics, rounded to the nearest integer
+	 * @param stats The statistics
+	 * @return the median or 0 if there are no values
+	 */
+	public int getIntMedian(RunningStatistics stats) {
+		if (stats.getCount() == 0) {
+			return 0;
+		}
+		return (int)Math.round(stats.getMedian());
+	}
+	
 	/** 
 	 * Returns the variance of the values in the List.
 	 * 
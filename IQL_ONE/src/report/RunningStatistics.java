@@ -0,0 +1,144 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package report;
+
+/**
+ * Statistics of a stream of values that are updated as the values are
+ * added, without storing the values: count, sum, running mean and variance
+ * (Welford's method), minimum, maximum and approximate quantiles (see
+ * {@link QuantileSketch}). Statistics of separate streams can be merged.
+ * The sum is accumulated in the order the values are added, so
+ * {@link #getAverage()} gives the same result as summing a list of the
+ * values does.
+ */
+public class RunningStatistics {
+	private long count;
+	private double sum;
+	/** running mean and sum of squared differences from it */
+	private double mean;
+	private double m2;
+	private double min;
+	private double max;
+	private QuantileSketch quantiles;
+
+	/**
+	 * Constructor.
+	 * @param relativeError Relative error of the quantiles
+	 */
+	public RunningStatistics(double relativeError) {
+		this.quantiles = new QuantileSketch(relativeError);
+		this.count = 0;
+		this.sum = 0;
+		this.mean = 0;
+		this.m2 = 0;
+		this.min = Double.POSITIVE_INFINITY;
+		this.max = Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * Adds a value
+	 * @param value The value
+	 */
+	public void add(double value) {
+		count++;
+		sum += value;
+		double delta = value - mean;
+		mean += delta / count;
+		m2 += delta * (value - mean);
+		if (value < min) {
+			min = value;
+		}
+		if (value > max) {
+			max = value;
+		}
+		quantiles.add(value);
+	}
+
+	/**
+	 * Adds the values of other statistics to these statistics
+	 * @param other The other statistics; must have the same relative error
+	 * of quantiles
+	 */
+	public void merge(RunningStatistics other) {
+		if (other.count == 0) {
+			return;
+		}
+		long n = count + other.count;
+		double delta = other.mean - mean;
+		m2 += other.m2 + delta * delta * ((double)count * other.count / n);
+		mean += delta * other.count / n;
+		count = n;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		quantiles.merge(other.quantiles);
+	}
+
+	/**
+	 * Returns the number of values
+	 * @return the number of values
+	 */
+	public long getCount() {
+		return this.count;
+	}
+
+	/**
+	 * Returns the sum of the values
+	 * @return the sum of the values
+	 */
+	public double getSum() {
+		return this.sum;
+	}
+
+	/**
+	 * Returns the average of the values
+	 * @return the average or NaN if there are no values
+	 */
+	public double getAverage() {
+		return count == 0 ? Double.NaN : sum / count;
+	}
+
+	/**
+	 * Returns the (population) variance of the values
+	 * @return the variance or NaN if there are no values
+	 */
+	public double getVariance() {
+		return count == 0 ? Double.NaN : m2 / count;
+	}
+
+	/**
+	 * Returns the smallest value
+	 * @return the smallest value or NaN if there are no values
+	 */
+	public double getMin() {
+		return count == 0 ? Double.NaN : min;
+	}
+
+	/**
+	 * Returns the largest value
+	 * @return the largest value or NaN if there are no values
+	 */
+	public double getMax() {
+		return count == 0 ? Double.NaN : max;
+	}
+
+	/**
+	 * Returns an approximate quantile of the values
+	 * @param q The quantile (0 - 1)
+	 * @return The quantile or NaN if there are no values
+	 * @see QuantileSketch#getQuantile(double)
+	 */
+	public double getQuantile(double q) {
+		return quantiles.getQuantile(q);
+	}
+
+	/**
+	 * Returns the approximate median of the values
+	 * @return the median or NaN if there are no values
+	 */
+	public double getMedian() {
+		return getQuantile(0.5);
+	}
+}
@@ -1,11 +1,26 @@
 package routing;
 
+/**
+ * Receipt (ACK) of a delivered message. The receipt is kept only as long as
+ * copies of the message may still be alive, i.e., until the TTL of the
+ * message has run out.
+ */
 public class ACKTTL {
+	/** remaining TTL of the message (minutes) when the receipt was created */
 	public double TTL;
+	/** simulation time when the receipt was created */
 	public double beginTime;
 
 	public ACKTTL(double ttl, double bt) {
 		TTL = ttl;
 		beginTime = bt;
 	}
+
+	/**
+	 * Returns the simulation time after which the receipt is not needed
+	 * anymore
+	 */
+	public double getExpiryTime() {
+		return beginTime + TTL * 60;
+	}
 }
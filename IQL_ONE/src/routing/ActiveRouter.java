@@ -5,14 +5,19 @@
 package routing;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.TreeSet;
 
 import core.Connection;
 import core.DTNHost;
+import core.IntHashMap;
 import core.Message;
+import core.MessageIdRegistry;
 import core.MessageListener;
 import core.Settings;
 import core.SimClock;
@@ -22,6 +27,15 @@ import core.Tuple;
  * Superclass of active routers. Contains convenience methods (e.g. 
  * {@link #getOldestMessage(boolean)}) and watching of sending connections (see
  * {@link #update()}).
+ * <P>
+ * When two active routers are connected, they exchange summary vectors
+ * (the IDs of the messages they know) and keep, for each connection, a
+ * send queue of the messages that the peer doesn't have (see
+ * {@link #exchangeSummaryVectors(Connection)}). The queues are kept up to
+ * date as the buffers of either end change, and the messages that are not
+ * in the queue are not offered to the peer at all, since the peer would
+ * reject them as old.
+ * </P>
  */
 public abstract class ActiveRouter extends MessageRouter {
 	/** Delete delivered messages -setting id ({@value}). Boolean valued.
@@ -40,6 +54,36 @@ public abstract class ActiveRouter extends MessageRouter {
 	protected ArrayList<Connection> sendingConnections;
 	/** sim time when the last TTL check was done */
 	private double lastTtlCheck;
+	/** messages of the message buffer ordered by their receive time */
+	private TreeSet<Message> messagesByReceiveTime;
+	/** the messages that the peer doesn't have by their keys, by
+	 * connection */
+	private Map<Connection, IntHashMap<Message>> sendQueues;
+	/** the list returned by {@link #getMessagesForConnected()} */
+	private ArrayList<Tuple<Message, Connection>> forConnected;
+	/** the tuples of the previous getMessagesForConnected call in the
+	 * order they were created, reused if the messages and connections
+	 * are the same */
+	private ArrayList<Tuple<Message, Connection>> forConnectedTuples;
+	
+	/** Orders messages by receive time */
+	private static final Comparator<Message> RECEIVE_TIME =
+		new Comparator<Message>() {
+		public int compare(Message m1, Message m2) {
+			return Double.compare(m1.getReceiveTime(), m2.getReceiveTime());
+		}
+	};
+	/** Orders messages by receive time; ties are broken by unique ID */
+	private static final Comparator<Message> RECEIVE_TIME_ORDER =
+		new Comparator<Message>() {
+		public int compare(Message m1, Message m2) {
+			int c = RECEIVE_TIME.compare(m1, m2);
+			if (c == 0) {
+				c = Integer.compare(m1.getUniqueId(), m2.getUniqueId());
+			}
+			return c;
+		}
+	};
 	
 
 	/**
@@ -72,14 +116,178 @@ public abstract class ActiveRouter extends MessageRouter {
 		super.init(host, mListeners);
 		this.sendingConnections = new ArrayList<Connection>(1);
 		this.lastTtlCheck = 0;
+		this.messagesByReceiveTime = new TreeSet<Message>(RECEIVE_TIME_ORDER);
+		this.sendQueues = new HashMap<Connection, IntHashMap<Message>>();
+		this.forConnected = new ArrayList<Tuple<Message, Connection>>();
+		this.forConnectedTuples = new ArrayList<Tuple<Message, Connection>>();
+	}
+	
+	@Override
+	protected void addToMessages(Message m, boolean newMessage) {
+		Message old = getMessage(m.getKey());
+		if (old != null) {
+			this.messagesByReceiveTime.remove(old);
+		}
+		this.messagesByReceiveTime.add(m);
+		super.addToMessages(m, newMessage);
+		updateSendQueues(m.getKey());
+	}
+	
+	@Override
+	protected Message removeFromMessages(String id) {
+		Message m = super.removeFromMessages(id);
+		if (m != null) {
+			this.messagesByReceiveTime.remove(m);
+			updateSendQueues(m.getKey());
+		}
+		return m;
 	}
 	
 	/**
-	 * Called when a connection's state changes. This version doesn't do 
-	 * anything but subclasses may want to override this.
+	 * Called when a connection's state changes. This version exchanges the
+	 * summary vectors with the peer when the connection comes up, but
+	 * subclasses may want to override this. If a subclass doesn't call
+	 * {@link #exchangeSummaryVectors(Connection)}, the vectors are exchanged
+	 * when the connection is used the first time.
 	 */
 	@Override
-	public void changedConnection(Connection con) { }
+	public void changedConnection(Connection con) {
+		if (con.isUp()) {
+			exchangeSummaryVectors(con);
+		}
+	}
+	
+	/**
+	 * Returns true if this router has a message in its buffer or has
+	 * received it as the final recipient, i.e., if this router would reject
+	 * the message as old.
+	 * @param key Key of the message ID (see {@link Message#getKey()})
+	 * @return True if the message is known to this router
+	 */
+	protected boolean isKnownMessage(int key) {
+		return hasMessage(key) || this.deliveredMessages.contains(key);
+	}
+	
+	/**
+	 * Exchanges the summary vectors with the peer of a connection, i.e.,
+	 * builds the send queue of the connection from the messages of the
+	 * buffer that the peer doesn't know. For the messages that both
+	 * routers have, {@link #sharedMessage(Message, Message)} is called.
+	 * Does nothing if the vectors were exchanged already or the peer is not
+	 * an active router.
+	 * @param con The connection to the peer
+	 */
+	protected void exchangeSummaryVectors(Connection con) {
+		getSendQueue(con);
+	}
+	
+	/**
+	 * Called for every message that both this router and the peer have
+	 * when the summary vectors are exchanged. This version doesn't do
+	 * anything but subclasses may want to override this to, e.g., merge
+	 * the routing information of the copies.
+	 * @param m The message in this router's buffer
+	 * @param peerCopy The peer's copy of the message
+	 */
+	protected void sharedMessage(Message m, Message peerCopy) { }
+	
+	/**
+	 * Returns true if a message should be offered to the peer of a
+	 * connection, i.e., the message is in the send queue of the connection.
+	 * Messages for the peer are always offered if delivered messages are
+	 * deleted, since the peer's rejection is what deletes them.
+	 * @param m The message
+	 * @param con The connection
+	 * @return False if the peer is known to have the message already
+	 */
+	protected boolean isQueuedFor(Message m, Connection con) {
+		if (deleteDelivered && m.getTo() == con.getOtherNode(getHost())) {
+			return true;
+		}
+		IntHashMap<Message> queue = getSendQueue(con);
+		return queue == null || queue.containsKey(m.getKey());
+	}
+	
+	/**
+	 * Returns the send queue of a connection. The queue is built with the
+	 * summary vector of the peer if it doesn't exist yet.
+	 * @param con The connection
+	 * @return The messages that the peer doesn't have by their keys or
+	 * null if the peer is not an active router or the connection is down
+	 */
+	private IntHashMap<Message> getSendQueue(Connection con) {
+		IntHashMap<Message> queue = this.sendQueues.get(con);
+		if (queue != null || !con.isUp()) {
+			return queue;
+		}
+		ActiveRouter peer = getActivePeer(con);
+		if (peer == null) {
+			return null;
+		}
+		
+		queue = new IntHashMap<Message>(getNrofMessages());
+		for (Message m : getMessageCollection()) {
+			int key = m.getKey();
+			if (!peer.isKnownMessage(key)) {
+				queue.put(key, m);
+			}
+			else if (peer.hasMessage(key)) {
+				sharedMessage(m, peer.getMessage(key));
+			}
+		}
+		this.sendQueues.put(con, queue);
+		return queue;
+	}
+	
+	/**
+	 * Returns the router of a connection's peer if it is an active router
+	 * @param con The connection
+	 * @return The peer's router or null
+	 */
+	private ActiveRouter getActivePeer(Connection con) {
+		MessageRouter r = con.getOtherNode(getHost()).getRouter();
+		return (r instanceof ActiveRouter ? (ActiveRouter)r : null);
+	}
+	
+	/**
+	 * Updates the send queues of both ends of all the connections after a
+	 * message was added to or removed from this router's buffer or
+	 * delivered to this router.
+	 * @param key Key of the message ID
+	 */
+	private void updateSendQueues(int key) {
+		List<Connection> connections = getConnections();
+		for (int i=0, n=connections.size(); i<n; i++) {
+			Connection con = connections.get(i);
+			ActiveRouter peer = getActivePeer(con);
+			if (peer != null) {
+				this.updateSendQueue(con, peer, key);
+				peer.updateSendQueue(con, this, key);
+			}
+		}
+	}
+	
+	/**
+	 * Adds a message to the send queue of a connection or removes it from
+	 * the queue depending on whether the peer needs it
+	 * @param con The connection
+	 * @param peer The peer's router
+	 * @param key Key of the message ID
+	 */
+	private void updateSendQueue(Connection con, ActiveRouter peer,
+			int key) {
+		IntHashMap<Message> queue = this.sendQueues.get(con);
+		if (queue == null) {
+			return; // vectors not exchanged yet
+		}
+		Message m = getMessage(key);
+		if (m != null && !peer.isKnownMessage(key)) {
+			queue.put(key, m);
+		}
+		else {
+			queue.remove(key);
+		}
+	}
 	
 	@Override
 	public boolean requestDeliverableMessages(Connection con) {
@@ -88,16 +296,22 @@ public abstract class ActiveRouter extends MessageRouter {
 		}
 		
 		DTNHost other = con.getOtherNode(getHost());
-		/* do a copy to avoid concurrent modification exceptions 
-		 * (startTransfer may remove messages) */
-		ArrayList<Message> temp = 
-			new ArrayList<Message>(this.getMessageCollection());
-		for (Message m : temp) {
-			if (other == m.getTo()) {
+		List<Message> forOther = getMessagesFor(other);
+		if (forOther.isEmpty()) {
+			return false;
+		}
+		/* iterate by index since startTransfer may remove the message
+		 * (if the peer already has it) */
+		for (int i=0; i < forOther.size(); ) {
+			Message m = forOther.get(i);
+			if (isQueuedFor(m, con)) {
 				if (startTransfer(m, con) == RCV_OK) {
 					return true;
 				}
 			}
+			if (i < forOther.size() && forOther.get(i) == m) {
+				i++; // not removed
+			}
 		}
 		return false;
 	}
@@ -122,6 +336,9 @@ public abstract class ActiveRouter extends MessageRouter {
 	@Override
 	public Message messageTransferred(String id, DTNHost from) {
 		Message m = super.messageTransferred(id, from);
+		if (m.getTo() == getHost()) {
+			updateSendQueues(m.getKey()); // delivered messages are known too
+		}
 
 		/**
 		 *  N.B. With application support the following if-block
@@ -209,7 +426,7 @@ public abstract class ActiveRouter extends MessageRouter {
 			return TRY_LATER_BUSY; // only one connection at a time
 		}
 	
-		if ( hasMessage(m.getId()) || isDeliveredMessage(m) ){
+		if ( hasMessage(m.getKey()) || isDeliveredMessage(m) ){
 			return DENIED_OLD; // already seen this message -> reject it
 		}
 		
@@ -291,48 +508,111 @@ public abstract class ActiveRouter extends MessageRouter {
 	 * exludeMsgBeingSent is true)
 	 */
 	protected Message getOldestMessage(boolean excludeMsgBeingSent) {
-		Collection<Message> messages = this.getMessageCollection();
-		Message oldest = null;
-		for (Message m : messages) {
-			
-			if (excludeMsgBeingSent && isSending(m.getId())) {
+		return getFirstMessage(this.messagesByReceiveTime, RECEIVE_TIME,
+				excludeMsgBeingSent);
+	}
+	
+	/**
+	 * Returns the first message of an ordered message index (that is not
+	 * being sent if excludeMsgBeingSent is true). If other messages have
+	 * the same key as the first one, the one that comes first in the
+	 * message buffer is returned, like a linear search of the buffer for
+	 * the smallest key would return.
+	 * @param index The messages ordered by their keys (and then by their
+	 * unique IDs)
+	 * @param keyOrder The order of the keys
+	 * @param excludeMsgBeingSent If true, skips the message(s) that are
+	 * being sent
+	 * @return The first message or null if no message could be returned
+	 */
+	protected Message getFirstMessage(Iterable<Message> index,
+			Comparator<Message> keyOrder, boolean excludeMsgBeingSent) {
+		Message first = null;
+		boolean tied = false;
+		for (Message m : index) {
+			if (excludeMsgBeingSent && isSending(m.getKey())) {
 				continue; // skip the message(s) that router is sending
 			}
-			
-			if (oldest == null ) {
-				oldest = m;
-			}
-			else if (oldest.getReceiveTime() > m.getReceiveTime()) {
-				oldest = m;
+			if (first != null) {
+				tied = keyOrder.compare(first, m) == 0;
+				break;
 			}
+			first = m;
 		}
 		
-		return oldest;
+		if (!tied) {
+			return first;
+		}
+		/* same keys: the order of the buffer decides */
+		for (Message m : this.getMessageCollection()) {
+			if (keyOrder.compare(first, m) == 0 && 
+					!(excludeMsgBeingSent && isSending(m.getKey()))) {
+				return m;
+			}
+		}
+		return first;
 	}
 	
 	/**
 	 * Returns a list of message-connections tuples of the messages whose
-	 * recipient is some host that we're connected to at the moment.
-	 * @return a list of message-connections tuples
+	 * recipient is some host that we're connected to at the moment. The
+	 * messages are looked up by their recipient, so this takes time only
+	 * in proportion to the number of connections and matching messages.
+	 * The list and the tuples are reused by the next call, so they must not
+	 * be kept.
+	 * @return a list of message-connections tuples (an empty, immutable
+	 * list if there are no such messages)
 	 */
 	protected List<Tuple<Message, Connection>> getMessagesForConnected() {
-		if (getNrofMessages() == 0 || getConnections().size() == 0) {
+		if (getNrofMessages() == 0) {
 			/* no messages -> empty list */
-			return new ArrayList<Tuple<Message, Connection>>(0); 
+			return Collections.<Tuple<Message, Connection>>emptyList();
 		}
-
-		List<Tuple<Message, Connection>> forTuples = 
-			new ArrayList<Tuple<Message, Connection>>();
-		for (Message m : getMessageCollection()) {
-			for (Connection con : getConnections()) {
-				DTNHost to = con.getOtherNode(getHost());
-				if (m.getTo() == to) {
-					forTuples.add(new Tuple<Message, Connection>(m,con));
-				}
+		
+		List<Connection> connections = getConnections();
+		int nrofTuples = 0;
+		this.forConnected.clear();
+		for (int i=0, n=connections.size(); i<n; i++) {
+			Connection con = connections.get(i);
+			List<Message> forPeer = getMessagesFor(
+					con.getOtherNode(getHost()));
+			for (int j=0, k=forPeer.size(); j<k; j++) {
+				this.forConnected.add(getTuple(nrofTuples++, forPeer.get(j),
+						con));
+			}
+		}
+		
+		if (nrofTuples == 0) {
+			return Collections.<Tuple<Message, Connection>>emptyList();
+		}
+		return this.forConnected;
+	}
+	
+	/**
+	 * Returns a message-connection tuple for
+	 * {@link #getMessagesForConnected()}. The tuple that was created at the
+	 * same index on the previous call is reused if it has the same message
+	 * and connection.
+	 * @param index Index of the tuple
+	 * @param m The message
+	 * @param con The connection
+	 * @return The tuple
+	 */
+	private Tuple<Message, Connection> getTuple(int index, Message m, 
+			Connection con) {
+		if (index < this.forConnectedTuples.size()) {
+			Tuple<Message, Connection> t = this.forConnectedTuples.get(index);
+			if (t.getKey() == m && t.getValue() == con) {
+				return t;
 			}
+			t = new Tuple<Message, Connection>(m, con);
+			this.forConnectedTuples.set(index, t);
+			return t;
 		}
 		
-		return forTuples;
+		Tuple<Message, Connection> t = new Tuple<Message, Connection>(m, con);
+		this.forConnectedTuples.add(t);
+		return t;
 	}
 	
 	/**
@@ -352,7 +632,7 @@ public abstract class ActiveRouter extends MessageRouter {
 		for (Tuple<Message, Connection> t : tuples) {
 			Message m = t.getKey();
 			Connection con = t.getValue();
-			if (startTransfer(m, con) == RCV_OK) {
+			if (isQueuedFor(m, con) && startTransfer(m, con) == RCV_OK) {
 				return t;
 			}
 		}
@@ -363,7 +643,8 @@ public abstract class ActiveRouter extends MessageRouter {
 	 /**
 	  * Goes trough the messages until the other node accepts one
 	  * for receiving (or doesn't accept any). If a transfer is started, the
-	  * connection is included in the list of sending connections.
+	  * connection is included in the list of sending connections. Messages
+	  * that are not in the send queue of the connection are skipped.
 	  * @param con Connection trough which the messages are sent
 	  * @param messages A list of messages to try
 	  * @return The message whose transfer was started or null if no 
@@ -371,6 +652,9 @@ public abstract class ActiveRouter extends MessageRouter {
 	  */
 	protected Message tryAllMessages(Connection con, List<Message> messages) {
 		for (Message m : messages) {
+			if (!isQueuedFor(m, con)) {
+				continue; // the other node has this message already
+			}
 			int retVal = startTransfer(m, con); 
 			if (retVal == RCV_OK) {
 				return m;	// accepted a message, don't try others
@@ -443,16 +727,21 @@ public abstract class ActiveRouter extends MessageRouter {
 			return null;
 		}
 		
-		@SuppressWarnings(value = "unchecked")
-		Tuple<Message, Connection> t =
-			tryMessagesForConnected(sortByQueueMode(getMessagesForConnected()));
+		List<Tuple<Message, Connection>> forConnected =
+			getMessagesForConnected();
+		if (forConnected.size() > 0) {
+			@SuppressWarnings(value = "unchecked")
+			Tuple<Message, Connection> t =
+				tryMessagesForConnected(sortByQueueMode(forConnected));
 
-		if (t != null) {
-			return t.getValue(); // started transfer
+			if (t != null) {
+				return t.getValue(); // started transfer
+			}
 		}
 		
 		// didn't start transfer to any node -> ask messages from connected
-		for (Connection con : connections) {
+		for (int i=0, n=connections.size(); i<n; i++) {
+			Connection con = connections.get(i);
 			if (con.getOtherNode(getHost()).requestDeliverableMessages(con)) {
 				return con;
 			}
@@ -472,8 +761,7 @@ public abstract class ActiveRouter extends MessageRouter {
 			return; // nothing to shuffle
 		}
 		
-		Random rng = new Random(SimClock.getIntTime());
-		Collections.shuffle(messages, rng);	
+		Collections.shuffle(messages, getRandom());
 	}
 	
 	/**
@@ -496,11 +784,11 @@ public abstract class ActiveRouter extends MessageRouter {
 			return true; // sending something
 		}
 		
-		if (this.getHost().getConnections().size() == 0) {
+		List<Connection> connections = getConnections();
+		if (connections.size() == 0) {
 			return false; // not connected
 		}
 		
-		List<Connection> connections = getConnections();
 		for (int i=0, n=connections.size(); i<n; i++) {
 			Connection con = connections.get(i);
 			if (!con.isReadyForTransfer()) {
@@ -518,11 +806,19 @@ public abstract class ActiveRouter extends MessageRouter {
 	 * @return True if the message is being sent false if not
 	 */
 	public boolean isSending(String msgId) {
-		for (Connection con : this.sendingConnections) {
-			if (con.getMessage() == null) {
-				continue; // transmission is finalized
-			}
-			if (con.getMessage().getId().equals(msgId)) {
+		return isSending(MessageIdRegistry.getKey(msgId));
+	}
+	
+	/**
+	 * Returns true if this router is currently sending a message whose ID
+	 * has the given key.
+	 * @param key Key of the message ID (see {@link Message#getKey()})
+	 * @return True if the message is being sent false if not
+	 */
+	public boolean isSending(int key) {
+		for (int i=0, n=this.sendingConnections.size(); i<n; i++) {
+			Message m = this.sendingConnections.get(i).getMessage();
+			if (m != null && m.getKey() == key) {
 				return true;
 			}
 		}
@@ -532,13 +828,23 @@ public abstract class ActiveRouter extends MessageRouter {
 	/**
 	 * Checks out all sending connections to finalize the ready ones 
 	 * and abort those whose connection went down. Also drops messages
-	 * whose TTL <= 0 (checking every one simulated minute).
+	 * whose TTL <= 0 (checking every one simulated minute) and removes the
+	 * send queues of the connections that have gone down.
 	 * @see #addToSendingConnections(Connection)
 	 */
 	@Override
 	public void update() {
 		
 		super.update();
+		
+		if (!this.sendQueues.isEmpty()) {
+			Iterator<Connection> i = this.sendQueues.keySet().iterator();
+			while (i.hasNext()) {
+				if (!i.next().isUp()) {
+					i.remove();
+				}
+			}
+		}
 		
 		/* in theory we can have multiple sending connections even though
 		  currently all routers allow only one concurrent sending connection */
@@ -583,7 +889,36 @@ public abstract class ActiveRouter extends MessageRouter {
 			lastTtlCheck = SimClock.getTime();
 		}
 	}
-	
+
+	/**
+	 * Returns the next time when a transfer of this router may finish or,
+	 * if nothing is being sent, when the next TTL check is due. If the
+	 * message buffers changed on this update round, the current time is
+	 * returned since the next transfer attempts may have a different
+	 * outcome (e.g., an incoming transfer finished or the peer made room
+	 * for a message). Routers
+	 * whose {@link #update()} doesn't do anything time dependent besides
+	 * these can return this from {@link #getNextUpdateTime()}.
+	 * @return The next time this router's update has something to do
+	 */
+	protected double getNextTransferOrTtlCheckTime() {
+		if (hasApplications() ||
+				getLastBufferChangeTime() >= SimClock.getTime()) {
+			return SimClock.getTime();
+		}
+		if (this.sendingConnections.size() == 0) {
+			return this.lastTtlCheck + TTL_CHECK_INTERVAL;
+		}
+
+		/* TTL check can't happen before sending is over */
+		double next = Double.MAX_VALUE;
+		for (int i=0, n = sendingConnections.size(); i < n; i++) {
+			next = Math.min(next,
+					sendingConnections.get(i).getTransferReadyTime());
+		}
+		return next;
+	}
+
 	/**
 	 * Method is called just before a transfer is aborted at {@link #update()} 
 	 * due connection going down. This happens on the sending host. 
@@ -1,7 +0,0 @@
-package routing;
-
-import java.util.List;
-
-public interface CVDetectionEngine {
-	public List<CVandTime> getCVandTime();
-}
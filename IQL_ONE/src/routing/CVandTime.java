@@ -1,11 +0,0 @@
-package routing;
-
-public class CVandTime {
-	public double CV;
-	public double time;
-
-	public CVandTime(double cv, double t) {
-		CV = cv;
-		time = t;
-	}
-}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import core.DTNHost;
+
+/**
+ * Interface for classes that want to be informed about the state updates
+ * of the Q-learning based congestion control routers
+ * (see {@link Epidemic_IQLCC}). Report classes that implement this
+ * interface are registered to all the congestion controlling routers of
+ * the scenario.
+ */
+public interface CongestionControlListener {
+
+	/**
+	 * Method is called when a router has computed a new congestion value,
+	 * observed the congestion state and chosen the next action.
+	 * @param host The host whose router updated its state
+	 * @param cv The new congestion value
+	 * @param state The new congestion state
+	 * @param action The action chosen for the state
+	 * @param reward The reward of the previous action or NaN if this was
+	 * the router's first state update
+	 * @param temperature The Boltzmann exploration temperature that was
+	 * used for choosing the action
+	 * @param qValues The router's Q-table (states x actions). The table is
+	 * updated in place by the router, so it must not be modified or stored.
+	 */
+	public void stateUpdated(DTNHost host, double cv, int state, int action,
+			double reward, double temperature, double[][] qValues);
+}
@@ -42,7 +42,6 @@ public class EnergyAwareRouter extends ActiveRouter
 	private double lastUpdate;
 	private double scanInterval;	
 	private ModuleCommunicationBus comBus;
-	private static Random rng = null;
 
 	/**
 	 * Constructor. Creates a new message router based on the settings in
@@ -85,9 +84,9 @@ public class EnergyAwareRouter extends ActiveRouter
 			this.currentEnergy = range[0];
 		}
 		else {
-			if (rng == null) {
-				rng = new Random((int)(range[0] + range[1]));
-			}
+			/* routers are created in the same order in every run */
+			Random rng = RandomStreams.newStream(
+					EnergyAwareRouter.class.getSimpleName());
 			this.currentEnergy = range[0] + 
 				rng.nextDouble() * (range[1] - range[0]);
 		}
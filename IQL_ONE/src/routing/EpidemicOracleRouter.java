@@ -52,7 +52,7 @@ public class EpidemicOracleRouter extends ActiveRouter {
 			List<Message> newMessages = new ArrayList<Message>();
 			
 			for (Message m : peer.getMessageCollection()) {
-				if (!this.hasMessage(m.getId())) {
+				if (!this.hasMessage(m.getKey())) {
 					newMessages.add(m);
 				}
 			}
@@ -123,7 +123,7 @@ public class EpidemicOracleRouter extends ActiveRouter {
 	}
 	
 	protected int checkReceiving(Message m) {
-		if ( isIncomingMessage(m.getId()) || hasMessage(m.getId()) || 
+		if ( isIncomingMessage(m.getId()) || hasMessage(m.getKey()) || 
 				isDeliveredMessage(m) ){
 			return DENIED_OLD; // already seen this message -> reject it
 		}
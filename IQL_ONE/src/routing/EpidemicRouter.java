@@ -46,6 +46,11 @@ public class EpidemicRouter extends ActiveRouter {
 		// then try any/all message to any/all connection
 		this.tryAllMessagesToAllConnections();
 	}
+
+	@Override
+	public double getNextUpdateTime() {
+		return getNextTransferOrTtlCheckTime();
+	}
 	
 	
 	@Override
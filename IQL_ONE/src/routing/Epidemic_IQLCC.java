@@ -10,7 +10,7 @@ import core.*;
 import routing.*;
 import routing.QL.*;
 
-public abstract class Epidemic_IQLCC extends ActiveRouter implements CVDetectionEngine,  QVDetectionEngine {
+public abstract class Epidemic_IQLCC extends ActiveRouter implements QVDetectionEngine {
 
 	/** Epidemic_IQLCC router's setting namespace ({@value}) */
 	public static final String Epidemic_IQLCC_NS = "eIQLCC";
@@ -33,6 +33,20 @@ public abstract class Epidemic_IQLCC extends ActiveRouter implements CVDetection
 	public static final String CTH_S = "CTH";
 	/** Non- Congestion Threshold for state update - setting id (@value) */
 	public static final String NCTH_S = "NCTH";
+	/** Do all the hosts of the group learn one Q-table - setting id
+	 * ({@value}). Default is false (every host has its own table). */
+	public static final String SHARED_POLICY_S = "sharedPolicy";
+	/** Process the Q-table updates of the hosts whose state interval
+	 * expired at the same time in one batch - setting id ({@value}).
+	 * The batch is processed, and the new actions taken into use, in the
+	 * first update round after the one where the updates were queued.
+	 * Default is false. */
+	public static final String BATCH_UPDATES_S = "batchUpdates";
+	/** Does the greedy action selection (used once the temperature has
+	 * dropped to zero) choose the allowed action with the highest Q-value
+	 * - setting id ({@value}). Default is false (the last allowed action is
+	 * chosen, like in the original implementation). */
+	public static final String GREEDY_BEST_S = "greedyBestAction";
 	
 	/** default value for ai */
 	public static final int DEFAULT_AI = 1;
@@ -50,6 +64,8 @@ public abstract class Epidemic_IQLCC extends ActiveRouter implements CVDetection
 	public static final double DEFAULT_CTH = 0.1;
 	/** default value for non-congestion threshold */
 	public static final double DEFAULT_NCTH = 0.00001;
+	/** initial temperature of the Boltzmann exploration */
+	private static final double INITIAL_TEMPERATURE = 1;
 	
 	
 	/** Queue mode for rate, reps, and TTL.*/
@@ -104,17 +120,31 @@ public abstract class Epidemic_IQLCC extends ActiveRouter implements CVDetection
 	 * to detect the new state */
 	private double LastUpdateTimeofState  = 0;
 
-	/** needed for CV report*/
-	private List<CVandTime> cvandtime;
+	/** listeners of the state updates (shared by all the routers) */
+	private List<CongestionControlListener> ccListeners;
 
 	/** buffer that save receipt */
-	protected Map<String, ACKTTL> receiptBuffer;
-
-	/** message that should be deleted */
-	protected Set<String> messageReadytoDelete;
-
-	/** QL object init */
-	private QLearning QL;
+	protected ReceiptBuffer receiptBuffer;
+
+	/** keys of the messages that should be deleted */
+	protected BitSet messageReadytoDelete;
+
+	/** Q-learning engine shared by the routers copied from the same
+	 * prototype */
+	private QLearningEngine engine;
+	/** index of this router's Q-table in the engine */
+	private int qTable;
+	/** the queued state updates (null if updates are not batched) */
+	private LearningBatch batch;
+	/** reward of the queued state update */
+	private double batchReward;
+	/** random number generator for choosing the actions (the host's own
+	 * stream, see {@link RandomStreams}) */
+	private Random rng;
+	/** temperature of the Boltzmann exploration */
+	private double temperature;
+	/** copy of the Q-table for the listeners */
+	private double[][] qView;
 
 	/** action restriction checking table for each state */
 	protected boolean[][] actionRestriction = {
@@ -126,9 +156,6 @@ public abstract class Epidemic_IQLCC extends ActiveRouter implements CVDetection
 
 	};
 
-	/** exploration policy */
-	protected IExplorationPolicy explorationPolicy;
-
 	/** init state for congested */
 	private static final int C = 0;
 	/** init state for Non-congested */
@@ -157,8 +184,48 @@ public abstract class Epidemic_IQLCC extends ActiveRouter implements CVDetection
 	/** to record the last time of message creation */
 	private double endtimeofmsgcreation = 0;
 
-	/** message property to record its number of copies */
-	public static final String repsproperty = "nrofcopies";
+	/** messages of the buffer ordered by the highest number of copies */
+	private TreeSet<Message> messagesByReps;
+	/** messages of the buffer ordered by the lowest remaining TTL */
+	private TreeSet<Message> messagesByTtl;
+
+	/** Orders messages by the highest number of copies */
+	private static final Comparator<Message> REPS = new Comparator<Message>() {
+		public int compare(Message m1, Message m2) {
+			return Integer.compare(m2.getNrofCopies(), m1.getNrofCopies());
+		}
+	};
+
+	/** Orders messages by the highest number of copies; ties are broken by
+	 * unique ID */
+	private static final Comparator<Message> REPS_ORDER = new Comparator<Message>() {
+		public int compare(Message m1, Message m2) {
+			int c = REPS.compare(m1, m2);
+			if (c == 0) {
+				c = Integer.compare(m1.getUniqueId(), m2.getUniqueId());
+			}
+			return c;
+		}
+	};
+
+	/** Orders messages by the lowest remaining TTL (whole minutes) */
+	private static final Comparator<Message> TTL = new Comparator<Message>() {
+		public int compare(Message m1, Message m2) {
+			return Integer.compare(m1.getTtl(), m2.getTtl());
+		}
+	};
+
+	/** Orders messages by the earliest expiry, which is also the order of
+	 * the {@link #TTL remaining TTL}; ties are broken by unique ID */
+	private static final Comparator<Message> TTL_ORDER = new Comparator<Message>() {
+		public int compare(Message m1, Message m2) {
+			int c = Double.compare(getExpiryTime(m1), getExpiryTime(m2));
+			if (c == 0) {
+				c = Integer.compare(m1.getUniqueId(), m2.getUniqueId());
+			}
+			return c;
+		}
+	};
 
 
 	/**
@@ -219,12 +286,29 @@ public abstract class Epidemic_IQLCC extends ActiveRouter implements CVDetection
 			NCTH = DEFAULT_NCTH;
 		}
 
-		explorationPolicy();
-		initQL();
+		boolean sharedPolicy = false;
+		if (Epidemic_IQLCCSettings.contains(SHARED_POLICY_S)) {
+			sharedPolicy = Epidemic_IQLCCSettings.getBoolean(SHARED_POLICY_S);
+		}
+		this.engine = new QLearningEngine(this.actionRestriction.length,
+				this.actionRestriction[0].length, this.actionRestriction,
+				sharedPolicy);
+		if (Epidemic_IQLCCSettings.contains(GREEDY_BEST_S)) {
+			this.engine.setGreedyBest(
+					Epidemic_IQLCCSettings.getBoolean(GREEDY_BEST_S));
+		}
+
+		if (Epidemic_IQLCCSettings.contains(BATCH_UPDATES_S) &&
+				Epidemic_IQLCCSettings.getBoolean(BATCH_UPDATES_S)) {
+			this.batch = new LearningBatch();
+		}
+
+		this.temperature = INITIAL_TEMPERATURE;
 		limitconmap();
-		cvtimelist();
 		receiptbuffer();
 		msgreadytodelete();
+		dropqueues();
+		this.ccListeners = new ArrayList<CongestionControlListener>();
 	}
 
 	/**
@@ -242,40 +326,86 @@ public abstract class Epidemic_IQLCC extends ActiveRouter implements CVDetection
 		this.boltzmann = r.boltzmann;
 		this.CTH = r.CTH;
 		this.NCTH = r.NCTH;
-		explorationPolicy();
-		initQL();
+		this.engine = r.engine;
+		this.batch = r.batch;
+		this.temperature = INITIAL_TEMPERATURE;
 		limitconmap();
-		cvtimelist();
 		receiptbuffer();
 		msgreadytodelete();
+		dropqueues();
+		this.ccListeners = r.ccListeners;
 	}
 
-	/** Initializes exploration policy*/
-	protected void explorationPolicy() {
-		this.explorationPolicy = new BoltzmannExploration(1);
+	@Override
+	public void init(DTNHost host, List<MessageListener> mListeners) {
+		super.init(host, mListeners);
+		this.qTable = engine.addTable();
+		this.rng = RandomStreams.newStream(Epidemic_IQLCC_NS,
+				host.getAddress());
+		this.qView = new double[engine.getStates()][engine.getActions()];
 	}
 
-	protected void initQL() {
+	protected void limitconmap() {
+		this.conlimitmap = new HashMap<Connection, Integer>();
+	}
 
-		this.QL = new QLearning(this.actionRestriction.length, this.actionRestriction[0].length, this.explorationPolicy,
-				false, this.actionRestriction);
+	protected void receiptbuffer() {
+		this.receiptBuffer = new ReceiptBuffer();
+	}
 
+	protected void msgreadytodelete() {
+		this.messageReadytoDelete = new BitSet();
 	}
 
-	protected void limitconmap() {
-		this.conlimitmap = new HashMap<Connection, Integer>();
+	protected void dropqueues() {
+		this.messagesByReps = new TreeSet<Message>(REPS_ORDER);
+		this.messagesByTtl = new TreeSet<Message>(TTL_ORDER);
 	}
 
-	protected void cvtimelist() {
-		this.cvandtime = new ArrayList<CVandTime>();
+	@Override
+	protected void addToMessages(Message m, boolean newMessage) {
+		Message old = getMessage(m.getKey());
+		if (old != null) {
+			messagesByReps.remove(old);
+			messagesByTtl.remove(old);
+		}
+		messagesByReps.add(m);
+		messagesByTtl.add(m);
+		super.addToMessages(m, newMessage);
+		if (receiptBuffer.contains(m.getKey())) {
+			/* already acknowledged -> delete on the next contact */
+			messageReadytoDelete.set(m.getKey());
+		}
 	}
 
-	protected void receiptbuffer() {
-		this.receiptBuffer = new HashMap<>();
+	@Override
+	protected Message removeFromMessages(String id) {
+		Message m = super.removeFromMessages(id);
+		if (m != null) {
+			messagesByReps.remove(m);
+			messagesByTtl.remove(m);
+		}
+		return m;
 	}
 
-	protected void msgreadytodelete() {
-		this.messageReadytoDelete = new HashSet<>();
+	/**
+	 * Sets the number of copies of a message. The message is re-indexed
+	 * if it's in the buffer, so the copies must not be changed otherwise.
+	 */
+	protected void updateReps(Message m, int reps) {
+		boolean indexed = messagesByReps.remove(m);
+		m.setNrofCopies(reps);
+		if (indexed) {
+			messagesByReps.add(m);
+		}
+	}
+
+	/** returns the simulation time when the message's TTL runs out */
+	private static double getExpiryTime(Message m) {
+		if (m.getInitTTL() == Message.INFINITE_TTL) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return m.getCreationTime() + m.getInitTTL() * 60.0;
 	}
 
 	@Override
@@ -288,31 +418,28 @@ public abstract class Epidemic_IQLCC extends ActiveRouter implements CVDetection
 			DTNHost otherHost = con.getOtherNode(getHost());
 
 			conlimitmap.put(con, this.msglimit);
-			
-
-			Collection<Message> thisMsgCollection = getMessageCollection();
 
 			Epidemic_IQLCC peerRouter = (Epidemic_IQLCC) otherHost.getRouter();
+			exchangeSummaryVectors(con);
+			/* sync the reps with all the peers that are not transferring */
 			exchangemsginformation();
-			Map<String, ACKTTL> peerRB = peerRouter.getReceiptBuffer();
-			for (Map.Entry<String, ACKTTL> entry : peerRB.entrySet()) {
-				if (!receiptBuffer.containsKey(entry.getKey())) {
-					receiptBuffer.put(entry.getKey(), entry.getValue());
-
-				}
-
+			/* take the receipts the peer has got since the last contact.
+			 * Messages that already had a receipt when they were added to
+			 * the buffer are in messageReadytoDelete already. */
+			receiptBuffer.removeExpired(SimClock.getTime());
+			for (int key : receiptBuffer.merge(peerRouter.getReceiptBuffer(),
+					SimClock.getTime())) {
+				messageReadytoDelete.set(key);
 			}
-			for (Message m : thisMsgCollection) {
+			// delete transferred msg
+			for (int key = messageReadytoDelete.nextSetBit(0); key >= 0;
+					key = messageReadytoDelete.nextSetBit(key + 1)) {
 				/** Delete message that have a receipt */
-				if (receiptBuffer.containsKey(m.getId())) {
-					messageReadytoDelete.add(m.getId());
+				Message m = getMessage(key);
+				if (m != null) {
+					deletemsg(m.getId(), false);
 				}
 			}
-			// delete transferred msg
-			for (String m : messageReadytoDelete) {
-
-				deletemsg(m, false);
-			}
 
 			messageReadytoDelete.clear();
 		} else {
@@ -324,16 +451,17 @@ public abstract class Epidemic_IQLCC extends ActiveRouter implements CVDetection
 			otherNrofDrops += peerRouter.getNrofDrops();
 			otherNrofReps += peerRouter.getNrofReps();
 			conlimitmap.remove(con);
-			messageReadytoDelete.clear();
 		}
 	}
 
 	/** before deleting the message, check if the message is being sent*/
 	public void deletemsg(String msgID, boolean dropchecking) {
-		if (isSending(msgID)) {
+		int key = MessageIdRegistry.getKey(msgID);
+		if (isSending(key)) {
 			List<Connection> conList = getConnections();
-			for (Connection cons : conList) {
-				if (cons.getMessage() != null && cons.getMessage().getId() == msgID) {
+			for (int i = 0, n = conList.size(); i < n; i++) {
+				Connection cons = conList.get(i);
+				if (cons.getMessage() != null && cons.getMessage().getKey() == key) {
 					cons.abortTransfer();
 					break;
 				}
@@ -346,20 +474,35 @@ public abstract class Epidemic_IQLCC extends ActiveRouter implements CVDetection
 	@Override
 	public void update() {
 		super.update();
+		if (batch != null && !batch.routers.isEmpty() &&
+				batch.time < SimClock.getTime()) {
+			processBatch();
+		}
 		if ((SimClock.getTime() - LastUpdateTimeofState ) >= stateUpdateInterval) {
 
 			double newCV = countcv();
-			CVandTime nilaicv = new CVandTime(newCV, SimClock.getTime());
-			cvandtime.add(nilaicv);
+			double temperature = this.temperature;
 			if (this.oldstate == -1) {
 				oldstate = staterequirement(this.CV, newCV);
-				actionChosen = this.QL.GetAction(oldstate);
+				actionChosen = engine.getAction(qTable, oldstate, temperature, rng);
 				this.actionSelectionController(actionChosen);
+				this.CV = newCV;
+				stateUpdated(Double.NaN, temperature);
+			} else if (batch != null) {
+				int newstate = staterequirement(this.CV, newCV);
+				this.batchReward = checkReward(oldstate, newstate);
+				engine.queueUpdate(qTable, oldstate, actionChosen, batchReward,
+						newstate, temperature, rng);
+				batch.routers.add(this);
+				batch.time = SimClock.getTime();
+				this.oldstate = newstate;
+				this.CV = newCV;
 			} else {
 				int newstate = staterequirement(this.CV, newCV);
-				this.updateState(newstate);
+				double reward = this.updateState(newstate);
+				this.CV = newCV;
+				stateUpdated(reward, temperature);
 			}
-			this.CV = newCV;
 			LastUpdateTimeofState  = SimClock.getTime();
 			
 		}
@@ -376,52 +519,103 @@ public abstract class Epidemic_IQLCC extends ActiveRouter implements CVDetection
 		// tryAllMessageToAllConections();
 	}
 
+	/**
+	 * Returns the earlier of the next state update time and the next
+	 * transfer or TTL check time.
+	 */
+	@Override
+	public double getNextUpdateTime() {
+		if (batch != null && !batch.routers.isEmpty()) {
+			return SimClock.getTime(); // the batch is processed next round
+		}
+		return Math.min(LastUpdateTimeofState + stateUpdateInterval,
+				getNextTransferOrTtlCheckTime());
+	}
+
 	/* exchange mesage's information of the reps number **/
 	protected void exchangemsginformation() {
-		Collection<Message> msgCollection = getMessageCollection();
-		for (Connection con : getConnections()) {
-			DTNHost peer = con.getOtherNode(getHost());
+		List<Connection> connections = getConnections();
+		for (int i = 0, n = connections.size(); i < n; i++) {
+			DTNHost peer = connections.get(i).getOtherNode(getHost());
 			Epidemic_IQLCC other = (Epidemic_IQLCC) peer.getRouter();
 			if (other.isTransferring()) {
 				continue; // skip hosts that are transferring
 			}
-			for (Message m : msgCollection) {
-				if (other.hasMessage(m.getId())) {
-					Message temp = other.getMessage(m.getId());
-					/* take the max reps */
-					if ((Integer) m.getProperty(repsproperty) < (Integer) temp.getProperty(repsproperty)) {
-						m.updateProperty(repsproperty, temp.getProperty(repsproperty));
-					}
+			for (Message m : getMessageCollection()) {
+				Message temp = other.getMessage(m.getKey());
+				/* take the max reps */
+				if (temp != null && m.getNrofCopies() < temp.getNrofCopies()) {
+					updateReps(m, temp.getNrofCopies());
 				}
-
 			}
 		}
 	}
 	
-	/* the procedure of updating the state*/
-	protected void updateState(int newstate) {
+	/**
+	 * the procedure of updating the state
+	 * @return the reward of the previous action
+	 */
+	protected double updateState(int newstate) {
 
 		double reward = checkReward(oldstate, newstate);
 
-		this.QL.UpdateState(oldstate, actionChosen, reward, newstate);
+		engine.updateState(qTable, oldstate, actionChosen, reward, newstate);
 
-		int newestAction = this.QL.GetAction(newstate);
-		
+		int newestAction = engine.getAction(qTable, newstate, temperature, rng);
 
-		this.actionSelectionController(newestAction);
 		this.oldstate = newstate;
-		this.actionChosen = newestAction;
-		System.out.println(newestAction);
-		BoltzmannExploration exp = (BoltzmannExploration) this.QL.getExplorationPolicy();
-		double temp = exp.getTemperature();
+		this.takeAction(newestAction);
+		return reward;
+	}
+
+	/** takes a newly chosen action into use and lowers the temperature */
+	private void takeAction(int action) {
+		this.actionSelectionController(action);
+		this.actionChosen = action;
+		double temp = this.temperature;
 		if (temp != 0) {
 			/** do exploration 100 times */ 
-			exp.setTemperature(temp - boltzmann);
+			this.temperature = temp - boltzmann;
 		}
 		if (temp <= 0) {
-			exp.setTemperature(0);
+			this.temperature = 0;
+		}
+	}
+
+	/**
+	 * Processes the queued state updates of all the routers of the batch
+	 * and takes the chosen actions into use
+	 */
+	private void processBatch() {
+		engine.processBatch();
+		for (int i = 0, n = batch.routers.size(); i < n; i++) {
+			Epidemic_IQLCC r = batch.routers.get(i);
+			double temperature = r.temperature;
+			r.takeAction(engine.getBatchAction(i));
+			r.stateUpdated(r.batchReward, temperature);
+		}
+		batch.routers.clear();
+		engine.clearBatch();
+	}
+
+	/** informs the listeners about the state update */
+	private void stateUpdated(double reward, double temperature) {
+		if (ccListeners.isEmpty()) {
+			return;
 		}
-		this.QL.setExplorationPolicy(exp);
+		engine.getQValues(qTable, qView);
+		for (int i = 0, n = ccListeners.size(); i < n; i++) {
+			ccListeners.get(i).stateUpdated(getHost(), CV, oldstate,
+					actionChosen, reward, temperature, qView);
+		}
+	}
+
+	/**
+	 * Returns the temperature of the Boltzmann exploration
+	 * @return the temperature
+	 */
+	protected double getTemperature() {
+		return this.temperature;
 	}
 
 	/** action selection controller */
@@ -516,7 +710,8 @@ public abstract class Epidemic_IQLCC extends ActiveRouter implements CVDetection
 		/* delete messages from the buffer until there's enough space */
 		
 		/* if dropByOldestReceivingTime is true, message are deleted by the oldest
-		 * receiving time, if it's false, message are deleted based on the delete queue mode*/
+		 * receiving time, if it's false, message are deleted based on the delete
+		 * queue mode (also the messages that are being sent) */
 		if (dropByOldestReceivingTime) {
 			while (freeBuffer < size) {
 				Message m = getOldestMessage(true); // don't remove msgs being sent
@@ -533,135 +728,72 @@ public abstract class Epidemic_IQLCC extends ActiveRouter implements CVDetection
 
 			return true;
 		}
-		List<Message> messages = new ArrayList<Message>(this.getMessageCollection());
-		deleteSortByQueueMode(messages);
 
-		for (Message m : messages) {
-			if (freeBuffer < size) {
-				deleteMessage(m.getId(), true);
-				nrofdrops++;
-				freeBuffer += m.getSize();
-			} else {
-				return true;
+		while (freeBuffer < size) {
+			Message m = getNextMessageToDrop();
+
+			if (m == null) {
+				break; // the buffer is empty
 			}
+
+			deleteMessage(m.getId(), true);
+			nrofdrops++;
+			freeBuffer += m.getSize();
 		}
-		if (freeBuffer < size) {
-			return true;
-		} else {
-			return false;
-		}
-		
+
+		/* as in the original version that went through the whole sorted
+		 * buffer: true if there's not enough space or messages are left */
+		return freeBuffer < size || this.getNrofMessages() > 0;
 	}
 
-	/** to sort delete queue */
-	@SuppressWarnings(value = "unchecked") /* ugly way to make this generic */
-	protected List deleteSortByQueueMode(List list) {
+	/**
+	 * Returns the message that should be dropped next based on the delete
+	 * queue mode. Messages that are being sent can be returned too.
+	 * @return The message to drop or null if the buffer is empty
+	 */
+	protected Message getNextMessageToDrop() {
 		switch (deleteQueueMode) {
-		/** Compares messages by the highest rate */
 		case Q_MODE_RATE:
-			Collections.sort(list, new Comparator() {
-				
-				public int compare(Object o1, Object o2) {
-					double diff;
-					Message m1, m2;
-
-					if (o1 instanceof Tuple) {
-						m1 = ((Tuple<Message, Connection>) o1).getKey();
-						m2 = ((Tuple<Message, Connection>) o2).getKey();
-					} else if (o1 instanceof Message) {
-						m1 = (Message) o1;
-						m2 = (Message) o2;
-					} else {
-						throw new SimError("Invalid type of objects in " + "the list");
-					}
-					double r1 = ((double) m1.getHops().size() - 1.0)
-							/ ((double) m1.getInitTTL() - (double) m1.getTtl());
-					double r2 = ((double) m2.getHops().size() - 1.0)
-							/ ((double) m2.getInitTTL() - (double) m2.getTtl());
-
-					/* descending sort */
-					if (r2 - r1 == 0) {
-						/* equal probabilities -> let queue mode decide */
-						return 0;
-					} else if (r2 - r1 < 0) {
-						return -1;
-					} else {
-						return 1;
-					}
-
-				}
-			});
-			break;
+			return getHighestRateMessage();
 		case Q_MODE_REPS:
-			Collections.sort(list, new Comparator() {
-				/** Compares messages by the highest number of replications */
-				public int compare(Object o1, Object o2) {
-					double diff;
-					Message m1, m2;
-
-					if (o1 instanceof Tuple) {
-						m1 = ((Tuple<Message, Connection>) o1).getKey();
-						m2 = ((Tuple<Message, Connection>) o2).getKey();
-					} else if (o1 instanceof Message) {
-						m1 = (Message) o1;
-						m2 = (Message) o2;
-					} else {
-						throw new SimError("Invalid type of objects in " + "the list");
-					}
-					double reps1 = (Integer) m1.getProperty(repsproperty);
-					double reps2 = (Integer) m2.getProperty(repsproperty);
-
-					/* descending sort */
-					if (reps2 - reps1 == 0) {
-						/* equal probabilities -> let queue mode decide */
-						return 0;
-					} else if (reps2 - reps1 < 0) {
-						return -1;
-					} else {
-						return 1;
-					}
-
-				}
-			});
-			break;
+			return getFirstMessage(messagesByReps, REPS, false);
 		case Q_MODE_TTL:
-			Collections.sort(list, new Comparator() {
-				/** Compares messages by the oldest TTL */
-				public int compare(Object o1, Object o2) {
-					double diff;
-					Message m1, m2;
-
-					if (o1 instanceof Tuple) {
-						m1 = ((Tuple<Message, Connection>) o1).getKey();
-						m2 = ((Tuple<Message, Connection>) o2).getKey();
-					} else if (o1 instanceof Message) {
-						m1 = (Message) o1;
-						m2 = (Message) o2;
-					} else {
-						throw new SimError("Invalid type of objects in " + "the list");
-					}
-					double ttl1 = m1.getTtl();
-					double ttl2 = m2.getTtl();
-
-					/* ascending sort */
-					if (ttl2 - ttl1 == 0) {
-						/* equal probabilities -> let queue mode decide */
-						return 0;
-					} else if (ttl2 - ttl1 < 0) {
-						return 1;
-					} else {
-						return -1;
-					}
-
-				}
-			});
-			break;
+			return getFirstMessage(messagesByTtl, TTL, false);
 		/* add more queue modes here */
 		default:
 			throw new SimError("Unknown queue mode " + deleteQueueMode);
 		}
+	}
 
-		return list;
+	/**
+	 * Returns the message with the highest rate (hops per minute of age).
+	 * Of messages with the same rate, the first one in the buffer is
+	 * returned. The rate order changes as messages age, so this can't be
+	 * kept in an index like the other queue modes.
+	 * @return The message or null if the buffer is empty
+	 */
+	protected Message getHighestRateMessage() {
+		Message highest = null;
+		double highestRate = 0;
+		for (Message m : getMessageCollection()) {
+			double rate = getRate(m);
+			if (highest == null || rate > highestRate) {
+				highest = m;
+				highestRate = rate;
+			}
+		}
+		return highest;
+	}
+
+	/** returns the message's hop count divided by its age in minutes */
+	private static double getRate(Message m) {
+		double hops = m.getHopCount();
+		double age = (double) m.getInitTTL() - (double) m.getTtl();
+		if (age <= 0) {
+			/* no time passed yet */
+			return hops > 0 ? Double.POSITIVE_INFINITY : 0;
+		}
+		return hops / age;
 	}
 
 	@Override
@@ -670,9 +802,8 @@ public abstract class Epidemic_IQLCC extends ActiveRouter implements CVDetection
 		if (this.endtimeofmsgcreation == 0
 				|| SimClock.getTime() - this.endtimeofmsgcreation >= this.msggenerationinterval) {
 			this.endtimeofmsgcreation = SimClock.getTime();
-			/* added repsproperty to count the 
-			 * number of replications for a new message*/
-			m.addProperty(repsproperty, 1);
+			/* count the number of replications for a new message */
+			m.setNrofCopies(1);
 			return super.createNewMessage(m);
 		}
 
@@ -683,17 +814,17 @@ public abstract class Epidemic_IQLCC extends ActiveRouter implements CVDetection
 	@Override
 	public Message messageTransferred(String id, DTNHost from) {
 		Message aCopy = super.messageTransferred(id, from);
-		Integer msgprop = ((Integer) aCopy.getProperty(repsproperty)) + 1;
-
-		aCopy.updateProperty(repsproperty, msgprop);
+		updateReps(aCopy, aCopy.getNrofCopies() + 1);
 
 		// replications are counted by successful incoming replications.
 		// +1 for 1 rep./
 		nrofreps++;
 		// ack
-		if (isFinalDest(aCopy, this.getHost()) && !receiptBuffer.containsKey(aCopy.getId())) {
-			ACKTTL ack = new ACKTTL(SimClock.getTime(), aCopy.getTtl());
-			receiptBuffer.put(aCopy.getId(), ack);
+		if (isFinalDest(aCopy, this.getHost()) && !receiptBuffer.contains(aCopy.getKey())) {
+			/* the receipt is needed as long as copies of the message live */
+			double ttl = (getExpiryTime(aCopy) - SimClock.getTime()) / 60.0;
+			ACKTTL ack = new ACKTTL(ttl, SimClock.getTime());
+			receiptBuffer.add(aCopy.getKey(), ack);
 		}
 
 		return aCopy;
@@ -813,7 +944,7 @@ public abstract class Epidemic_IQLCC extends ActiveRouter implements CVDetection
 
 	}
 
-	public Map<String, ACKTTL> getReceiptBuffer() {
+	public ReceiptBuffer getReceiptBuffer() {
 		return receiptBuffer;
 	}
 
@@ -825,17 +956,33 @@ public abstract class Epidemic_IQLCC extends ActiveRouter implements CVDetection
 		return this.nrofdrops;
 	}
 
+	/**
+	 * Sets the listeners that are informed about the state updates. The
+	 * list is shared with the routers that are copied from this one.
+	 * @param ccListeners The listeners
+	 */
 	@Override
-	/* needed for CV report */
-	public List<CVandTime> getCVandTime() {
-		return this.cvandtime;
+	public void setCongestionControlListeners(
+			List<CongestionControlListener> ccListeners) {
+		this.ccListeners = ccListeners;
 	}
 
 
 	@Override
 	public double[][] getQV() {
 	/* to record the q-values */
-		return this.QL.getqvalues();
+		return engine.getQValues(qTable);
+	}
+
+	/**
+	 * The routers whose state updates are queued in the engine, in the
+	 * order of the queued updates. Shared by the routers copied from the
+	 * same prototype.
+	 */
+	private static class LearningBatch {
+		private List<Epidemic_IQLCC> routers = new ArrayList<Epidemic_IQLCC>();
+		/** simulation time when the updates were queued */
+		private double time;
 	}
 
 	
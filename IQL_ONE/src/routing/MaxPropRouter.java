@@ -8,14 +8,13 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import routing.maxprop.MaxPropDijkstra;
 import routing.maxprop.MeetingProbabilitySet;
+import routing.maxprop.MeetingProbabilityTable;
+import routing.maxprop.MessageIdSet;
 import core.Connection;
 import core.DTNHost;
 import core.Message;
@@ -49,17 +48,15 @@ public class MaxPropRouter extends ActiveRouter {
 	private MeetingProbabilitySet probs;
 	/** meeting probabilities of all hosts from this host's point of view 
 	 * mapped using host's network address */
-	private Map<Integer, MeetingProbabilitySet> allProbs;
+	private MeetingProbabilityTable allProbs;
 	/** the cost-to-node calculator */
 	private MaxPropDijkstra dijkstra;	
 	/** IDs of the messages that are known to have reached the final dst */
-	private Set<String> ackedMessageIds;
-	/** mapping of the current costs for all messages. This should be set to
-	 * null always when the costs should be updated (a host is met or a new
-	 * message is received) */
-	private Map<Integer, Double> costsForMessages;
-	/** From host of the last cost calculation */
-	private DTNHost lastCostFrom;
+	private MessageIdSet ackedMessageIds;
+	/** are the cost calculator's meeting probabilities up to date. This 
+	 * should be set to false always when the costs should be updated (a 
+	 * host is met) */
+	private boolean costsValid;
 		
 	/** Over how many samples the "average number of bytes transferred per
 	 * transfer opportunity" is taken */
@@ -109,16 +106,16 @@ public class MaxPropRouter extends ActiveRouter {
 		super(r);
 		this.alpha = r.alpha;
 		this.probs = new MeetingProbabilitySet(probSetMaxSize, this.alpha);
-		this.allProbs = new HashMap<Integer, MeetingProbabilitySet>();
-		this.dijkstra = new MaxPropDijkstra(this.allProbs);
-		this.ackedMessageIds = new HashSet<String>();
+		this.allProbs = new MeetingProbabilityTable();
+		this.dijkstra = new MaxPropDijkstra(this.allProbs.getSets());
+		this.ackedMessageIds = new MessageIdSet();
 		this.avgSamples = new int[BYTES_TRANSFERRED_AVG_SAMPLES];
 	}	
 
 	@Override
 	public void changedConnection(Connection con) {
 		if (con.isUp()) { // new connection
-			this.costsForMessages = null; // invalidate old cost estimates
+			this.costsValid = false; // invalidate old cost estimates
 			
 			if (con.isInitiator(getHost())) {
 				/* initiator performs all the actions on behalf of the
@@ -142,12 +139,18 @@ public class MaxPropRouter extends ActiveRouter {
 				otherRouter.probs.updateMeetingProbFor(getHost().getAddress());
 				
 				/* exchange the transitive probabilities */
-				this.updateTransitiveProbs(otherRouter.allProbs);
-				otherRouter.updateTransitiveProbs(this.allProbs);
+				this.allProbs.updateFrom(otherHost.getAddress(),
+						otherRouter.allProbs);
+				otherRouter.allProbs.updateFrom(getHost().getAddress(),
+						this.allProbs);
 				this.allProbs.put(otherHost.getAddress(),
 						otherRouter.probs.replicate());
 				otherRouter.allProbs.put(getHost().getAddress(),
 						this.probs.replicate());
+				this.allProbs.markExchanged(otherHost.getAddress(),
+						otherRouter.allProbs);
+				otherRouter.allProbs.markExchanged(getHost().getAddress(),
+						this.allProbs);
 			}
 		}
 		else {
@@ -156,40 +159,28 @@ public class MaxPropRouter extends ActiveRouter {
 		}
 	}
 
-	/**
-	 * Updates transitive probability values by replacing the current 
-	 * MeetingProbabilitySets with the values from the given mapping
-	 * if the given sets have more recent updates.
-	 * @param p Mapping of the values of the other host
-	 */
-	private void updateTransitiveProbs(Map<Integer, MeetingProbabilitySet> p) {
-		for (Map.Entry<Integer, MeetingProbabilitySet> e : p.entrySet()) {
-			MeetingProbabilitySet myMps = this.allProbs.get(e.getKey()); 
-			if (myMps == null || 
-				e.getValue().getLastUpdateTime() > myMps.getLastUpdateTime() ) {
-				this.allProbs.put(e.getKey(), e.getValue().replicate());
-			}
-		}
-	}
-	
 	/**
 	 * Deletes the messages from the message buffer that are known to be ACKed
 	 */
 	private void deleteAckedMessages() {
-		for (String id : this.ackedMessageIds) {
-			if (this.hasMessage(id) && !isSending(id)) {
-				this.deleteMessage(id, false);
+		List<String> acked = new ArrayList<String>();
+		for (Message m : getMessageCollection()) {
+			if (this.ackedMessageIds.contains(m.getKey()) && 
+					!isSending(m.getKey())) {
+				acked.add(m.getId());
 			}
 		}
+		for (String id : acked) {
+			this.deleteMessage(id, false);
+		}
 	}
 	
 	@Override
 	public Message messageTransferred(String id, DTNHost from) {
-		this.costsForMessages = null; // new message -> invalidate costs
 		Message m = super.messageTransferred(id, from);
 		/* was this node the final recipient of the message? */
 		if (isDeliveredMessage(m)) {
-			this.ackedMessageIds.add(id);
+			this.ackedMessageIds.add(m.getKey());
 		}
 		return m;
 	}
@@ -205,7 +196,7 @@ public class MaxPropRouter extends ActiveRouter {
 		Message m = con.getMessage();
 		/* was the message delivered to the final recipient? */
 		if (m.getTo() == con.getOtherNode(getHost())) { 
-			this.ackedMessageIds.add(m.getId()); // yes, add to ACKed messages
+			this.ackedMessageIds.add(m.getKey()); // yes, add to ACKed messages
 			this.deleteMessage(m.getId(), false); // delete from buffer
 		}
 	}
@@ -255,7 +246,7 @@ public class MaxPropRouter extends ActiveRouter {
 		List<Message> validMessages = new ArrayList<Message>();
 
 		for (Message m : messages) {	
-			if (excludeMsgBeingSent && isSending(m.getId())) {
+			if (excludeMsgBeingSent && isSending(m.getKey())) {
 				continue; // skip the message(s) that router is sending
 			}
 			validMessages.add(m);
@@ -285,8 +276,9 @@ public class MaxPropRouter extends ActiveRouter {
 	/**
 	 * Returns the message delivery cost between two hosts from this host's
 	 * point of view. If there is no path between "from" and "to" host, 
-	 * Double.MAX_VALUE is returned. Paths are calculated only to hosts
-	 * that this host has messages to.
+	 * Double.MAX_VALUE is returned. The costs from the same "from" host
+	 * are shared by all messages and kept until the meeting probabilities
+	 * change.
 	 * @param from The host where a message is coming from
 	 * @param to The host where a message would be destined to
 	 * @return The cost of the cheapest path to the destination or 
@@ -294,29 +286,14 @@ public class MaxPropRouter extends ActiveRouter {
 	 */
 	public double getCost(DTNHost from, DTNHost to) {
 		/* check if the cached values are OK */
-		if (this.costsForMessages == null || lastCostFrom != from) {
-			/* cached costs are invalid -> calculate new costs */
+		if (!this.costsValid) {
+			/* cached costs are invalid -> read the changed probabilities */
 			this.allProbs.put(getHost().getAddress(), this.probs);
-			int fromIndex = from.getAddress();
-			
-			/* calculate paths only to nodes we have messages to 
-			 * (optimization) */
-			Set<Integer> toSet = new HashSet<Integer>();
-			for (Message m : getMessageCollection()) {
-				toSet.add(m.getTo().getAddress());
-			}
-						
-			this.costsForMessages = dijkstra.getCosts(fromIndex, toSet);
-			this.lastCostFrom = from; // store source host for caching checks
+			dijkstra.refresh();
+			this.costsValid = true;
 		}
 		
-		if (costsForMessages.containsKey(to.getAddress())) {
-			return costsForMessages.get(to.getAddress());
-		}
-		else {
-			/* there's no known path to the given host */
-			return Double.MAX_VALUE;
-		}
+		return dijkstra.getCost(from.getAddress(), to.getAddress());
 	}
 	
 	/**
@@ -343,8 +320,8 @@ public class MaxPropRouter extends ActiveRouter {
 			for (Message m : msgCollection) {
 				/* skip messages that the other host has or that have
 				 * passed the other host */
-				if (othRouter.hasMessage(m.getId()) ||
-						m.getHops().contains(other)) {
+				if (othRouter.hasMessage(m.getKey()) ||
+						m.isOnPath(other)) {
 					continue; 
 				}
 				messages.add(new Tuple<Message, Connection>(m,con));
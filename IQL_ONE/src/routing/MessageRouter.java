@@ -4,6 +4,7 @@
  */
 package routing;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -15,13 +16,17 @@ import java.util.Random;
 import core.Application;
 import core.Connection;
 import core.DTNHost;
+import core.IntHashMap;
 import core.Message;
+import core.MessageIdRegistry;
 import core.MessageListener;
+import core.RandomStreams;
 import core.Settings;
 import core.SettingsError;
 import core.SimClock;
 import core.SimError;
 import core.Tuple;
+import routing.delivered.DeliveredHistory;
 
 /**
  * Superclass for message routers.
@@ -66,20 +71,35 @@ public abstract class MessageRouter {
 	public static final int DENIED_UNSPECIFIED = -999;
 	
 	protected List<MessageListener> mListeners;
-	/** The messages being transferred with msgID_hostName keys */
-	private HashMap<String, Message> incomingMessages;
-	/** The messages this router is carrying */
-	private HashMap<String, Message> messages; 
+	/** The messages being transferred */
+	private ArrayList<Message> incomingMessages;
+	/** The hosts the incoming messages are from (in the same order) */
+	private ArrayList<DTNHost> incomingFrom;
+	/** The messages this router is carrying by their keys */
+	private IntHashMap<Message> messages; 
+	/** The messages this router is carrying by their final recipient */
+	private HashMap<DTNHost, List<Message>> messagesByDestination;
+	/** Total size of the messages this router is carrying (bytes) */
+	private int bufferOccupancy;
 	/** The messages this router has received as the final recipient */
-	protected HashMap<String, Message> deliveredMessages;
+	protected DeliveredHistory deliveredMessages;
+	/** Prototype of the delivered message histories
+	 * (see {@link DeliveredHistory#TYPE_S}) */
+	private DeliveredHistory deliveredPrototype;
 	/** Host where this router belongs to */
 	private DTNHost host;
 	/** size of the buffer */
 	private int bufferSize;
 	/** TTL for all messages */
 	protected int msgTtl;
+	/** simulation time of the latest change in the message buffers */
+	private double lastBufferChange;
 	/** Queue mode for sending messages */
 	private int sendQueueMode;
+	/** Random number generator for shuffling (created on the first use) */
+	private Random rng;
+	/** Seed of the router's random number stream */
+	private long rngSeed;
 
 	/** applications attached to the host */
 	private HashMap<String, Collection<Application>>	applications = null;
@@ -112,6 +132,7 @@ public abstract class MessageRouter {
 			sendQueueMode = Q_MODE_RANDOM;
 		}
 		
+		this.deliveredPrototype = DeliveredHistory.create(s);
 	}
 	
 	/**
@@ -122,9 +143,13 @@ public abstract class MessageRouter {
 	 * @param mListeners The message listeners
 	 */
 	public void init(DTNHost host, List<MessageListener> mListeners) {
-		this.incomingMessages = new HashMap<String, Message>();
-		this.messages = new HashMap<String, Message>();
-		this.deliveredMessages = new HashMap<String, Message>();
+		this.incomingMessages = new ArrayList<Message>(1);
+		this.incomingFrom = new ArrayList<DTNHost>(1);
+		this.messages = new IntHashMap<Message>();
+		this.messagesByDestination = new HashMap<DTNHost, List<Message>>();
+		this.bufferOccupancy = 0;
+		this.deliveredMessages = this.deliveredPrototype.replicate();
+		this.lastBufferChange = SimClock.getTime();
 		this.mListeners = mListeners;
 		this.host = host;
 	}
@@ -137,6 +162,7 @@ public abstract class MessageRouter {
 		this.bufferSize = r.bufferSize;
 		this.msgTtl = r.msgTtl;
 		this.sendQueueMode = r.sendQueueMode;
+		this.deliveredPrototype = r.deliveredPrototype;
 
 		this.applications = new HashMap<String, Collection<Application>>();
 		for (Collection<Application> apps : r.applications.values()) {
@@ -158,7 +184,30 @@ public abstract class MessageRouter {
 			}
 		}
 	}
-	
+
+	/**
+	 * Returns the next simulation time when this router needs its
+	 * {@link #update()} method to be called even if no external event
+	 * (e.g., connection or message event) happens before that. Used by
+	 * the event driven time advance of {@link core.World}. The time may be
+	 * earlier than necessary but never later. This default implementation
+	 * returns the current time, i.e., the router is updated on every
+	 * update interval. Routers whose state changes only due to events
+	 * and known timers should override this.
+	 * @return The next time this router needs an update
+	 */
+	public double getNextUpdateTime() {
+		return SimClock.getTime();
+	}
+
+	/**
+	 * Returns true if there are applications attached to this router
+	 * @return true if there are applications attached to this router
+	 */
+	protected boolean hasApplications() {
+		return !this.applications.isEmpty();
+	}
+
 	/**
 	 * Informs the router about change in connections state.
 	 * @param con The connection that changed
@@ -171,7 +220,16 @@ public abstract class MessageRouter {
 	 * @return The message
 	 */
 	protected Message getMessage(String id) {
-		return this.messages.get(id);
+		return this.messages.get(MessageIdRegistry.getKey(id));
+	}
+	
+	/**
+	 * Returns a message by the key of its ID.
+	 * @param key Key of the message ID (see {@link Message#getKey()})
+	 * @return The message or null if the router doesn't have it
+	 */
+	protected Message getMessage(int key) {
+		return this.messages.get(key);
 	}
 	
 	/**
@@ -180,7 +238,16 @@ public abstract class MessageRouter {
 	 * @return True if the router has message with this id, false if not
 	 */
 	protected boolean hasMessage(String id) {
-		return this.messages.containsKey(id);
+		return this.messages.containsKey(MessageIdRegistry.getKey(id));
+	}
+	
+	/**
+	 * Checks if this router has a message with certain ID key buffered.
+	 * @param key Key of the message ID (see {@link Message#getKey()})
+	 * @return True if the router has the message, false if not
+	 */
+	protected boolean hasMessage(int key) {
+		return this.messages.containsKey(key);
 	}
 	
 	/**
@@ -192,7 +259,16 @@ public abstract class MessageRouter {
 	 * this host as the final recipient.
 	 */
 	protected boolean isDeliveredMessage(Message m) {
-		return (this.deliveredMessages.containsKey(m.getId()));
+		return (this.deliveredMessages.contains(m));
+	}
+	
+	/**
+	 * Returns the history of the messages this router has received as the
+	 * final recipient
+	 * @return The delivered message history
+	 */
+	public DeliveredHistory getDeliveredHistory() {
+		return this.deliveredMessages;
 	}
 	
 	/**
@@ -200,13 +276,29 @@ public abstract class MessageRouter {
 	 * <b>Note:</b> If there's a chance that some message(s) from the collection
 	 * could be deleted (or added) while iterating through the collection, a
 	 * copy of the collection should be made to avoid concurrent modification
-	 * exceptions. 
+	 * exceptions. The collection must not be modified directly; use
+	 * {@link #addToMessages(Message, boolean)} and
+	 * {@link #removeFromMessages(String)} instead.
 	 * @return a reference to the messages of this router in collection
 	 */
 	public Collection<Message> getMessageCollection() {
 		return this.messages.values();
 	}
 	
+	/**
+	 * Returns the messages of this router whose final recipient is the
+	 * given host, in the order they were added to the buffer. The same
+	 * rules apply as for {@link #getMessageCollection()}: the list must not
+	 * be modified and a copy should be made if messages may be added or
+	 * deleted while iterating.
+	 * @param to The final recipient
+	 * @return The messages for the host (an empty list if there are none)
+	 */
+	protected List<Message> getMessagesFor(DTNHost to) {
+		List<Message> list = this.messagesByDestination.get(to);
+		return (list != null ? list : Collections.<Message>emptyList());
+	}
+	
 	/**
 	 * Returns the number of messages this router has
 	 * @return How many messages this router has
@@ -231,17 +323,30 @@ public abstract class MessageRouter {
 	 * size isn't defined)
 	 */
 	public int getFreeBufferSize() {
-		int occupancy = 0;
-		
 		if (this.getBufferSize() == Integer.MAX_VALUE) {
 			return Integer.MAX_VALUE;
 		}
 		
+		assert this.bufferOccupancy == countBufferOccupancy() : 
+			"Buffer occupancy counter (" + this.bufferOccupancy + ") of " +
+			this.host + " doesn't match the messages' total size (" + 
+			countBufferOccupancy() + ")";
+		
+		return this.getBufferSize() - this.bufferOccupancy;
+	}
+	
+	/**
+	 * Counts the total size of the messages in the buffer by going through
+	 * all the messages. Used for checking the occupancy counter when
+	 * assertions are enabled.
+	 * @return Total size of the messages in the buffer
+	 */
+	private int countBufferOccupancy() {
+		int occupancy = 0;
 		for (Message m : getMessageCollection()) {
 			occupancy += m.getSize();
 		}
-		
-		return this.getBufferSize() - occupancy;
+		return occupancy;
 	}
 	
 	/**
@@ -341,7 +446,7 @@ public abstract class MessageRouter {
 			addToMessages(aMessage, false);
 		}
 		else if (isFirstDelivery) {
-			this.deliveredMessages.put(id, aMessage);
+			this.deliveredMessages.add(aMessage);
 		}
 		
 		for (MessageListener ml : this.mListeners) {
@@ -359,7 +464,15 @@ public abstract class MessageRouter {
 	 * @param from Who the message was from (previous hop).
 	 */
 	protected void putToIncomingBuffer(Message m, DTNHost from) {
-		this.incomingMessages.put(m.getId() + "_" + from.toString(), m);
+		int i = indexOfIncoming(m.getKey(), from);
+		if (i >= 0) {
+			this.incomingMessages.set(i, m);
+		}
+		else {
+			this.incomingMessages.add(m);
+			this.incomingFrom.add(from);
+		}
+		this.lastBufferChange = SimClock.getTime();
 	}
 	
 	/**
@@ -370,7 +483,30 @@ public abstract class MessageRouter {
 	 * @return The found message or null if such message wasn't found
 	 */
 	protected Message removeFromIncomingBuffer(String id, DTNHost from) {
-		return this.incomingMessages.remove(id + "_" + from.toString());
+		int i = indexOfIncoming(MessageIdRegistry.getKey(id), from);
+		if (i < 0) {
+			return null;
+		}
+		this.incomingFrom.remove(i);
+		this.lastBufferChange = SimClock.getTime();
+		return this.incomingMessages.remove(i);
+	}
+	
+	/**
+	 * Returns the index of an incoming message in the incoming messages
+	 * buffer
+	 * @param key Key of the message ID
+	 * @param from The host that sent the message or null for any host
+	 * @return The index or -1 if there's no such message
+	 */
+	private int indexOfIncoming(int key, DTNHost from) {
+		for (int i=0, n=this.incomingMessages.size(); i<n; i++) {
+			if (this.incomingMessages.get(i).getKey() == key &&
+					(from == null || this.incomingFrom.get(i) == from)) {
+				return i;
+			}
+		}
+		return -1;
 	}
 	
 	/**
@@ -380,7 +516,7 @@ public abstract class MessageRouter {
 	 * @return True if such message is incoming right now
 	 */
 	protected boolean isIncomingMessage(String id) {
-		return this.incomingMessages.containsKey(id);
+		return indexOfIncoming(MessageIdRegistry.getKey(id), null) >= 0;
 	}
 	
 	/**
@@ -391,7 +527,22 @@ public abstract class MessageRouter {
 	 * message, if false, nothing is informed.
 	 */
 	protected void addToMessages(Message m, boolean newMessage) {
-		this.messages.put(m.getId(), m);
+		Message old = this.messages.put(m.getKey(), m);
+		if (old != null) {
+			this.bufferOccupancy -= old.getSize();
+			this.messagesByDestination.get(old.getTo()).remove(old);
+		}
+		this.bufferOccupancy += m.getSize();
+		
+		List<Message> forDestination = this.messagesByDestination.get(m.getTo());
+		if (forDestination == null) {
+			/* the list is kept when it becomes empty; hosts rarely stop
+			 * being destinations */
+			forDestination = new ArrayList<Message>(2);
+			this.messagesByDestination.put(m.getTo(), forDestination);
+		}
+		forDestination.add(m);
+		this.lastBufferChange = SimClock.getTime();
 		
 		if (newMessage) {
 			for (MessageListener ml : this.mListeners) {
@@ -406,9 +557,23 @@ public abstract class MessageRouter {
 	 * @return The removed message or null if message for the ID wasn't found
 	 */
 	protected Message removeFromMessages(String id) {
-		Message m = this.messages.remove(id);
+		Message m = this.messages.remove(MessageIdRegistry.getKey(id));
+		if (m != null) {
+			this.bufferOccupancy -= m.getSize();
+			this.messagesByDestination.get(m.getTo()).remove(m);
+			this.lastBufferChange = SimClock.getTime();
+		}
 		return m;
 	}
+
+	/**
+	 * Returns the simulation time when a message was last added to or
+	 * removed from the message buffer or the incoming messages buffer
+	 * @return The time of the latest message buffer change
+	 */
+	protected double getLastBufferChangeTime() {
+		return this.lastBufferChange;
+	}
 	
 	/**
 	 * This method should be called (on the receiving host) when a message 
@@ -460,6 +625,23 @@ public abstract class MessageRouter {
 		}
 	}
 	
+	/**
+	 * Returns the router's random number generator, seeded for the current
+	 * simulation time (whole seconds) from the router's own stream (see
+	 * {@link RandomStreams}). The values drawn from the generator depend
+	 * only on the host and the time.
+	 * @return The random number generator
+	 */
+	protected Random getRandom() {
+		if (this.rng == null) {
+			this.rng = new Random(0);
+			this.rngSeed = RandomStreams.getSeed(
+					MessageRouter.class.getSimpleName(), host.getAddress());
+		}
+		RandomStreams.setSeed(this.rng, this.rngSeed, SimClock.getIntTime());
+		return this.rng;
+	}
+
 	/**
 	 * Sorts/shuffles the given list according to the current sending queue 
 	 * mode. The list can contain either Message or Tuple<Message, Connection> 
@@ -471,7 +653,7 @@ public abstract class MessageRouter {
 	protected List sortByQueueMode(List list) {
 		switch (sendQueueMode) {
 		case Q_MODE_RANDOM:
-			Collections.shuffle(list, new Random(SimClock.getIntTime()));
+			Collections.shuffle(list, getRandom());
 			break;
 		case Q_MODE_FIFO:
 			Collections.sort(list, 
@@ -544,7 +726,8 @@ public abstract class MessageRouter {
 		RoutingInfo incoming = new RoutingInfo(this.incomingMessages.size() + 
 				" incoming message(s)");
 		RoutingInfo delivered = new RoutingInfo(this.deliveredMessages.size() +
-				" delivered message(s)");
+				" delivered message(s) in " + this.deliveredMessages.getType() +
+				" history");
 		
 		RoutingInfo cons = new RoutingInfo(host.getConnections().size() + 
 			" connection(s)");
@@ -553,14 +736,10 @@ public abstract class MessageRouter {
 		ri.addMoreInfo(delivered);
 		ri.addMoreInfo(cons);
 		
-		for (Message m : this.incomingMessages.values()) {
+		for (Message m : this.incomingMessages) {
 			incoming.addMoreInfo(new RoutingInfo(m));
 		}
 		
-		for (Message m : this.deliveredMessages.values()) {
-			delivered.addMoreInfo(new RoutingInfo(m + " path:" + m.getHops()));
-		}
-		
 		for (Connection c : host.getConnections()) {
 			cons.addMoreInfo(new RoutingInfo(c));
 		}
@@ -605,6 +784,17 @@ public abstract class MessageRouter {
 		return apps;
 	}
 
+	/**
+	 * Sets the listeners that are informed about the congestion control
+	 * state updates of the router. Routers that don't have congestion
+	 * control ignore the listeners.
+	 * @param ccListeners The listeners
+	 */
+	public void setCongestionControlListeners(
+			List<CongestionControlListener> ccListeners) {
+		/* no congestion control by default */
+	}
+
 	/**
 	 * Creates a replicate of this router. The replicate has the same
 	 * settings as this router but empty buffers and routing tables.
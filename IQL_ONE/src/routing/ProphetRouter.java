@@ -5,19 +5,18 @@
 package routing;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import routing.prophet.DeliveryPredictabilities;
 import core.Connection;
 import core.DTNHost;
 import core.Message;
 import core.Settings;
-import core.SimClock;
-import core.Tuple;
 
 /**
  * Implementation of PRoPHET router as described in 
@@ -46,15 +45,40 @@ public class ProphetRouter extends ActiveRouter {
 	 */
 	public static final String BETA_S = "beta";
 
+	/**
+	 * Incremental transitivity -setting id ({@value}). Boolean. If true,
+	 * only the delivery predictabilities the other host has updated after
+	 * the previous encounter with it are used in the transitive updates.
+	 * Default = false.
+	 */
+	public static final String INCREMENTAL_TRANSITIVITY_S = 
+		"incrementalTransitivity";
+
 	/** the value of nrof seconds in time unit -setting */
 	private int secondsInTimeUnit;
 	/** value of beta setting */
 	private double beta;
+	/** value of incremental transitivity setting */
+	private boolean incrementalTransitivity;
 
 	/** delivery predictabilities */
-	private Map<DTNHost, Double> preds;
-	/** last delivery predictability update (sim)time */
-	private double lastAgeUpdate;
+	private DeliveryPredictabilities preds;
+	/** the modification counts of other hosts' predictabilities at the 
+	 * previous encounters, by host address */
+	private int[] exchangeMarks;
+
+	/** the buffered messages by their destination */
+	private Map<DTNHost, List<Message>> messagesByDest;
+	/** counter of changes in the message buffer */
+	private int bufferVersion;
+	/** the messages that the connected hosts have a higher delivery 
+	 * predictability for, in the order they should be tried */
+	private List<Candidate> sendQueue;
+	/** connections, their routers' predictability versions and the buffer
+	 * version the send queue was built for */
+	private Connection[] queueCons;
+	private int[] queuePredsVersions;
+	private int queueBufferVersion;
 	
 	/**
 	 * Constructor. Creates a new message router based on the settings in
@@ -71,6 +95,13 @@ public class ProphetRouter extends ActiveRouter {
 		else {
 			beta = DEFAULT_BETA;
 		}
+		if (prophetSettings.contains(INCREMENTAL_TRANSITIVITY_S)) {
+			incrementalTransitivity = prophetSettings.getBoolean(
+					INCREMENTAL_TRANSITIVITY_S);
+		}
+		else {
+			incrementalTransitivity = false;
+		}
 
 		initPreds();
 	}
@@ -83,14 +114,60 @@ public class ProphetRouter extends ActiveRouter {
 		super(r);
 		this.secondsInTimeUnit = r.secondsInTimeUnit;
 		this.beta = r.beta;
+		this.incrementalTransitivity = r.incrementalTransitivity;
 		initPreds();
 	}
 	
 	/**
-	 * Initializes predictability hash
+	 * Initializes predictability table
 	 */
 	private void initPreds() {
-		this.preds = new HashMap<DTNHost, Double>();
+		this.preds = new DeliveryPredictabilities(GAMMA, secondsInTimeUnit);
+		this.exchangeMarks = new int[0];
+		this.messagesByDest = new LinkedHashMap<DTNHost, List<Message>>();
+		this.bufferVersion = 0;
+		this.sendQueue = new ArrayList<Candidate>();
+		this.queueCons = null;
+	}
+
+	@Override
+	protected void addToMessages(Message m, boolean newMessage) {
+		Message old = getMessage(m.getKey());
+		if (old != null) {
+			removeFromDestList(old);
+		}
+		super.addToMessages(m, newMessage);
+
+		List<Message> list = messagesByDest.get(m.getTo());
+		if (list == null) {
+			list = new ArrayList<Message>();
+			messagesByDest.put(m.getTo(), list);
+		}
+		list.add(m);
+		bufferVersion++;
+	}
+
+	@Override
+	protected Message removeFromMessages(String id) {
+		Message m = super.removeFromMessages(id);
+		if (m != null) {
+			removeFromDestList(m);
+			bufferVersion++;
+		}
+		return m;
+	}
+
+	/**
+	 * Removes a message from the list of its destination's messages
+	 */
+	private void removeFromDestList(Message m) {
+		List<Message> list = messagesByDest.get(m.getTo());
+		if (list != null) {
+			list.remove(m);
+			if (list.isEmpty()) {
+				messagesByDest.remove(m.getTo());
+			}
+		}
 	}
 
 	@Override
@@ -110,7 +187,7 @@ public class ProphetRouter extends ActiveRouter {
 	private void updateDeliveryPredFor(DTNHost host) {
 		double oldValue = getPredFor(host);
 		double newValue = oldValue + (1 - oldValue) * P_INIT;
-		preds.put(host, newValue);
+		preds.set(host, newValue);
 	}
 	
 	/**
@@ -120,13 +197,7 @@ public class ProphetRouter extends ActiveRouter {
 	 * @return the current P value
 	 */
 	public double getPredFor(DTNHost host) {
-		ageDeliveryPreds(); // make sure preds are updated before getting
-		if (preds.containsKey(host)) {
-			return preds.get(host);
-		}
-		else {
-			return 0;
-		}
+		return preds.get(host); // aging is done by the table
 	}
 	
 	/**
@@ -141,49 +212,33 @@ public class ProphetRouter extends ActiveRouter {
 			" with other routers of same type";
 		
 		double pForHost = getPredFor(host); // P(a,b)
-		Map<DTNHost, Double> othersPreds = 
-			((ProphetRouter)otherRouter).getDeliveryPreds();
+		DeliveryPredictabilities othersPreds = 
+			((ProphetRouter)otherRouter).preds;
+		int mark = 0; // by default, use all of the other's predictabilities
 		
-		for (Map.Entry<DTNHost, Double> e : othersPreds.entrySet()) {
-			if (e.getKey() == getHost()) {
-				continue; // don't add yourself
+		if (incrementalTransitivity) {
+			int address = host.getAddress();
+			if (address >= exchangeMarks.length) {
+				exchangeMarks = Arrays.copyOf(exchangeMarks, 
+						Math.max(address + 1, exchangeMarks.length * 2));
 			}
-			
-			double pOld = getPredFor(e.getKey()); // P(a,c)_old
-			double pNew = pOld + ( 1 - pOld) * pForHost * e.getValue() * beta;
-			preds.put(e.getKey(), pNew);
-		}
-	}
-
-	/**
-	 * Ages all entries in the delivery predictions.
-	 * <CODE>P(a,b) = P(a,b)_old * (GAMMA ^ k)</CODE>, where k is number of
-	 * time units that have elapsed since the last time the metric was aged.
-	 * @see #SECONDS_IN_UNIT_S
-	 */
-	private void ageDeliveryPreds() {
-		double timeDiff = (SimClock.getTime() - this.lastAgeUpdate) / 
-			secondsInTimeUnit;
-		
-		if (timeDiff == 0) {
-			return;
+			mark = exchangeMarks[address];
+			exchangeMarks[address] = othersPreds.getModCount();
 		}
 		
-		double mult = Math.pow(GAMMA, timeDiff);
-		for (Map.Entry<DTNHost, Double> e : preds.entrySet()) {
-			e.setValue(e.getValue()*mult);
+		for (int c = othersPreds.lastSet(); c != -1 && 
+				othersPreds.getModStamp(c) > mark; 
+				c = othersPreds.previousSet(c)) {
+			DTNHost cHost = othersPreds.getHost(c);
+			if (cHost == getHost()) {
+				continue; // don't add yourself
+			}
+			
+			double pOld = getPredFor(cHost); // P(a,c)_old
+			double pNew = pOld + ( 1 - pOld) * pForHost * 
+				othersPreds.getPred(c) * beta;
+			preds.set(cHost, pNew);
 		}
-		
-		this.lastAgeUpdate = SimClock.getTime();
-	}
-	
-	/**
-	 * Returns a map of this router's delivery predictions
-	 * @return a map of this router's delivery predictions
-	 */
-	private Map<DTNHost, Double> getDeliveryPreds() {
-		ageDeliveryPreds(); // make sure the aging is done
-		return this.preds;
 	}
 	
 	@Override
@@ -203,71 +258,121 @@ public class ProphetRouter extends ActiveRouter {
 	
 	/**
 	 * Tries to send all other messages to all connected hosts ordered by
-	 * their delivery probability
-	 * @return The return value of {@link #tryMessagesForConnected(List)}
+	 * their delivery probability. The messages are taken from the send
+	 * queue, which is rebuilt only if the connections, the buffer or the 
+	 * delivery predictabilities of this or a connected host have changed.
+	 * @return The message whose transfer was started or null if no
+	 * transfer was started
 	 */
-	private Tuple<Message, Connection> tryOtherMessages() {
-		List<Tuple<Message, Connection>> messages = 
-			new ArrayList<Tuple<Message, Connection>>(); 
-	
-		Collection<Message> msgCollection = getMessageCollection();
-		
-		/* for all connected hosts collect all messages that have a higher
-		   probability of delivery by the other host */
-		for (Connection con : getConnections()) {
-			DTNHost other = con.getOtherNode(getHost());
-			ProphetRouter othRouter = (ProphetRouter)other.getRouter();
-			
-			if (othRouter.isTransferring()) {
-				continue; // skip hosts that are transferring
+	private Message tryOtherMessages() {
+		List<Connection> connections = getConnections();
+		if (!isSendQueueValid(connections)) {
+			buildSendQueue(connections);
+		}
+
+		for (int i=0, n = sendQueue.size(); i < n; i++) {
+			Candidate c = sendQueue.get(i);
+			ProphetRouter othRouter = getOtherRouter(c.con);
+			if (othRouter.isTransferring() || 
+					othRouter.hasMessage(c.msg.getKey())) {
+				continue; // host is busy or already has the message
+			}
+			if (startTransfer(c.msg, c.con) == RCV_OK) {
+				return c.msg;
 			}
-			
-			for (Message m : msgCollection) {
-				if (othRouter.hasMessage(m.getId())) {
-					continue; // skip messages that the other one has
-				}
-                                tryAllMessagesToAllConnections();
-				if (othRouter.getPredFor(m.getTo()) > getPredFor(m.getTo())) {
-					// the other node has higher probability of delivery
-					messages.add(new Tuple<Message, Connection>(m,con));
-				}
-			}			
 		}
-		
-		if (messages.size() == 0) {
-			return null;
+		return null;
+	}
+
+	/**
+	 * Returns true if the send queue was built for the given connections
+	 * and nothing it depends on has changed since
+	 */
+	private boolean isSendQueueValid(List<Connection> connections) {
+		if (queueCons == null || queueBufferVersion != bufferVersion ||
+				queueCons.length != connections.size() + 1 ||
+				queuePredsVersions[0] != preds.getModCount()) {
+			return false;
 		}
-		
-		// sort the message-connection tuples
-		Collections.sort(messages, new TupleComparator());
-		return tryMessagesForConnected(messages);	// try to send messages
+		for (int i=0, n = connections.size(); i < n; i++) {
+			Connection con = connections.get(i);
+			if (queueCons[i+1] != con || queuePredsVersions[i+1] != 
+					getOtherRouter(con).preds.getModCount()) {
+				return false;
+			}
+		}
+		return true;
 	}
-	
+
+	/**
+	 * Builds the send queue: for every connection, the messages for the 
+	 * destinations the other host has a higher delivery predictability
+	 * for than this host, ordered by the other host's predictability (and
+	 * the queue mode for equal predictabilities)
+	 */
+	private void buildSendQueue(List<Connection> connections) {
+		int n = connections.size();
+		sendQueue.clear();
+		queueCons = new Connection[n + 1];
+		queuePredsVersions = new int[n + 1];
+		queuePredsVersions[0] = preds.getModCount();
+		queueBufferVersion = bufferVersion;
+
+		for (int i=0; i < n; i++) {
+			Connection con = connections.get(i);
+			ProphetRouter othRouter = getOtherRouter(con);
+			queueCons[i+1] = con;
+			queuePredsVersions[i+1] = othRouter.preds.getModCount();
+
+			for (Map.Entry<DTNHost, List<Message>> e : 
+					messagesByDest.entrySet()) {
+				double pOther = othRouter.getPredFor(e.getKey());
+				if (pOther > getPredFor(e.getKey())) {
+					for (Message m : e.getValue()) {
+						sendQueue.add(new Candidate(m, con, pOther));
+					}
+				}
+			}
+		}
+
+		Collections.sort(sendQueue, new CandidateComparator());
+	}
+
+	/**
+	 * Returns the router of the other host of a connection
+	 */
+	private ProphetRouter getOtherRouter(Connection con) {
+		return (ProphetRouter)con.getOtherNode(getHost()).getRouter();
+	}
+
 	/**
-	 * Comparator for Message-Connection-Tuples that orders the tuples by
-	 * their delivery probability by the host on the other side of the 
-	 * connection (GRTRMax)
+	 * A message that could be sent over a connection, with the delivery
+	 * predictability of the other host for the message's destination
 	 */
-	private class TupleComparator implements Comparator 
-		<Tuple<Message, Connection>> {
+	private static class Candidate {
+		private final Message msg;
+		private final Connection con;
+		private final double pred;
 
-		public int compare(Tuple<Message, Connection> tuple1,
-				Tuple<Message, Connection> tuple2) {
-			// delivery probability of tuple1's message with tuple1's connection
-			double p1 = ((ProphetRouter)tuple1.getValue().
-					getOtherNode(getHost()).getRouter()).getPredFor(
-					tuple1.getKey().getTo());
-			// -"- tuple2...
-			double p2 = ((ProphetRouter)tuple2.getValue().
-					getOtherNode(getHost()).getRouter()).getPredFor(
-					tuple2.getKey().getTo());
+		private Candidate(Message msg, Connection con, double pred) {
+			this.msg = msg;
+			this.con = con;
+			this.pred = pred;
+		}
+	}
 
+	/**
+	 * Comparator for Candidates that orders them by the delivery
+	 * probability of the host on the other side of the connection (GRTRMax)
+	 */
+	private class CandidateComparator implements Comparator<Candidate> {
+		public int compare(Candidate c1, Candidate c2) {
 			// bigger probability should come first
-			if (p2-p1 == 0) {
+			if (c2.pred - c1.pred == 0) {
 				/* equal probabilities -> let queue mode decide */
-				return compareByQueueMode(tuple1.getKey(), tuple2.getKey());
+				return compareByQueueMode(c1.msg, c2.msg);
 			}
-			else if (p2-p1 < 0) {
+			else if (c2.pred - c1.pred < 0) {
 				return -1;
 			}
 			else {
@@ -278,14 +383,13 @@ public class ProphetRouter extends ActiveRouter {
 	
 	@Override
 	public RoutingInfo getRoutingInfo() {
-		ageDeliveryPreds();
 		RoutingInfo top = super.getRoutingInfo();
 		RoutingInfo ri = new RoutingInfo(preds.size() + 
 				" delivery prediction(s)");
 		
-		for (Map.Entry<DTNHost, Double> e : preds.entrySet()) {
-			DTNHost host = e.getKey();
-			Double value = e.getValue();
+		for (int a = preds.firstSet(); a != -1; a = preds.nextSet(a)) {
+			DTNHost host = preds.getHost(a);
+			double value = preds.getPred(a);
 			
 			ri.addMoreInfo(new RoutingInfo(String.format("%s : %.6f", 
 					host, value)));
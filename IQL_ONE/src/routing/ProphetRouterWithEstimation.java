@@ -5,6 +5,7 @@
 package routing;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -12,6 +13,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import routing.prophet.DeliveryPredictabilities;
 import core.Connection;
 import core.DTNHost;
 import core.Message;
@@ -59,25 +61,35 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 	 */
 	public static final String BETA_S = "beta";
 
+	/**
+	 * Incremental transitivity -setting id ({@value}). Boolean. If true,
+	 * only the delivery predictabilities the other host has updated after
+	 * the previous encounter with it are used in the transitive updates.
+	 * Default = false.
+	 */
+	public static final String INCREMENTAL_TRANSITIVITY_S = 
+		"incrementalTransitivity";
+
 	/** values of parameter settings */
 	private double beta;
 	private double gamma;
 	private double pinit;
+	private boolean incrementalTransitivity;
 
 	/** value of time scale variable */
 	private int timescale;
 	private double ptavg;
 
 	/** delivery predictabilities */
-	private Map<DTNHost, Double> preds;
+	private DeliveryPredictabilities preds;
+	/** the modification counts of other hosts' predictabilities at the 
+	 * previous encounters, by host address */
+	private int[] exchangeMarks;
 
 	/** last meeting time with a node */
 	private Map<DTNHost, Double> meetings;
 	private int nrofSamples;
 	private double meanIET;
-
-	/** last delivery predictability update (sim)time */
-	private double lastAgeUpdate;
 
 
 	/**
@@ -99,6 +111,12 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 		} else {
 			beta = DEFAULT_BETA;
 		}
+		if (prophetSettings.contains(INCREMENTAL_TRANSITIVITY_S)) {
+			incrementalTransitivity = prophetSettings.getBoolean(
+					INCREMENTAL_TRANSITIVITY_S);
+		} else {
+			incrementalTransitivity = false;
+		}
 		gamma = GAMMA;
 		pinit = P_INIT;
 
@@ -115,15 +133,17 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 		this.timescale = r.timescale;
 		this.ptavg = r.ptavg;
 		this.beta = r.beta;
+		this.incrementalTransitivity = r.incrementalTransitivity;
 		initPreds();
 		initMeetings();
 	}
 
 	/**
-	 * Initializes predictability hash
+	 * Initializes predictability table
 	 */
 	private void initPreds() {
-		this.preds = new HashMap<DTNHost, Double>();
+		this.preds = new DeliveryPredictabilities(gamma, 1);
+		this.exchangeMarks = new int[0];
 	}
 
 	/**
@@ -312,6 +332,7 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 		}
 		gamma = Math.exp(-b);
 		pinit = 1-zeta;
+		preds.setGamma(gamma);
 	}
 
 	/**
@@ -322,7 +343,7 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 	private void updateDeliveryPredFor(DTNHost host) {
 		double oldValue = getPredFor(host);
 		double newValue = oldValue + (1 - oldValue) * pinit;
-		preds.put(host, newValue);
+		preds.set(host, newValue);
 	}
 
 	/**
@@ -332,13 +353,7 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 	 * @return the current P value
 	 */
 	public double getPredFor(DTNHost host) {
-		ageDeliveryPreds(); // make sure preds are updated before getting
-		if (preds.containsKey(host)) {
-			return preds.get(host);
-		}
-		else {
-			return 0;
-		}
+		return preds.get(host); // aging is done by the table
 	}
 
 	/**
@@ -353,48 +368,33 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 		" with other routers of same type";
 
 		double pForHost = getPredFor(host); // P(a,b)
-		Map<DTNHost, Double> othersPreds = 
-			((ProphetRouterWithEstimation)otherRouter).getDeliveryPreds();
-
-		for (Map.Entry<DTNHost, Double> e : othersPreds.entrySet()) {
-			if (e.getKey() == getHost()) {
-				continue; // don't add yourself
+		DeliveryPredictabilities othersPreds = 
+			((ProphetRouterWithEstimation)otherRouter).preds;
+		int mark = 0; // by default, use all of the other's predictabilities
+
+		if (incrementalTransitivity) {
+			int address = host.getAddress();
+			if (address >= exchangeMarks.length) {
+				exchangeMarks = Arrays.copyOf(exchangeMarks, 
+						Math.max(address + 1, exchangeMarks.length * 2));
 			}
-
-			double pOld = getPredFor(e.getKey()); // P(a,c)_old
-			double pNew = pOld + ( 1 - pOld) * pForHost * e.getValue() * beta;
-			preds.put(e.getKey(), pNew);
+			mark = exchangeMarks[address];
+			exchangeMarks[address] = othersPreds.getModCount();
 		}
-	}
 
-	/**
-	 * Ages all entries in the delivery predictions.
-	 * <CODE>P(a,b) = P(a,b)_old * (GAMMA ^ k)</CODE>, where k is number of
-	 * time units that have elapsed since the last time the metric was aged.
-	 * @see #SECONDS_IN_UNIT_S
-	 */
-	private void ageDeliveryPreds() {
-		double timeDiff = (SimClock.getTime() - this.lastAgeUpdate);
-
-		if (timeDiff == 0) {
-			return;
-		}
+		for (int c = othersPreds.lastSet(); c != -1 && 
+				othersPreds.getModStamp(c) > mark; 
+				c = othersPreds.previousSet(c)) {
+			DTNHost cHost = othersPreds.getHost(c);
+			if (cHost == getHost()) {
+				continue; // don't add yourself
+			}
 
-		double mult = Math.pow(gamma, timeDiff);
-		for (Map.Entry<DTNHost, Double> e : preds.entrySet()) {
-			e.setValue(e.getValue()*mult);
+			double pOld = getPredFor(cHost); // P(a,c)_old
+			double pNew = pOld + ( 1 - pOld) * pForHost * 
+				othersPreds.getPred(c) * beta;
+			preds.set(cHost, pNew);
 		}
-
-		this.lastAgeUpdate = SimClock.getTime();
-	}
-
-	/**
-	 * Returns a map of this router's delivery predictions
-	 * @return a map of this router's delivery predictions
-	 */
-	private Map<DTNHost, Double> getDeliveryPreds() {
-		ageDeliveryPreds(); // make sure the aging is done
-		return this.preds;
 	}
 
 	@Override
@@ -434,7 +434,7 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 			}
 
 			for (Message m : msgCollection) {
-				if (othRouter.hasMessage(m.getId())) {
+				if (othRouter.hasMessage(m.getKey())) {
 					continue; // skip messages that the other one has
 				}
 				if (othRouter.getPredFor(m.getTo()) > getPredFor(m.getTo())) {
@@ -488,14 +488,13 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 
 	@Override
 	public RoutingInfo getRoutingInfo() {
-		ageDeliveryPreds();
 		RoutingInfo top = super.getRoutingInfo();
 		RoutingInfo ri = new RoutingInfo(preds.size() + 
 		" delivery prediction(s)");
 
-		for (Map.Entry<DTNHost, Double> e : preds.entrySet()) {
-			DTNHost host = e.getKey();
-			Double value = e.getValue();
+		for (int a = preds.firstSet(); a != -1; a = preds.nextSet(a)) {
+			DTNHost host = preds.getHost(a);
+			double value = preds.getPred(a);
 
 			ri.addMoreInfo(new RoutingInfo(String.format("%s : %.6f", 
 					host, value)));
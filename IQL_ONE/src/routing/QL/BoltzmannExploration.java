@@ -28,10 +28,12 @@ package routing.QL;
 
 import java.util.Random;
 
+import core.RandomStreams;
+
 
 public class BoltzmannExploration implements IExplorationPolicy {
 	double temperature;
-	private Random r = new Random();
+	private Random r;
 
 	/**
 	 * Initializes a new instance of the BoltzmannExploration class.
@@ -39,7 +41,19 @@ public class BoltzmannExploration implements IExplorationPolicy {
 	 * @param temperature Temperature parameter of Boltzmann distribution.
 	 */
 	public BoltzmannExploration(double temperature) {
+		this(temperature, RandomStreams.newStream(BoltzmannExploration.class.getSimpleName()));
+	}
+
+	/**
+	 * Initializes a new instance of the BoltzmannExploration class that
+	 * draws its random numbers from the given generator.
+	 * 
+	 * @param temperature Temperature parameter of Boltzmann distribution.
+	 * @param r           Random number generator.
+	 */
+	public BoltzmannExploration(double temperature, Random r) {
 		this.temperature = temperature;
+		this.r = r;
 	}
 
 	/**
@@ -70,67 +84,87 @@ public class BoltzmannExploration implements IExplorationPolicy {
 	 */
 	@Override
 	public int ChooseAction(double[] actionEstimates, boolean[] actionRestriction) {
-		// actions count
-		int actionsCount = actionEstimates.length;
-		// action probabilities
-		double[] actionProbabilities = new double[actionsCount];
-		// actions sum
-		double sum = 0, probabilitiesSum = 0;
-		// System.out.println(temperature);
-		for (int i = 0; i < actionsCount; i++) {
-
-			double actionProbability = Math.exp(actionEstimates[i] / temperature);
+		return chooseAction(actionEstimates, 0, actionEstimates.length, actionRestriction, temperature, r);
+	}
 
-			actionProbabilities[i] = actionProbability;
-			probabilitiesSum += actionProbability;
+	/**
+	 * Chooses an action from a range of an array of estimates without
+	 * allocating memory. The action probabilities are proportional to
+	 * <code>exp(estimate / temperature)</code>; with zero temperature (or if
+	 * the probabilities overflow) the last allowed action is chosen, like
+	 * {@link #ChooseAction(double[], boolean[])} has always done.
+	 * 
+	 * @param estimates         Array that has the action estimates.
+	 * @param offset            Index of the first action's estimate.
+	 * @param actionsCount      Number of actions.
+	 * @param actionRestriction Which actions are allowed.
+	 * @param temperature       Temperature parameter of Boltzmann distribution.
+	 * @param r                 Random number generator.
+	 * @return Return selected action (0 - actionsCount-1).
+	 */
+	public static int chooseAction(double[] estimates, int offset, int actionsCount, boolean[] actionRestriction,
+			double temperature, Random r) {
+		return chooseAction(estimates, offset, actionsCount, actionRestriction, temperature, r, false);
+	}
 
+	/**
+	 * Chooses an action like
+	 * {@link #chooseAction(double[], int, int, boolean[], double, Random)},
+	 * but can do the greedy selection by choosing the allowed action with the
+	 * highest estimate (the first one of equal estimates) instead of the last
+	 * allowed action.
+	 * 
+	 * @param estimates         Array that has the action estimates.
+	 * @param offset            Index of the first action's estimate.
+	 * @param actionsCount      Number of actions.
+	 * @param actionRestriction Which actions are allowed.
+	 * @param temperature       Temperature parameter of Boltzmann distribution.
+	 * @param r                 Random number generator.
+	 * @param greedyBest        If true, the greedy selection chooses the allowed
+	 *                          action with the highest estimate.
+	 * @return Return selected action (0 - actionsCount-1).
+	 */
+	public static int chooseAction(double[] estimates, int offset, int actionsCount, boolean[] actionRestriction,
+			double temperature, Random r, boolean greedyBest) {
+		// actions sum
+		double sum = 0, probabilitiesSum = 0;
+		if (temperature != 0) {
+			for (int i = 0; i < actionsCount; i++) {
+				probabilitiesSum += Math.exp(estimates[offset + i] / temperature);
+			}
 		}
 
 		if ((Double.isInfinite(probabilitiesSum)) || (temperature == 0)) {
 			// do greedy selection in the case of infinity or zero
-			double maxReward = actionEstimates[0];
-			int greedyAction = 0;
-			int start = 0;
+			int greedyAction = -1;
 			for (int i = 0; i < actionsCount; i++) {
 				if (actionRestriction[i] == true) {
-					{
-						maxReward = actionEstimates[i];
+					if (!greedyBest || greedyAction < 0 || estimates[offset + i] > estimates[offset + greedyAction]) {
 						greedyAction = i;
-						start = i + 1;
 					}
-
 				}
 			}
-			for (int i = start; i < actionsCount; i++) {
-				if (actionRestriction[i] == true) {
-					if (actionEstimates[i] > maxReward) {
-						maxReward = actionEstimates[i];
-						greedyAction = i;
-					}
-				}
 
-			}
-
-			return greedyAction;
+			return Math.max(greedyAction, 0);
 		}
 
 		// get random number, which determines which action to choose
 		double actionRandomNumber = r.nextDouble();
 
+		// the probabilities are computed again instead of storing them
 		for (int i = 0; i < actionsCount; i++) {
 			if (actionRestriction[i] == true) {
-				sum += actionProbabilities[i] / probabilitiesSum;
+				sum += Math.exp(estimates[offset + i] / temperature) / probabilitiesSum;
 				if (actionRandomNumber <= sum)
 					return i;
 			}
 
 		}
-		int a = 0;
-		for (int i = (actionsCount - 1); i >= 0; i--) {
+		for (int i = 0; i < actionsCount; i++) {
 			if (actionRestriction[i] == true) {
-				a = i;
+				return i;
 			}
 		}
-		return a;
+		return 0;
 	}
 }
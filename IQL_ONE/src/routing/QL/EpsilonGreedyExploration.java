@@ -27,6 +27,8 @@ package routing.QL;
 
 import java.util.Random;
 
+import core.RandomStreams;
+
 /**
  * <para>The class implements epsilon greedy exploration policy. Acording to the
  * policy, the best action is chosen with probability <b>1-epsilon</b>.
@@ -41,7 +43,7 @@ import java.util.Random;
 public class EpsilonGreedyExploration implements IExplorationPolicy {
 	private double epsilon;
 
-	private Random r = new Random();
+	private Random r = RandomStreams.newStream(EpsilonGreedyExploration.class.getSimpleName());
 
 	/**
 	 * Initializes a new instance of the EpsilonGreedyExploration class.
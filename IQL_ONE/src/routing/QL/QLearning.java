@@ -25,6 +25,8 @@ package routing.QL;
 //
 import java.util.Random;
 
+import core.RandomStreams;
+
 public class QLearning {
 	// amount of possible states
 	private int states;
@@ -144,7 +146,7 @@ public class QLearning {
 
 		// do randomization
 		if (randomize) {
-			Random r = new Random();
+			Random r = RandomStreams.newStream(QLearning.class.getSimpleName());
 
 			for (int i = 0; i < states; i++) {
 				for (int j = 0; j < actions; j++) {
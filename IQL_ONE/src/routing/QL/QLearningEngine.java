@@ -0,0 +1,319 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing.QL;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Q-learning for a group of agents, e.g., the routers of a host group. The
+ * Q-tables of all the agents are stored in one flat array with a block of
+ * <code>states x actions</code> values per agent, and the actions are
+ * chosen with Boltzmann exploration without allocating memory, using the
+ * random number generator and temperature of the agent. The Q-values are
+ * updated like in {@link QLearning}: the learning rate of a state-action
+ * pair is <code>1 / (1 + n)</code> where <code>n</code> is the number of
+ * times the action has been chosen in the state.
+ * <P>
+ * In the shared policy mode, all the agents learn and use the same
+ * Q-table. Updates can also be queued and processed in one pass (see
+ * {@link #queueUpdate(int, int, int, double, int, double, Random)}).
+ */
+public class QLearningEngine {
+	/** amount of possible states */
+	private final int states;
+	/** amount of possible actions */
+	private final int actions;
+	/** which actions are allowed in each state */
+	private final boolean[][] actionRestriction;
+	/** do all the agents share the same table */
+	private final boolean sharedPolicy;
+	/** discount factor of the expected rewards */
+	private double discountFactor = 0.2;
+	/** does the greedy selection choose the action with the highest
+	 * Q-value (instead of the last allowed action) */
+	private boolean greedyBest = false;
+
+	/** the Q-values by table, state and action */
+	private double[] qvalues;
+	/** the number of times each action was chosen, indexed like qvalues */
+	private int[] visits;
+	/** number of tables in use */
+	private int nrofTables;
+
+	/** the queued updates and the actions chosen when they're processed */
+	private int batchSize;
+	private int[] batchTable;
+	private int[] batchPrevious;
+	private int[] batchAction;
+	private double[] batchReward;
+	private int[] batchNext;
+	private double[] batchTemperature;
+	private Random[] batchRng;
+	private int[] batchResult;
+
+	/**
+	 * Constructor.
+	 * @param states Amount of possible states
+	 * @param actions Amount of possible actions
+	 * @param actionRestriction Which actions are allowed in each state
+	 * (states x actions)
+	 * @param sharedPolicy If true, all the agents use the same Q-table
+	 */
+	public QLearningEngine(int states, int actions,
+			boolean[][] actionRestriction, boolean sharedPolicy) {
+		this.states = states;
+		this.actions = actions;
+		this.actionRestriction = actionRestriction;
+		this.sharedPolicy = sharedPolicy;
+		this.qvalues = new double[0];
+		this.visits = new int[0];
+		this.nrofTables = 0;
+		this.batchSize = 0;
+		growBatch(16);
+	}
+
+	/**
+	 * Adds a Q-table for a new agent. All the values of the table are zero.
+	 * In the shared policy mode, all the agents get the same table.
+	 * @return Index of the agent's table
+	 */
+	public int addTable() {
+		if (sharedPolicy && nrofTables == 1) {
+			return 0;
+		}
+		int blockSize = states * actions;
+		if ((nrofTables + 1) * blockSize > qvalues.length) {
+			int size = Math.max(1, 2 * nrofTables) * blockSize;
+			qvalues = Arrays.copyOf(qvalues, size);
+			visits = Arrays.copyOf(visits, size);
+		}
+		return nrofTables++;
+	}
+
+	/**
+	 * Returns true if all the agents use the same Q-table
+	 * @return true in the shared policy mode
+	 */
+	public boolean isSharedPolicy() {
+		return this.sharedPolicy;
+	}
+
+	/**
+	 * Returns the amount of possible states
+	 * @return the amount of possible states
+	 */
+	public int getStates() {
+		return this.states;
+	}
+
+	/**
+	 * Returns the amount of possible actions
+	 * @return the amount of possible actions
+	 */
+	public int getActions() {
+		return this.actions;
+	}
+
+	/**
+	 * Returns the discount factor of the expected rewards
+	 * @return the discount factor
+	 */
+	public double getDiscountFactor() {
+		return this.discountFactor;
+	}
+
+	/**
+	 * Sets the discount factor of the expected rewards
+	 * @param discountFactor The discount factor, [0, 1]
+	 */
+	public void setDiscountFactor(double discountFactor) {
+		this.discountFactor = Math.max(0.0, Math.min(1.0, discountFactor));
+	}
+
+	/**
+	 * Returns true if the greedy selection chooses the allowed action with
+	 * the highest Q-value
+	 * @return true if the best action is chosen, false if the last allowed
+	 * action is chosen
+	 */
+	public boolean isGreedyBest() {
+		return this.greedyBest;
+	}
+
+	/**
+	 * Sets how the greedy selection (used with zero temperature) chooses the
+	 * action. By default, the last allowed action is chosen.
+	 * @param greedyBest If true, the allowed action with the highest
+	 * Q-value is chosen
+	 */
+	public void setGreedyBest(boolean greedyBest) {
+		this.greedyBest = greedyBest;
+	}
+
+	/**
+	 * Chooses an action for a state with Boltzmann exploration.
+	 * @param table Index of the agent's table
+	 * @param state The current state
+	 * @param temperature Temperature of the Boltzmann distribution
+	 * @param rng The agent's random number generator
+	 * @return The chosen action
+	 */
+	public int getAction(int table, int state, double temperature,
+			Random rng) {
+		int offset = offset(table, state);
+		int action = BoltzmannExploration.chooseAction(qvalues, offset,
+				actions, actionRestriction[state], temperature, rng,
+				greedyBest);
+		visits[offset + action]++;
+		return action;
+	}
+
+	/**
+	 * Updates the Q-value of the previous state-action pair.
+	 * @param table Index of the agent's table
+	 * @param previousState The previous state
+	 * @param action The action that was chosen in the previous state
+	 * @param reward The reward of the action
+	 * @param nextState The state the action led to
+	 */
+	public void updateState(int table, int previousState, int action,
+			double reward, int nextState) {
+		int next = offset(table, nextState);
+		double maxNextExpectedReward = qvalues[next];
+		for (int i = 1; i < actions; i++) {
+			if (qvalues[next + i] > maxNextExpectedReward) {
+				maxNextExpectedReward = qvalues[next + i];
+			}
+		}
+
+		int index = offset(table, previousState) + action;
+		double learningRate = 1.0 / (1.0 + visits[index]);
+		qvalues[index] *= (1.0 - learningRate);
+		qvalues[index] += learningRate *
+			(reward + discountFactor * maxNextExpectedReward);
+	}
+
+	/**
+	 * Queues an update of the previous state-action pair and the choice of
+	 * the next action. The queued updates are done in the order they were
+	 * queued when {@link #processBatch()} is called.
+	 * @param table Index of the agent's table
+	 * @param previousState The previous state
+	 * @param action The action that was chosen in the previous state
+	 * @param reward The reward of the action
+	 * @param nextState The state the action led to and where the next
+	 * action is chosen
+	 * @param temperature Temperature for choosing the next action
+	 * @param rng The agent's random number generator
+	 * @return Index of the update in the batch
+	 * @see #getBatchAction(int)
+	 */
+	public int queueUpdate(int table, int previousState, int action,
+			double reward, int nextState, double temperature, Random rng) {
+		if (batchSize == batchTable.length) {
+			growBatch(2 * batchSize);
+		}
+		int i = batchSize++;
+		batchTable[i] = table;
+		batchPrevious[i] = previousState;
+		batchAction[i] = action;
+		batchReward[i] = reward;
+		batchNext[i] = nextState;
+		batchTemperature[i] = temperature;
+		batchRng[i] = rng;
+		return i;
+	}
+
+	/**
+	 * Does the queued updates and chooses the next actions in one pass.
+	 * The chosen actions can be read with {@link #getBatchAction(int)}
+	 * until {@link #clearBatch()} is called.
+	 */
+	public void processBatch() {
+		for (int i = 0; i < batchSize; i++) {
+			int table = batchTable[i];
+			updateState(table, batchPrevious[i], batchAction[i],
+					batchReward[i], batchNext[i]);
+			batchResult[i] = getAction(table, batchNext[i],
+					batchTemperature[i], batchRng[i]);
+		}
+	}
+
+	/**
+	 * Returns the number of queued updates
+	 * @return the number of queued updates
+	 */
+	public int getBatchSize() {
+		return this.batchSize;
+	}
+
+	/**
+	 * Returns the action that was chosen when a queued update was processed
+	 * @param index Index of the update in the batch
+	 * @return The chosen action
+	 */
+	public int getBatchAction(int index) {
+		return batchResult[index];
+	}
+
+	/**
+	 * Removes the processed updates from the queue
+	 */
+	public void clearBatch() {
+		Arrays.fill(batchRng, 0, batchSize, null);
+		batchSize = 0;
+	}
+
+	/**
+	 * Copies the Q-values of an agent to a table
+	 * @param table Index of the agent's table
+	 * @param dest The table (states x actions) where the values are copied
+	 */
+	public void getQValues(int table, double[][] dest) {
+		for (int s = 0; s < states; s++) {
+			System.arraycopy(qvalues, offset(table, s), dest[s], 0, actions);
+		}
+	}
+
+	/**
+	 * Returns a copy of the Q-values of an agent
+	 * @param table Index of the agent's table
+	 * @return The Q-values (states x actions)
+	 */
+	public double[][] getQValues(int table) {
+		double[][] qv = new double[states][actions];
+		getQValues(table, qv);
+		return qv;
+	}
+
+	/**
+	 * Returns the index of a state's first Q-value in a table
+	 */
+	private int offset(int table, int state) {
+		return (table * states + state) * actions;
+	}
+
+	/**
+	 * Grows the arrays of the queued updates
+	 */
+	private void growBatch(int size) {
+		batchTable = grow(batchTable, size);
+		batchPrevious = grow(batchPrevious, size);
+		batchAction = grow(batchAction, size);
+		batchNext = grow(batchNext, size);
+		batchResult = grow(batchResult, size);
+		batchReward = batchReward == null ? new double[size] :
+			Arrays.copyOf(batchReward, size);
+		batchTemperature = batchTemperature == null ? new double[size] :
+			Arrays.copyOf(batchTemperature, size);
+		batchRng = batchRng == null ? new Random[size] :
+			Arrays.copyOf(batchRng, size);
+	}
+
+	private static int[] grow(int[] array, int size) {
+		return array == null ? new int[size] : Arrays.copyOf(array, size);
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import core.IntHashMap;
+
+/**
+ * Buffer of message receipts (ACKs) that expire with the messages they
+ * acknowledge. Every receipt that enters the buffer gets a local sequence
+ * number, so receipts can be exchanged as deltas: when merging another
+ * buffer, only the receipts it has got since the previous merge with it
+ * are looked at. The messages are identified by the keys of their IDs
+ * (see {@link core.Message#getKey()}).
+ */
+public class ReceiptBuffer {
+	/** receipts by message key */
+	private IntHashMap<ACKTTL> receipts;
+	/** receipts in the order they entered this buffer */
+	private ArrayList<Entry> log;
+	/** receipts ordered by their expiry time */
+	private PriorityQueue<Entry> expiryQueue;
+	/** sequence number of the latest receipt in this buffer */
+	private long lastSeq;
+	/** sequence numbers of other buffers up to which they have been merged */
+	private Map<ReceiptBuffer, Long> mergedUpTo;
+
+	/**
+	 * Creates a new, empty receipt buffer
+	 */
+	public ReceiptBuffer() {
+		this.receipts = new IntHashMap<ACKTTL>();
+		this.log = new ArrayList<Entry>();
+		this.expiryQueue = new PriorityQueue<Entry>();
+		this.lastSeq = 0;
+		this.mergedUpTo = new IdentityHashMap<ReceiptBuffer, Long>();
+	}
+
+	/**
+	 * Returns true if the buffer has a receipt for the given message
+	 * @param key Key of the message
+	 * @return true if there's a receipt for the message
+	 */
+	public boolean contains(int key) {
+		return this.receipts.containsKey(key);
+	}
+
+	/**
+	 * Returns the receipt for the given message
+	 * @param key Key of the message
+	 * @return The receipt or null if there's no receipt for the message
+	 */
+	public ACKTTL get(int key) {
+		return this.receipts.get(key);
+	}
+
+	/**
+	 * Returns the number of receipts in the buffer
+	 * @return the number of receipts
+	 */
+	public int size() {
+		return this.receipts.size();
+	}
+
+	/**
+	 * Adds a receipt to the buffer unless the buffer already has a receipt
+	 * for the same message
+	 * @param key Key of the acknowledged message
+	 * @param ack The receipt
+	 * @return true if the receipt was added, false if it was already there
+	 */
+	public boolean add(int key, ACKTTL ack) {
+		if (this.receipts.containsKey(key)) {
+			return false;
+		}
+		this.receipts.put(key, ack);
+		Entry e = new Entry(key, ack, ++this.lastSeq);
+		this.log.add(e);
+		this.expiryQueue.add(e);
+		return true;
+	}
+
+	/**
+	 * Adds the receipts that the other buffer has got since the previous
+	 * merge with it
+	 * @param other The buffer to merge
+	 * @param time Current simulation time; receipts that have expired by
+	 * this time are not merged
+	 * @return Keys of the messages whose receipts were new to this buffer
+	 */
+	public int[] merge(ReceiptBuffer other, double time) {
+		int[] added = new int[0];
+		int nrofAdded = 0;
+		Long mergedSeq = this.mergedUpTo.get(other);
+		long from = (mergedSeq == null ? 0 : mergedSeq);
+
+		for (int i = other.indexAfter(from), n = other.log.size(); i < n; i++) {
+			Entry e = other.log.get(i);
+			if (e.ack.getExpiryTime() < time) {
+				continue;
+			}
+			if (add(e.key, e.ack)) {
+				if (nrofAdded == added.length) {
+					added = Arrays.copyOf(added, Math.max(8, 2 * nrofAdded));
+				}
+				added[nrofAdded++] = e.key;
+			}
+		}
+		this.mergedUpTo.put(other, other.lastSeq);
+
+		return (nrofAdded == added.length ? added :
+			Arrays.copyOf(added, nrofAdded));
+	}
+
+	/**
+	 * Removes the receipts whose expiry time is before the given time
+	 * @param time Current simulation time
+	 */
+	public void removeExpired(double time) {
+		while (!this.expiryQueue.isEmpty() &&
+				this.expiryQueue.peek().ack.getExpiryTime() < time) {
+			Entry e = this.expiryQueue.poll();
+			this.receipts.remove(e.key);
+			e.expired = true;
+		}
+
+		/* compact the log when most of it has expired */
+		if (this.log.size() > 2 * this.receipts.size() + 16) {
+			ArrayList<Entry> live = new ArrayList<Entry>(
+					this.receipts.size() * 2);
+			for (Entry e : this.log) {
+				if (!e.expired) {
+					live.add(e);
+				}
+			}
+			this.log = live;
+		}
+	}
+
+	/**
+	 * Returns the index of the first log entry whose sequence number is
+	 * larger than the given one
+	 */
+	private int indexAfter(long seq) {
+		int low = 0;
+		int high = this.log.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (this.log.get(mid).seq <= seq) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * A receipt with its sequence number in this buffer
+	 */
+	private static class Entry implements Comparable<Entry> {
+		private final int key;
+		private final ACKTTL ack;
+		private final long seq;
+		private boolean expired;
+
+		private Entry(int key, ACKTTL ack, long seq) {
+			this.key = key;
+			this.ack = ack;
+			this.seq = seq;
+		}
+
+		public int compareTo(Entry o) {
+			int c = Double.compare(this.ack.getExpiryTime(),
+					o.ack.getExpiryTime());
+			return c != 0 ? c : Long.compare(this.seq, o.seq);
+		}
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing.delivered;
+
+import java.util.Arrays;
+
+import core.IntHashMap;
+import core.Message;
+import core.SimClock;
+
+/**
+ * Exact delivered message history that forgets the messages whose TTL has
+ * expired. Expired copies of a message are not relayed anymore, so they
+ * should not reach the final recipient again, and the history only holds
+ * the messages that can still be alive. Messages with infinite TTL are
+ * never forgotten. A copy whose transfer was started before the TTL
+ * expired may still arrive after that and is then a new delivery.
+ */
+public class AgedHistory extends DeliveredHistory {
+	/** initial capacity of the expiry queue */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** the keys of the messages in the history (the tables are created
+	 * when the first message is added) */
+	private IntHashMap<Boolean> keys;
+	/** binary min-heap of the expiry times and the keys of the messages
+	 * with a finite TTL */
+	private double[] expiryTimes;
+	private int[] expiryKeys;
+	private int queueSize;
+
+	/**
+	 * Creates an empty history
+	 */
+	public AgedHistory() {
+		this.keys = null;
+		this.expiryTimes = null;
+		this.expiryKeys = null;
+		this.queueSize = 0;
+	}
+
+	@Override
+	public void add(Message m) {
+		if (this.keys == null) {
+			this.keys = new IntHashMap<Boolean>();
+			this.expiryTimes = new double[INITIAL_CAPACITY];
+			this.expiryKeys = new int[INITIAL_CAPACITY];
+		}
+		removeExpired(SimClock.getTime());
+		if (this.keys.put(m.getKey(), Boolean.TRUE) != null ||
+				m.getInitTTL() == Message.INFINITE_TTL) {
+			return;
+		}
+		offer(m.getCreationTime() + m.getInitTTL() * 60.0, m.getKey());
+	}
+
+	@Override
+	public boolean contains(int key) {
+		if (this.keys == null) {
+			return false;
+		}
+		removeExpired(SimClock.getTime());
+		return this.keys.containsKey(key);
+	}
+
+	@Override
+	public int size() {
+		return (this.keys == null ? 0 : this.keys.size());
+	}
+
+	@Override
+	public long getMemoryUsage() {
+		if (this.keys == null) {
+			return 32;
+		}
+		return 32 + 3 * 16 + 8L * this.keys.capacity() +
+			12L * this.expiryTimes.length;
+	}
+
+	@Override
+	public String getType() {
+		return TYPE_AGED;
+	}
+
+	@Override
+	public DeliveredHistory replicate() {
+		return new AgedHistory();
+	}
+
+	/**
+	 * Removes the messages whose TTL expired before the given time
+	 * @param time The current simulation time
+	 */
+	public void removeExpired(double time) {
+		while (this.queueSize > 0 && this.expiryTimes[0] < time) {
+			this.keys.remove(this.expiryKeys[0]);
+			poll();
+		}
+	}
+
+	/**
+	 * Adds an expiry time to the queue
+	 */
+	private void offer(double time, int key) {
+		if (this.queueSize == this.expiryTimes.length) {
+			this.expiryTimes = Arrays.copyOf(this.expiryTimes,
+					2 * this.queueSize);
+			this.expiryKeys = Arrays.copyOf(this.expiryKeys,
+					2 * this.queueSize);
+		}
+		int i = this.queueSize++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (this.expiryTimes[parent] <= time) {
+				break;
+			}
+			this.expiryTimes[i] = this.expiryTimes[parent];
+			this.expiryKeys[i] = this.expiryKeys[parent];
+			i = parent;
+		}
+		this.expiryTimes[i] = time;
+		this.expiryKeys[i] = key;
+	}
+
+	/**
+	 * Removes the earliest expiry time from the queue
+	 */
+	private void poll() {
+		int n = --this.queueSize;
+		double time = this.expiryTimes[n];
+		int key = this.expiryKeys[n];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= n) {
+				break;
+			}
+			if (child + 1 < n &&
+					this.expiryTimes[child + 1] < this.expiryTimes[child]) {
+				child++;
+			}
+			if (this.expiryTimes[child] >= time) {
+				break;
+			}
+			this.expiryTimes[i] = this.expiryTimes[child];
+			this.expiryKeys[i] = this.expiryKeys[child];
+			i = child;
+		}
+		if (n > 0) {
+			this.expiryTimes[i] = time;
+			this.expiryKeys[i] = key;
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing.delivered;
+
+import java.util.BitSet;
+
+import core.Message;
+
+/**
+ * Exact delivered message history that has one bit per message key. The
+ * keys are dense, so the history takes one bit for every message created
+ * before the latest delivered one.
+ */
+public class BitSetHistory extends DeliveredHistory {
+	private BitSet keys;
+	private int size;
+
+	/**
+	 * Creates an empty history
+	 */
+	public BitSetHistory() {
+		this.keys = new BitSet();
+		this.size = 0;
+	}
+
+	@Override
+	public void add(Message m) {
+		if (!this.keys.get(m.getKey())) {
+			this.keys.set(m.getKey());
+			this.size++;
+		}
+	}
+
+	@Override
+	public boolean contains(int key) {
+		return key >= 0 && this.keys.get(key);
+	}
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	@Override
+	public long getMemoryUsage() {
+		return 16 + 24 + this.keys.size() / 8;
+	}
+
+	@Override
+	public String getType() {
+		return TYPE_BITSET;
+	}
+
+	@Override
+	public DeliveredHistory replicate() {
+		return new BitSetHistory();
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing.delivered;
+
+import core.Message;
+
+/**
+ * Delivered message history that is a Bloom filter of the message keys.
+ * The filter is sized for an expected number of messages and a false
+ * positive rate, and takes the same amount of memory however many messages
+ * are added. A false positive makes the router treat a message it has not
+ * received as delivered, i.e., refuse it as an old message, so the rate
+ * should be small compared to the number of messages addressed to the
+ * router. The rate grows if more than the expected number of messages are
+ * added.
+ */
+public class BloomFilterHistory extends DeliveredHistory {
+	/** golden ratio * 2^64, for hashing the keys */
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	private final int capacity;
+	private final double fpRate;
+	/** number of bits in the filter */
+	private final int nrofBits;
+	/** number of bits set per message */
+	private final int nrofHashes;
+	/** the bits (created when the first message is added) */
+	private long[] bits;
+	private int size;
+
+	/**
+	 * Creates an empty filter
+	 * @param capacity Expected number of messages
+	 * @param fpRate False positive rate with the expected number of messages
+	 */
+	public BloomFilterHistory(int capacity, double fpRate) {
+		this.capacity = capacity;
+		this.fpRate = fpRate;
+		double ln2 = Math.log(2);
+		long m = (long)Math.ceil(-capacity * Math.log(fpRate) / (ln2 * ln2));
+		m = (m + 63) & ~63L; // whole words
+		if (m > Integer.MAX_VALUE - 63) {
+			throw new IllegalArgumentException("Too large Bloom filter for " +
+					capacity + " messages");
+		}
+		this.nrofBits = (int)m;
+		this.nrofHashes = Math.max(1,
+				(int)Math.round((double)m / capacity * ln2));
+		this.bits = null;
+		this.size = 0;
+	}
+
+	@Override
+	public void add(Message m) {
+		if (this.bits == null) {
+			this.bits = new long[this.nrofBits / 64];
+		}
+		long h1 = mix(m.getKey() + GOLDEN_GAMMA);
+		long h2 = mix(h1) | 1; // odd steps visit different bits
+		for (int i = 0; i < this.nrofHashes; i++) {
+			int bit = (int)Long.remainderUnsigned(h1 + i * h2, this.nrofBits);
+			this.bits[bit >>> 6] |= 1L << bit;
+		}
+		this.size++;
+	}
+
+	@Override
+	public boolean contains(int key) {
+		if (this.bits == null || key < 0) {
+			return false;
+		}
+		long h1 = mix(key + GOLDEN_GAMMA);
+		long h2 = mix(h1) | 1;
+		for (int i = 0; i < this.nrofHashes; i++) {
+			int bit = (int)Long.remainderUnsigned(h1 + i * h2, this.nrofBits);
+			if ((this.bits[bit >>> 6] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of messages added to the filter. Messages that
+	 * were already in the filter (or false positives) are counted again.
+	 * @return the number of added messages
+	 */
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the number of bits in the filter
+	 * @return the number of bits
+	 */
+	public int getNrofBits() {
+		return this.nrofBits;
+	}
+
+	/**
+	 * Returns the number of bits that are set for every message
+	 * @return the number of hash functions
+	 */
+	public int getNrofHashes() {
+		return this.nrofHashes;
+	}
+
+	@Override
+	public long getMemoryUsage() {
+		return 40 + (this.bits == null ? 0 : 16 + this.nrofBits / 8);
+	}
+
+	@Override
+	public String getType() {
+		return TYPE_BLOOM;
+	}
+
+	@Override
+	public DeliveredHistory replicate() {
+		return new BloomFilterHistory(this.capacity, this.fpRate);
+	}
+
+	/**
+	 * The finalizer of the SplitMix64 generator
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
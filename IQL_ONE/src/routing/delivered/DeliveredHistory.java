@@ -0,0 +1,147 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing.delivered;
+
+import core.Message;
+import core.Settings;
+import core.SettingsError;
+
+/**
+ * Superclass for the stores of the messages a router has received as the
+ * final recipient. The stores only answer whether a message has been
+ * delivered (see {@link routing.MessageRouter#isDeliveredMessage(Message)}),
+ * so they don't keep the message objects (or their paths) in memory. The
+ * messages are identified by the keys of their IDs (see
+ * {@link Message#getKey()}).
+ * <P>
+ * The store is selected with the router's {@link #TYPE_S} setting.
+ * </P>
+ */
+public abstract class DeliveredHistory {
+	/**
+	 * Delivered message history type -setting id ({@value}). Valid values
+	 * are<BR>
+	 * <UL>
+	 * <LI/> {@value #TYPE_BITSET} : exact bit set of the message keys
+	 * (default)
+	 * <LI/> {@value #TYPE_AGED} : exact set that forgets the messages whose
+	 * TTL has expired
+	 * <LI/> {@value #TYPE_BLOOM} : Bloom filter; see {@link #CAPACITY_S} and
+	 * {@link #FP_RATE_S}
+	 * </UL>
+	 */
+	public static final String TYPE_S = "deliveredHistory";
+	/** Setting value for the bit set history */
+	public static final String TYPE_BITSET = "bitset";
+	/** Setting value for the TTL aged history */
+	public static final String TYPE_AGED = "aged";
+	/** Setting value for the Bloom filter history */
+	public static final String TYPE_BLOOM = "bloom";
+
+	/**
+	 * Expected number of delivered messages per router for the Bloom filter
+	 * -setting id ({@value}). Integer, default =
+	 * {@value #DEF_CAPACITY}.
+	 */
+	public static final String CAPACITY_S = "deliveredHistoryCapacity";
+	/**
+	 * False positive rate of the Bloom filter when it has the expected
+	 * number of messages -setting id ({@value}). Double in range (0, 1),
+	 * default = {@value #DEF_FP_RATE}.
+	 */
+	public static final String FP_RATE_S = "deliveredHistoryFpRate";
+	/** Default value for the expected number of delivered messages */
+	public static final int DEF_CAPACITY = 10000;
+	/** Default value for the false positive rate */
+	public static final double DEF_FP_RATE = 0.001;
+
+	/**
+	 * Creates the history a router's settings ask for
+	 * @param s The router's settings
+	 * @return A new, empty history
+	 */
+	public static DeliveredHistory create(Settings s) {
+		String type = TYPE_BITSET;
+		if (s.contains(TYPE_S)) {
+			type = s.getSetting(TYPE_S);
+		}
+
+		if (type.equals(TYPE_BITSET)) {
+			return new BitSetHistory();
+		}
+		else if (type.equals(TYPE_AGED)) {
+			return new AgedHistory();
+		}
+		else if (type.equals(TYPE_BLOOM)) {
+			int capacity = DEF_CAPACITY;
+			double fpRate = DEF_FP_RATE;
+			if (s.contains(CAPACITY_S)) {
+				capacity = s.getInt(CAPACITY_S);
+			}
+			if (s.contains(FP_RATE_S)) {
+				fpRate = s.getDouble(FP_RATE_S);
+			}
+			if (capacity < 1 || fpRate <= 0 || fpRate >= 1) {
+				throw new SettingsError("Invalid Bloom filter settings " +
+						s.getFullPropertyName(CAPACITY_S) + " = " + capacity +
+						", " + s.getFullPropertyName(FP_RATE_S) + " = " +
+						fpRate);
+			}
+			return new BloomFilterHistory(capacity, fpRate);
+		}
+
+		throw new SettingsError("Unknown delivered history type '" + type +
+				"' for " + s.getFullPropertyName(TYPE_S));
+	}
+
+	/**
+	 * Adds a message to the history
+	 * @param m The delivered message
+	 */
+	public abstract void add(Message m);
+
+	/**
+	 * Returns true if a message whose ID has the given key is in the
+	 * history. Bloom filters may return true also for messages that were
+	 * never added.
+	 * @param key Key of the message ID
+	 * @return true if the message has been delivered
+	 */
+	public abstract boolean contains(int key);
+
+	/**
+	 * Returns true if the message is in the history
+	 * @param m The message
+	 * @return true if the message has been delivered
+	 * @see #contains(int)
+	 */
+	public boolean contains(Message m) {
+		return contains(m.getKey());
+	}
+
+	/**
+	 * Returns the number of messages in the history
+	 * @return the number of messages
+	 */
+	public abstract int size();
+
+	/**
+	 * Returns an estimate of the memory the history takes
+	 * @return The estimated size in bytes
+	 */
+	public abstract long getMemoryUsage();
+
+	/**
+	 * Returns the type of the history (the {@link #TYPE_S} setting value)
+	 * @return The type
+	 */
+	public abstract String getType();
+
+	/**
+	 * Creates a new, empty history with the same settings
+	 * @return The new history
+	 */
+	public abstract DeliveredHistory replicate();
+}
@@ -1,39 +1,66 @@
-/* 
+/*
  * Copyright 2010 Aalto University, ComNet
- * Released under GPLv3. See LICENSE.txt for details. 
+ * Released under GPLv3. See LICENSE.txt for details.
  */
 package routing.maxprop;
 
-import java.util.Collection;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Queue;
 import java.util.Set;
 
 /**
  * Dijkstra's shortest path implementation for MaxProp Router module.
+ * The link costs are read from the meeting probability sets to primitive
+ * arrays and, on {@link #refresh()}, only the sets that have been replaced
+ * or updated since are read again. The shortest path trees of the most
+ * recently used source nodes are cached. When some of the sets have
+ * changed, a cached tree is repaired instead of being searched again from
+ * scratch: only the nodes whose shortest path used a link whose cost grew
+ * are searched again and cost decreases are propagated from the changed
+ * nodes.
  */
 public class MaxPropDijkstra {
 	/** Value for infinite distance  */
-	private static final Double INFINITY = Double.MAX_VALUE;
-	/** Initial size of the priority queue */
-	private static final int PQ_INIT_SIZE = 11;
-
-	/** Map of node distances from the source node */
-	private DistanceMap distancesFromStart;
-	/** Set of already visited nodes (where the shortest path is known) */
-	private Set<Integer> visited;
-	/** Priority queue of unvisited nodes discovered so far */
-	private Queue<Integer> unvisited;
-	/** Map of previous nodes on the shortest path(s) -- only used for
-	 * debugging purposes */
-	private Map<Integer, Integer> prevNodes;
+	private static final double INFINITY = Double.MAX_VALUE;
+	/** Maximum number of shortest path trees to cache */
+	private static final int MAX_TREES = 8;
+	/** Initial number of nodes */
+	private static final int INIT_NROF_NODES = 16;
+
 	/** Mapping of to other nodes' (whom this node has met) probability sets */
 	private Map<Integer, MeetingProbabilitySet> probs;
-	
+
+	/** number of nodes (the biggest known node index + 1) */
+	private int nrofNodes;
+	/** the probability sets the links of the nodes were read from */
+	private MeetingProbabilitySet[] linkSets;
+	/** versions of the probability sets when the links were read */
+	private int[] linkSetVersions;
+	/** number of nodes that have a probability set */
+	private int nrofLinkSets;
+	/** neighbors, link costs and number of links of the nodes */
+	private int[][] neighbors;
+	private double[][] linkCosts;
+	private int[] nrofLinks;
+	/** the refresh rounds when the links of the nodes were last changed */
+	private int[] changedAt;
+	/** number of refreshes that changed some links */
+	private int round;
+
+	/** the cached shortest path trees */
+	private Tree[] trees;
+	private int nrofTrees;
+	/** counter for finding the least recently used tree */
+	private long useCount;
+
+	/** Priority queue of the nodes whose distance is not final yet */
+	private IndexedHeap unvisited;
+	/** work space for the tree repairs */
+	private int[] childStart;
+	private int[] children;
+	private int[] stack;
+
 	/**
 	 * Constructor.
 	 * @param probs A reference to the mapping of the known hosts meeting
@@ -41,184 +68,502 @@ public class MaxPropDijkstra {
 	 */
 	public MaxPropDijkstra(Map<Integer, MeetingProbabilitySet> probs) {
 		this.probs = probs;
+		this.nrofNodes = 0;
+		this.linkSets = new MeetingProbabilitySet[INIT_NROF_NODES];
+		this.linkSetVersions = new int[INIT_NROF_NODES];
+		this.neighbors = new int[INIT_NROF_NODES][];
+		this.linkCosts = new double[INIT_NROF_NODES][];
+		this.nrofLinks = new int[INIT_NROF_NODES];
+		this.changedAt = new int[INIT_NROF_NODES];
+		this.round = 0;
+		this.trees = new Tree[MAX_TREES];
+		this.nrofTrees = 0;
+		this.unvisited = new IndexedHeap(INIT_NROF_NODES);
+		this.childStart = new int[INIT_NROF_NODES + 1];
+		this.children = new int[INIT_NROF_NODES];
+		this.stack = new int[2 * INIT_NROF_NODES];
 	}
 
 	/**
-	 * Initializes a new search with the first hop router node
-	 * @param firstHop The first hop router node
-	 */
-	private void initWith(Integer firstHop) {
-		this.unvisited = new PriorityQueue<Integer>(PQ_INIT_SIZE, 
-				new DistanceComparator());
-		this.visited = new HashSet<Integer>();
-		this.prevNodes = new HashMap<Integer, Integer>();
-		this.distancesFromStart = new DistanceMap();
-		
-		// set distance to source 0 and initialize unvisited queue
-		this.distancesFromStart.put(firstHop, 0);
-		this.unvisited.add(firstHop);
-	}
-	
-	/**
-	 * Calculates total costs to the given set of target nodes. The cost to 
+	 * Calculates total costs to the given set of target nodes. The cost to
 	 * a node is the sum of complements of probabilities that all the links
-	 * come up as the next contact of the nodes. 
+	 * come up as the next contact of the nodes.
 	 * @param from The index (address) of the start node
 	 * @param to The address set of destination nodes
 	 * @return A map of (destination node, cost) tuples
 	 */
 	public Map<Integer, Double> getCosts(Integer from, Set<Integer> to) {
 		Map<Integer, Double> distMap = new HashMap<Integer, Double>();
-		int nrofNodesToFind = to.size();
-		
-		initWith(from);
-		Integer node = null;
-		
-		// always take the node with shortest distance
-		while ((node = unvisited.poll()) != null) {
-			if (to.contains(node)) {
-				// found one of the requested nodes
-				distMap.put(node, distancesFromStart.get(node));
-				nrofNodesToFind--;
-				if (nrofNodesToFind == 0) {
-					break; // all requested nodes found
-				}
-			} 
-			
-			visited.add(node); // mark the node as visited
-			relax(node);       // add/update neighbor nodes' distances
+
+		refresh();
+		for (Integer node : to) {
+			double cost = getCost(from, node);
+			if (cost != INFINITY) {
+				distMap.put(node, cost);
+			}
 		}
-			
+
 		return distMap;
 	}
-	
+
 	/**
-	 * Relaxes the neighbors of a node (updates the shortest distances).
-	 * @param node The node whose neighbors are relaxed
+	 * Returns the total cost from a node to another, as in
+	 * {@link #getCosts(Integer, Set)}, using the probability sets as they
+	 * were at the last {@link #refresh()}.
+	 * @param from The index (address) of the start node
+	 * @param to The index (address) of the destination node
+	 * @return The cost or Double.MAX_VALUE if there is no path
 	 */
-	private void relax(Integer node) {
-		double nodeDist = distancesFromStart.get(node);
-		Collection<Integer> neighbors;
-		
-		if (!this.probs.containsKey(node)) {
-			return; // node's neighbors are not known
-		}
-		
-		neighbors =	this.probs.get(node).getAllProbs().keySet();
-		
-		for (Integer n : neighbors) {
-			if (visited.contains(n)) {
-				continue; // skip visited nodes
-			}
-						
-			// n node's distance from path's source node
-			double nDist = nodeDist + getDistance(node, n);
-			
-			if (distancesFromStart.get(n) > nDist) { 
-				// stored distance > found dist -> update
-				prevNodes.put(n, node); // for debugging
-				setDistance(n, nDist);
+	public double getCost(int from, int to) {
+		Tree t = getTree(from);
+		if (to >= t.dist.length) {
+			return INFINITY;
+		}
+		return t.dist[to];
+	}
+
+	/**
+	 * Returns the node before a destination node on the shortest path
+	 * from a start node, using the probability sets as they were at the
+	 * last {@link #refresh()}.
+	 * @param from The index (address) of the start node
+	 * @param to The index (address) of the destination node
+	 * @return The previous node or -1 if there is no path (or the nodes
+	 * are the same)
+	 */
+	public int getPreviousNode(int from, int to) {
+		Tree t = getTree(from);
+		if (to >= t.parent.length) {
+			return -1;
+		}
+		return t.parent[to];
+	}
+
+	/**
+	 * Reads the links of the nodes whose probability set has been replaced
+	 * or updated after the previous refresh.
+	 */
+	public void refresh() {
+		boolean changed = false;
+
+		for (Map.Entry<Integer, MeetingProbabilitySet> e : probs.entrySet()) {
+			int node = e.getKey();
+			MeetingProbabilitySet set = e.getValue();
+			ensureCapacity(node + 1);
+			if (linkSets[node] == set &&
+					linkSetVersions[node] == set.getVersion()) {
+				continue; // no changes
+			}
+			if (!changed) {
+				round++;
+				changed = true;
+			}
+			if (linkSets[node] == null) {
+				nrofLinkSets++;
+			}
+			readLinks(node, set);
+		}
+
+		if (nrofLinkSets > probs.size()) {
+			/* some sets have been removed from the mapping */
+			for (int i=0; i < nrofNodes; i++) {
+				if (linkSets[i] != null && !probs.containsKey(i)) {
+					if (!changed) {
+						round++;
+						changed = true;
+					}
+					linkSets[i] = null;
+					nrofLinks[i] = 0;
+					changedAt[i] = round;
+					nrofLinkSets--;
+				}
 			}
 		}
 	}
-	
+
 	/**
-	 * Sets the distance from source node to a node
-	 * @param n The node whose distance is set
-	 * @param distance The distance of the node from the source node
+	 * Reads the links of a node from its probability set
+	 * @param node The node
+	 * @param set The node's probability set
 	 */
-	private void setDistance(Integer n, double distance) {
-		unvisited.remove(n); // remove node from old place in the queue
-		distancesFromStart.put(n, distance); // update distance
-		unvisited.add(n); // insert node to the new place in the queue
+	private void readLinks(int node, MeetingProbabilitySet set) {
+		MeetingProbabilitySet.Snapshot nodeProbs = set.getSnapshot();
+		int n = nodeProbs.nodes.length;
+		if (neighbors[node] == null || neighbors[node].length < n) {
+			neighbors[node] = new int[n];
+			linkCosts[node] = new double[n];
+		}
+
+		for (int i=0; i < n; i++) {
+			int neighbor = nodeProbs.nodes[i];
+			ensureCapacity(neighbor + 1);
+			neighbors[node][i] = neighbor;
+			linkCosts[node][i] = 1 - nodeProbs.probs[i];
+		}
+
+		nrofLinks[node] = n;
+		linkSets[node] = set;
+		linkSetVersions[node] = set.getVersion();
+		changedAt[node] = round;
 	}
-	
+
 	/**
-	 * Returns the "distance" between two nodes, i.e., the complement of the 
-	 * probability that the next node "from" meets is "to". Works only if there
-	 * exist a probability value for "from" meeting "to". 
-	 * @param from The first node
-	 * @param to The second node
-	 * @return The distance between the two nodes
+	 * Makes sure there is room for the given number of nodes
+	 * @param size The number of nodes
 	 */
-	private double getDistance(Integer from, Integer to) {
-		assert probs.containsKey(from) : "Node " + from + " has not met " + to +
-			" (it has met nodes " + probs.keySet() + ")";
-		return ( 1 - probs.get(from).getProbFor(to) );
+	private void ensureCapacity(int size) {
+		if (size <= nrofNodes) {
+			return;
+		}
+		nrofNodes = size;
+		if (size <= linkSets.length) {
+			return;
+		}
+
+		int capacity = Math.max(size, linkSets.length * 2);
+		linkSets = Arrays.copyOf(linkSets, capacity);
+		linkSetVersions = Arrays.copyOf(linkSetVersions, capacity);
+		neighbors = Arrays.copyOf(neighbors, capacity);
+		linkCosts = Arrays.copyOf(linkCosts, capacity);
+		nrofLinks = Arrays.copyOf(nrofLinks, capacity);
+		changedAt = Arrays.copyOf(changedAt, capacity);
+		unvisited = new IndexedHeap(capacity);
+		childStart = new int[capacity + 1];
+		children = new int[capacity];
+		stack = new int[2 * capacity];
 	}
-	
+
 	/**
-	 * Comparator that compares two nodes by their distance from
-	 * the source node.
+	 * Returns an up-to-date shortest path tree for a source node.
+	 * @param source The source node
+	 * @return The tree
 	 */
-	private class DistanceComparator implements 
-		Comparator<Integer> {
-		
-		/**
-		 * Compares two map nodes by their distance from the source node
-		 * @return -1, 0 or 1 if node1's distance is smaller, equal to, or
-		 * bigger than node2's distance
-		 */
-		public int compare(Integer node1, Integer node2) {
-			double dist1 = distancesFromStart.get(node1);
-			double dist2 = distancesFromStart.get(node2);
-			
-			if (dist1 > dist2) {
-				return 1;
+	private Tree getTree(int source) {
+		Tree t = null;
+		for (int i=0; i < nrofTrees; i++) {
+			if (trees[i].source == source) {
+				t = trees[i];
+				break;
 			}
-			else if (dist1 < dist2) {
-				return -1;
+		}
+
+		ensureCapacity(source + 1);
+		if (t == null) {
+			t = newTree(source);
+			search(t);
+		} else if (t.round != round) {
+			repair(t);
+		}
+
+		t.lastUse = ++useCount;
+		return t;
+	}
+
+	/**
+	 * Creates a new tree, replacing the least recently used tree if the
+	 * maximum number of trees is cached already
+	 * @param source The source node of the tree
+	 * @return The new tree
+	 */
+	private Tree newTree(int source) {
+		if (nrofTrees < MAX_TREES) {
+			trees[nrofTrees] = new Tree(source, nrofNodes);
+			return trees[nrofTrees++];
+		}
+
+		int lru = 0;
+		for (int i=1; i < nrofTrees; i++) {
+			if (trees[i].lastUse < trees[lru].lastUse) {
+				lru = i;
 			}
-			else {
-				return node1.compareTo(node2);
+		}
+		trees[lru].reset(source, nrofNodes);
+		return trees[lru];
+	}
+
+	/**
+	 * Searches all the shortest paths from the tree's source node
+	 * @param t The tree
+	 */
+	private void search(Tree t) {
+		t.dist[t.source] = 0;
+		unvisited.clear();
+		unvisited.update(t.source, t.dist);
+		visitAll(t);
+		t.round = round;
+	}
+
+	/**
+	 * Repairs a tree after some of the links have changed. The nodes whose
+	 * path used a link whose cost grew (or that was removed) are cut from
+	 * the tree with the nodes below them. Then the links of the changed
+	 * nodes, and all links if some nodes were cut, are relaxed and the
+	 * changes are propagated with Dijkstra's algorithm.
+	 * @param t The tree
+	 */
+	private void repair(Tree t) {
+		int n = nrofNodes;
+		t.ensureCapacity(n);
+		int top = 0;
+
+		/* find the nodes whose link from their parent got more expensive */
+		for (int v=0; v < n; v++) {
+			int p = t.parent[v];
+			if (p >= 0 && changedAt[p] > t.round && !isStillShortest(t, p, v)) {
+				stack[top++] = v;
+			}
+		}
+
+		boolean cut = top > 0;
+		if (cut) {
+			/* cut those nodes and their subtrees */
+			buildChildLists(t, n);
+			while (top > 0) {
+				int v = stack[--top];
+				if (t.parent[v] < 0) {
+					continue; // already cut
+				}
+				for (int i = childStart[v]; i < childStart[v+1]; i++) {
+					stack[top++] = children[i];
+				}
+				t.dist[v] = INFINITY;
+				t.parent[v] = -1;
+			}
+		}
+
+		unvisited.clear();
+		for (int u=0; u < n; u++) {
+			if (t.dist[u] != INFINITY && (cut || changedAt[u] > t.round)) {
+				relax(t, u);
+			}
+		}
+		visitAll(t);
+		t.round = round;
+	}
+
+	/**
+	 * Returns true if the path to a node via its parent in the tree is not
+	 * more expensive than the node's distance in the tree
+	 * @param t The tree
+	 * @param p The parent node
+	 * @param v The node
+	 */
+	private boolean isStillShortest(Tree t, int p, int v) {
+		int[] nbrs = neighbors[p];
+		for (int i=0, k = nrofLinks[p]; i < k; i++) {
+			if (nbrs[i] == v) {
+				return t.dist[p] + linkCosts[p][i] <= t.dist[v];
+			}
+		}
+		return false; // the link is gone
+	}
+
+	/**
+	 * Builds the lists of the children of all nodes of a tree
+	 * @param t The tree
+	 * @param n Number of nodes
+	 */
+	private void buildChildLists(Tree t, int n) {
+		Arrays.fill(childStart, 0, n + 1, 0);
+		for (int v=0; v < n; v++) {
+			if (t.parent[v] >= 0) {
+				childStart[t.parent[v] + 1]++;
+			}
+		}
+		for (int v=0; v < n; v++) {
+			childStart[v + 1] += childStart[v];
+		}
+		for (int v=0; v < n; v++) {
+			int p = t.parent[v];
+			if (p >= 0) {
+				children[childStart[p]++] = v;
+			}
+		}
+		for (int v = n; v > 0; v--) { // restore the start indexes
+			childStart[v] = childStart[v - 1];
+		}
+		childStart[0] = 0;
+	}
+
+	/**
+	 * Takes nodes from the priority queue in the order of their distance
+	 * and relaxes their neighbors until the queue is empty
+	 * @param t The tree
+	 */
+	private void visitAll(Tree t) {
+		while (!unvisited.isEmpty()) {
+			relax(t, unvisited.poll(t.dist));
+		}
+	}
+
+	/**
+	 * Relaxes the neighbors of a node (updates the shortest distances).
+	 * @param t The tree
+	 * @param node The node whose neighbors are relaxed
+	 */
+	private void relax(Tree t, int node) {
+		double nodeDist = t.dist[node];
+		int[] nbrs = neighbors[node];
+		double[] costs = linkCosts[node];
+
+		for (int i=0, k = nrofLinks[node]; i < k; i++) {
+			int n = nbrs[i];
+			// n node's distance from path's source node
+			double nDist = nodeDist + costs[i];
+
+			if (t.dist[n] > nDist) {
+				// stored distance > found dist -> update
+				t.dist[n] = nDist;
+				t.parent[n] = node;
+				unvisited.update(n, t.dist);
 			}
 		}
 	}
-	
+
 	/**
-	 * Simple Map implementation for storing distances. 
+	 * Shortest path tree from a source node
 	 */
-	private class DistanceMap {
-		private HashMap<Integer, Double> map;
-		
+	private static class Tree {
+		/** the source node */
+		private int source;
+		/** distances from the source node */
+		private double[] dist;
+		/** previous nodes on the shortest paths (-1 for none) */
+		private int[] parent;
+		/** the refresh round the tree is up to date with */
+		private int round;
+		/** when the tree was last used */
+		private long lastUse;
+
+		private Tree(int source, int size) {
+			this.dist = new double[size];
+			this.parent = new int[size];
+			reset(source, size);
+		}
+
 		/**
-		 * Constructor. Creates an empty distance map
+		 * Clears the tree for a new source node
 		 */
-		public DistanceMap() {
-			this.map = new HashMap<Integer, Double>(); 
+		private void reset(int source, int size) {
+			this.source = source;
+			if (dist.length < size) {
+				dist = new double[size];
+				parent = new int[size];
+			}
+			Arrays.fill(dist, INFINITY);
+			Arrays.fill(parent, -1);
 		}
-		
+
 		/**
-		 * Returns the distance to a node. If no distance value
-		 * is found, returns {@link MaxPropDijkstra#INFINITY} as the value.
-		 * @param node The node whose distance is requested
-		 * @return The distance to that node
+		 * Makes room for new (unreachable) nodes
 		 */
-		public double get(Integer node) {
-			Double value = map.get(node);
-			if (value != null) {
-				return value;
+		private void ensureCapacity(int size) {
+			int old = dist.length;
+			if (size <= old) {
+				return;
 			}
-			else {
-				return INFINITY;
+			dist = Arrays.copyOf(dist, size);
+			parent = Arrays.copyOf(parent, size);
+			Arrays.fill(dist, old, size, INFINITY);
+			Arrays.fill(parent, old, size, -1);
+		}
+	}
+
+	/**
+	 * Binary min-heap of node indexes ordered by their distance (and index,
+	 * for equal distances) that knows the position of every node in it
+	 */
+	private static class IndexedHeap {
+		private int[] heap;
+		/** positions of the nodes in the heap (-1 for nodes not in it) */
+		private int[] pos;
+		private int size;
+
+		private IndexedHeap(int capacity) {
+			this.heap = new int[capacity];
+			this.pos = new int[capacity];
+			Arrays.fill(pos, -1);
+			this.size = 0;
+		}
+
+		private boolean isEmpty() {
+			return size == 0;
+		}
+
+		private void clear() {
+			for (int i=0; i < size; i++) {
+				pos[heap[i]] = -1;
 			}
+			size = 0;
 		}
-		
+
 		/**
-		 * Puts a new distance value for a map node
-		 * @param node The node
-		 * @param distance Distance to that node
+		 * Adds a node to the heap or moves it up after its distance has
+		 * decreased
 		 */
-		public void  put(Integer node, double distance) {
-			map.put(node, distance);
+		private void update(int node, double[] dist) {
+			int i = pos[node];
+			if (i < 0) {
+				i = size++;
+				heap[i] = node;
+				pos[node] = i;
+			}
+			siftUp(i, dist);
 		}
-		
+
 		/**
-		 * Returns a string representation of the map's contents
-		 * @return a string representation of the map's contents
+		 * Removes and returns the node with the smallest distance
 		 */
-		public String toString() {
-			return map.toString();
+		private int poll(double[] dist) {
+			int first = heap[0];
+			pos[first] = -1;
+			size--;
+			if (size > 0) {
+				heap[0] = heap[size];
+				pos[heap[0]] = 0;
+				siftDown(0, dist);
+			}
+			return first;
+		}
+
+		private void siftUp(int i, double[] dist) {
+			int node = heap[i];
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (!less(node, heap[parent], dist)) {
+					break;
+				}
+				heap[i] = heap[parent];
+				pos[heap[i]] = i;
+				i = parent;
+			}
+			heap[i] = node;
+			pos[node] = i;
+		}
+
+		private void siftDown(int i, double[] dist) {
+			int node = heap[i];
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size) {
+					break;
+				}
+				if (child + 1 < size && less(heap[child + 1], heap[child], dist)) {
+					child++;
+				}
+				if (!less(heap[child], node, dist)) {
+					break;
+				}
+				heap[i] = heap[child];
+				pos[heap[i]] = i;
+				i = child;
+			}
+			heap[i] = node;
+			pos[node] = i;
+		}
+
+		private static boolean less(int n1, int n2, double[] dist) {
+			return dist[n1] < dist[n2] || (dist[n1] == dist[n2] && n1 < n2);
 		}
 	}
 }
\ No newline at end of file
@@ -12,17 +12,24 @@ import core.SimClock;
 
 /**
  * Class for storing and manipulating the meeting probabilities for the MaxProp
- * router module.
+ * router module. Replicas share an immutable array snapshot of the 
+ * probabilities and a replica creates its own mapping only when it is 
+ * accessed as a map or updated (copy-on-write).
  */
 public class MeetingProbabilitySet {
 	public static final int INFINITE_SET_SIZE = Integer.MAX_VALUE;
-	/** meeting probabilities (probability that the next node one meets is X) */
+	/** meeting probabilities (probability that the next node one meets is X);
+	 * null for replicas that only have the snapshot */
 	private Map<Integer, Double> probs;
+	/** snapshot of the current probabilities or null if not created */
+	private Snapshot snapshot;
 	/** the time when this MPS was last updated */
 	private double lastUpdateTime;
 	/** the alpha parameter */
 	private double alpha;
     private int maxSetSize;
+	/** number of times the probabilities have been updated */
+	private int version;
 	
 	/**
 	 * Constructor. Creates a probability set with empty node-probability
@@ -43,6 +50,19 @@ public class MeetingProbabilitySet {
 		this.lastUpdateTime = 0;
 	}
 	
+	/**
+	 * Copy constructor. The replica shares the snapshot of the original.
+	 * @param mps The set to replicate
+	 */
+	private MeetingProbabilitySet(MeetingProbabilitySet mps) {
+		this.alpha = mps.alpha;
+		this.maxSetSize = mps.maxSetSize;
+		this.lastUpdateTime = mps.lastUpdateTime;
+		this.version = mps.version;
+		this.snapshot = mps.getSnapshot();
+		this.probs = null;
+	}
+	
 	/**
 	 * Constructor. Creates a probability set with empty node-probability
 	 * mapping and infinite set size
@@ -77,6 +97,7 @@ public class MeetingProbabilitySet {
         double smallestValue = Double.MAX_VALUE;
 
 		this.lastUpdateTime = SimClock.getTime();
+		prepareUpdate();
 		
 		if (probs.size() == 0) { // first entry
 			probs.put(index, 1.0);
@@ -104,15 +125,65 @@ public class MeetingProbabilitySet {
 	}
 	
 	public void updateMeetingProbFor(Integer index, double iet)	{
+		prepareUpdate();
 		probs.put(index, iet);
 	}
 	
+	/**
+	 * Makes sure this set has its own mapping before the mapping is changed
+	 * and drops the outdated snapshot
+	 */
+	private void prepareUpdate() {
+		ensureMap();
+		this.snapshot = null;
+		this.version++;
+	}
+	
+	/**
+	 * Creates the mapping from the snapshot if this set doesn't have one
+	 * yet. The mapping is built the same way as in the constructor.
+	 */
+	private void ensureMap() {
+		if (this.probs != null) {
+			return;
+		}
+		if (maxSetSize == INFINITE_SET_SIZE) {
+			this.probs = new HashMap<Integer, Double>();
+		} else {
+			this.probs = new HashMap<Integer, Double>(maxSetSize);
+		}
+		for (int i=0; i < snapshot.nodes.length; i++) {
+			this.probs.put(snapshot.nodes[i], snapshot.probs[i]);
+		}
+	}
+	
+	/**
+	 * Returns an immutable snapshot of the current probabilities. The
+	 * snapshot is shared by all the replicas made before the next update.
+	 * @return The snapshot
+	 */
+	Snapshot getSnapshot() {
+		if (this.snapshot == null) {
+			int[] nodes = new int[probs.size()];
+			double[] values = new double[probs.size()];
+			int i = 0;
+			for (Map.Entry<Integer, Double> e : probs.entrySet()) {
+				nodes[i] = e.getKey();
+				values[i] = e.getValue();
+				i++;
+			}
+			this.snapshot = new Snapshot(nodes, values);
+		}
+		return this.snapshot;
+	}
+	
 	/**
 	 * Returns the current delivery probability value for the given node index 
 	 * @param index The index of the node to look the P for
 	 * @return the current delivery probability value
 	 */
 	public double getProbFor(Integer index) {
+		ensureMap();
 		if (probs.containsKey(index)) {
 			return probs.get(index);
 		}
@@ -127,6 +198,7 @@ public class MeetingProbabilitySet {
 	 * @return a reference to the probability map of this probability set
 	 */
 	public Map<Integer, Double> getAllProbs() {
+		ensureMap();
 		return this.probs;
 	}
 	
@@ -138,6 +210,15 @@ public class MeetingProbabilitySet {
 		return this.lastUpdateTime;
 	}
 	
+	/**
+	 * Returns the number of times the probabilities of this set have been
+	 * updated. Can be used for checking if the set has changed.
+	 * @return The number of updates
+	 */
+	public int getVersion() {
+		return this.version;
+	}
+	
 	/**
 	 * Enables changing the alpha parameter dynamically
 	 */
@@ -146,20 +227,12 @@ public class MeetingProbabilitySet {
 	}
 	
 	/**
-	 * Returns a deep copy of the probability set
-	 * @return a deep copy of the probability set
+	 * Returns a copy of the probability set. The copy shares the 
+	 * probabilities with this set until either one of them is updated.
+	 * @return a copy of the probability set
 	 */
 	public MeetingProbabilitySet replicate() {
-		MeetingProbabilitySet replica = new MeetingProbabilitySet(
-				this.maxSetSize, alpha);
-		
-		// do a deep copy
-		for (Map.Entry<Integer, Double> e : probs.entrySet()) {
-			replica.probs.put(e.getKey(), e.getValue().doubleValue());
-		}
-		
-		replica.lastUpdateTime = this.lastUpdateTime;
-		return replica;
+		return new MeetingProbabilitySet(this);
 	}
 	
 	/**
@@ -168,6 +241,22 @@ public class MeetingProbabilitySet {
 	 */
     @Override
 	public String toString() {
+		ensureMap();
 		return "probs: " +	this.probs.toString();
 	}
+	
+	/**
+	 * Immutable array presentation of the probabilities of a set
+	 */
+	static final class Snapshot {
+		/** the node indexes */
+		final int[] nodes;
+		/** the probabilities of meeting the nodes */
+		final double[] probs;
+		
+		private Snapshot(int[] nodes, double[] probs) {
+			this.nodes = nodes;
+			this.probs = probs;
+		}
+	}
 }
\ No newline at end of file
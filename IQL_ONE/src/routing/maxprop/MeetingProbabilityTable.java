@@ -0,0 +1,152 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing.maxprop;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The meeting probability sets of all known nodes from one node's point of
+ * view. The table remembers the order in which the sets were put to it and,
+ * for every other node it has exchanged sets with, how far in that order
+ * the other node's table was at the end of the previous exchange. This way
+ * only the sets the other table has received after the previous exchange
+ * need to be compared in the next one.
+ */
+public class MeetingProbabilityTable {
+	/** initial capacity of the arrays indexed by node */
+	private static final int INIT_CAPACITY = 16;
+
+	/** the probability sets by node index */
+	private Map<Integer, MeetingProbabilitySet> sets;
+	/** read-only view of the sets */
+	private Map<Integer, MeetingProbabilitySet> setsView;
+	/** modification counts at the time the nodes' sets were put */
+	private int[] stamps;
+	/** previous and next nodes in the order the sets were put in */
+	private int[] prev;
+	private int[] next;
+	/** the nodes whose sets were put first and last */
+	private int head;
+	private int tail;
+	/** number of times a new set has been put */
+	private int modCount;
+	/** modification counts of the other nodes' tables at the end of the
+	 * previous exchange, by node index */
+	private int[] exchangeMarks;
+
+	/**
+	 * Constructor. Creates an empty table.
+	 */
+	public MeetingProbabilityTable() {
+		this.sets = new HashMap<Integer, MeetingProbabilitySet>();
+		this.setsView = Collections.unmodifiableMap(this.sets);
+		this.stamps = new int[INIT_CAPACITY];
+		this.prev = new int[INIT_CAPACITY];
+		this.next = new int[INIT_CAPACITY];
+		this.exchangeMarks = new int[0];
+		this.head = -1;
+		this.tail = -1;
+		this.modCount = 0;
+	}
+
+	/**
+	 * Returns a read-only view of the sets mapped by node index
+	 * @return The sets
+	 */
+	public Map<Integer, MeetingProbabilitySet> getSets() {
+		return this.setsView;
+	}
+
+	/**
+	 * Returns the set of a node
+	 * @param node Index of the node
+	 * @return The node's set or null if there is no set for the node
+	 */
+	public MeetingProbabilitySet get(int node) {
+		return this.sets.get(node);
+	}
+
+	/**
+	 * Puts a set for a node. If the set is already the node's set, nothing
+	 * is done.
+	 * @param node Index of the node
+	 * @param set The set
+	 */
+	public void put(int node, MeetingProbabilitySet set) {
+		if (this.sets.put(node, set) == set) {
+			return;
+		}
+
+		if (node >= stamps.length) {
+			int capacity = Math.max(node + 1, stamps.length * 2);
+			stamps = Arrays.copyOf(stamps, capacity);
+			prev = Arrays.copyOf(prev, capacity);
+			next = Arrays.copyOf(next, capacity);
+		}
+		if (stamps[node] != 0) { // unlink from the old place
+			if (prev[node] == -1) {
+				head = next[node];
+			} else {
+				next[prev[node]] = next[node];
+			}
+			if (next[node] == -1) {
+				tail = prev[node];
+			} else {
+				prev[next[node]] = prev[node];
+			}
+		}
+
+		prev[node] = tail;
+		next[node] = -1;
+		if (tail == -1) {
+			head = node;
+		} else {
+			next[tail] = node;
+		}
+		tail = node;
+		stamps[node] = ++modCount;
+	}
+
+	/**
+	 * Replaces the sets of this table with copies of the other table's sets
+	 * if the other table's sets have more recent updates. Only the sets the
+	 * other table has received after the previous exchange with it (see
+	 * {@link #markExchanged(int, MeetingProbabilityTable)}) are compared.
+	 * @param otherNode Index of the node whose table the other table is
+	 * @param other The other table
+	 */
+	public void updateFrom(int otherNode, MeetingProbabilityTable other) {
+		int mark = otherNode < exchangeMarks.length ?
+				exchangeMarks[otherNode] : 0;
+
+		for (int n = other.tail; n != -1 && other.stamps[n] > mark;
+				n = other.prev[n]) {
+			MeetingProbabilitySet otherMps = other.sets.get(n);
+			MeetingProbabilitySet myMps = this.sets.get(n);
+			if (myMps == null ||
+				otherMps.getLastUpdateTime() > myMps.getLastUpdateTime()) {
+				put(n, otherMps.replicate());
+			}
+		}
+	}
+
+	/**
+	 * Marks the current state of the other table as seen by this table,
+	 * so the next {@link #updateFrom(int, MeetingProbabilityTable)} with
+	 * it compares only the sets it receives after this.
+	 * @param otherNode Index of the node whose table the other table is
+	 * @param other The other table
+	 */
+	public void markExchanged(int otherNode, MeetingProbabilityTable other) {
+		if (otherNode >= exchangeMarks.length) {
+			exchangeMarks = Arrays.copyOf(exchangeMarks,
+					Math.max(otherNode + 1, exchangeMarks.length * 2));
+		}
+		exchangeMarks[otherNode] = other.modCount;
+	}
+}
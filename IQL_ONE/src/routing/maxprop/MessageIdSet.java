@@ -0,0 +1,177 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing.maxprop;
+
+import java.util.Arrays;
+
+import core.MessageIdRegistry;
+
+/**
+ * Compact set of message IDs. The IDs are stored as sorted ranges of their
+ * keys (see {@link MessageIdRegistry}), so the IDs of messages that were
+ * created consecutively take only a couple of integers and merging two sets
+ * takes time proportional to the number of ranges.
+ */
+public class MessageIdSet {
+	/** the key ranges */
+	private Ranges ranges;
+
+	/**
+	 * Constructor. Creates an empty set.
+	 */
+	public MessageIdSet() {
+		this.ranges = new Ranges();
+	}
+
+	/**
+	 * Adds an ID to the set
+	 * @param id The ID
+	 */
+	public void add(String id) {
+		add(MessageIdRegistry.register(id));
+	}
+
+	/**
+	 * Adds an ID to the set by its key
+	 * @param key Key of the ID (see {@link core.Message#getKey()})
+	 */
+	public void add(int key) {
+		ranges.add(key);
+	}
+
+	/**
+	 * Returns true if the set contains the ID
+	 * @param id The ID
+	 * @return true if the set contains the ID
+	 */
+	public boolean contains(String id) {
+		return contains(MessageIdRegistry.getKey(id));
+	}
+
+	/**
+	 * Returns true if the set contains the ID of a key
+	 * @param key Key of the ID (see {@link core.Message#getKey()})
+	 * @return true if the set contains the ID
+	 */
+	public boolean contains(int key) {
+		return key >= 0 && ranges.contains(key);
+	}
+
+	/**
+	 * Adds all the IDs of another set to this set
+	 * @param other The other set
+	 */
+	public void addAll(MessageIdSet other) {
+		ranges.addAll(other.ranges);
+	}
+
+	/**
+	 * Sorted, non-adjacent ranges of integers
+	 */
+	private static class Ranges {
+		/** first and last values of the ranges */
+		private int[] starts;
+		private int[] ends;
+		private int count;
+
+		private Ranges() {
+			this.starts = new int[4];
+			this.ends = new int[4];
+			this.count = 0;
+		}
+
+		/**
+		 * Returns the index of the first range that starts after the value
+		 */
+		private int indexAfter(int value) {
+			int low = 0;
+			int high = count;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (starts[mid] <= value) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		private boolean contains(int value) {
+			int i = indexAfter(value);
+			return i > 0 && ends[i - 1] >= value;
+		}
+
+		private void add(int value) {
+			int i = indexAfter(value);
+			if (i > 0 && ends[i - 1] >= value) {
+				return; // already in the set
+			}
+
+			boolean joinsPrev = i > 0 && ends[i - 1] == value - 1;
+			boolean joinsNext = i < count && starts[i] == value + 1;
+			if (joinsPrev && joinsNext) {
+				ends[i - 1] = ends[i];
+				System.arraycopy(starts, i + 1, starts, i, count - i - 1);
+				System.arraycopy(ends, i + 1, ends, i, count - i - 1);
+				count--;
+			} else if (joinsPrev) {
+				ends[i - 1] = value;
+			} else if (joinsNext) {
+				starts[i] = value;
+			} else {
+				if (count == starts.length) {
+					starts = Arrays.copyOf(starts, count * 2);
+					ends = Arrays.copyOf(ends, count * 2);
+				}
+				System.arraycopy(starts, i, starts, i + 1, count - i);
+				System.arraycopy(ends, i, ends, i + 1, count - i);
+				starts[i] = value;
+				ends[i] = value;
+				count++;
+			}
+		}
+
+		/**
+		 * Merges the ranges of another set to this set
+		 */
+		private void addAll(Ranges other) {
+			int[] newStarts = new int[count + other.count];
+			int[] newEnds = new int[count + other.count];
+			int n = 0;
+			int i = 0;
+			int j = 0;
+
+			while (i < count || j < other.count) {
+				int s, e;
+				if (j >= other.count ||
+						(i < count && starts[i] <= other.starts[j])) {
+					s = starts[i];
+					e = ends[i++];
+				} else {
+					s = other.starts[j];
+					e = other.ends[j++];
+				}
+				if (n > 0 && s <= newEnds[n - 1] + 1) { // overlaps or adjacent
+					if (e > newEnds[n - 1]) {
+						newEnds[n - 1] = e;
+					}
+				} else {
+					newStarts[n] = s;
+					newEnds[n] = e;
+					n++;
+				}
+			}
+
+			this.starts = newStarts;
+			this.ends = newEnds;
+			this.count = n;
+			if (n == 0) { // keep room for adding
+				this.starts = new int[4];
+				this.ends = new int[4];
+			}
+		}
+	}
+}
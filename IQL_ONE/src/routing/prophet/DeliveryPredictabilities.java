@@ -0,0 +1,258 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing.prophet;
+
+import java.util.Arrays;
+
+import core.DTNHost;
+import core.SimClock;
+
+/**
+ * Table of PRoPHET delivery predictabilities indexed by host address.
+ * The values are stored in primitive arrays and aged lazily: every entry
+ * has the (sim)time it was last aged at and
+ * <CODE>P = P_old * (GAMMA ^ k)</CODE> is applied to an entry only when
+ * it is read. The entries are also kept in a list in the order they were
+ * last set in, so the entries set after a given {@link #getModCount()
+ * modification count} can be iterated without walking the whole table:
+ * <PRE>
+ * for (int a = t.lastSet(); a != -1 &amp;&amp; t.getModStamp(a) &gt; mark;
+ *         a = t.previousSet(a)) { ... }
+ * </PRE>
+ */
+public class DeliveryPredictabilities {
+	/** initial capacity of the table */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** the aging constant */
+	private double gamma;
+	/** length of an aging time unit (seconds) */
+	private final double secondsInTimeUnit;
+
+	/** predictabilities by host address */
+	private double[] preds;
+	/** the times the entries were last aged at */
+	private double[] ageTimes;
+	/** modification counts at the time the entries were last set
+	 * (0 for addresses that don't have an entry) */
+	private int[] modStamps;
+	/** previous and next entries in the order the entries were set in */
+	private int[] prev;
+	private int[] next;
+	/** the hosts of the entries */
+	private DTNHost[] hosts;
+	/** the least and the most recently set entries' addresses */
+	private int head;
+	private int tail;
+	/** number of entries */
+	private int size;
+	/** number of times an entry has been set */
+	private int modCount;
+
+	/**
+	 * Constructor.
+	 * @param gamma The aging constant
+	 * @param secondsInTimeUnit Length of an aging time unit (seconds)
+	 */
+	public DeliveryPredictabilities(double gamma, double secondsInTimeUnit) {
+		this.gamma = gamma;
+		this.secondsInTimeUnit = secondsInTimeUnit;
+		this.preds = new double[INITIAL_CAPACITY];
+		this.ageTimes = new double[INITIAL_CAPACITY];
+		this.modStamps = new int[INITIAL_CAPACITY];
+		this.prev = new int[INITIAL_CAPACITY];
+		this.next = new int[INITIAL_CAPACITY];
+		this.hosts = new DTNHost[INITIAL_CAPACITY];
+		this.head = -1;
+		this.tail = -1;
+		this.size = 0;
+		this.modCount = 0;
+	}
+
+	/**
+	 * Returns the current predictability for a host or 0 if there is no
+	 * entry for the host
+	 * @param host The host
+	 * @return The current predictability
+	 */
+	public double get(DTNHost host) {
+		int address = host.getAddress();
+		if (address >= modStamps.length || modStamps[address] == 0) {
+			return 0;
+		}
+		return getPred(address);
+	}
+
+	/**
+	 * Returns the current predictability of an entry. The entry is aged
+	 * up to the current time first.
+	 * @param address Address of the entry's host; the entry must exist
+	 * @return The current predictability
+	 */
+	public double getPred(int address) {
+		double now = SimClock.getTime();
+		double timeDiff = (now - ageTimes[address]) / secondsInTimeUnit;
+		if (timeDiff != 0) {
+			preds[address] = preds[address] * Math.pow(gamma, timeDiff);
+			ageTimes[address] = now;
+		}
+		return preds[address];
+	}
+
+	/**
+	 * Sets the predictability for a host. The entry becomes the most
+	 * recently set one.
+	 * @param host The host
+	 * @param value The new predictability
+	 */
+	public void set(DTNHost host, double value) {
+		int address = host.getAddress();
+		ensureCapacity(address + 1);
+
+		if (modStamps[address] == 0) {
+			hosts[address] = host;
+			size++;
+		} else {
+			unlink(address);
+		}
+		link(address);
+
+		preds[address] = value;
+		ageTimes[address] = SimClock.getTime();
+		modStamps[address] = ++modCount;
+	}
+
+	/**
+	 * Changes the aging constant. All entries are first aged up to the
+	 * current time with the old constant, so this takes time proportional
+	 * to the size of the table.
+	 * @param gamma The new aging constant
+	 */
+	public void setGamma(double gamma) {
+		if (gamma == this.gamma) {
+			return;
+		}
+		for (int a = head; a != -1; a = next[a]) {
+			getPred(a);
+		}
+		this.gamma = gamma;
+	}
+
+	/**
+	 * Returns the number of entries in the table
+	 * @return the number of entries in the table
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the number of times an entry has been set in this table
+	 * @return the modification count
+	 */
+	public int getModCount() {
+		return this.modCount;
+	}
+
+	/**
+	 * Returns the modification count at the time an entry was last set
+	 * @param address Address of the entry's host; the entry must exist
+	 * @return The modification count of the entry
+	 */
+	public int getModStamp(int address) {
+		return modStamps[address];
+	}
+
+	/**
+	 * Returns the host of an entry
+	 * @param address Address of the entry's host; the entry must exist
+	 * @return The host
+	 */
+	public DTNHost getHost(int address) {
+		return hosts[address];
+	}
+
+	/**
+	 * Returns the address of the least recently set entry
+	 * @return The address or -1 if the table is empty
+	 */
+	public int firstSet() {
+		return this.head;
+	}
+
+	/**
+	 * Returns the address of the most recently set entry
+	 * @return The address or -1 if the table is empty
+	 */
+	public int lastSet() {
+		return this.tail;
+	}
+
+	/**
+	 * Returns the address of the entry that was set after the given entry
+	 * @param address Address of the entry
+	 * @return The address or -1 if the given entry was the last one set
+	 */
+	public int nextSet(int address) {
+		return next[address];
+	}
+
+	/**
+	 * Returns the address of the entry that was set before the given entry
+	 * @param address Address of the entry
+	 * @return The address or -1 if the given entry was the first one set
+	 */
+	public int previousSet(int address) {
+		return prev[address];
+	}
+
+	/**
+	 * Adds an entry to the end of the list of entries
+	 */
+	private void link(int address) {
+		prev[address] = tail;
+		next[address] = -1;
+		if (tail == -1) {
+			head = address;
+		} else {
+			next[tail] = address;
+		}
+		tail = address;
+	}
+
+	/**
+	 * Removes an entry from the list of entries
+	 */
+	private void unlink(int address) {
+		int p = prev[address];
+		int n = next[address];
+		if (p == -1) {
+			head = n;
+		} else {
+			next[p] = n;
+		}
+		if (n == -1) {
+			tail = p;
+		} else {
+			prev[n] = p;
+		}
+	}
+
+	/**
+	 * Makes sure the arrays can hold the given number of addresses
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity <= modStamps.length) {
+			return;
+		}
+		int newCapacity = Math.max(capacity, modStamps.length * 2);
+		preds = Arrays.copyOf(preds, newCapacity);
+		ageTimes = Arrays.copyOf(ageTimes, newCapacity);
+		modStamps = Arrays.copyOf(modStamps, newCapacity);
+		prev = Arrays.copyOf(prev, newCapacity);
+		next = Arrays.copyOf(next, newCapacity);
+		hosts = Arrays.copyOf(hosts, newCapacity);
+	}
+}
@@ -38,6 +38,7 @@ public class AllTests {
 		suite.addTestSuite(ExternalEventsQueueTest.class);
 		suite.addTestSuite(ContactTimesReportTest.class);
 		suite.addTestSuite(TotalContactTimeReportTest.class);
+		suite.addTestSuite(QuantileSketchTest.class);
 		suite.addTestSuite(EpidemicRouterTest.class);
 		suite.addTestSuite(ProphetRouterTest.class);
 		suite.addTestSuite(SettingsTest.class);
@@ -46,9 +47,17 @@ public class AllTests {
 		suite.addTestSuite(ActivenessHandlerTest.class);
 		suite.addTestSuite(MaxPropDijkstraTest.class);
 		suite.addTestSuite(MaxPropRouterTest.class);
+		suite.addTestSuite(MessageIdSetTest.class);
 		suite.addTestSuite(ScheduledUpdatesQueueTest.class);
 		suite.addTestSuite(MessageTest.class);
 		suite.addTestSuite(ModuleCommunicationBusTest.class);
+		suite.addTestSuite(ReceiptBufferTest.class);
+		suite.addTestSuite(QLearningEngineTest.class);
+		suite.addTestSuite(RandomStreamsTest.class);
+		suite.addTestSuite(IntHashMapTest.class);
+		suite.addTestSuite(DeliveredHistoryTest.class);
+		suite.addTestSuite(EventQueueSchedulerTest.class);
+		suite.addTestSuite(Epidemic_IQLCCTest.class);
 		//$JUnit-END$
 		return suite;
 	}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package test;
+
+import junit.framework.TestCase;
+import routing.delivered.AgedHistory;
+import routing.delivered.BitSetHistory;
+import routing.delivered.BloomFilterHistory;
+import routing.delivered.DeliveredHistory;
+import core.Message;
+import core.SettingsError;
+import core.SimClock;
+
+/**
+ * Tests for the delivered message histories
+ */
+public class DeliveredHistoryTest extends TestCase {
+	private SimClock clock;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		clock = SimClock.getInstance();
+		clock.setTime(0);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		new TestSettings(); // clears the settings testCreate put
+		clock.setTime(0);
+		super.tearDown();
+	}
+
+	private Message newMessage(String id, int ttl) {
+		Message m = new Message(null, null, id, 100);
+		if (ttl != Message.INFINITE_TTL) {
+			m.setTtl(ttl);
+		}
+		return m;
+	}
+
+	public void testBitSetHistory() {
+		DeliveredHistory h = new BitSetHistory();
+		Message m1 = newMessage("DH1", 10);
+		Message m2 = newMessage("DH2", 10);
+		assertFalse(h.contains(m1));
+		h.add(m1);
+		h.add(m1);
+		assertTrue(h.contains(m1));
+		assertTrue(h.contains(m1.getKey()));
+		assertFalse(h.contains(m2));
+		assertFalse(h.contains(-1));
+		assertEquals(1, h.size());
+		assertEquals(0, h.replicate().size());
+	}
+
+	public void testAgedHistoryForgetsExpired() {
+		DeliveredHistory h = new AgedHistory();
+		Message m1 = newMessage("DA1", 1); // expires at 60
+		Message m2 = newMessage("DA2", 2); // expires at 120
+		Message m3 = newMessage("DA3", Message.INFINITE_TTL);
+		h.add(m2);
+		h.add(m1);
+		h.add(m3);
+		assertEquals(3, h.size());
+
+		clock.setTime(60);
+		assertTrue(h.contains(m1));
+		clock.setTime(61);
+		assertFalse(h.contains(m1));
+		assertTrue(h.contains(m2));
+		clock.setTime(1000);
+		assertFalse(h.contains(m2));
+		assertTrue(h.contains(m3));
+		assertEquals(1, h.size());
+	}
+
+	public void testBloomFilterHistory() {
+		int n = 1000;
+		BloomFilterHistory h = new BloomFilterHistory(n, 0.01);
+		assertTrue(h.getNrofBits() >= 9585);
+		assertEquals(7, h.getNrofHashes());
+		assertFalse(h.contains(0));
+
+		Message[] added = new Message[n];
+		for (int i = 0; i < n; i++) {
+			added[i] = newMessage("DB" + i, 10);
+			h.add(added[i]);
+		}
+		for (Message m : added) {
+			assertTrue(h.contains(m)); // no false negatives
+		}
+
+		int falsePositives = 0;
+		for (int i = 0; i < 10000; i++) {
+			if (h.contains(newMessage("DBX" + i, 10))) {
+				falsePositives++;
+			}
+		}
+		assertTrue("Too many false positives: " + falsePositives,
+				falsePositives < 200);
+		assertTrue(h.getMemoryUsage() < 2000);
+	}
+
+	public void testCreate() {
+		TestSettings ts = new TestSettings();
+		assertTrue(DeliveredHistory.create(ts) instanceof BitSetHistory);
+		ts.putSetting(DeliveredHistory.TYPE_S, DeliveredHistory.TYPE_AGED);
+		assertTrue(DeliveredHistory.create(ts) instanceof AgedHistory);
+		ts.putSetting(DeliveredHistory.TYPE_S, DeliveredHistory.TYPE_BLOOM);
+		assertTrue(DeliveredHistory.create(ts) instanceof BloomFilterHistory);
+
+		ts.putSetting(DeliveredHistory.FP_RATE_S, "1.5");
+		try {
+			DeliveredHistory.create(ts);
+			fail("Invalid false positive rate accepted");
+		} catch (SettingsError e) {
+			// expected
+		}
+		ts.putSetting(DeliveredHistory.TYPE_S, "unknown");
+		try {
+			DeliveredHistory.create(ts);
+			fail("Unknown type accepted");
+		} catch (SettingsError e) {
+			// expected
+		}
+	}
+}
@@ -321,6 +321,31 @@ public class EpidemicRouterTest extends AbstractRouterTest {
 		assertFalse(mc.next());
 	}
 	
+	/**
+	 * Tests that the messages a peer has are not offered to it, and that
+	 * a message is offered again if the peer drops it
+	 */
+	public void testSendQueueUpdates() {
+		h1.createNewMessage(new Message(h1,h3, msgId1, 1));
+		h2.createNewMessage(new Message(h2,h3, msgId1, 1));
+		mc.reset();
+
+		h1.connect(h2);
+		updateAllNodes(); // both have the message -> nothing to send
+		clock.advance(10);
+		updateAllNodes();
+		assertFalse(mc.next());
+
+		h2.deleteMessage(msgId1, true);
+		assertTrue(mc.next());
+		assertEquals(mc.TYPE_DELETE, mc.getLastType());
+
+		clock.advance(1);
+		updateAllNodes(); // h2 doesn't have the message anymore
+		checkTransferStart(h1, h2, msgId1);
+		assertFalse(mc.next());
+	}
+	
 	/**
 	 * Tests if the FIFO queue management works
 	 */
@@ -375,6 +400,34 @@ public class EpidemicRouterTest extends AbstractRouterTest {
 		assertFalse(mc.next());
 	}
 	
+	/**
+	 * Tests that the free buffer size follows creating, relaying and
+	 * deleting messages
+	 */
+	public void testFreeBufferSize() {
+		MessageRouter r1 = h1.getRouter();
+		MessageRouter r2 = h2.getRouter();
+		assertEquals(BUFFER_SIZE, r1.getFreeBufferSize());
+		
+		h1.createNewMessage(new Message(h1, h3, msgId1, BUFFER_SIZE/4));
+		h1.createNewMessage(new Message(h1, h3, msgId2, BUFFER_SIZE/2));
+		assertEquals(BUFFER_SIZE - BUFFER_SIZE/4 - BUFFER_SIZE/2, 
+				r1.getFreeBufferSize());
+		
+		h1.connect(h2);
+		updateAllNodes(); // h1 starts transfer, incoming msg takes no space
+		assertEquals(BUFFER_SIZE, r2.getFreeBufferSize());
+		clock.advance(10);
+		updateAllNodes();
+		assertEquals(BUFFER_SIZE - h2.getMessageCollection().iterator().
+				next().getSize(), r2.getFreeBufferSize());
+		
+		h1.deleteMessage(msgId1, true);
+		assertEquals(BUFFER_SIZE - BUFFER_SIZE/2, r1.getFreeBufferSize());
+		h1.deleteMessage(msgId2, false);
+		assertEquals(BUFFER_SIZE, r1.getFreeBufferSize());
+	}
+	
 	/**
 	 * Tests creating a new message when the message buffer is full and the
 	 * message that should be removed is the message being sent 
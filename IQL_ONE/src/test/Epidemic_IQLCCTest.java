@@ -0,0 +1,181 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import routing.EpidemicForQL;
+import routing.Epidemic_IQLCC;
+import routing.MessageRouter;
+import core.Message;
+import core.Settings;
+
+/**
+ * Tests for the drop queues of Epidemic_IQLCC
+ */
+public class Epidemic_IQLCCTest extends AbstractRouterTest {
+	private static final int MSG_SIZE = 30;
+
+	private TestRouter r;
+
+	@Override
+	public void setUp() throws Exception {
+		ts.putSetting(MessageRouter.MSG_TTL_S, "300");
+		ts.putSetting(MessageRouter.B_SIZE_S, ""+BUFFER_SIZE);
+		setRouterProto(new TestRouter(ts));
+		super.setUp();
+		this.r = (TestRouter)h1.getRouter();
+	}
+
+	/**
+	 * Tests that the messages with the most copies are dropped first and
+	 * that changes of the copies are taken into account
+	 */
+	public void testDropByReps() {
+		r.deleteQueueMode = Epidemic_IQLCC.Q_MODE_REPS;
+		r.dropByOldestReceivingTime = false;
+		Message m1 = addMessage(msgId1, 1, 300);
+		addMessage(msgId2, 3, 300);
+		Message m3 = addMessage(msgId3, 2, 300);
+
+		assertTrue(r.makeRoom(MSG_SIZE));
+		assertFalse(r.has(msgId2));
+
+		r.setReps(m1, 5);
+		assertTrue(r.makeRoom(2 * MSG_SIZE));
+		assertFalse(r.has(msgId1));
+		assertTrue(r.has(msgId3));
+
+		r.setReps(m3, 1);
+		addMessage(msgId4, 2, 300);
+		assertTrue(r.makeRoom(2 * MSG_SIZE));
+		assertFalse(r.has(msgId4));
+		assertTrue(r.has(msgId3));
+	}
+
+	/**
+	 * Tests that the messages with the lowest remaining TTL are dropped
+	 * first
+	 */
+	public void testDropByTtl() {
+		r.deleteQueueMode = Epidemic_IQLCC.Q_MODE_TTL;
+		r.dropByOldestReceivingTime = false;
+		addMessage(msgId1, 1, 100);
+		addMessage(msgId2, 1, 50);
+		addMessage(msgId3, 1, 60);
+
+		assertTrue(r.makeRoom(2 * MSG_SIZE));
+		assertFalse(r.has(msgId2));
+		assertFalse(r.has(msgId3));
+		assertTrue(r.has(msgId1));
+	}
+
+	/**
+	 * Tests that of the messages with the same key (copies or whole
+	 * minutes of TTL left), the first one in the buffer is dropped
+	 */
+	public void testTiesAreDroppedInBufferOrder() {
+		r.deleteQueueMode = Epidemic_IQLCC.Q_MODE_REPS;
+		r.dropByOldestReceivingTime = false;
+		addMessage(msgId1, 2, 50);
+		addMessage(msgId2, 2, 50);
+		addMessage(msgId3, 1, 50);
+
+		String first = firstInBuffer(2);
+		assertTrue(r.makeRoom(MSG_SIZE));
+		assertFalse(r.has(first));
+		assertEquals(2, r.getNrofMessages());
+
+		/* 49 minutes and some seconds left for both */
+		r.deleteQueueMode = Epidemic_IQLCC.Q_MODE_TTL;
+		clock.setTime(10);
+		addMessage(msgId4, 1, 50);
+		clock.setTime(20);
+		first = firstInBuffer(-1);
+		assertTrue(r.makeRoom(2 * MSG_SIZE));
+		assertFalse(r.has(first));
+	}
+
+	/**
+	 * Tests the return value of the queue mode drops: true if there's not
+	 * enough room or if messages are left in the buffer
+	 */
+	public void testMakeRoomResult() {
+		r.deleteQueueMode = Epidemic_IQLCC.Q_MODE_RATE;
+		r.dropByOldestReceivingTime = false;
+		addMessage(msgId1, 1, 300);
+		addMessage(msgId2, 1, 300);
+
+		assertTrue(r.makeRoom(MSG_SIZE));
+		assertEquals(2, r.getNrofMessages());
+		assertFalse(r.makeRoom(BUFFER_SIZE));
+		assertEquals(0, r.getNrofMessages());
+		assertFalse(r.makeRoom(MSG_SIZE));
+		assertFalse(r.makeRoom(BUFFER_SIZE + 1));
+	}
+
+	/**
+	 * Returns the ID of the first message in the buffer with the given
+	 * number of copies, or with the least whole minutes of TTL left if
+	 * reps is negative
+	 */
+	private String firstInBuffer(int reps) {
+		List<Message> candidates = new ArrayList<Message>();
+		int minTtl = Integer.MAX_VALUE;
+		for (Message m : r.getMessageCollection()) {
+			candidates.add(m);
+			minTtl = Math.min(minTtl, m.getTtl());
+		}
+		for (Message m : candidates) {
+			if (reps >= 0 ? m.getNrofCopies() == reps : m.getTtl() == minTtl) {
+				return m.getId();
+			}
+		}
+		return null;
+	}
+
+	private Message addMessage(String id, int reps, int ttl) {
+		Message m = new Message(h1, h2, id, MSG_SIZE);
+		m.setTtl(ttl);
+		m.setNrofCopies(reps);
+		r.add(m);
+		return m;
+	}
+
+	/**
+	 * Router that exposes the buffer handling methods to the tests
+	 */
+	private static class TestRouter extends EpidemicForQL {
+		public TestRouter(Settings s) {
+			super(s);
+		}
+
+		protected TestRouter(TestRouter r) {
+			super(r);
+		}
+
+		public void add(Message m) {
+			addToMessages(m, true);
+		}
+
+		public boolean has(String id) {
+			return hasMessage(id);
+		}
+
+		public void setReps(Message m, int reps) {
+			updateReps(m, reps);
+		}
+
+		public boolean makeRoom(int size) {
+			return makeRoomForMessage(size);
+		}
+
+		@Override
+		public TestRouter replicate() {
+			return new TestRouter(this);
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package test;
+
+import input.EventQueue;
+import input.EventQueueScheduler;
+import input.ExternalEvent;
+import input.ScheduledUpdatesQueue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the EventQueueScheduler
+ */
+public class EventQueueSchedulerTest extends TestCase {
+	private static double MAX = Double.MAX_VALUE;
+	private EventQueueScheduler scheduler;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		scheduler = new EventQueueScheduler();
+	}
+
+	public void testEmpty() {
+		assertEquals(MAX, scheduler.nextEventsTime());
+		assertEquals(MAX, scheduler.nextEvent().getTime());
+		scheduler.addQueue(new ListQueue("a"));
+		assertEquals(MAX, scheduler.nextEventsTime());
+	}
+
+	public void testEventsInTimeOrder() {
+		scheduler.addQueue(new ListQueue("a", 1, 4, 6));
+		scheduler.addQueue(new ListQueue("b", 2, 3, 7));
+		scheduler.addQueue(new ListQueue("c"));
+		scheduler.addQueue(new ListQueue("d", 5));
+
+		double[] expected = {1, 2, 3, 4, 5, 6, 7};
+		for (double time : expected) {
+			assertEquals(time, scheduler.nextEventsTime());
+			assertEquals(time, scheduler.nextEvent().getTime());
+		}
+		assertEquals(MAX, scheduler.nextEventsTime());
+	}
+
+	public void testSimultaneousEventsInQueueOrder() {
+		scheduler.addQueue(new ListQueue("a", 2, 2));
+		scheduler.addQueue(new ListQueue("b", 1, 2));
+		scheduler.addQueue(new ListQueue("c", 2));
+
+		assertEquals("b", ((LabeledEvent)scheduler.nextEvent()).label);
+		assertEquals("a", ((LabeledEvent)scheduler.nextEvent()).label);
+		assertEquals("a", ((LabeledEvent)scheduler.nextEvent()).label);
+		assertEquals("b", ((LabeledEvent)scheduler.nextEvent()).label);
+		assertEquals("c", ((LabeledEvent)scheduler.nextEvent()).label);
+	}
+
+	public void testChangedQueue() {
+		ScheduledUpdatesQueue updates = new ScheduledUpdatesQueue();
+		int index = scheduler.addQueue(updates);
+		scheduler.addQueue(new ListQueue("a", 5));
+
+		updates.addUpdate(8);
+		assertEquals(5.0, scheduler.nextEventsTime()); // not told yet
+		scheduler.queueChanged(index);
+		assertEquals(5.0, scheduler.nextEventsTime());
+
+		updates.addUpdate(3);
+		scheduler.queueChanged(index);
+		assertEquals(3.0, scheduler.nextEvent().getTime());
+		assertEquals(5.0, scheduler.nextEvent().getTime());
+
+		updates.addUpdate(4);
+		scheduler.queuesChanged();
+		assertEquals(4.0, scheduler.nextEvent().getTime());
+		assertEquals(8.0, scheduler.nextEvent().getTime());
+		assertEquals(MAX, scheduler.nextEventsTime());
+	}
+
+	/** Event that knows which queue it came from */
+	private static class LabeledEvent extends ExternalEvent {
+		private static final long serialVersionUID = 1L;
+		private String label;
+
+		private LabeledEvent(double time, String label) {
+			super(time);
+			this.label = label;
+		}
+	}
+
+	/** Queue of events with the given times */
+	private static class ListQueue implements EventQueue {
+		private List<ExternalEvent> events = new ArrayList<ExternalEvent>();
+
+		private ListQueue(String label, double... times) {
+			for (double time : times) {
+				events.add(new LabeledEvent(time, label));
+			}
+		}
+
+		public ExternalEvent nextEvent() {
+			if (events.isEmpty()) {
+				return new ExternalEvent(MAX);
+			}
+			return events.remove(0);
+		}
+
+		public double nextEventsTime() {
+			return events.isEmpty() ? MAX : events.get(0).getTime();
+		}
+	}
+}
@@ -5,6 +5,7 @@
 package test;
 
 import input.BinaryEventsReader;
+import input.ColumnarEventsReader;
 import input.ExternalEvent;
 import input.ExternalEventsQueue;
 import input.ExternalEventsReader;
@@ -82,6 +83,32 @@ public class ExternalEventsQueueTest extends TestCase {
 	}
 	
 	
+	public void testColumnarEEQ() throws Exception{
+		int preload = 7;
+		File tmpFile = File.createTempFile("TempColTest", 
+				ColumnarEventsReader.COLUMNAR_EXT);
+		tmpFile.deleteOnExit(); // mapped files can't be deleted everywhere
+		String fileName = tmpFile.getAbsolutePath();
+		ExternalEventsReader r = new StandardEventsReader(tempFile);
+		List<ExternalEvent> events = r.readEvents(100);
+		ColumnarEventsReader.storeToColumnarFile(fileName, events);
+
+		eeq = new ExternalEventsQueue(fileName, preload);
+		checkEeq(eeq, preload);
+
+		/* all the events must be the same as the ones that were stored */
+		ColumnarEventsReader cr = new ColumnarEventsReader(tmpFile);
+		assertEquals(events.size(), cr.getNrofEvents());
+		List<ExternalEvent> read = cr.readEvents(100);
+		assertEquals(events.size(), read.size());
+		for (int i=0; i < events.size(); i++) {
+			assertEquals(events.get(i).getClass(), read.get(i).getClass());
+			assertEquals(events.get(i).toString(), read.get(i).toString());
+		}
+		assertEquals(0, cr.readEvents(100).size());
+		cr.close();
+	}
+	
 	private void checkEeq(ExternalEventsQueue eeq, int preloadVal) {
 		ExternalEvent ee;
 		assertEquals(msgTimes[0],eeq.nextEventsTime());
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package test;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import core.IntHashMap;
+
+/**
+ * Tests for the IntHashMap
+ */
+public class IntHashMapTest extends TestCase {
+	private IntHashMap<String> map;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		map = new IntHashMap<String>();
+	}
+
+	public void testPutGetRemove() {
+		assertTrue(map.isEmpty());
+		assertNull(map.put(1, "a"));
+		assertNull(map.put(2, "b"));
+		assertEquals("a", map.put(1, "c"));
+		assertEquals(2, map.size());
+		assertEquals("c", map.get(1));
+		assertEquals("b", map.get(2));
+		assertNull(map.get(3));
+		assertNull(map.get(-1));
+		assertFalse(map.containsKey(-1));
+
+		assertEquals("c", map.remove(1));
+		assertNull(map.remove(1));
+		assertFalse(map.containsKey(1));
+		assertTrue(map.containsKey(2));
+		assertEquals(1, map.size());
+
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertNull(map.get(2));
+	}
+
+	public void testResizeAndRemoveWithCollisions() {
+		int n = 1000;
+		for (int i = 0; i < n; i++) {
+			map.put(i * 16, "v" + i);
+		}
+		assertEquals(n, map.size());
+
+		/* removing every other key must keep the rest reachable */
+		for (int i = 0; i < n; i += 2) {
+			assertEquals("v" + i, map.remove(i * 16));
+		}
+		assertEquals(n / 2, map.size());
+		for (int i = 0; i < n; i++) {
+			if (i % 2 == 0) {
+				assertFalse(map.containsKey(i * 16));
+			} else {
+				assertEquals("v" + i, map.get(i * 16));
+			}
+		}
+	}
+
+	public void testKeysAndValues() {
+		for (int i = 0; i < 20; i++) {
+			map.put(i, "v" + i);
+		}
+		map.remove(5);
+
+		Set<Integer> keys = new HashSet<Integer>();
+		for (int key : map.keys()) {
+			keys.add(key);
+		}
+		Set<String> values = new HashSet<String>(map.values());
+		assertEquals(19, keys.size());
+		assertEquals(19, values.size());
+		assertFalse(keys.contains(5));
+		assertFalse(values.contains("v5"));
+		assertTrue(keys.contains(19));
+		assertTrue(values.contains("v19"));
+	}
+
+	public void testValuesFailFast() {
+		map.put(1, "a");
+		map.put(2, "b");
+		Iterator<String> i = map.values().iterator();
+		i.next();
+		map.put(3, "c");
+		try {
+			i.next();
+			fail("Modification while iterating not detected");
+		} catch (ConcurrentModificationException e) {
+			// expected
+		}
+	}
+}
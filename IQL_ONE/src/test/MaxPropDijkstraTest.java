@@ -9,6 +9,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
 import junit.framework.TestCase;
@@ -154,4 +155,85 @@ public class MaxPropDijkstraTest extends TestCase {
 		
 	}
 	
+	/**
+	 * Tests that the cached shortest path trees that are repaired after
+	 * link cost increases, decreases and removed nodes have the same
+	 * distances and previous nodes as the trees of a full search
+	 */
+	public void testRepairedTreesMatchFullSearch() {
+		final int nrofNodes = 20;
+		final int nrofSources = 5;
+		Random rng = new Random(1);
+		Map<Integer, MeetingProbabilitySet> sets = 
+			new HashMap<Integer, MeetingProbabilitySet>();
+		for (int i=0; i<nrofNodes; i++) {
+			sets.put(i, randomSet(rng, nrofNodes));
+		}
+		MaxPropDijkstra repaired = new MaxPropDijkstra(sets);
+		repaired.refresh();
+		checkSameAsFullSearch(repaired, sets, nrofSources, nrofNodes);
+
+		for (int round=0; round<300; round++) {
+			int nrofChanges = 1 + rng.nextInt(3);
+			for (int c=0; c<nrofChanges; c++) {
+				int node = rng.nextInt(nrofNodes);
+				MeetingProbabilitySet set = sets.get(node);
+				if (set == null) {
+					sets.put(node, randomSet(rng, nrofNodes));
+					continue;
+				}
+				int other = rng.nextInt(nrofNodes);
+				double prob = set.getProbFor(other);
+				switch (rng.nextInt(4)) {
+				case 0: // cost increase
+					set.updateMeetingProbFor(other, prob * rng.nextDouble());
+					break;
+				case 1: // cost decrease (or a new link)
+					set.updateMeetingProbFor(other, 
+							prob + (1 - prob) * rng.nextDouble());
+					break;
+				case 2: // replaced set
+					sets.put(node, randomSet(rng, nrofNodes));
+					break;
+				default: // removed node
+					sets.remove(node);
+				}
+			}
+			repaired.refresh();
+			checkSameAsFullSearch(repaired, sets, nrofSources, nrofNodes);
+		}
+	}
+
+	/**
+	 * Returns a set with random probabilities for a few random nodes
+	 */
+	private MeetingProbabilitySet randomSet(Random rng, int nrofNodes) {
+		MeetingProbabilitySet set = new MeetingProbabilitySet(
+				MeetingProbabilitySet.INFINITE_SET_SIZE, 1.0);
+		for (int i=0, n = 1 + rng.nextInt(4); i<n; i++) {
+			set.updateMeetingProbFor(rng.nextInt(nrofNodes), rng.nextDouble());
+		}
+		return set;
+	}
+
+	/**
+	 * Checks that the costs and previous nodes from the source nodes are
+	 * the same as those of a new instance that searches all the paths
+	 */
+	private void checkSameAsFullSearch(MaxPropDijkstra repaired, 
+			Map<Integer, MeetingProbabilitySet> sets, int nrofSources,
+			int nrofNodes) {
+		MaxPropDijkstra full = new MaxPropDijkstra(sets);
+		full.refresh();
+		for (int from=0; from<nrofSources; from++) {
+			for (int to=0; to<nrofNodes; to++) {
+				String msg = "path " + from + "->" + to;
+				assertEquals(msg, full.getCost(from, to), 
+						repaired.getCost(from, to));
+				assertEquals(msg, full.getPreviousNode(from, to),
+						repaired.getPreviousNode(from, to));
+			}
+		}
+	}
+	
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package test;
+
+import junit.framework.TestCase;
+import routing.maxprop.MessageIdSet;
+
+/**
+ * Tests for the MessageIdSet
+ */
+public class MessageIdSetTest extends TestCase {
+	private MessageIdSet s1;
+	private MessageIdSet s2;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		s1 = new MessageIdSet();
+		s2 = new MessageIdSet();
+	}
+
+	public void testAddAndContains() {
+		s1.add("M1");
+		s1.add("M3");
+		s1.add("M2"); // joins the ranges
+		s1.add("M10");
+		s1.add("X2");
+
+		assertTrue(s1.contains("M1"));
+		assertTrue(s1.contains("M2"));
+		assertTrue(s1.contains("M3"));
+		assertTrue(s1.contains("M10"));
+		assertTrue(s1.contains("X2"));
+		assertFalse(s1.contains("M4"));
+		assertFalse(s1.contains("M9"));
+		assertFalse(s1.contains("X1"));
+		assertFalse(s1.contains("Y2"));
+	}
+
+	public void testNonSequenceIds() {
+		s1.add("M01");
+		s1.add("msg");
+		s1.add("1234567890");
+
+		assertTrue(s1.contains("M01"));
+		assertFalse(s1.contains("M1"));
+		assertTrue(s1.contains("msg"));
+		assertTrue(s1.contains("1234567890"));
+		assertFalse(s1.contains("M0"));
+	}
+
+	public void testAddAll() {
+		for (int i = 1; i <= 5; i++) {
+			s1.add("M" + i);
+		}
+		s1.add("M20");
+		s2.add("M6");
+		s2.add("M8");
+		s2.add("N1");
+		s2.add("other");
+
+		s1.addAll(s2);
+		for (int i = 1; i <= 6; i++) {
+			assertTrue(s1.contains("M" + i));
+		}
+		assertFalse(s1.contains("M7"));
+		assertTrue(s1.contains("M8"));
+		assertTrue(s1.contains("M20"));
+		assertTrue(s1.contains("N1"));
+		assertTrue(s1.contains("other"));
+
+		s1.add("M7");
+		assertTrue(s1.contains("M7"));
+		assertFalse(s2.contains("M1"));
+	}
+}
@@ -60,5 +60,38 @@ public class MessageTest extends TestCase {
 		assertEquals(value2, msg.getProperty("bar"));
 	}
 
+	@Test
+	public void testReplicateCopiesOnWrite() {
+		DTNHost relay = new TestUtils(null, null,
+				new TestSettings()).createHost();
+		msg.addProperty("foo", "value1");
+		msg.setNrofCopies(3);
+		Message copy = msg.replicate();
+
+		assertEquals("M", copy.getId());
+		assertEquals(10, copy.getTtl());
+		assertEquals(3, copy.getNrofCopies());
+		assertFalse(msg.getUniqueId() == copy.getUniqueId());
+
+		copy.addNodeOnPath(relay);
+		copy.updateProperty("foo", "value2");
+		copy.setTtl(20);
+		copy.setNrofCopies(4);
+
+		assertEquals(0, msg.getHopCount());
+		assertEquals(1, msg.getHops().size());
+		assertFalse(msg.isOnPath(relay));
+		assertEquals("value1", msg.getProperty("foo"));
+		assertEquals(10, msg.getTtl());
+		assertEquals(3, msg.getNrofCopies());
+
+		assertEquals(1, copy.getHopCount());
+		assertEquals(relay, copy.getHops().get(1));
+		assertTrue(copy.isOnPath(relay));
+		assertEquals("value2", copy.getProperty("foo"));
+		assertEquals(20, copy.getTtl());
+		assertEquals(4, copy.getNrofCopies());
+	}
+
 
 }
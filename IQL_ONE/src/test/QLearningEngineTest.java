@@ -0,0 +1,136 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package test;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import routing.QL.QLearningEngine;
+
+/**
+ * Tests for the QLearningEngine
+ */
+public class QLearningEngineTest extends TestCase {
+	private static final boolean[][] RESTRICTION = {
+		{ true, true, false },
+		{ false, true, true }
+	};
+
+	private QLearningEngine engine;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		this.engine = new QLearningEngine(2, 3, RESTRICTION, false);
+	}
+
+	public void testSeparateTables() {
+		int t1 = engine.addTable();
+		int t2 = engine.addTable();
+		int t3 = engine.addTable(); // grows the arrays
+		assertEquals(0, t1);
+		assertEquals(1, t2);
+		assertEquals(2, t3);
+
+		engine.updateState(t2, 0, 1, 1.0, 1);
+		assertEquals(1.0, engine.getQValues(t2)[0][1]);
+		assertEquals(0.0, engine.getQValues(t1)[0][1]);
+		assertEquals(0.0, engine.getQValues(t3)[0][1]);
+	}
+
+	public void testSharedPolicy() {
+		engine = new QLearningEngine(2, 3, RESTRICTION, true);
+		int t1 = engine.addTable();
+		int t2 = engine.addTable();
+		assertEquals(t1, t2);
+
+		engine.updateState(t1, 1, 2, -1.0, 0);
+		assertEquals(-1.0, engine.getQValues(t2)[1][2]);
+	}
+
+	public void testLearningRateAndDiscount() {
+		int t = engine.addTable();
+		engine.updateState(t, 1, 2, 2.0, 1); // learning rate 1
+		assertEquals(2.0, engine.getQValues(t)[1][2]);
+
+		/* choosing the action twice halves the next learning rate */
+		assertEquals(1, engine.getAction(t, 0, 0, new Random(0)));
+		engine.updateState(t, 0, 1, 1.0, 1);
+		assertEquals(0.5 * (1.0 + 0.2 * 2.0), engine.getQValues(t)[0][1],
+				1e-12);
+	}
+
+	public void testGreedySelectionUsesRestrictions() {
+		int t = engine.addTable();
+		engine.updateState(t, 1, 1, 1.0, 0);
+		engine.updateState(t, 0, 2, 5.0, 0); // not allowed in state 0
+		engine.updateState(t, 0, 1, 1.0, 0);
+		Random rng = new Random(0);
+		/* zero temperature picks the last allowed action */
+		assertEquals(1, engine.getAction(t, 0, 0, rng));
+		assertEquals(2, engine.getAction(t, 1, 0, rng));
+	}
+
+	public void testGreedyBestSelection() {
+		engine.setGreedyBest(true);
+		int t = engine.addTable();
+		engine.updateState(t, 1, 1, 1.0, 0);
+		engine.updateState(t, 0, 2, 5.0, 0); // not allowed in state 0
+		Random rng = new Random(0);
+		assertEquals(0, engine.getAction(t, 0, 0, rng)); // first of equals
+		assertEquals(1, engine.getAction(t, 1, 0, rng));
+
+		engine.updateState(t, 1, 2, 3.0, 0);
+		assertEquals(2, engine.getAction(t, 1, 0, rng));
+	}
+
+	public void testSelectionIsSeededAndAllowed() {
+		int t1 = engine.addTable();
+		int t2 = engine.addTable();
+		Random rng1 = new Random(42);
+		Random rng2 = new Random(42);
+		for (int i = 0; i < 100; i++) {
+			int a1 = engine.getAction(t1, i % 2, 1.0, rng1);
+			int a2 = engine.getAction(t2, i % 2, 1.0, rng2);
+			assertEquals(a1, a2);
+			assertTrue(RESTRICTION[i % 2][a1]);
+		}
+	}
+
+	public void testBatchEqualsSequentialUpdates() {
+		QLearningEngine sequential = new QLearningEngine(2, 3, RESTRICTION,
+				false);
+		int[] tables = new int[3];
+		Random[] rngs = new Random[3];
+		Random[] seqRngs = new Random[3];
+		for (int i = 0; i < tables.length; i++) {
+			tables[i] = engine.addTable();
+			sequential.addTable();
+			rngs[i] = new Random(i);
+			seqRngs[i] = new Random(i);
+		}
+
+		for (int round = 0; round < 20; round++) {
+			for (int i = 0; i < tables.length; i++) {
+				assertEquals(i, engine.queueUpdate(tables[i], 0, 1,
+						round - i, 1, 0.5, rngs[i]));
+			}
+			engine.processBatch();
+			for (int i = 0; i < tables.length; i++) {
+				sequential.updateState(tables[i], 0, 1, round - i, 1);
+				int action = sequential.getAction(tables[i], 1, 0.5,
+						seqRngs[i]);
+				assertEquals(action, engine.getBatchAction(i));
+			}
+			engine.clearBatch();
+			assertEquals(0, engine.getBatchSize());
+		}
+
+		for (int i = 0; i < tables.length; i++) {
+			assertEquals(sequential.getQValues(i)[0][1],
+					engine.getQValues(i)[0][1]);
+		}
+	}
+}
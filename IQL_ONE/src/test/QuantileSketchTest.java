@@ -0,0 +1,108 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import report.QuantileSketch;
+import report.RunningStatistics;
+
+/**
+ * Tests for the QuantileSketch and RunningStatistics
+ */
+public class QuantileSketchTest extends TestCase {
+	private static final double ERROR = 0.01;
+
+	public void testEmpty() {
+		QuantileSketch qs = new QuantileSketch(ERROR);
+		assertEquals(0, qs.getCount());
+		assertTrue(Double.isNaN(qs.getQuantile(0.5)));
+		assertTrue(Double.isNaN(new RunningStatistics(ERROR).getAverage()));
+	}
+
+	public void testQuantilesWithinError() {
+		Random rng = new Random(1);
+		QuantileSketch qs = new QuantileSketch(ERROR);
+		List<Double> values = new ArrayList<Double>();
+		for (int i=0; i < 10000; i++) {
+			double v = rng.nextDouble() * 5000;
+			if (i % 10 == 0) {
+				v = 0;
+			}
+			values.add(v);
+			qs.add(v);
+		}
+		Collections.sort(values);
+
+		double[] quantiles = {0, 0.1, 0.25, 0.5, 0.9, 0.99, 1};
+		for (double q : quantiles) {
+			double exact = values.get(Math.min(values.size() - 1,
+					(int)(q * values.size())));
+			double estimate = qs.getQuantile(q);
+			assertEquals("quantile " + q, exact, estimate,
+					exact * ERROR + 1e-9);
+		}
+	}
+
+	public void testNegativeValues() {
+		QuantileSketch qs = new QuantileSketch(ERROR);
+		qs.add(-100);
+		qs.add(-10);
+		qs.add(0);
+		qs.add(10);
+		qs.add(100);
+		assertEquals(-100, qs.getQuantile(0), 1);
+		assertEquals(-10, qs.getQuantile(0.2), 0.1);
+		assertEquals(0, qs.getQuantile(0.5), 0);
+		assertEquals(10, qs.getQuantile(0.6), 0.1);
+		assertEquals(100, qs.getQuantile(1), 1);
+	}
+
+	public void testSmallIntegersExact() {
+		QuantileSketch qs = new QuantileSketch(ERROR);
+		for (int i=1; i < 50; i++) {
+			qs.add(i);
+			assertEquals(i, Math.round(qs.getQuantile(1)));
+		}
+	}
+
+	public void testMerge() {
+		Random rng = new Random(2);
+		RunningStatistics all = new RunningStatistics(ERROR);
+		RunningStatistics first = new RunningStatistics(ERROR);
+		RunningStatistics second = new RunningStatistics(ERROR);
+		for (int i=0; i < 1000; i++) {
+			double v = rng.nextDouble() * (i < 500 ? 10 : 1000);
+			all.add(v);
+			(i < 500 ? first : second).add(v);
+		}
+		first.merge(second);
+
+		assertEquals(all.getCount(), first.getCount());
+		assertEquals(all.getAverage(), first.getAverage(), 1e-9);
+		assertEquals(all.getVariance(), first.getVariance(), 1e-6);
+		assertEquals(all.getMin(), first.getMin());
+		assertEquals(all.getMax(), first.getMax());
+		for (double q = 0; q <= 1; q += 0.1) {
+			assertEquals(all.getQuantile(q), first.getQuantile(q));
+		}
+	}
+
+	public void testRunningAverageAndVariance() {
+		RunningStatistics rs = new RunningStatistics(ERROR);
+		double[] values = {2, 4, 4, 4, 5, 5, 7, 9};
+		for (double v : values) {
+			rs.add(v);
+		}
+		assertEquals(5.0, rs.getAverage());
+		assertEquals(4.0, rs.getVariance(), 1e-12);
+		assertEquals(2.0, rs.getMin());
+		assertEquals(9.0, rs.getMax());
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package test;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import movement.MovementModel;
+import core.RandomStreams;
+import core.Settings;
+
+/**
+ * Tests for the RandomStreams
+ */
+public class RandomStreamsTest extends TestCase {
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		Settings.setRunIndex(0);
+		RandomStreams.reset();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Settings.setRunIndex(0);
+		RandomStreams.reset();
+		super.tearDown();
+	}
+
+	public void testStreamsAreReproducible() {
+		Random r1 = RandomStreams.newStream("test", 1);
+		RandomStreams.reset();
+		Random r2 = RandomStreams.newStream("test", 1);
+		for (int i = 0; i < 10; i++) {
+			assertEquals(r1.nextLong(), r2.nextLong());
+		}
+	}
+
+	public void testStreamsAreIndependent() {
+		long seed = RandomStreams.getSeed("test", 1);
+		assertFalse(seed == RandomStreams.getSeed("test", 2));
+		assertFalse(seed == RandomStreams.getSeed("other", 1));
+	}
+
+	public void testNamedStreamsInCreationOrder() {
+		long first = RandomStreams.newStream("test").nextLong();
+		long second = RandomStreams.newStream("test").nextLong();
+		assertFalse(first == second);
+		assertEquals(RandomStreams.newStream("test", 0).nextLong(), first);
+		assertEquals(RandomStreams.newStream("test", 1).nextLong(), second);
+
+		RandomStreams.reset();
+		assertEquals(first, RandomStreams.newStream("test").nextLong());
+	}
+
+	public void testSeedForStep() {
+		long seed = RandomStreams.getSeed("test", 0);
+		Random rng = new Random(0);
+		RandomStreams.setSeed(rng, seed, 5);
+		long atFive = rng.nextLong();
+		RandomStreams.setSeed(rng, seed, 6);
+		assertFalse(atFive == rng.nextLong());
+		RandomStreams.setSeed(rng, seed, 5);
+		assertEquals(atFive, rng.nextLong());
+	}
+
+	public void testRunSeedDependsOnSettingsAndRunIndex() {
+		long seed = RandomStreams.getSeed("test", 0);
+
+		Settings.setRunIndex(1);
+		RandomStreams.reset();
+		long nextRun = RandomStreams.getSeed("test", 0);
+		assertFalse(seed == nextRun);
+
+		Settings.setRunIndex(0);
+		TestSettings ts = new TestSettings();
+		String key = MovementModel.MOVEMENT_MODEL_NS + "." +
+			MovementModel.RNG_SEED;
+		try {
+			ts.putSetting(key, "7");
+			RandomStreams.reset();
+			long otherSeed = RandomStreams.getSeed("test", 0);
+			assertFalse(seed == otherSeed);
+			assertFalse(nextRun == otherSeed);
+		} finally {
+			ts.putSetting(key, "0");
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package test;
+
+import junit.framework.TestCase;
+import routing.ACKTTL;
+import routing.ReceiptBuffer;
+import core.MessageIdRegistry;
+
+/**
+ * Tests for the ReceiptBuffer
+ */
+public class ReceiptBufferTest extends TestCase {
+	private ReceiptBuffer rb1;
+	private ReceiptBuffer rb2;
+	private ReceiptBuffer rb3;
+	private int m1;
+	private int m2;
+	private int m3;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		MessageIdRegistry.reset();
+		m1 = MessageIdRegistry.register("M1");
+		m2 = MessageIdRegistry.register("M2");
+		m3 = MessageIdRegistry.register("M3");
+		rb1 = new ReceiptBuffer();
+		rb2 = new ReceiptBuffer();
+		rb3 = new ReceiptBuffer();
+	}
+
+	public void testAdd() {
+		ACKTTL ack = new ACKTTL(10, 0);
+		assertTrue(rb1.add(m1, ack));
+		assertFalse(rb1.add(m1, new ACKTTL(20, 0)));
+		assertTrue(rb1.contains(m1));
+		assertSame(ack, rb1.get(m1));
+		assertFalse(rb1.contains(m2));
+		assertEquals(1, rb1.size());
+	}
+
+	public void testExpiry() {
+		rb1.add(m1, new ACKTTL(1, 0)); // expires at 60
+		rb1.add(m2, new ACKTTL(1, 30)); // expires at 90
+		rb1.add(m3, new ACKTTL(Double.POSITIVE_INFINITY, 0));
+
+		rb1.removeExpired(60);
+		assertEquals(3, rb1.size());
+		rb1.removeExpired(61);
+		assertFalse(rb1.contains(m1));
+		assertTrue(rb1.contains(m2));
+		rb1.removeExpired(1000);
+		assertFalse(rb1.contains(m2));
+		assertTrue(rb1.contains(m3));
+		assertEquals(1, rb1.size());
+	}
+
+	public void testDeltaMerge() {
+		rb2.add(m1, new ACKTTL(10, 0));
+		rb2.add(m2, new ACKTTL(10, 0));
+
+		int[] added = rb1.merge(rb2, 0);
+		assertEquals(2, added.length);
+		assertTrue(rb1.contains(m1) && rb1.contains(m2));
+
+		/* nothing new since the previous merge */
+		assertEquals(0, rb1.merge(rb2, 0).length);
+
+		rb2.add(m3, new ACKTTL(10, 0));
+		added = rb1.merge(rb2, 0);
+		assertEquals(1, added.length);
+		assertEquals(m3, added[0]);
+
+		/* merged receipts propagate onwards */
+		added = rb3.merge(rb1, 0);
+		assertEquals(3, added.length);
+	}
+
+	public void testExpiredNotMerged() {
+		rb2.add(m1, new ACKTTL(1, 0));
+		rb2.add(m2, new ACKTTL(10, 0));
+
+		int[] added = rb1.merge(rb2, 100);
+		assertEquals(1, added.length);
+		assertEquals(m2, added[0]);
+	}
+
+	public void testMergeAfterCompaction() {
+		for (int i = 0; i < 100; i++) {
+			rb2.add(MessageIdRegistry.register("M" + i), new ACKTTL(1, i));
+		}
+		assertEquals(100, rb1.merge(rb2, 0).length);
+
+		rb2.removeExpired(130); // leaves receipts that expire at >= 130
+		int n1 = MessageIdRegistry.register("N1");
+		rb2.add(n1, new ACKTTL(10, 130));
+		rb2.removeExpired(150); // compacts the log
+
+		int[] added = rb1.merge(rb2, 150);
+		assertEquals(1, added.length);
+		assertEquals(n1, added[0]);
+		assertEquals(11, rb3.merge(rb2, 150).length);
+	}
+}
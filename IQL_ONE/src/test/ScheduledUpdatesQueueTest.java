@@ -107,4 +107,21 @@ public class ScheduledUpdatesQueueTest extends TestCase {
 		assertEquals(5.0, suq.nextEvent().getTime());
 		assertEquals(8.0, suq.nextEvent().getTime());
 	}
+
+	public void testDuplicatesMergedWhenAdded() {
+		suq.addUpdate(1.0);
+		for (int i=0; i<100; i++) {
+			suq.addUpdate(5.0); // not the next update
+			suq.addUpdate(3.0);
+		}
+		suq.addUpdate(-0.0);
+		suq.addUpdate(0.0);
+		assertEquals(4, suq.size());
+		
+		assertEquals(0.0, suq.nextEvent().getTime());
+		assertEquals(1.0, suq.nextEvent().getTime());
+		assertEquals(3.0, suq.nextEvent().getTime());
+		assertEquals(5.0, suq.nextEvent().getTime());
+		assertEquals(0, suq.size());
+	}
 }
@@ -69,7 +69,6 @@ public class TestInterface extends NetworkInterface {
 
 			if (!isWithinRange(anotherInterface)) {
 				disconnect(con,anotherInterface);
-				connections.remove(i);
 			}
 			else {
 				i++;
@@ -5,6 +5,7 @@
 package test;
 
 import input.EventQueue;
+import input.ScheduledUpdatesQueue;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -97,6 +98,46 @@ public class WorldTest extends TestCase {
 		assertNrofUpdates(5);
 
 	}
+
+	public void testSimultaneousEventsMerged() {
+		TestSettings s = new TestSettings();
+		s.putSetting(World.SETTINGS_NS + "." + World.MERGE_EVENTS_S, "true");
+		createWorldWithSimultaneousEvents();
+		new TestSettings(); // clears the merging setting
+
+		world.update();
+		assertNrofUpdates(2); // one for both events at 0.05
+		world.update();
+		assertNrofUpdates(4);
+	}
+
+	public void testSimultaneousEventsNotMergedByDefault() {
+		createWorldWithSimultaneousEvents();
+
+		world.update();
+		assertNrofUpdates(3); // one for each event at 0.05
+		world.update();
+		assertNrofUpdates(5);
+	}
+
+	/**
+	 * Creates a new world with two event queues that both have an event at
+	 * 0.05 and one of them also at 0.15
+	 */
+	private void createWorldWithSimultaneousEvents() {
+		ScheduledUpdatesQueue q1 = new ScheduledUpdatesQueue();
+		ScheduledUpdatesQueue q2 = new ScheduledUpdatesQueue();
+		q1.addUpdate(0.05);
+		q2.addUpdate(0.05);
+		q2.addUpdate(0.15);
+		eQueues.add(q1);
+		eQueues.add(q2);
+		TestScenario ts = new TestScenario();
+		world = new World(ts.getHosts(), ts.getWorldSizeX(),
+				ts.getWorldSizeY(), ts.getUpdateInterval(),
+				ts.getUpdateListeners(), ts.simulateConnections(),
+				ts.getExternalEvents());
+	}
 	
 
 	/** Dummy scenario for providing test values for the World */ 
@@ -7,6 +7,7 @@ package ui;
 import java.util.Vector;
 
 import report.Report;
+import routing.CongestionControlListener;
 import core.ApplicationListener;
 import core.ConnectionListener;
 import core.MessageListener;
@@ -152,6 +153,9 @@ public abstract class DTNSimUI {
 		if (r instanceof ApplicationListener) {
 			scen.addApplicationListener((ApplicationListener)r);
 		}
+		if (r instanceof CongestionControlListener) {
+			scen.addCongestionControlListener((CongestionControlListener)r);
+		}
 
 		this.reports.add(r);
 	}